@@ -0,0 +1,28 @@
+#!/bin/sh
+# Runs the JMH benchmarks in bench/, e.g. ./bench.sh or ./bench.sh Cache.
+# Any arguments are passed on to JMH (./bench.sh -h lists the options).
+# JMH is downloaded into bench/lib on the first run.
+
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+LIB=bench/lib
+
+mkdir -p $LIB
+for jar in org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar \
+           org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar \
+           net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar \
+           org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar
+do
+  if [ ! -f $LIB/`basename $jar` ]; then
+    curl -sSf -o $LIB/`basename $jar` $MAVEN/$jar || exit 1
+  fi
+done
+CP=`echo $LIB/*.jar | tr ' ' ':'`
+
+rm -rf bench/classes
+mkdir -p bench/classes
+javac -encoding ISO-8859-1 -d bench/classes -classpath "$CP" -sourcepath . \
+  -processor org.openjdk.jmh.generators.BenchmarkProcessor \
+  se/sics/tac/solver/*.java se/bth/ooseven/*.java bench/se/bth/ooseven/*.java || exit 1
+
+java -classpath "bench/classes:$CP" org.openjdk.jmh.Main "$@"
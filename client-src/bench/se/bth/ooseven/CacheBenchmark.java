@@ -0,0 +1,80 @@
+package se.bth.ooseven;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures Cache.calc, both when the utility is cached and when it has to
+ * be calculated and stored.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheBenchmark {
+
+    private Preferences preferences;
+    private Owns[] unpacked;
+    private PackedOwns[] owns;
+    private Cache warm;
+    private int next;
+
+    /**
+     * A new small cache for every call, so calcMiss always misses. It is a
+     * state of its own so the other benchmarks are not set up per call.
+     */
+    @State(Scope.Thread)
+    public static class ColdCache {
+
+        private Preferences preferences;
+        private Cache cache;
+
+        @Setup
+        public void setup() {
+            preferences = Fixtures.preferences();
+        }
+
+        @Setup(Level.Invocation)
+        public void emptyCache() {
+            cache = new Cache(preferences, 1024);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        preferences = Fixtures.preferences();
+        unpacked = Fixtures.owns(64, 2);
+        owns = new PackedOwns[unpacked.length];
+        for (int i = 0; i < unpacked.length; i++) {
+            owns[i] = new PackedOwns(unpacked[i]);
+        }
+        warm = new Cache(preferences);
+        for (PackedOwns o : owns) {
+            warm.calc(o);
+        }
+    }
+
+    @Benchmark
+    public int calcHit() {
+        PackedOwns o = owns[next];
+        next = (next + 1) % owns.length;
+        return warm.calc(o);
+    }
+
+    @Benchmark
+    public int calcHitOwns() {
+        Owns o = unpacked[next];
+        next = (next + 1) % unpacked.length;
+        return warm.calc(o);
+    }
+
+    @Benchmark
+    public int calcMiss(ColdCache cold) {
+        PackedOwns o = owns[next];
+        next = (next + 1) % owns.length;
+        return cold.cache.calc(o);
+    }
+}
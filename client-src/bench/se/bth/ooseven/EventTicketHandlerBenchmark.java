@@ -0,0 +1,50 @@
+package se.bth.ooseven;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures EventTicketHandler.calculateBids for every event ticket, given
+ * the current and a target allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventTicketHandlerBenchmark {
+
+    private EventTicketHandler[] handlers;
+
+    @Setup
+    public void setup() {
+        Preferences preferences = Fixtures.preferences();
+        Owns[] fixtures = Fixtures.owns(2, 4);
+        Owns owned = fixtures[0];
+        Owns target = fixtures[1].withEventsOf(owned);
+        Allocation current = new Allocation(owned.withAllFlights(), preferences);
+        Allocation planned = new Allocation(target.withAllFlights(), preferences);
+
+        handlers = new EventTicketHandler[Item.EVENTS.size()];
+        int i = 0;
+        for (Item event : Item.EVENTS) {
+            EventTicketHandler handler = new EventTicketHandler(preferences, event);
+            handler.allocationUpdated(planned);
+            handler.ownsUpdated(owned, current);
+            handlers[i++] = handler;
+        }
+    }
+
+    @Benchmark
+    public int calculateBids() {
+        int bids = 0;
+        for (EventTicketHandler handler : handlers) {
+            List<BidPoint> points = handler.calculateBids();
+            bids += points != null ? points.size() : 0;
+        }
+        return bids;
+    }
+}
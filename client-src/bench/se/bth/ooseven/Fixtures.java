@@ -0,0 +1,90 @@
+package se.bth.ooseven;
+
+import java.util.Random;
+
+/**
+ * Fixed inputs for the benchmarks. The preferences and prices are the ones
+ * used by HotelTree.main, the owned items are generated from a fixed seed so
+ * every run measures the same work.
+ */
+final class Fixtures {
+
+    /**
+     * The length of a game, in milliseconds.
+     */
+    static final int GAME_LENGTH = 9 * 60 * 1000;
+
+    private Fixtures() {
+    }
+
+    static Preferences preferences() {
+        return new Preferences(new int[][]{
+                {1, 3, 72, 77, 78, 37},
+                {2, 3, 55, 193, 180, 111},
+                {1, 3, 112, 67, 149, 177},
+                {1, 2, 87, 74, 72, 167},
+                {2, 3, 110, 68, 193, 148},
+                {1, 2, 69, 87, 142, 189},
+                {1, 3, 67, 78, 154, 67},
+                {1, 4, 140, 141, 3, 23},
+        });
+    }
+
+    static Prices prices() {
+        return new Prices(new int[]{
+                0, 0, 0, 0,
+                0, 0, 0, 0,
+                12, 21, 12, 21,
+                123, 321, 123, 321,
+                0, 0, 0, 0,
+                0, 0, 0, 0,
+                0, 0, 0, 0,
+        });
+    }
+
+    /**
+     * Generates owned items as they may look during a game: all flights, a
+     * few rooms and a few event tickets.
+     *
+     * @param count The number of owned item sets.
+     * @param seed  The seed of the generator.
+     */
+    static Owns[] owns(int count, long seed) {
+        Random random = new Random(seed);
+        Owns[] owns = new Owns[count];
+        for (int i = 0; i < count; i++) {
+            Owns o = new Owns().withAllFlights();
+            for (Item room : Item.ROOMS) {
+                o.set(room, random.nextInt(2));
+            }
+            for (Item event : Item.EVENTS) {
+                o.set(event, random.nextInt(2));
+            }
+            owns[i] = o;
+        }
+        return owns;
+    }
+
+    /**
+     * Generates the quotes of one flight during a game, the way the server
+     * does: every 10 seconds the price changes by a random amount, bounded by
+     * a hidden upper bound.
+     *
+     * @param upperBound The hidden upper bound, in [-10, 30].
+     * @param seed       The seed of the generator.
+     * @return The prices, one for every 10 seconds of the game.
+     */
+    static int[] flightPrices(int upperBound, long seed) {
+        Random random = new Random(seed);
+        int[] prices = new int[GAME_LENGTH / 10000];
+        int price = 250 + random.nextInt(150);
+        for (int i = 0; i < prices.length; i++) {
+            UpperBoundEstimator.Interval change = UpperBoundEstimator.getInterval(
+                    upperBound, i * 10000L, GAME_LENGTH);
+            price += change.min + random.nextInt(change.max - change.min + 1);
+            price = Math.max(150, Math.min(800, price));
+            prices[i] = price;
+        }
+        return prices;
+    }
+}
@@ -0,0 +1,40 @@
+package se.bth.ooseven;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures HotelTree.search at different depths of vision, with the example
+ * of HotelTree.main. The cache is kept between calls, so this measures the
+ * tree itself rather than the solver.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class HotelTreeBenchmark {
+
+    @Param({"1", "2", "3", "4", "5"})
+    public int depth;
+
+    private Cache cache;
+    private Prices prices;
+    private Owns owns;
+
+    @Setup
+    public void setup() {
+        cache = new Cache(Fixtures.preferences());
+        prices = Fixtures.prices();
+        owns = new Owns();
+    }
+
+    @Benchmark
+    public HotelTree.Result search() {
+        HotelTree tree = new HotelTree(cache, prices, owns);
+        return tree.search(Double.MAX_VALUE, depth, Duration.ofMinutes(5));
+    }
+}
@@ -0,0 +1,43 @@
+package se.bth.ooseven;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import se.sics.tac.solver.FastOptimizer;
+
+/**
+ * Measures FastOptimizer.solve on a fixed set of owned items.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SolverBenchmark {
+
+    private int[][] prefs;
+    private int[][][] owns;
+    private FastOptimizer optimizer;
+    private int next;
+
+    @Setup
+    public void setup() {
+        prefs = Fixtures.preferences().getSolverFormat();
+        Owns[] fixtures = Fixtures.owns(64, 1);
+        owns = new int[fixtures.length][][];
+        for (int i = 0; i < fixtures.length; i++) {
+            owns[i] = fixtures[i].getSolverFormat();
+        }
+        optimizer = new FastOptimizer();
+    }
+
+    @Benchmark
+    public int solve() {
+        int[][] o = owns[next];
+        next = (next + 1) % owns.length;
+        optimizer.setClientData(prefs, o);
+        return optimizer.solve();
+    }
+}
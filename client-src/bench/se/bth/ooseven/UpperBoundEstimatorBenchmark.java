@@ -0,0 +1,44 @@
+package se.bth.ooseven;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the flight price estimation: feeding a game's quotes into a new
+ * estimator, and estimating the next change once they are in.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UpperBoundEstimatorBenchmark {
+
+    private int[] prices;
+    private UpperBoundEstimator fed;
+
+    @Setup
+    public void setup() {
+        prices = Fixtures.flightPrices(17, 3);
+        fed = new UpperBoundEstimator();
+        for (int i = 0; i < prices.length / 2; i++) {
+            fed.addAbsPoint(prices[i], i * 10000L, Fixtures.GAME_LENGTH);
+        }
+    }
+
+    @Benchmark
+    public UpperBoundEstimator addAbsPoint() {
+        UpperBoundEstimator estimator = new UpperBoundEstimator();
+        for (int i = 0; i < prices.length; i++) {
+            estimator.addAbsPoint(prices[i], i * 10000L, Fixtures.GAME_LENGTH);
+        }
+        return estimator;
+    }
+
+    @Benchmark
+    public int estimateChange() {
+        return fed.estimateChange(Fixtures.GAME_LENGTH / 2, Fixtures.GAME_LENGTH);
+    }
+}
@@ -4,12 +4,10 @@ import se.sics.tac.aw.*;
 import se.sics.tac.solver.FastOptimizer;
 import se.sics.tac.util.ArgEnumerator;
 
+import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -19,12 +17,15 @@ public class Agent007 extends AgentImpl {
     // =========================================================================
     // Configuration parameters
     // =========================================================================
+    // Each parameter can be set in the agent configuration as "agent007."
+    // followed by the field name, e.g. agent007.hotelBidFactor=0.7. Durations
+    // are given in milliseconds.
 
     /**
      * The variance threshold for the hotel tree action selection.
      * Configures the level of risk-taking behavior when selecting hotel rooms.
      */
-    private static final double HOTEL_VARIANCE_THRESHOLD = Double.MAX_VALUE;
+    private double hotelVarianceThreshold = Double.MAX_VALUE;
 
     /**
      * The number of levels the hotel tree will consider when selecting an
@@ -32,58 +33,97 @@ public class Agent007 extends AgentImpl {
      * exponential increase in dimensionality. Meanwhile, the impact of the
      * deeper levels on the actual outcome is decreasing.
      */
-    private static final int HOTEL_FIELD_OF_VISION = 5;
+    private int hotelFieldOfVision = 5;
+
+    /**
+     * Whether to use the anytime best-first hotel tree search instead of
+     * iterative deepening. The best-first search keeps all work done when the
+     * time runs out, so it needs far less time for the same plan.
+     */
+    private boolean hotelBestFirst = true;
+
+    /**
+     * The maximum number of nodes waiting to be expanded in the best-first
+     * hotel tree search. The least promising nodes are dropped beyond this.
+     */
+    private int hotelFrontierSize = 100000;
 
     /**
      * The maximum amount of time allowed for the hotel tree search. Limited
      * to guarantee results in time to actually act upon the information before
-     * the next auction closes.
+     * the next auction closes. Defaults to 30 seconds for the iterative
+     * deepening search.
      */
-    private static final Duration HOTEL_MAX_TIME = Duration.ofSeconds(30);
+    private Duration hotelMaxTime = Duration.ofSeconds(5);
 
     /**
      * The factor of how much to bid for a room, in relation to the maximum
      * amount possible before losing score by purchasing. A higher value lowers
      * the expected profit margin.
      */
-    private static final float HOTEL_BID_FACTOR = 0.6f;
+    private float hotelBidFactor = 0.6f;
+
+    /**
+     * The factor of estimated price increase in hotel rooms. Only used
+     * without a price model, or for rooms the price model has no data for.
+     */
+    private float hotelEstimatedPriceIncrease = 1.25f;
 
     /**
-     * The factor of estimated price increase in hotel rooms.
-     * Due to the lack of historical data, this is simply a set parameter.
+     * The quantile of the closing prices in earlier games used to estimate
+     * hotel room prices with the price model. A negative value uses the mean.
      */
-    private static final float HOTEL_ESTIMATED_PRICE_INCREASE = 1.25f;
+    private double hotelPriceQuantile = -1;
+
+    /**
+     * The price model file with statistics from earlier games, created by
+     * se.sics.tac.log.PriceModelCreator. Read once when the agent starts.
+     */
+    private String priceModelFile = "pricemodel.dat";
 
     /**
      * The auto-bid price to bid on all hotel rooms that are not otherwise
      * bid on. Done on the off-chance that some rooms will be sold for free.
      */
-    private static final int HOTEL_AUTOBID_PRICE = 1;
+    private int hotelAutobidPrice = 1;
 
     /**
      * The number of hotel rooms to fill with auto-bid. If the number of desired
      * hotel rooms is below this number, the rest will be bought using auto-bid,
      * if they are cheap enough.
      */
-    private static final int HOTEL_AUTOBID_COUNT = 8;
+    private int hotelAutobidCount = 8;
 
     /**
      * The threshold for automatic purchases of flight tickets. Any ticket
      * matching a client's preference with a price below the threshold is bought
      * until the allocation is filled.
      */
-    private static final int FLIGHT_AUTOBUY_THRESHOLD = 200;
+    private int flightAutobuyThreshold = 200;
 
     /**
      * The interval by which the entertainment bids are updated and submitted.
      */
-    private static final Duration ENTERTAINMENT_BIDDING_INTERVAL = Duration.ofSeconds(20);
+    private Duration entertainmentBiddingInterval = Duration.ofSeconds(20);
+
+    /**
+     * The directory where the utility cache is saved between games, or null
+     * to not save it. A game with the same preferences as an earlier one
+     * starts with its utilities. Each saved game can take up to ~200 MB and
+     * the preferences are random, so this is off by default.
+     */
+    private File cacheDir = null;
 
 
     // =========================================================================
     // Agent implementation
     // =========================================================================
 
+    /**
+     * The task key of the entertainment bidding cycle.
+     */
+    private static final String ENTERTAINMENT_TASK = "entertainmentBids";
+
     // Change the log level of the FastOptimizer's Logger to avoid spam.
     // A reference is kept to avoid garbage collection of the logger (as garbage
     // collection of the logger would reset the log level).
@@ -105,6 +145,10 @@ public class Agent007 extends AgentImpl {
      * The saved prices.
      */
     private Prices prices;
+    /**
+     * Price statistics from earlier games, or null if there are none.
+     */
+    private PriceModel priceModel;
     /**
      * The owned items.
      */
@@ -138,9 +182,16 @@ public class Agent007 extends AgentImpl {
     private HashMap<Item,EventTicketHandler> eventTicketHandlers;
 
     /**
-     * The scheduled future used for the entertainment bidding cycle.
+     * The task running the entertainment bidding cycle. Scheduled in game
+     * time so that it follows the server clock, whatever its speed.
      */
-    private ScheduledFuture<?> entertainmentBidder;
+    private final Task entertainmentBidder = (time, key, value) -> {
+        if (value.equals(agent.getGameID())) {
+            agent.addTask(time + entertainmentBiddingInterval.toMillis(),
+                    key, value, this.entertainmentBidder);
+            updateEntertainmentBids();
+        }
+    };
 
 
     /**
@@ -155,6 +206,50 @@ public class Agent007 extends AgentImpl {
     @Override
     protected void init(ArgEnumerator args) {
         System.out.println("Initializing.");
+
+        hotelVarianceThreshold = getDouble("hotelVarianceThreshold", hotelVarianceThreshold);
+        hotelFieldOfVision = agent.getConfig("agent007.hotelFieldOfVision", hotelFieldOfVision);
+        hotelBestFirst = Boolean.parseBoolean(
+                agent.getConfig("agent007.hotelBestFirst", Boolean.toString(hotelBestFirst)));
+        hotelFrontierSize = agent.getConfig("agent007.hotelFrontierSize", hotelFrontierSize);
+        hotelMaxTime = Duration.ofMillis(agent.getConfig("agent007.hotelMaxTime",
+                hotelBestFirst ? 5000 : 30000));
+        hotelBidFactor = (float) getDouble("hotelBidFactor", hotelBidFactor);
+        hotelEstimatedPriceIncrease = (float) getDouble("hotelEstimatedPriceIncrease",
+                hotelEstimatedPriceIncrease);
+        hotelPriceQuantile = getDouble("hotelPriceQuantile", hotelPriceQuantile);
+        priceModelFile = agent.getConfig("agent007.priceModel", priceModelFile);
+        hotelAutobidPrice = agent.getConfig("agent007.hotelAutobidPrice", hotelAutobidPrice);
+        hotelAutobidCount = agent.getConfig("agent007.hotelAutobidCount", hotelAutobidCount);
+        flightAutobuyThreshold = agent.getConfig("agent007.flightAutobuyThreshold",
+                flightAutobuyThreshold);
+        entertainmentBiddingInterval = Duration.ofMillis(agent.getConfig(
+                "agent007.entertainmentBiddingInterval",
+                (int) entertainmentBiddingInterval.toMillis()));
+        String dir = agent.getConfig("agent007.cacheDir", null);
+        cacheDir = dir == null || dir.isEmpty() ? null : new File(dir);
+
+        try {
+            priceModel = PriceModel.open(new File(priceModelFile));
+            if (priceModel != null) {
+                System.out.printf("Loaded price model from %d games.\n",
+                        priceModel.getGames());
+            }
+        } catch (IOException e) {
+            System.err.println("Could not load price model: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a decimal configuration parameter.
+     *
+     * @param name The parameter name, without the "agent007." prefix.
+     * @param defaultValue The value to use if the parameter is not set.
+     * @return The parameter value.
+     */
+    private double getDouble(String name, double defaultValue) {
+        String value = agent.getConfig("agent007." + name, null);
+        return value == null ? defaultValue : Double.parseDouble(value);
     }
 
     @Override
@@ -232,6 +327,12 @@ public class Agent007 extends AgentImpl {
         this.owned = new Owns();
         this.probablyOwned = new Owns();
         this.utilityCache = new Cache(this.preferences);
+        if (cacheDir != null) {
+            int loaded = this.utilityCache.load(cacheDir);
+            if (loaded > 0) {
+                System.out.printf("Loaded %d saved utilities.\n", loaded);
+            }
+        }
         this.remainingHotelAuctions = 8;
         this.firstFlightQuoteUpdate = true;
         this.priceEstimators = new HashMap<>();
@@ -250,8 +351,14 @@ public class Agent007 extends AgentImpl {
     public void gameStopped() {
         System.out.println("Game stopped.");
 
+        if (cacheDir != null) {
+            int saved = this.utilityCache.save(cacheDir);
+            if (saved >= 0) {
+                System.out.printf("Saved %d utilities.\n", saved);
+            }
+        }
         this.utilityCache.stop();
-        this.entertainmentBidder.cancel(true);
+        agent.cancelTask(ENTERTAINMENT_TASK, this.entertainmentBidder);
     }
 
     /**
@@ -264,11 +371,9 @@ public class Agent007 extends AgentImpl {
             eventTicketHandlers.put(item, eh);
         }
 
-        // Start the entertainment bid cycle.
-        ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
-        entertainmentBidder = executor.scheduleWithFixedDelay(
-                () -> updateEntertainmentBids(), 0,
-                ENTERTAINMENT_BIDDING_INTERVAL.getSeconds(), TimeUnit.SECONDS);
+        // Start the entertainment bid cycle for this game.
+        agent.addTask(agent.getServerTime(), ENTERTAINMENT_TASK,
+                agent.getGameID(), this.entertainmentBidder);
     }
 
     /**
@@ -298,10 +403,19 @@ public class Agent007 extends AgentImpl {
         int price = (int) Math.ceil(quote.getAskPrice());
 
         if(!priceEstimators.containsKey(flight)) {
-            priceEstimators.put(flight, new UpperBoundEstimator());
+            priceEstimators.put(flight, priceModel == null
+                    ? new UpperBoundEstimator()
+                    : new UpperBoundEstimator(priceModel.getUpperBoundPrior(),
+                            priceModel.getLowestUpperBound()));
         }
 
-        priceEstimators.get(flight).addAbsPoint(price, quote.getLastQuoteTime(), agent.getGameLength());
+        // Quotes from older servers have no quote time
+        long quoteTime = quote.getLastQuoteTime();
+        if (quoteTime <= 0) {
+            quoteTime = agent.getServerTime();
+        }
+        long timeInGame = quoteTime - agent.getStartTime();
+        priceEstimators.get(flight).addAbsPoint(price, timeInGame, agent.getGameLength());
     }
 
     /**
@@ -329,7 +443,7 @@ public class Agent007 extends AgentImpl {
         Map<Item, Integer> counts = countFlightPreferences();
         for (Item flight : Item.FLIGHTS) {
             int price = this.prices.get(flight);
-            if (price <= FLIGHT_AUTOBUY_THRESHOLD){
+            if (price <= flightAutobuyThreshold){
                 int quantity = counts.get(flight) - this.owned.get(flight);
                 if (quantity > 0) {
                     placeBid(flight, new BidPoint(quantity, price));
@@ -424,6 +538,30 @@ public class Agent007 extends AgentImpl {
      * @param bidPoints The bid points to constitute the bid.
      */
     private synchronized void placeBid(Item item, List<BidPoint> bidPoints) {
+        agent.submitBid(createBid(item, bidPoints));
+    }
+
+    /**
+     * Places bids on several items, sent to the server in one message.
+     *
+     * @param bids The bid points to constitute the bid for each item.
+     */
+    private synchronized void placeBids(Map<Item, List<BidPoint>> bids) {
+        List<Bid> submitted = new ArrayList<>(bids.size());
+        for (Map.Entry<Item, List<BidPoint>> entry : bids.entrySet()) {
+            submitted.add(createBid(entry.getKey(), entry.getValue()));
+        }
+        agent.submitBids(submitted.toArray(new Bid[submitted.size()]));
+    }
+
+    /**
+     * Creates a bid on an item.
+     *
+     * @param item      The item to bid on.
+     * @param bidPoints The bid points to constitute the bid.
+     * @return The bid.
+     */
+    private Bid createBid(Item item, List<BidPoint> bidPoints) {
         System.out.printf("Placing bids for item: %s\n", item);
         Bid bid = new Bid(item.getAuctionNumber());
         for (BidPoint bidPoint : bidPoints) {
@@ -431,7 +569,7 @@ public class Agent007 extends AgentImpl {
                     bidPoint.quantity, bidPoint.price);
             bid.addBidPoint(bidPoint.quantity, bidPoint.price);
         }
-        agent.submitBid(bid);
+        return bid;
     }
 
     /**
@@ -442,8 +580,11 @@ public class Agent007 extends AgentImpl {
         Prices estFuturePrices = estimateFutureHotelPrices();
         HotelTree tree = new HotelTree(this.utilityCache, estFuturePrices,
                 this.owned);
-        HotelTree.Result result = tree.search(
-                HOTEL_VARIANCE_THRESHOLD, HOTEL_FIELD_OF_VISION, HOTEL_MAX_TIME);
+        HotelTree.Result result = hotelBestFirst
+                ? tree.searchBestFirst(hotelVarianceThreshold,
+                        hotelFrontierSize, hotelMaxTime)
+                : tree.search(hotelVarianceThreshold,
+                        hotelFieldOfVision, hotelMaxTime);
         this.utilityCache.removeOld();
         System.out.println(this.utilityCache.getStatistics());
 
@@ -489,11 +630,7 @@ public class Agent007 extends AgentImpl {
         addRequiredNumberOfRooms(bids);
 
         System.out.println("Placing hotel bids:");
-        for (Map.Entry<Item, List<BidPoint>> entry : bids.entrySet()) {
-            Item item = entry.getKey();
-            List<BidPoint> bidPoints = entry.getValue();
-            placeBid(item, bidPoints);
-        }
+        placeBids(bids);
     }
 
     /**
@@ -504,7 +641,7 @@ public class Agent007 extends AgentImpl {
     private void addMinimumHotelBids(Map<Item, List<BidPoint>> bids) {
 
         // Can be skipped if the minimum bid is invalid(/disabled).
-        if (HOTEL_AUTOBID_PRICE <= 0) {
+        if (hotelAutobidPrice <= 0) {
             return;
         }
 
@@ -512,7 +649,7 @@ public class Agent007 extends AgentImpl {
 
             // Skip closed auctions and auctions above the fixed amount.
             Quote quote = agent.getQuote(room.getAuctionNumber());
-            if (quote.isAuctionClosed() || quote.getAskPrice() >= HOTEL_AUTOBID_PRICE) {
+            if (quote.isAuctionClosed() || quote.getAskPrice() >= hotelAutobidPrice) {
                 continue;
             }
 
@@ -524,9 +661,9 @@ public class Agent007 extends AgentImpl {
             int quantity = bidPoints.stream()
                     .mapToInt(bidPoint -> bidPoint.quantity)
                     .sum();
-            if (quantity < HOTEL_AUTOBID_COUNT) {
+            if (quantity < hotelAutobidCount) {
                 // Add a bid point for all remaining rooms.
-                bidPoints.add(new BidPoint(HOTEL_AUTOBID_COUNT - quantity, HOTEL_AUTOBID_PRICE));
+                bidPoints.add(new BidPoint(hotelAutobidCount - quantity, hotelAutobidPrice));
             }
         }
     }
@@ -578,15 +715,23 @@ public class Agent007 extends AgentImpl {
 
     /**
      * Gets an estimation of future hotel room prices based on the current
-     * prices and the configurable factor of estimated price increase.
+     * prices and how much rooms have increased in earlier games at this time,
+     * or the configurable factor of estimated price increase if unknown.
      *
      * @return The estimated future hotel room prices.
      */
     private Prices estimateFutureHotelPrices() {
         Prices estFuturePrices = new Prices(this.prices);
+        long gameTime = agent.getGameTime();
         for (Item room : Item.ROOMS) {
             int price = Math.max(this.prices.get(room), 1); // Assume a cost of at least $1.
-            price = (int) (price * HOTEL_ESTIMATED_PRICE_INCREASE); // Estimate future price.
+            float increase = priceModel == null ? Float.NaN
+                    : priceModel.getHotelIncrease(room, gameTime, hotelPriceQuantile);
+            if (Float.isNaN(increase) || price == Integer.MAX_VALUE) {
+                price = (int) (price * hotelEstimatedPriceIncrease); // Estimate future price.
+            } else {
+                price += (int) Math.ceil(Math.max(increase, 0f));
+            }
             estFuturePrices.set(room, price);
         }
         return estFuturePrices;
@@ -694,7 +839,7 @@ public class Agent007 extends AgentImpl {
                 counts.put(action.item, new HashMap<>());
             }
 
-            int price = (int) Math.ceil(action.maxPrice * HOTEL_BID_FACTOR);
+            int price = (int) Math.ceil(action.maxPrice * hotelBidFactor);
             counts.get(action.item)
                     .compute(price, (k, v) -> v == null ? 1 : v + 1);
         }
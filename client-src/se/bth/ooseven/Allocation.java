@@ -1,6 +1,7 @@
 package se.bth.ooseven;
 
 import se.sics.tac.solver.FastOptimizer;
+import se.sics.tac.solver.Solver;
 
 /**
  * Class representing an allocation of items to clients.
@@ -29,11 +30,13 @@ public class Allocation {
      * @param preferences The client preferences.
      */
     public Allocation(Owns owns, Preferences preferences) {
-        FastOptimizer optimizer = new FastOptimizer();
+        // A single large solve, so let it use all cores.
+        Solver optimizer = FastOptimizer.getThreadSolver(true);
         optimizer.setClientData(preferences.getSolverFormat(),
                 owns.getSolverFormat());
         optimizer.solve();
-        this.allocation = optimizer.getLatestAllocation();
+        // The thread's solver reuses its allocation array, so keep a copy.
+        this.allocation = ArrayUtils.copyArray(optimizer.getLatestAllocation());
     }
 
     /**
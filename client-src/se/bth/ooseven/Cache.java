@@ -1,48 +1,61 @@
 package se.bth.ooseven;
 
+import se.sics.tac.solver.DeltaSolver;
 import se.sics.tac.solver.FastOptimizer;
+import se.sics.tac.solver.SolveResult;
 
-import java.util.Comparator;
-import java.util.NoSuchElementException;
-
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.Semaphore;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
+/**
+ * Caches the utility of owned items for one set of preferences.
+ *
+ * Lookups and stores run inline in the calling thread. Lookups never block
+ * on a writer in the common case. When the cache is full, a store evicts one
+ * of a few sampled entries in the same segment of the storage, preferring
+ * entries that were not used in the last two rounds and that were fast to
+ * calculate. A newly calculated result is always stored.
+ */
 public class Cache {
     //
     //  Instance variables
     //
 
-    // Constants for data structure sizes
+    // Maximum number of entries in the storage
     private final int SIZE;
-    private final int BUFFER;
-    private final int FAST_SIZE;
     
     // Customer preferences -> used for running the Solver
     private final Preferences prefs;
+    private final int[][] solverPrefs;
     
-    // Storage data structures
-    private final ConcurrentHashMap<Owns, Entry> storage;
-    private final ConcurrentSkipListSet<Entry> fastest;
+    // Per-thread buffer for the owned items in the solver's format
+    private static final ThreadLocal<int[][]> solverOwns =
+            ThreadLocal.withInitial(() -> new int[5][7]);
     
-    // Buffer data structures for the Manager
-    private final ConcurrentHashMap<Owns, Entry> buffer;
-    private final LinkedBlockingQueue<Entry> todo;
+    // Change the log level of the FastOptimizer's Logger to avoid spam.
+    // A reference is kept to avoid garbage collection of the logger (as garbage
+    // collection of the logger would reset the log level).
+    private static final Logger fastOptimizerLogger;
+    static {
+        fastOptimizerLogger = Logger.getLogger(FastOptimizer.class.getName());
+        if (fastOptimizerLogger != null) {
+            fastOptimizerLogger.setLevel(Level.INFO);
+        } else {
+            System.err.println("Failed to find the FastOptimizer's Logger.");
+        }
+    }
     
-    // Indicator for the remover to run or wait
-    private final Semaphore runRemover = new Semaphore(0);
+    // Storage data structure
+    private final UtilityTable storage;
     
-    // Background threads; Flag for Threads to run/stop
-    private final Thread manager, remover;
-    private boolean run = true;
+    // Read-only entries from earlier games with the same preferences, if any
+    private volatile UtilitySnapshot snapshot;
 
     // Statistics
     private Statistics stats = new Statistics();
@@ -50,68 +63,41 @@ public class Cache {
     
     /*
      * These two variables are used to mark witch entries have not been used for
-     * two runs in a row. LastRun just stores the start time of this round and
-     * is later transfered to killOlder.
+     * two runs in a row. Every entry remembers the round it was last used in.
+     * The current round is later transfered to killOlder.
      *
-     * All entries in older than killOlder are removed from the cache.
+     * Entries last used before round killOlder are the first to be evicted.
+     * The rounds are plain ints, written without locking.
      */
-    private long lastRun   = System.nanoTime();
-    private long killOlder = 0;
+    private volatile int round     = 1;
+    private volatile int killOlder = 0;
     
     //
     //  Constructors
     //
     
     /**
-     * Sets up the cache. Starts threads for background cache management. The 
-     * size of the cache will be 1 Mega Entry.
+     * Sets up the cache. The size of the cache will be 10 Mega Entries.
      *
      * @param prefs     The preferences of the clients
      */
     public Cache(Preferences prefs) {
-        this(prefs, 10*1024*1024); // 1 Mega Entries
+        this(prefs, 10*1024*1024); // 10 Mega Entries
     }
     
     /**
-     * Sets up the cache. Starts threads for background cache management. The
-     * values for buffer and fast sizes are used relative to the size:
-     * Buffer   <- size/100, but minimum of 10
-     * FastSize <- size/10,  but minimum of 10
+     * Sets up the cache.
      *
      * @param prefs     The preferences of the clients
      * @param size      Size of the storage in this cache
      */
     public Cache(Preferences prefs, int size) {
-        this(prefs, size, size > 1000 ? size/100 : 10, size > 100 ? size/10 : 10);
-    }
-    
-    /**
-     * Sets up the cache. Starts threads for background cache management.
-     * @param prefs     The preferences of the clients
-     * @param size      Size of the storage in this cache
-     * @param buffer    Size of the buffer for new elements to be added
-     * @param fastSize  Size of the lookup Tree with the fastest elements
-     */
-    public Cache(Preferences prefs, int size, int buffer, int fastSize) {
-        SIZE      = size;
-        BUFFER    = buffer;
-        FAST_SIZE = fastSize;
+        SIZE = size;
     
         this.prefs = prefs;
+        this.solverPrefs = prefs.getSolverFormat();
         
-        this.storage = new ConcurrentHashMap<>(SIZE);
-        this.buffer  = new ConcurrentHashMap<>(BUFFER);
-        this.todo    = new LinkedBlockingQueue<>(BUFFER - 1);
-        this.fastest = new ConcurrentSkipListSet<>(new FasterEntry());
-        
-        manager = new Thread(new Manager(), "Cache.Manager");
-        remover = new Thread(new Remover(), "Cache.Remover");
-        
-        manager.setPriority(Thread.MIN_PRIORITY + 1);
-        remover.setPriority(Thread.MIN_PRIORITY);
-        
-        manager.start();
-        remover.start();
+        this.storage = new UtilityTable(SIZE);
     }
     
     //
@@ -120,327 +106,192 @@ public class Cache {
     
     /**
      * Looks up the result in the cache and returns it if found. Otherwise runs
-     * the calculation and updates the cache.
+     * the calculation and updates the cache. A PackedOwns is only allocated
+     * in the latter case.
      */
     public int calc(Owns owns) {
-        Entry entry = lookup(owns);
+        int result = lookup(PackedOwns.packLow(owns), PackedOwns.packHigh(owns));
         
-        if(entry == null) {
+        if(result == UtilityTable.MISSING) {
             stats.miss.incrementAndGet();
-            entry = run(owns);
-            store(entry);
+            result = run(new PackedOwns(owns), FastOptimizer.getThreadSolver(), null, null);
         } else {
             stats.hits.incrementAndGet();
-            entry.used();
         }
 
-        return entry.result;
+        return result;
     }
     
     /**
-     *  This function tells the Cache that a new run has begun and that all
-     *  entries from two rounds ago, which have not been used can get deleted.
+     * Looks up the result in the cache and returns it if found. Otherwise runs
+     * the calculation and updates the cache. The solver's format is only built
+     * in the latter case.
      */
-    public void removeOld() {
-        killOlder = lastRun;
-        lastRun = System.nanoTime();
+    public int calc(PackedOwns owns) {
+        int result = lookup(owns.low, owns.high);
         
-        // Start remover for cleanup
-        runRemover.release();
-    }
-    
-    //
-    //  Internal Helper
-    //
-    
-    /**
-     *  Helper function for looking up entries in the cache.
-     */
-    private Entry lookup(Owns owns) {
-        Entry entry = buffer.get(owns);
-        if(entry == null) {
-            entry = storage.get(owns);
+        if(result == UtilityTable.MISSING) {
+            stats.miss.incrementAndGet();
+            result = run(owns, FastOptimizer.getThreadSolver(), null, null);
+        } else {
+            stats.hits.incrementAndGet();
         }
-        return entry;
+
+        return result;
     }
     
     /**
-     *  Helper function for running the calculation
+     * Looks up the result in the cache and returns it if found. Otherwise runs
+     * the calculation starting from the parent's result and updates the cache.
+     *
+     * @param owns   The owned items, one more of the added item than the parent.
+     * @param added  The item that was added to the parent's owned items.
+     * @param parent The parent's result, or null to run a full calculation.
+     * @return The result, which can be used as the parent of later calls.
      */
-    private Entry run(Owns owns) {   
-        int result;
-        long time;
+    public SolveResult calc(PackedOwns owns, Item added, SolveResult parent) {
+        int result = lookup(owns.low, owns.high);
         
-        // Change the log level of the FastOptimizer's Logger to avoid spam.
-        Logger log = Logger.getLogger(FastOptimizer.class.getName());
-        if (log != null) {
-            log.setLevel(Level.INFO);
+        if(result == UtilityTable.MISSING) {
+            stats.miss.incrementAndGet();
+            DeltaSolver fo = FastOptimizer.getThreadSolver();
+            run(owns, fo, added, parent);
+            return fo.getLatestResult();
         } else {
-            System.err.println("Failed to find the FastOptimizer's Logger.");
+            stats.hits.incrementAndGet();
+            return new SolveResult(result);
         }
-        
-        FastOptimizer fo = new FastOptimizer();
-        fo.setClientData(prefs.getSolverFormat(), owns.getSolverFormat());
-        
-        long start = System.nanoTime();
-        result = fo.solve();
-        time = System.nanoTime() - start;
-        
-        Entry entry = new Entry(owns, result, time);
-        
-        stats.calctime.addAndGet(entry.time);
-        
-        return entry;
     }
     
     /**
-     *  Helper function for storing a new entry in the cache and performing
-     *  needed cache maintenance in background. (Removing old entries)
+     * Loads the entries saved by an earlier game with the same preferences,
+     * if there are any. They are memory-mapped and used as a read-only tier
+     * below the cache itself. Failing to load only means starting cold.
      *
-     *  This function blocks if the to-do-list for the cache manager is full.
+     * @param dir The directory holding the snapshots.
+     * @return The number of entries loaded.
      */
-    private void store(Entry e) {
-        long start_wait = System.nanoTime();
+    public int load(File dir) {
+        File file = UtilitySnapshot.fileFor(dir, solverPrefs);
         try {
-            // Send item to Cache-Manager
-            // TODO add timeout
-            buffer.put(e.base, e);
-            todo.add(e);
-        } catch (IllegalStateException ex) {
-            // If something goes wrong here, we just drop the entry
-            System.err.println("Cache: no room in the Buffer!");
-            
-            // Clean up
-            todo.remove(e);
-            buffer.remove(e.base);
+            snapshot = UtilitySnapshot.open(file, solverPrefs);
+        } catch (IOException ex) {
+            System.err.println("Cache: could not load " + file + ": " + ex.getMessage());
+            snapshot = null;
         }
-        stats.waittime.addAndGet(System.nanoTime() - start_wait);
+        return snapshot != null ? snapshot.size() : 0;
     }
     
-    //
-    //  Entries and Entry-Helper
-    //
-    
     /**
-     *  This class represents one entry in the cache, it only sticks the extra
-     *  information to the Owns base.
+     * Saves all entries, including those loaded, for later games with the
+     * same preferences.
+     *
+     * @param dir The directory holding the snapshots.
+     * @return The number of entries saved, or -1 if saving failed.
      */
-    private class Entry {
-        public final Owns base;
-        public final int result;
-        public final long time;
-        public long lastUsed;
-        
-        /**
-         *  Constructor for the entry, just stores the given information.
-         */
-        public Entry(Owns base, int result, long time) {
-            this.base = base;
-            this.result = result;
-            this.time = time;
-            this.used();
-        }
-        
-        /**
-         *  Updates the last-use timestamp in a Thread-safe way.
-         */
-        public synchronized void used() {
-            lastUsed = System.nanoTime();
-        }
-        
-        /**
-         *  Helper for storing in a HashMap.
-         */
-        public int hashCode() {
-            return base.hashCode();
-        }
-        
-        /**
-         *  Helper for storing in a TreeSet.
-         */
-        public boolean equals(Entry other) {
-            return this.base.equals(other.base);
+    public int save(File dir) {
+        File file = UtilitySnapshot.fileFor(dir, solverPrefs);
+        try {
+            return UtilitySnapshot.write(file, solverPrefs, storage, snapshot);
+        } catch (IOException ex) {
+            System.err.println("Cache: could not save " + file + ": " + ex.getMessage());
+            return -1;
         }
     }
     
     /**
-     *  Comparator for sorting entries by time.
+     *  This function tells the Cache that a new run has begun and that all
+     *  entries from two rounds ago, which have not been used, are the first
+     *  to be evicted. Nothing is scanned or removed here.
      */
-    private class FasterEntry implements Comparator<Entry> {
-        @Override
-        public int compare(Entry e1, Entry e2) {
-            return Long.compare(e1.time, e2.time);
-        }
+    public void removeOld() {
+        killOlder = round;
+        round = killOlder + 1;
     }
     
     //
-    //  Threads and Thread-Helper
+    //  Internal Helper
     //
     
     /**
-     * Stops the manager and remover for this cache.
+     *  Helper function for looking up entries in the cache.
+     *
+     *  @returns The cached result or UtilityTable.MISSING.
      */
-    public void stop() {
-        run = false;
+    private int lookup(long low, long high) {
+        int result = storage.get(low, high, round);
         
-        manager.interrupt();
-        remover.interrupt();
+        UtilitySnapshot snapshot = this.snapshot;
+        if(result == UtilityTable.MISSING && snapshot != null) {
+            result = snapshot.get(low, high);
+            if(result != UtilityTable.MISSING) {
+                stats.warm.incrementAndGet();
+            }
+        }
+        return result;
     }
     
     /**
-     *  Waits for manager and remover to be done with their work. Mainly used
-     *  for getting stats that contain all pending actions.
+     *  Helper function for running the calculation, as a delta from the
+     *  parent's result if there is one, and storing the result.
      */
-    public void waitForThreads() {
-        while(manager.getState().equals(Thread.State.RUNNABLE) ||
-              remover.getState().equals(Thread.State.RUNNABLE)) {
-            Thread.yield();
+    private int run(PackedOwns owns, DeltaSolver fo, Item added, SolveResult parent) {
+        int result;
+        long time;
+        
+        // Reuse this thread's solver and buffer, nothing is allocated here.
+        int[][] ownsBuffer = solverOwns.get();
+        owns.copySolverFormat(ownsBuffer);
+        
+        // The solver is given the parent's items and adds the new one itself.
+        boolean delta = parent != null && owns.get(added) > 0;
+        if (delta) {
+            ownsBuffer[added.day][added.type.index]--;
+        }
+        fo.setClientData(solverPrefs, ownsBuffer);
+        
+        long start = System.nanoTime();
+        if (delta) {
+            result = fo.solveDelta(parent, added.day, added.type.index, 1);
+        } else {
+            result = fo.solve();
         }
+        time = System.nanoTime() - start;
+        
+        stats.calctime.addAndGet(time);
+        store(owns, result, time);
+        
+        return result;
     }
     
     /**
-     *  Runnable for the cache manager.
-     *
-     *  The cache manager takes care of putting new entries in the cache. It also
-     *  takes care, for removing faster entries if there is not enough room in
-     *  the cache left.
-     *
-     *  The thread blocks as soon as there are no more entries on the to-do-list.
+     *  Helper function for storing a new entry in the cache. If the cache is
+     *  full, another entry is evicted to make room. The new entry is always
+     *  stored, the cost of calculating it only affects when it is evicted.
      */
-    private class Manager implements Runnable {
-        public void run() {
-            while(run) {
-                try {
-                    // Get new entry from the list
-                    Entry entry = todo.take();
-                    
-                    // Get room for entry
-                    if(storage.size() >= SIZE) {
-                        Entry candidate;
-                        
-                        // Search slowest entry
-                        candidate = fastest.pollFirst();
-                        
-                        // If there was no fast entry
-                        if(candidate == null) {
-                            stats.nofast.incrementAndGet();
-                            
-                            // Choose any element from the storage
-                            // Workaround -> Should rarely happen
-                            candidate = storage.values().iterator().next();
-                        }
-                        
-                        // If the new entry is faster than all others -> abort!
-                        if(candidate != null && entry.time <= candidate.time) {
-                            continue;
-                        }
-                        
-                        if(candidate != null) {                       
-                            // Remove from storage and fastest
-                            fastest.remove(candidate);
-                            storage.remove(candidate.base);
-                            
-                            // Update statistics
-                            stats.removals.incrementAndGet();
-                            
-                            // Tell remover to start if fastest is half empty
-                            if(fastest.size() < FAST_SIZE/2 && fastest.size() < storage.size()) {
-                                runRemover.release();
-                            }
-                        } else {
-                            System.err.println("Cache: Still no candidate! This should never happen!");
-                        }
-                    }
-                    
-                    // Put into storage
-                    storage.put(entry.base, entry);
-                    fastest.add(entry);
-                                 
-                    // Remove from buffer
-                    buffer.remove(entry.base);
-                    
-                    // Update statistics
-                    stats.adds.incrementAndGet();
-                    
-                    // Adjust size of fast-list
-                    if(fastest.size() >= FAST_SIZE) {
-                        fastest.pollLast();
-                    }
-                } catch (InterruptedException e) {
-                    System.err.println("Cache.Manager got interrupted!");
-                }
-            }
+    private void store(PackedOwns owns, int result, long time) {
+        long start_wait = System.nanoTime();
+        switch(storage.put(owns.low, owns.high, result, time, round, killOlder)) {
+            case UtilityTable.EVICTED:
+                // The entry was added as well.
+                stats.removals.incrementAndGet();
+                stats.adds.incrementAndGet();
+                break;
+            case UtilityTable.ADDED:
+                stats.adds.incrementAndGet();
+                break;
+            default:
+                // Calculated by another thread at the same time.
         }
+        stats.waittime.addAndGet(System.nanoTime() - start_wait);
     }
     
     /**
-     *  Runnable for the remover thread.
-     *
-     *  This thread periodically walks over the whole storage, to find the
-     *  fastest calculations and to remove any old entries.
-     *
-     *  It will wait on the runRemover Semaphore. So after significant changes
-     *  to the storage runRemover.release() should be called to start the
-     *  remover. Multiple calls to rundercover.release() will only cause one
-     *  complete run.
+     * Releases the entries loaded from an earlier game. The cache can still
+     * be used afterwards.
      */
-    private class Remover implements Runnable {
-        public void run() {
-            while(run) {
-                try {
-                    // Wait until something changed
-                    int permits = runRemover.availablePermits();
-                    if(permits == 0){
-                        permits = 1;
-                    }
-                    runRemover.acquire(permits);
-                
-                    /* 
-                     * fast_time is updated in intervals and denotes the slowest
-                     * time in the fastest list. This way we don't need to call
-                     * fastest.last() all the time.
-                     * last_lookup is used to store when we last looked for a
-                     * new value for fast_time
-                     */
-                    long fast_time = Long.MAX_VALUE;
-                    long last_lookup = 0;
-                    
-                    // Walk over all storage entries
-                    for(Entry e : storage.values()) {
-                        // Remove old entries
-                        if(e.lastUsed < killOlder) {
-                            fastest.remove(e);
-                            storage.remove(e.base);
-                            stats.removals.incrementAndGet();
-                            continue;
-                        }
-                        
-                        // Update fast_time every 10ms
-                        if(System.nanoTime() - last_lookup > 1000*1000*10) { 
-                            last_lookup = System.nanoTime();
-                            
-                            try {
-                                fast_time = fastest.last().time;
-                            } catch (NoSuchElementException ex) {
-                                fast_time = Long.MAX_VALUE;
-                            }                            
-                        }
-                        
-                        // Fill fastest
-                        if(e.time < fast_time) {
-                            fastest.add(e);
-                        }
-                        
-                        // Check for maximum size of fastest
-                        while(fastest.size() >= FAST_SIZE) {
-                            fastest.pollLast();
-                        }
-                    }
-                } catch (InterruptedException ex) {
-                    System.err.println("Cache.Remover got interrupted!");
-                }
-            }
-        }
+    public void stop() {
+        snapshot = null;
     }
     
     //
@@ -470,7 +321,7 @@ public class Cache {
         public final AtomicInteger miss     = new AtomicInteger();
         public final AtomicInteger removals = new AtomicInteger();
         public final AtomicInteger adds     = new AtomicInteger();
-        public final AtomicInteger nofast   = new AtomicInteger();
+        public final AtomicInteger warm     = new AtomicInteger();
         
         // Timer
         public final AtomicLong calctime    = new AtomicLong();
@@ -486,7 +337,7 @@ public class Cache {
             this.miss.set(other.miss.get());
             this.removals.set(other.removals.get());
             this.adds.set(other.adds.get());
-            this.nofast.set(other.nofast.get());
+            this.warm.set(other.warm.get());
             
             this.calctime.set(other.calctime.get());
             this.waittime.set(other.waittime.get());
@@ -498,7 +349,7 @@ public class Cache {
             miss.set(0);
             removals.set(0);
             adds.set(0);
-            nofast.set(0);
+            warm.set(0);
             calctime.set(0);
             waittime.set(0);
         }
@@ -512,8 +363,6 @@ public class Cache {
             
             int removals = this.removals.intValue();
             int adds     = this.adds.intValue();
-            int nofast   = this.nofast.intValue();
-            double nofastRate = adds != 0 ? 100*nofast/adds : 100;        
             
             long calctime = this.calctime.longValue()/(1000*1000); // ms
             long avgCalctime = miss != 0 ? (this.calctime.longValue()/miss)/(1000) : -1; // us
@@ -525,9 +374,9 @@ public class Cache {
             String ret = "";
             ret += "Hits:   "+hits+"\t("+hitRate+"%)\n";
             ret += "Misses: "+miss+"\t("+missRate+"%)\n";
+            ret += "Warm:   "+warm+"\t(of "+(snapshot != null ? snapshot.size() : 0)+" saved)\n";
             ret += "Fill:   "+storage.size()+"\t("+(double) (100*storage.size()/SIZE)+"%)\n";
             ret += "Adds:   "+adds+"\n";
-            ret += "NoFast: "+nofast+"\t("+nofastRate+"%)\n";
             ret += "Rm.s:   "+removals+"\n";
             ret += "Calc:   "+calctime+" ms\t(Avg: "+avgCalctime+" us)\n";
             ret += "Wait:   "+waittime+" ms\t(Avg: "+avgWaittime+" us)\n";
@@ -537,9 +386,13 @@ public class Cache {
         
         /**
          * @returns The statistics as machine readable comma separated values.
+         *          The fifth column used to count the evictions that found
+         *          no fast entry and removed any entry. The table always
+         *          evicts the cheapest of the entries it samples, so the
+         *          column is always 0. It is kept for existing readers.
          */
         public String toCSV() {
-            return ""+hits+","+miss+","+storage.size()+","+adds+","+nofast+","+removals+","+calctime+","+waittime+"";
+            return ""+hits+","+miss+","+storage.size()+","+adds+",0,"+removals+","+calctime+","+waittime+"";
         }
     }
 }
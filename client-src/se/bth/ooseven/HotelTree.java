@@ -2,10 +2,17 @@ package se.bth.ooseven;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
 
+import se.sics.tac.solver.SolveResult;
+
 /**
  * A tree-structure of possible hotel room purchases.
  *
@@ -17,7 +24,8 @@ import java.util.stream.DoubleStream;
  * consist of an item type (cheap hotel/good hotel), the index (day) and the
  * maximum price that can be paid in order for the reservation to be profitable.
  *
- * Supports depth-limited construction for use with iterative deepening.
+ * Supports depth-limited construction for use with iterative deepening, as
+ * well as an anytime best-first search that can be stopped at any moment.
  *
  * Supports pruning of branches where no immediate profit is predicted. May miss
  * opportunities where future reservations cause the utility of previous
@@ -35,13 +43,38 @@ public class HotelTree {
      */
     private final Prices prices;
 
+    /**
+     * The owned items at the root node, filled with all available flights.
+     */
+    private final Owns rootOwns;
+
     /**
      * The tree's root node.
      */
     private final Node root;
 
     /**
-     * Counts the number of nodes. Used for debugging purposes only.
+     * All nodes in the tree, by their owned items. Lets different orders of
+     * buying the same rooms share a node.
+     */
+    private final ConcurrentMap<PackedOwns, Node> nodes;
+
+    /**
+     * The initial capacity of the map of nodes. A new tree is built for
+     * every search, so the map starts small and grows with the search.
+     */
+    private static final int INITIAL_NODES = 1 << 10;
+
+    /**
+     * The maximum time, in milliseconds, to wait for the expanders to stop
+     * after the search time is up.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 500;
+
+    /**
+     * Counts the number of nodes, i.e. the number of distinct states added
+     * to the tree. Nodes created by two threads at once are only counted
+     * once. Used for debugging purposes only.
      */
     private final AtomicInteger nodeCount;
 
@@ -55,13 +88,16 @@ public class HotelTree {
     public HotelTree(Cache cache, Prices prices, Owns owns) {
         this.cache = cache;
         this.prices = new Prices(prices);
+        this.nodes = new ConcurrentHashMap<>(INITIAL_NODES);
         this.nodeCount = new AtomicInteger(0);
 
         // Create a copy of the owned items, filled with all available flights.
         // Lets the solver determine the utilities without considering flights.
-        owns = owns.withAllFlights();
+        this.rootOwns = owns.withAllFlights();
 
-        this.root = new Node(owns);
+        this.root = new Node(new PackedOwns(this.rootOwns));
+        this.nodes.put(this.root.owns, this.root);
+        this.nodeCount.incrementAndGet();
     }
 
     /**
@@ -92,24 +128,116 @@ public class HotelTree {
         return new Result(finder.getTargetOwns(), finder.getSuggestedActions());
     }
 
+    /**
+     * Gets the bids suggested by an anytime best-first search.
+     *
+     * Instead of deepening every branch to a fixed depth, the most promising
+     * nodes (by estimated total value) are expanded first by a fixed pool of
+     * workers. When the time is up, the actions are selected from the tree as
+     * built so far, so no work is thrown away.
+     *
+     * @param varianceThreshold The variance threshold. Used for determining
+     *                          the amount of risk-taking behavior allowed.
+     * @param frontierSize      The maximum number of nodes waiting to be
+     *                          expanded. The least promising are dropped.
+     * @param maxTime           The maximum amount of time allowed for the search.
+     * @return A queue of suggested actions (bids), in the order they should
+     * be taken.
+     */
+    public Result searchBestFirst(double varianceThreshold, int frontierSize,
+                                  Duration maxTime) {
+
+        Frontier frontier = new Frontier(frontierSize);
+        frontier.offer(this.root, this.root.utility);
+
+        int workers = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(workers, runnable ->
+                new Thread(runnable, "HotelTree.Expander"));
+        try {
+            for (int i = 0; i < workers; i++) {
+                pool.execute(new Expander(frontier));
+            }
+            // Wait until the tree ends or the time is up.
+            frontier.awaitDone(System.currentTimeMillis() + maxTime.toMillis());
+        } catch (InterruptedException e) {
+            // Re-interrupt the current thread.
+            Thread.currentThread().interrupt();
+        } finally {
+            // Time's up. Kindly ask the expanders to terminate, and let them
+            // finish the nodes they are expanding before the tree is read.
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Re-interrupt the current thread.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Select the actions from the tree as it is now.
+        Queue<SuggestedAction> actions = new LinkedList<>();
+        Owns owns = this.rootOwns;
+        Edge edge = selectChild(this.root, varianceThreshold);
+        while (edge != null) {
+            actions.add(new SuggestedAction(edge.room, edge.maxPrice));
+
+            // Copy before adding, the previous target may be in use.
+            Owns target = new Owns(owns);
+            target.add(edge.room, 1);
+            owns = target;
+
+            edge = selectChild(edge.child, varianceThreshold);
+        }
+        return new Result(owns, actions);
+    }
+
+    /**
+     * Finds the most valuable child within the variance threshold.
+     *
+     * @param node              The node to select a child of.
+     * @param varianceThreshold The variance threshold.
+     * @return The edge to the selected child, or null if there is none worth
+     * taking.
+     */
+    private static Edge selectChild(Node node, double varianceThreshold) {
+        List<Edge> children = node.children;
+        if (children == null) {
+            return null;
+        }
+        return children.stream()
+                .filter(edge ->
+                        edge.child.childValueVariance < varianceThreshold
+                                && edge.estimatedTotalValue() >= 0)
+                .max((a, b) -> Double.compare(
+                        a.estimatedTotalValue(),
+                        b.estimatedTotalValue()))
+                .orElse(null);
+    }
+
     // =========================================================================
     // private class Node
     // =========================================================================
 
     /**
-     * Represents a node in the tree.
+     * Represents a node in the tree, i.e. a state of owned rooms.
+     *
+     * Buying the same rooms in a different order leads to the same state, so
+     * every state only has one node, shared by all its parents. That makes
+     * the tree a directed acyclic graph, where each node is only expanded once.
      */
     private class Node {
 
         /**
          * The owned items, according to the scenario represented by this node.
+         * Kept packed, as the tree holds millions of nodes.
          */
-        private Owns owns;
+        private final PackedOwns owns;
 
         /**
-         * The hotel room that was bought to get here from the parent node.
+         * The nodes with an edge to this node. Used for passing statistics
+         * upwards during the best-first search.
          */
-        private final Item room;
+        private final List<Node> parents;
 
         /**
          * The pure utility of this node.
@@ -117,90 +245,67 @@ public class HotelTree {
         private final int utility;
 
         /**
-         * The value of this node, considering utility gain and cost.
-         * value = utility - parent's utility - price
+         * The solver's result for this node, used as the starting point when
+         * calculating the children's utility. Dropped once they are built.
          */
-        private final int value;
+        private SolveResult result;
 
         /**
-         * The maximum price to pay for this node without losing money.
-         *
-         * The special case of negative value is handled by never assigning a max
-         * value below the current price. This case is unintuitive but important,
-         * as a room that has negative value might still be useful in combination
-         * with other rooms. However, properly assigning such rooms a representative
-         * value seems non-trivial.
-         *
-         * max price = price + max(value, 0)
+         * The average estimated total value of the node's children.
          */
-        private final int maxPrice;
+        private volatile double childValueAverage;
 
         /**
-         * The average value of the node's children.
+         * The variance of estimated total values of the node's children.
          */
-        private double childValueAverage;
+        private volatile double childValueVariance;
 
         /**
-         * The variance of values of the node's children.
+         * The depth to which the node has already been deepened.
          */
-        private double childValueVariance;
+        private volatile int deepened;
 
         /**
-         * The estimated total value of the node.
-         * estimatedTotalValue = value + childValueAverage
+         * Whether the node has been offered to the best-first search's
+         * frontier. Guarded by the frontier.
          */
-        private double estimatedTotalValue;
+        private boolean queued;
 
         /**
-         * This tree node's children (i.e. all possible/allowed actions to take in
-         * the current scenario.
+         * The edges to this node's children (i.e. all possible/allowed actions
+         * to take in the current scenario). Null until the node has been
+         * expanded.
          */
-        private Set<Node> children;
+        private volatile List<Edge> children;
 
         /**
          * Constructs a new Node to be used as the root node.
          *
          * @param owns The currently owned items.
          */
-        public Node(Owns owns) {
-            this.owns = owns;
-            this.room = null;
-            this.children = null;
-
-            this.utility = HotelTree.this.cache.calc(this.owns);
-            this.value = this.utility;
-            this.maxPrice = this.utility;
-            this.childValueAverage = 0;
-            this.childValueVariance = 0;
-            this.estimatedTotalValue = this.value;
-
-            HotelTree.this.nodeCount.incrementAndGet();
+        public Node(PackedOwns owns) {
+            this(owns, null, null);
         }
 
         /**
-         * Constructs a new Node as the child of another.
+         * Constructs a new Node, reached from a parent node by buying a room.
+         * The parent's solver result is used to speed up the calculation.
          *
-         * @param parent The parent node.
-         * @param room   The room to buy at the parent node to get to this node.
+         * @param owns   The owned items.
+         * @param parent The parent node, or null for the root node.
+         * @param room   The room bought at the parent node to get to this node.
          */
-        public Node(Node parent, Item room) {
-            this.room = room;
+        private Node(PackedOwns owns, Node parent, Item room) {
+            this.owns = owns;
+            this.parents = new ArrayList<>(1);
             this.children = null;
 
-            this.owns = new Owns(parent.owns);
-            this.owns.add(this.room, 1);
-
-            this.utility = HotelTree.this.cache.calc(this.owns);
-
-            int price = HotelTree.this.prices.get(this.room);
-            this.value = this.utility - parent.utility - price;
-            this.maxPrice = price + Math.max(this.value, 0);
-
+            this.result = HotelTree.this.cache.calc(this.owns, room,
+                    parent != null ? parent.result : null);
+            this.utility = this.result.score;
             this.childValueAverage = 0;
             this.childValueVariance = 0;
-            this.estimatedTotalValue = this.value;
-
-            HotelTree.this.nodeCount.incrementAndGet();
+            this.deepened = 0;
         }
 
         /**
@@ -209,29 +314,90 @@ public class HotelTree {
          * @param maxDepth The maximum depth to build the tree. Used for iterative
          *                 deepening.
          */
-        private synchronized void deepen(int maxDepth) {
-            // Only deepen until the max depth is reached.
-            if (maxDepth > 0) {
+        private void deepen(int maxDepth) {
+            // Only deepen until the max depth is reached, and only once for
+            // all the paths leading here.
+            if (maxDepth > this.deepened) {
 
                 // Only create children if we haven't already done so.
-                if (this.children == null) {
-
-                    // Construct children for all available rooms.
-                    this.children = Item.ROOMS.stream()
-                            .filter(room -> this.owns.get(room) < 16) // Only 16 copies of each rooms exist.
-                            .map(room -> new Node(this, room))
-                            .filter(child -> child.value >= 0)  // Better to stop than to choose a bad path.
-                            .collect(Collectors.toSet());
-                }
+                expand();
 
                 // Continue deepening the tree.
                 this.children.parallelStream()
-                        .forEach(child -> child.deepen(maxDepth - 1));
+                        .forEach(edge -> edge.child.deepen(maxDepth - 1));
 
                 // If there are any children, calculate average values, etc.
                 if (this.children.size() > 0) {
                     calculateStatistics();
                 }
+                this.deepened = maxDepth;
+            }
+        }
+
+        /**
+         * Creates the edges to the node's children, unless that has already
+         * been done. Children already in the tree are reused.
+         *
+         * @return True if the children were created by this call.
+         */
+        private synchronized boolean expand() {
+            if (this.children != null) {
+                return false;
+            }
+
+            // Construct children for all available rooms.
+            this.children = Item.ROOMS.stream()
+                    .filter(room -> this.owns.get(room) < PackedOwns.MAX_COUNT) // Only 16 copies of each rooms exist, the solver tells 15 apart.
+                    .map(room -> new Edge(this, room, getChild(room)))
+                    .filter(edge -> edge.value >= 0)  // Better to stop than to choose a bad path.
+                    .collect(Collectors.toList());
+            this.children.forEach(edge -> edge.child.addParent(this));
+            this.result = null;
+            return true;
+        }
+
+        /**
+         * Gets the node reached by buying a room, creating it if it is not
+         * already in the tree.
+         *
+         * @param room The room to buy.
+         * @return The child node.
+         */
+        private Node getChild(Item room) {
+            PackedOwns childOwns = this.owns.add(room, 1);
+            Node child = HotelTree.this.nodes.get(childOwns);
+            if (child == null) {
+                // Two threads may get here at once, only one node is kept.
+                child = new Node(childOwns, this, room);
+                Node existing = HotelTree.this.nodes.putIfAbsent(childOwns, child);
+                if (existing != null) {
+                    child = existing;
+                } else {
+                    HotelTree.this.nodeCount.incrementAndGet();
+                }
+            }
+            return child;
+        }
+
+        /**
+         * Adds a node with an edge to this node.
+         *
+         * @param parent The parent node.
+         */
+        private void addParent(Node parent) {
+            synchronized (this.parents) {
+                this.parents.add(parent);
+            }
+        }
+
+        /**
+         * Gets the nodes with an edge to this node.
+         *
+         * @return A copy of the parents.
+         */
+        private List<Node> getParents() {
+            synchronized (this.parents) {
+                return new ArrayList<>(this.parents);
             }
         }
 
@@ -239,15 +405,15 @@ public class HotelTree {
          * Calculates statistics related to the node's children.
          * <p>
          * The average estimated total value and the variance in estimated total
-         * value of the children, as well as the estimated total value of the
-         * current node is calculated.
+         * value of the children are calculated. They are shared by all edges
+         * leading to this node.
          */
         private synchronized void calculateStatistics() {
             // Prepare the values of possible choices.
             double[] values = DoubleStream.concat(
                     DoubleStream.of(0), // Doing nothing is also a possibility.
                     this.children.stream()
-                            .mapToDouble(child -> child.estimatedTotalValue))
+                            .mapToDouble(Edge::estimatedTotalValue))
                     .toArray();
 
             // Calculate the average estimated total value of all children.
@@ -260,7 +426,73 @@ public class HotelTree {
 
             this.childValueAverage = mean;
             this.childValueVariance = variance;
-            this.estimatedTotalValue = this.value + this.childValueAverage;
+        }
+    }
+
+    // =========================================================================
+    // private class Edge
+    // =========================================================================
+
+    /**
+     * Represents the purchase of a room, leading from a node to its child.
+     * The value depends on both nodes, so it is kept here rather than in the
+     * shared child node.
+     */
+    private class Edge {
+
+        /**
+         * The hotel room that is bought to get to the child node.
+         */
+        private final Item room;
+
+        /**
+         * The child node.
+         */
+        private final Node child;
+
+        /**
+         * The value of this edge, considering utility gain and cost.
+         * value = child's utility - parent's utility - price
+         */
+        private final int value;
+
+        /**
+         * The maximum price to pay for the room without losing money.
+         *
+         * The special case of negative value is handled by never assigning a max
+         * value below the current price. This case is unintuitive but important,
+         * as a room that has negative value might still be useful in combination
+         * with other rooms. However, properly assigning such rooms a representative
+         * value seems non-trivial.
+         *
+         * max price = price + max(value, 0)
+         */
+        private final int maxPrice;
+
+        /**
+         * Constructs a new Edge.
+         *
+         * @param parent The parent node.
+         * @param room   The room to buy at the parent node.
+         * @param child  The node reached by buying the room.
+         */
+        public Edge(Node parent, Item room, Node child) {
+            this.room = room;
+            this.child = child;
+
+            int price = HotelTree.this.prices.get(this.room);
+            this.value = child.utility - parent.utility - price;
+            this.maxPrice = price + Math.max(this.value, 0);
+        }
+
+        /**
+         * Gets the estimated total value of buying the room.
+         * estimatedTotalValue = value + child's childValueAverage
+         *
+         * @return The estimated total value.
+         */
+        private double estimatedTotalValue() {
+            return this.value + this.child.childValueAverage;
         }
     }
 
@@ -347,7 +579,7 @@ public class HotelTree {
         public void run() {
             // Start the search at the root.
             Node node = HotelTree.this.root;
-            this.owns = node.owns;
+            this.owns = HotelTree.this.rootOwns;
 
             // Keep searching until interrupted.
             while (node != null && !Thread.currentThread().isInterrupted()) {
@@ -361,24 +593,217 @@ public class HotelTree {
                 }
 
                 // Find the most valuable child within the variance threshold.
-                Node nextNode = node.children.stream()
-                        .filter(child ->
-                                child.childValueVariance < varianceThreshold
-                                        && child.estimatedTotalValue >= 0)
-                        .max((a, b) -> Double.compare(
-                                a.estimatedTotalValue,
-                                b.estimatedTotalValue))
-                        .orElse(null);
-
-                if (nextNode != null) {
+                Edge edge = selectChild(node, varianceThreshold);
+
+                if (edge != null) {
                     // Save the suggested action to get to this node.
-                    actions.add(new SuggestedAction(nextNode.room,
-                            nextNode.maxPrice));
-                    owns = nextNode.owns;
+                    actions.add(new SuggestedAction(edge.room, edge.maxPrice));
+
+                    // Copy before adding, the previous target may be in use.
+                    Owns target = new Owns(owns);
+                    target.add(edge.room, 1);
+                    owns = target;
                 }
 
                 // Move on to the next node.
-                node = nextNode;
+                node = edge != null ? edge.child : null;
+            }
+        }
+    }
+
+    // =========================================================================
+    // private class Frontier
+    // =========================================================================
+
+    /**
+     * The nodes waiting to be expanded by the best-first search, ordered by
+     * their estimated total value. Bounded: when full, the least promising
+     * node is dropped and simply stays a leaf.
+     */
+    private class Frontier {
+
+        /**
+         * The waiting nodes, most promising first.
+         */
+        private final TreeSet<Entry> entries;
+
+        /**
+         * The maximum number of waiting nodes.
+         */
+        private final int capacity;
+
+        /**
+         * The number of nodes currently being expanded.
+         */
+        private int active;
+
+        /**
+         * Tells apart entries of equal value, in the order they were added.
+         */
+        private long sequence;
+
+        /**
+         * Constructs a new, empty Frontier.
+         *
+         * @param capacity The maximum number of waiting nodes.
+         */
+        public Frontier(int capacity) {
+            this.entries = new TreeSet<>();
+            this.capacity = capacity;
+            this.active = 0;
+            this.sequence = 0;
+        }
+
+        /**
+         * Adds a node to be expanded, dropping the least promising node if the
+         * frontier is full. Nodes that have already been added are ignored.
+         *
+         * @param node     The node to add.
+         * @param priority The estimated total value of getting to the node.
+         */
+        public synchronized void offer(Node node, double priority) {
+            if (node.queued) {
+                return;
+            }
+            node.queued = true;
+            entries.add(new Entry(node, priority, sequence++));
+            if (entries.size() > capacity) {
+                entries.pollLast();
+            }
+            notifyAll();
+        }
+
+        /**
+         * Takes the most promising node, waiting for one if others are still
+         * being expanded. Every node taken must be followed by a call to done().
+         *
+         * @return The node, or null if the tree has ended.
+         */
+        public synchronized Node take() throws InterruptedException {
+            while (entries.isEmpty()) {
+                if (active == 0) {
+                    return null;
+                }
+                wait();
+            }
+            active++;
+            return entries.pollFirst().node;
+        }
+
+        /**
+         * Tells the frontier that a taken node has been expanded.
+         */
+        public synchronized void done() {
+            active--;
+            if (active == 0 && entries.isEmpty()) {
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits until the tree has ended or the deadline has passed.
+         *
+         * @param deadline The deadline, in milliseconds since the epoch.
+         */
+        public synchronized void awaitDone(long deadline)
+                throws InterruptedException {
+            long left;
+            while ((active > 0 || !entries.isEmpty())
+                    && (left = deadline - System.currentTimeMillis()) > 0) {
+                wait(left);
+            }
+        }
+
+        /**
+         * A waiting node and its priority at the time it was added.
+         */
+        private class Entry implements Comparable<Entry> {
+
+            private final Node node;
+            private final double priority;
+            private final long order;
+
+            private Entry(Node node, double priority, long order) {
+                this.node = node;
+                this.priority = priority;
+                this.order = order;
+            }
+
+            @Override
+            public int compareTo(Entry other) {
+                int c = Double.compare(other.priority, this.priority);
+                return c != 0 ? c : Long.compare(this.order, other.order);
+            }
+        }
+    }
+
+    // =========================================================================
+    // private class Expander
+    // =========================================================================
+
+    /**
+     * A worker of the best-first search. Repeatedly expands the most promising
+     * node of the frontier, adds its children to the frontier and updates the
+     * statistics of the node and all its ancestors, one level at a time.
+     */
+    private class Expander implements Runnable {
+
+        /**
+         * The frontier shared by all workers.
+         */
+        private final Frontier frontier;
+
+        /**
+         * Constructs a new Expander.
+         *
+         * @param frontier The frontier shared by all workers.
+         */
+        public Expander(Frontier frontier) {
+            this.frontier = frontier;
+        }
+
+        /**
+         * Runs the Expander until the tree ends, unless interrupted.
+         */
+        @Override
+        public void run() {
+            try {
+                Node node;
+                while (!Thread.currentThread().isInterrupted()
+                        && (node = frontier.take()) != null) {
+                    try {
+                        if (node.expand()) {
+                            node.children.forEach(edge -> frontier.offer(
+                                    edge.child, edge.estimatedTotalValue()));
+                            if (node.children.size() > 0) {
+                                updateStatistics(node);
+                            }
+                        }
+                    } finally {
+                        frontier.done();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Time's up, just stop.
+            }
+        }
+
+        /**
+         * Updates the statistics of a node and all its ancestors. Every edge
+         * adds one room, so all parents of a level are on the level above and
+         * each level only depends on the levels below it.
+         *
+         * @param node The node whose children have changed.
+         */
+        private void updateStatistics(Node node) {
+            Set<Node> level = Collections.singleton(node);
+            while (!level.isEmpty()) {
+                Set<Node> above = new HashSet<>();
+                for (Node n : level) {
+                    n.calculateStatistics();
+                    above.addAll(n.getParents());
+                }
+                level = above;
             }
         }
     }
@@ -480,10 +905,20 @@ public class HotelTree {
 
         double varianceThreshold = Double.MAX_VALUE;
         int fieldOfVision = 5;
+        int frontierSize = 100000;
         Duration maxTime = Duration.ofSeconds(15);
 
+        // Pass "best-first" and optionally a time in seconds to try the
+        // anytime search instead.
+        boolean bestFirst = args.length > 0 && args[0].equals("best-first");
+        if (args.length > 1) {
+            maxTime = Duration.ofSeconds(Long.parseLong(args[1]));
+        }
+
         long time = System.nanoTime();
-        Result result = tree.search(varianceThreshold, fieldOfVision, maxTime);
+        Result result = bestFirst
+                ? tree.searchBestFirst(varianceThreshold, frontierSize, maxTime)
+                : tree.search(varianceThreshold, fieldOfVision, maxTime);
         time = System.nanoTime() - time;
 
         System.out.println("Time taken: " + (time / 1000000000D) + " sec.");
@@ -0,0 +1,177 @@
+package se.bth.ooseven;
+
+/**
+ * An immutable, packed representation of owned items, as seen by the solver.
+ *
+ * Every item count is stored in four bits of two longs, at the position of
+ * the item's flat index (the agent's format). Counts are clamped to 0-15, the
+ * same way the FastOptimizer clamps its input, so two PackedOwns that are
+ * equal always have the same utility.
+ *
+ * Deriving a new state, hashing and comparing only work on the two longs.
+ * The solver's format is only built when it is actually needed.
+ */
+public final class PackedOwns {
+
+    /*
+     * The packed format:
+     * low  bits [4*i, 4*i + 3]        Item with flat index i (0 - 15)
+     * high bits [4*(i-16), 4*(i-16)+3] Item with flat index i (16 - 27)
+     */
+
+    /**
+     * The largest count that can be represented.
+     */
+    public static final int MAX_COUNT = 15;
+
+    /**
+     * All items, in the order of their flat index.
+     */
+    private static final Item[] ITEMS = Item.values();
+
+    /**
+     * The counts of the items with flat index 0-15.
+     */
+    final long low;
+
+    /**
+     * The counts of the items with flat index 16-27.
+     */
+    final long high;
+
+    /**
+     * Constructs a PackedOwns from an Owns object.
+     *
+     * @param owns The owned items.
+     */
+    public PackedOwns(Owns owns) {
+        this(packLow(owns), packHigh(owns));
+    }
+
+    /**
+     * Constructs a PackedOwns from its packed words.
+     */
+    private PackedOwns(long low, long high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    /**
+     * Gets the number of owned copies of the specified item.
+     *
+     * @param item The item to get the count for.
+     * @return The count, clamped to 0-15.
+     */
+    public int get(Item item) {
+        long word = item.flatIndex < 16 ? this.low : this.high;
+        return (int) (word >>> shift(item)) & 0xf;
+    }
+
+    /**
+     * Returns the result of adding copies of an item. The result is clamped
+     * to 0-15. This object is left unchanged.
+     *
+     * @param item     The item to add copies of.
+     * @param quantity The quantity to add.
+     * @return The new owned items.
+     */
+    public PackedOwns add(Item item, int quantity) {
+        int shift = shift(item);
+        long count = clamp(get(item) + quantity);
+        if (item.flatIndex < 16) {
+            return new PackedOwns(
+                    (this.low & ~(0xfL << shift)) | (count << shift), this.high);
+        } else {
+            return new PackedOwns(
+                    this.low, (this.high & ~(0xfL << shift)) | (count << shift));
+        }
+    }
+
+    /**
+     * Returns the counts of the items with flat index 0-15 packed the same
+     * way as a PackedOwns, without allocating one.
+     *
+     * @param owns The owned items.
+     * @return The low word of the packed items.
+     */
+    static long packLow(Owns owns) {
+        return pack(owns, false);
+    }
+
+    /**
+     * Returns the counts of the items with flat index 16-27 packed the same
+     * way as a PackedOwns, without allocating one.
+     *
+     * @param owns The owned items.
+     * @return The high word of the packed items.
+     */
+    static long packHigh(Owns owns) {
+        return pack(owns, true);
+    }
+
+    /**
+     * Packs the counts of the items in the low or the high word.
+     */
+    private static long pack(Owns owns, boolean high) {
+        long word = 0;
+        for (Item item : ITEMS) {
+            if ((item.flatIndex >= 16) == high) {
+                word |= clamp(owns.get(item)) << shift(item);
+            }
+        }
+        return word;
+    }
+
+    /**
+     * Returns the owned items in the solver's format.
+     * @return A newly allocated 5x7 array, see Owns.
+     */
+    public int[][] getSolverFormat() {
+        final int DAYS = 5;
+        final int TYPES = 7;
+        int[][] converted = new int[DAYS][TYPES];
+        copySolverFormat(converted);
+        return converted;
+    }
+
+    /**
+     * Writes the owned items in the solver's format into an existing array.
+     * Entries that do not correspond to an item are left untouched.
+     * @param converted A 5x7 array, see Owns.
+     */
+    public void copySolverFormat(int[][] converted) {
+        for (Item item : ITEMS) {
+            converted[item.day][item.type.index] = get(item);
+        }
+    }
+
+    /**
+     * Returns the bit position of the item within its word.
+     */
+    private static int shift(Item item) {
+        return 4 * (item.flatIndex & 15);
+    }
+
+    /**
+     * Clamps a count to the representable range.
+     */
+    private static long clamp(int count) {
+        return count < MAX_COUNT ? (count < 0 ? 0 : count) : MAX_COUNT;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PackedOwns owns = (PackedOwns) o;
+
+        return this.low == owns.low && this.high == owns.high;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = this.low * 0x9E3779B97F4A7C15L + this.high;
+        return (int) (h ^ (h >>> 32));
+    }
+}
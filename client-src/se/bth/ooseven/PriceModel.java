@@ -0,0 +1,155 @@
+package se.bth.ooseven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Price statistics from earlier games, stored in a file and memory-mapped.
+ *
+ * The file is created offline from archived game logs by
+ * se.sics.tac.log.PriceModelCreator in the server (see its README.txt). It holds
+ * the distribution of how much more than the current ask price each hotel
+ * room has closed at, per time bucket, and the distribution of the hidden
+ * upper bound of the flight price changes.
+ *
+ * The file format (big-endian):
+ * int      MAGIC
+ * int      VERSION
+ * int      The number of games the statistics are based on
+ * int      The length of a time bucket in milliseconds
+ * int      The number of time buckets
+ * int      The number of hotel rooms (8, cheap hotel day 1 - 4 followed by
+ *          good hotel day 1 - 4 as in Item)
+ * int      The number of quantiles
+ * Per hotel room and time bucket:
+ *          int samples, float mean, float[quantiles] quantiles
+ * int      The number of upper bounds
+ * int      The lowest upper bound
+ * float[]  The probability of each upper bound
+ */
+final class PriceModel {
+
+    private static final int MAGIC = 0x54414350; // "TACP"
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 4 * 7;
+    private static final int FIRST_HOTEL = Item.CHEAP_HOTEL_1.getAuctionNumber();
+
+    private final MappedByteBuffer data;
+    private final int games;
+    private final int bucketLength;
+    private final int buckets;
+    private final int hotels;
+    private final int quantiles;
+    private final int entrySize;
+    private final int lowestBound;
+    private final double[] upperBoundPrior;
+
+    private PriceModel(MappedByteBuffer data) throws IOException {
+        this.data = data;
+        this.games = data.getInt(8);
+        this.bucketLength = data.getInt(12);
+        this.buckets = data.getInt(16);
+        this.hotels = data.getInt(20);
+        this.quantiles = data.getInt(24);
+        this.entrySize = 4 * (2 + quantiles);
+
+        long pos = HEADER_SIZE + (long) hotels * buckets * entrySize;
+        if (bucketLength <= 0 || buckets < 0 || hotels < 0 || quantiles < 0
+                || pos + 8 > data.capacity()) {
+            throw new IOException("Truncated price model");
+        }
+        int bounds = data.getInt((int) pos);
+        this.lowestBound = data.getInt((int) pos + 4);
+        if (bounds < 0 || pos + 8 + 4L * bounds > data.capacity()) {
+            throw new IOException("Truncated price model");
+        }
+        // The prior is copied as every flight estimator needs all of it.
+        this.upperBoundPrior = new double[bounds];
+        for (int i = 0; i < bounds; i++) {
+            upperBoundPrior[i] = data.getFloat((int) pos + 8 + 4 * i);
+        }
+    }
+
+    //
+    //  External interface
+    //
+
+    /**
+     * Opens and maps a price model file.
+     *
+     * @param file The price model file.
+     * @return The price model, or null if the file does not exist.
+     * @throws IOException If the file can not be read or is not a price model.
+     */
+    static PriceModel open(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Truncated price model " + file);
+            }
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                throw new IOException("Not a price model: " + file);
+            }
+            return new PriceModel(data);
+        }
+    }
+
+    /**
+     * The number of games the statistics are based on.
+     */
+    int getGames() {
+        return games;
+    }
+
+    /**
+     * Estimates how much more than the current ask price a hotel room will
+     * close at.
+     *
+     * @param room     The hotel room.
+     * @param gameTime The time since the start of the game in milliseconds.
+     * @param quantile The quantile of the closing prices in [0, 1], or a
+     *                 negative value for the mean.
+     * @return The estimated increase, or NaN if there are no earlier games
+     *         with the room open at this time.
+     */
+    float getHotelIncrease(Item room, long gameTime, double quantile) {
+        int hotel = room.getAuctionNumber() - FIRST_HOTEL;
+        int bucket = (int) (gameTime / bucketLength);
+        if (hotel < 0 || hotel >= hotels || bucket < 0 || bucket >= buckets) {
+            return Float.NaN;
+        }
+        int pos = HEADER_SIZE + (hotel * buckets + bucket) * entrySize;
+        if (data.getInt(pos) == 0) {
+            return Float.NaN;
+        }
+        if (quantile < 0) {
+            return data.getFloat(pos + 4);
+        }
+        int index = (int) Math.round(Math.min(quantile, 1.0) * (quantiles - 1));
+        return data.getFloat(pos + 8 + 4 * index);
+    }
+
+    /**
+     * The probability of each flight upper bound, starting with the lowest.
+     */
+    double[] getUpperBoundPrior() {
+        return upperBoundPrior;
+    }
+
+    /**
+     * The lowest flight upper bound in the prior.
+     */
+    int getLowestUpperBound() {
+        return lowestBound;
+    }
+}
@@ -12,6 +12,7 @@ import java.util.*;
 
 class UpperBoundEstimator {
     private final Set<Curve> curves;
+    private final boolean hasPrior;
     private Integer lastPoint = null;
     private int datapoints = 0;
 
@@ -19,9 +20,30 @@ class UpperBoundEstimator {
      *  Sets up the set of all possible curves that are possible in the game.
      */
     public UpperBoundEstimator() {
+        this(null, 0);
+    }
+
+    /**
+     *  Sets up all curves with the probabilities seen in earlier games.
+     *  The estimate is then the average change of the possible curves,
+     *  weighted by how likely each curve is given the prior and the
+     *  datapoints.
+     *
+     *  @param prior The probability of each upperBound, starting with
+     *               lowestBound (see PriceModel), or null for none.
+     */
+    public UpperBoundEstimator(double[] prior, int lowestBound) {
         this.curves = IntStream.range(-10, 30 + 1)
                         .mapToObj(i -> new Curve(i))
                         .collect(Collectors.toSet());
+        if(prior != null) {
+            for(Curve c : curves) {
+                int index = c.upperBound - lowestBound;
+                c.prior = index >= 0 && index < prior.length ? prior[index] : 0.0;
+            }
+        }
+        // Keep the plain estimate if the prior rules out all curves
+        this.hasPrior = prior != null && curves.stream().anyMatch(c -> c.prior > 0.0);
     }
     
     /**
@@ -73,6 +95,13 @@ class UpperBoundEstimator {
      *  Function for predicting a price change for a given Time and GameLength.
      */
     public int estimateChange(long timeInGame, int gameLength) {
+        if(hasPrior) {
+            Double est = estimateWithPrior(timeInGame, gameLength);
+            if(est != null) {
+                return (int) Math.round(est);
+            }
+        }
+
         if(datapoints == 0) {
             System.err.println("Estimator: Was asked to estimate without having datapoints!");
         }
@@ -90,6 +119,27 @@ class UpperBoundEstimator {
         
         return (int) Math.round(est);
     }
+
+    /**
+     *  Posterior mean of the change: the prior of each possible curve times
+     *  the likelihood of its datapoints (each change is uniformly drawn from
+     *  the interval of the curve).
+     *
+     *  @return The estimate or null if no possible curve has a prior.
+     */
+    private Double estimateWithPrior(long timeInGame, int gameLength) {
+        double maxLogLikelihood = getPossibleCurves()
+                .mapToDouble(c -> c.logLikelihood)
+                .max().orElse(0.0);
+        double est = 0.0;
+        double total = 0.0;
+        for(Curve c : getPossibleCurves().collect(Collectors.toList())) {
+            double weight = c.prior * Math.exp(c.logLikelihood - maxLogLikelihood);
+            est += weight * getInterval(c.upperBound, timeInGame, gameLength).avg();
+            total += weight;
+        }
+        return total > 0.0 ? est / total : null;
+    }
     
     /**
      *  One possible curve, holding the upperBound and the error for all 
@@ -99,6 +149,8 @@ class UpperBoundEstimator {
         public final int upperBound;
         public boolean possible  = true;
         public double totalError = 0.0;
+        public double logLikelihood = 0.0;
+        public double prior = 1.0;
         
         public Curve(int upperBound) {
             this.upperBound = upperBound;
@@ -115,6 +167,7 @@ class UpperBoundEstimator {
             
             // Sum of smallest squares
             totalError += Math.pow(((double) delta - interval.avg()), 2);
+            logLikelihood -= Math.log(interval.max - interval.min + 1);
         }
         
         /**
@@ -0,0 +1,277 @@
+package se.bth.ooseven;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only set of utility values, stored in a file and memory-mapped.
+ *
+ * Utilities only depend on the preferences and the owned items, so the
+ * entries calculated during one game stay valid for every later game with
+ * the same preferences. There is one file per set of preferences, named by
+ * their hash. The preferences are also stored in the file and checked when
+ * it is opened.
+ *
+ * The file format (big-endian):
+ * int      MAGIC
+ * int      VERSION
+ * int[8*6] The preferences, in the solver's format
+ * int      The number of entries
+ * Entries, sorted by key: long low, long high, int result
+ *
+ * Lookups are binary searches directly in the mapped file, so opening a
+ * snapshot is cheap and its entries are never copied onto the heap.
+ */
+final class UtilitySnapshot {
+
+    private static final int MAGIC = 0x4F375543; // "O7UC"
+    private static final int VERSION = 1;
+
+    private static final int CLIENTS = 8;
+    private static final int PREFERENCES = 6;
+
+    private static final int HEADER_SIZE = 4 * (3 + CLIENTS * PREFERENCES);
+    private static final int ENTRY_SIZE = 8 + 8 + 4;
+
+    private final MappedByteBuffer data;
+    private final int count;
+
+    private UtilitySnapshot(MappedByteBuffer data, int count) {
+        this.data = data;
+        this.count = count;
+    }
+
+    //
+    //  External interface
+    //
+
+    /**
+     * Returns the snapshot file for the given preferences.
+     *
+     * @param dir         The directory holding the snapshots.
+     * @param solverPrefs The preferences, in the solver's format.
+     */
+    static File fileFor(File dir, int[][] solverPrefs) {
+        // FNV-1a, 64 bits to make collisions unlikely. They are detected
+        // anyway when the file is opened.
+        long h = 0xCBF29CE484222325L;
+        for (int[] client : solverPrefs) {
+            for (int value : client) {
+                h = (h ^ value) * 0x100000001B3L;
+            }
+        }
+        return new File(dir, String.format("utilities-%016x.bin", h));
+    }
+
+    /**
+     * Opens and maps a snapshot file.
+     *
+     * @param file        The snapshot file.
+     * @param solverPrefs The preferences the utilities must have been
+     *                    calculated for.
+     * @return The snapshot, or null if the file does not exist.
+     * @throws IOException If the file can not be read, or is not a snapshot
+     *                     for the given preferences.
+     */
+    static UtilitySnapshot open(File file, int[][] solverPrefs) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Truncated snapshot " + file);
+            }
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                throw new IOException("Not a snapshot: " + file);
+            }
+            int pos = 8;
+            for (int[] client : solverPrefs) {
+                for (int value : client) {
+                    if (data.getInt(pos) != value) {
+                        throw new IOException("Snapshot for other preferences: " + file);
+                    }
+                    pos += 4;
+                }
+            }
+            int count = data.getInt(pos);
+            if (count < 0 || length < HEADER_SIZE + (long) count * ENTRY_SIZE) {
+                throw new IOException("Truncated snapshot " + file);
+            }
+            return new UtilitySnapshot(data, count);
+        }
+    }
+
+    /**
+     * Writes the entries of a table, and those of an older snapshot that are
+     * not in the table, to a snapshot file. The file is replaced atomically,
+     * so readers never see a partly written snapshot.
+     *
+     * @param file        The snapshot file.
+     * @param solverPrefs The preferences the utilities were calculated for.
+     * @param table       The entries to write.
+     * @param previous    An older snapshot to merge, or null.
+     * @return The number of entries written.
+     */
+    static int write(File file, int[][] solverPrefs, UtilityTable table,
+                     UtilitySnapshot previous) throws IOException {
+        // Collect all entries. Some slack for entries added meanwhile.
+        int old = previous != null ? previous.count : 0;
+        int capacity = table.size() + old + 1024;
+        long[] keys = new long[2 * capacity];
+        int[] results = new int[capacity];
+
+        int n = table.copyTo(keys, results, 0);
+        for (int i = 0; i < old && n < capacity; i++, n++) {
+            int pos = HEADER_SIZE + i * ENTRY_SIZE;
+            keys[2 * n] = previous.data.getLong(pos);
+            keys[2 * n + 1] = previous.data.getLong(pos + 8);
+            results[n] = previous.data.getInt(pos + 16);
+        }
+
+        sort(keys, results, 0, n - 1);
+
+        // Drop duplicates, they have the same result anyway.
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || compare(keys, i, keys[2 * (unique - 1)], keys[2 * (unique - 1) + 1]) != 0) {
+                keys[2 * unique] = keys[2 * i];
+                keys[2 * unique + 1] = keys[2 * i + 1];
+                results[unique++] = results[i];
+            }
+        }
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        File tmp = File.createTempFile("utilities", ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int[] client : solverPrefs) {
+                    for (int value : client) {
+                        out.writeInt(value);
+                    }
+                }
+                out.writeInt(unique);
+                for (int i = 0; i < unique; i++) {
+                    out.writeLong(keys[2 * i]);
+                    out.writeLong(keys[2 * i + 1]);
+                    out.writeInt(results[i]);
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
+        return unique;
+    }
+
+    /**
+     * Looks up a key.
+     *
+     * @return The result or UtilityTable.MISSING.
+     */
+    int get(long low, long high) {
+        int from = 0;
+        int to = count - 1;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            int pos = HEADER_SIZE + mid * ENTRY_SIZE;
+            int c = compare(data.getLong(pos), data.getLong(pos + 8), low, high);
+            if (c < 0) {
+                from = mid + 1;
+            } else if (c > 0) {
+                to = mid - 1;
+            } else {
+                return data.getInt(pos + 16);
+            }
+        }
+        return UtilityTable.MISSING;
+    }
+
+    /**
+     * Returns the number of entries in the snapshot.
+     */
+    int size() {
+        return count;
+    }
+
+    //
+    //  Internal Helper
+    //
+
+    private static int compare(long low1, long high1, long low2, long high2) {
+        int c = Long.compare(low1, low2);
+        return c != 0 ? c : Long.compare(high1, high2);
+    }
+
+    private static int compare(long[] keys, int i, long low, long high) {
+        return compare(keys[2 * i], keys[2 * i + 1], low, high);
+    }
+
+    /**
+     * Sorts the entries in [from, to] by key. A quicksort on the primitive
+     * arrays, as there may be millions of entries.
+     */
+    private static void sort(long[] keys, int[] results, int from, int to) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            long pivotLow = keys[2 * mid];
+            long pivotHigh = keys[2 * mid + 1];
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (compare(keys, i, pivotLow, pivotHigh) < 0) {
+                    i++;
+                }
+                while (compare(keys, j, pivotLow, pivotHigh) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, results, i++, j--);
+                }
+            }
+            // Recurse into the smaller part, loop on the larger one.
+            if (j - from < to - i) {
+                sort(keys, results, from, j);
+                from = i;
+            } else {
+                sort(keys, results, i, to);
+                to = j;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && compare(keys, j, keys[2 * (j - 1)], keys[2 * (j - 1) + 1]) < 0; j--) {
+                swap(keys, results, j, j - 1);
+            }
+        }
+    }
+
+    private static void swap(long[] keys, int[] results, int i, int j) {
+        long low = keys[2 * i];
+        long high = keys[2 * i + 1];
+        int result = results[i];
+        keys[2 * i] = keys[2 * j];
+        keys[2 * i + 1] = keys[2 * j + 1];
+        results[i] = results[j];
+        keys[2 * j] = low;
+        keys[2 * j + 1] = high;
+        results[j] = result;
+    }
+}
@@ -0,0 +1,510 @@
+package se.bth.ooseven;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A compact hash table mapping packed owned-item states to utility values.
+ *
+ * Keys are the two longs of a PackedOwns, four bits per item. Besides the
+ * utility, every entry stores the cost of calculating it (the solve time in
+ * nanoseconds) and the round it was last used in.
+ *
+ * All data is kept in primitive arrays using open addressing with linear
+ * probing, so the garbage collector never has to trace individual entries.
+ * The table is split into segments which grow on demand, each guarded by a
+ * StampedLock. Lookups use optimistic reads and only block if a writer is
+ * active in the same segment at the same time.
+ *
+ * The table can be bounded. Every segment then holds its share of the
+ * entries, and a full segment makes room for a new entry by evicting one of
+ * a few sampled entries: preferably one that has not been used since the
+ * given stale round, and among those the cheapest to calculate again. The
+ * new entry itself is always kept.
+ */
+final class UtilityTable {
+
+    /**
+     * Returned by get() if the key is not present in the table.
+     */
+    static final int MISSING = Integer.MIN_VALUE;
+
+    /**
+     * The number of segments. Must be a power of two.
+     */
+    private static final int SEGMENTS = 128;
+
+    /**
+     * The number of slots in a newly created segment. Must be a power of two.
+     */
+    private static final int INITIAL_SLOTS = 256;
+
+    /**
+     * The number of entries looked at to pick one to evict.
+     */
+    private static final int SAMPLES = 8;
+
+    /**
+     * Returned by put() if the key was already present.
+     */
+    static final int REPLACED = 0;
+
+    /**
+     * Returned by put() if the key was added.
+     */
+    static final int ADDED = 1;
+
+    /**
+     * Returned by put() if the key was added after evicting another entry.
+     */
+    static final int EVICTED = 2;
+
+    private final Segment[] segments;
+    private final int segmentCapacity;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructs a new, empty and unbounded table.
+     */
+    UtilityTable() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a new, empty table.
+     *
+     * @param capacity The maximum number of entries.
+     */
+    UtilityTable(int capacity) {
+        this.segmentCapacity = (int) Math.max(1, ((long) capacity + SEGMENTS - 1) / SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    //
+    //  External interface
+    //
+
+    /**
+     * Looks up a key and marks it as used in the given round.
+     *
+     * @return The stored utility, or MISSING if the key is not present.
+     */
+    int get(long low, long high, int round) {
+        int hash = hash(low, high);
+        Segment segment = segmentFor(hash);
+        StampedLock lock = segment.lock;
+
+        long stamp = lock.tryOptimisticRead();
+        Slots slots = segment.slots;
+        int slot = slots.find(low, high, hash);
+        int result = slot >= 0 ? slots.results[slot] : MISSING;
+
+        if (!lock.validate(stamp)) {
+            // A writer got in the way, retry while holding the read lock.
+            stamp = lock.readLock();
+            try {
+                slots = segment.slots;
+                slot = slots.find(low, high, hash);
+                result = slot >= 0 ? slots.results[slot] : MISSING;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        if (slot >= 0) {
+            // Racy on purpose. Emptiness is decided by the cost, so a lost or
+            // misplaced update can only change the eviction order.
+            slots.rounds[slot] = round;
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a key is present, without marking it as used.
+     */
+    boolean contains(long low, long high) {
+        int hash = hash(low, high);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.readLock();
+        try {
+            return segment.slots.find(low, high, hash) >= 0;
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stores a utility. Replaces the values if the key is already present.
+     * If the segment is full, another entry is evicted first.
+     *
+     * @param cost       The time it took to calculate the utility, in
+     *                   nanoseconds.
+     * @param round      The round the entry is used in.
+     * @param staleRound Entries last used before this round are evicted
+     *                   first.
+     * @return REPLACED, ADDED or EVICTED.
+     */
+    int put(long low, long high, int result, long cost, int round, int staleRound) {
+        int hash = hash(low, high);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            Slots slots = segment.slots;
+            int slot = slots.find(low, high, hash);
+            if (slot >= 0) {
+                slots.results[slot] = result;
+                slots.costs[slot] = clampCost(cost);
+                slots.rounds[slot] = round;
+                return REPLACED;
+            }
+
+            int added = ADDED;
+            if (segment.count >= segmentCapacity) {
+                slots.delete(slots.victim(
+                        ThreadLocalRandom.current().nextInt(), staleRound));
+                segment.count--;
+                size.decrementAndGet();
+                added = EVICTED;
+            } else if ((segment.count + 1) * 4L > slots.costs.length * 3L) {
+                // Keep the load factor below 3/4.
+                slots = slots.grow();
+                segment.slots = slots;
+            }
+            slots.insert(low, high, hash, result, clampCost(cost), round);
+            segment.count++;
+            size.incrementAndGet();
+            return added;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes a key from the table.
+     *
+     * @return True if the key was present.
+     */
+    boolean remove(long low, long high) {
+        int hash = hash(low, high);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            Slots slots = segment.slots;
+            int slot = slots.find(low, high, hash);
+            if (slot < 0) {
+                return false;
+            }
+            slots.delete(slot);
+            segment.count--;
+            size.decrementAndGet();
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Copies the entries into the given arrays, starting at the given index,
+     * until the arrays are full. Keys take two longs per entry. Entries added
+     * at the same time may be missed.
+     *
+     * @return The index after the last copied entry.
+     */
+    int copyTo(long[] keys, int[] results, int start) {
+        int n = start;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                Slots slots = segment.slots;
+                for (int slot = 0; slot < slots.costs.length && n < results.length; slot++) {
+                    if (slots.costs[slot] != 0) {
+                        keys[2 * n] = slots.keys[2 * slot];
+                        keys[2 * n + 1] = slots.keys[2 * slot + 1];
+                        results[n++] = slots.results[slot];
+                    }
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the number of entries in the table.
+     */
+    int size() {
+        return size.get();
+    }
+
+    //
+    //  Internal Helper
+    //
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> 25 & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Mixes both halves of the key into a well distributed hash. The upper
+     * bits select the segment, the lower bits the slot.
+     */
+    private static int hash(long low, long high) {
+        long h = low * 0x9E3779B97F4A7C15L + high;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Costs are stored as positive ints, as a cost of 0 marks an empty slot.
+     */
+    private static int clampCost(long cost) {
+        return (int) Math.max(1, Math.min(cost, Integer.MAX_VALUE));
+    }
+
+    /**
+     *  One independently locked part of the table.
+     */
+    private static final class Segment {
+        private final StampedLock lock = new StampedLock();
+        private volatile Slots slots = new Slots(INITIAL_SLOTS);
+        private int count = 0;
+    }
+
+    /**
+     *  The arrays of one segment. Replaced as a whole when the segment grows,
+     *  so optimistic readers always see arrays of matching length.
+     */
+    private static final class Slots {
+        private final long[] keys;
+        private final int[] results;
+        private final int[] costs;
+        private final int[] rounds;
+        private final int mask;
+
+        private Slots(int capacity) {
+            this.keys = new long[2 * capacity];
+            this.results = new int[capacity];
+            this.costs = new int[capacity];
+            this.rounds = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        /**
+         *  Returns the slot holding the key, or -1 if there is none. The
+         *  probe is bounded, as optimistic readers may see a table that is
+         *  being modified.
+         */
+        private int find(long low, long high, int hash) {
+            for (int i = 0, slot = hash & mask; i <= mask; i++, slot = (slot + 1) & mask) {
+                if (costs[slot] == 0) {
+                    return -1;
+                }
+                if (keys[2 * slot] == low && keys[2 * slot + 1] == high) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         *  Inserts a key known not to be present.
+         */
+        private void insert(long low, long high, int hash, int result, int cost, int round) {
+            int slot = hash & mask;
+            while (costs[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[2 * slot] = low;
+            keys[2 * slot + 1] = high;
+            results[slot] = result;
+            rounds[slot] = round;
+            costs[slot] = cost;
+        }
+
+        /**
+         *  Picks an entry to evict among the first SAMPLES entries found from
+         *  a random start. Stale entries go first, then the cheapest. The
+         *  segment must not be empty.
+         */
+        private int victim(int start, int staleRound) {
+            int best = -1;
+            boolean bestStale = false;
+            int found = 0;
+            for (int i = 0, slot = start & mask; i <= mask && found < SAMPLES; i++, slot = (slot + 1) & mask) {
+                if (costs[slot] == 0) {
+                    continue;
+                }
+                found++;
+                boolean stale = rounds[slot] < staleRound;
+                if (best < 0 || (stale && !bestStale)
+                        || (stale == bestStale && costs[slot] < costs[best])) {
+                    best = slot;
+                    bestStale = stale;
+                }
+            }
+            return best;
+        }
+
+        /**
+         *  Deletes the entry in the given slot. Later entries of the same
+         *  probe sequence are shifted back, so no tombstones are needed.
+         */
+        private void delete(int slot) {
+            int hole = slot;
+            int next = slot;
+            while (true) {
+                next = (next + 1) & mask;
+                if (costs[next] == 0) {
+                    break;
+                }
+                int home = hash(keys[2 * next], keys[2 * next + 1]) & mask;
+                // Move the entry unless its home lies cyclically in (hole, next].
+                boolean stays = hole <= next
+                        ? hole < home && home <= next
+                        : hole < home || home <= next;
+                if (!stays) {
+                    keys[2 * hole] = keys[2 * next];
+                    keys[2 * hole + 1] = keys[2 * next + 1];
+                    results[hole] = results[next];
+                    rounds[hole] = rounds[next];
+                    costs[hole] = costs[next];
+                    hole = next;
+                }
+            }
+            costs[hole] = 0;
+        }
+
+        /**
+         *  Returns a copy of this segment with twice the number of slots.
+         */
+        private Slots grow() {
+            Slots grown = new Slots(2 * costs.length);
+            for (int slot = 0; slot < costs.length; slot++) {
+                if (costs[slot] != 0) {
+                    long low = keys[2 * slot];
+                    long high = keys[2 * slot + 1];
+                    grown.insert(low, high, hash(low, high), results[slot],
+                            costs[slot], rounds[slot]);
+                }
+            }
+            return grown;
+        }
+    }
+
+    // =========================================================================
+    // Entry-point for testing
+    // =========================================================================
+
+    /**
+     * Compares the heap usage and GC time of this table against the boxed
+     * layout the Cache used before: a ConcurrentHashMap from Owns to an entry
+     * object, with every tenth entry also indexed in a ConcurrentSkipListSet.
+     *
+     * Run each layout in its own JVM for comparable numbers:
+     *   java se.bth.ooseven.UtilityTable 1000000 table
+     *   java se.bth.ooseven.UtilityTable 1000000 boxed
+     */
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        boolean boxed = args.length > 1 && args[1].equals("boxed");
+
+        Random random = new Random(7);
+        int[] counts = new int[28];
+        long baseline = usedHeap();
+        long gcBefore = gcMillis();
+        long start = System.nanoTime();
+
+        if (boxed) {
+            ConcurrentHashMap<Owns, BoxedEntry> map = new ConcurrentHashMap<>(entries);
+            ConcurrentSkipListSet<BoxedEntry> fastest = new ConcurrentSkipListSet<>(
+                    Comparator.comparingLong((BoxedEntry e) -> e.time)
+                            .thenComparingInt(e -> e.base.hashCode()));
+            for (int i = 0; i < entries; i++) {
+                for (int j = 0; j < counts.length; j++) {
+                    counts[j] = random.nextInt(16);
+                }
+                Owns owns = new Owns(counts);
+                BoxedEntry entry = new BoxedEntry(owns, i, random.nextInt(100000));
+                map.put(owns, entry);
+                if (i % 10 == 0) {
+                    fastest.add(entry);
+                }
+            }
+            sink = new Object[]{map, fastest};
+        } else {
+            UtilityTable table = new UtilityTable(entries);
+            for (int i = 0; i < entries; i++) {
+                long low = random.nextLong(), high = random.nextLong() >>> 16;
+                table.put(low, high, i, random.nextInt(100000), 1, 0);
+            }
+            sink = table;
+        }
+
+        long fillTime = (System.nanoTime() - start) / (1000 * 1000);
+        long gcTime = gcMillis() - gcBefore;
+        long used = usedHeap() - baseline;
+
+        long fullGc = System.nanoTime();
+        System.gc();
+        fullGc = (System.nanoTime() - fullGc) / (1000 * 1000);
+
+        System.out.println((boxed ? "boxed" : "table") + ", " + entries + " entries");
+        System.out.println("Heap:    " + used / (1024 * 1024) + " MB\t("
+                + used / entries + " bytes/entry)");
+        System.out.println("Fill:    " + fillTime + " ms\t(GC: " + gcTime + " ms)");
+        System.out.println("Full GC: " + fullGc + " ms");
+    }
+
+    /**
+     *  Keeps the filled structures reachable until the measurement is done.
+     */
+    private static volatile Object sink;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gc.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    /**
+     *  Mirrors the layout of the Cache's former entry objects.
+     */
+    private static final class BoxedEntry {
+        private final Owns base;
+        private final int result;
+        private final long time;
+        private long lastUsed;
+
+        private BoxedEntry(Owns base, int result, long time) {
+            this.base = base;
+            this.result = result;
+            this.time = time;
+            this.lastUsed = System.nanoTime();
+        }
+    }
+}
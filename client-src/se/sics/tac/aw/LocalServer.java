@@ -0,0 +1,182 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * LocalServer
+ *
+ * Purpose :
+ *   A server running in the same process as the agents, for example a
+ *   game simulator. Agents created by a LocalServer do not use any
+ *   TACConnection. Instead of sending messages they call the request
+ *   methods below, and the server answers by calling the answer methods
+ *   with the same information a message reply would contain. All times
+ *   are server times and all timer tasks of the agents are scheduled by
+ *   the server, so the server decides how fast time runs.
+ *
+ *   Answers call the agent implementation and must therefore not be
+ *   given from within a request (the agent might be in the middle of
+ *   submitting a bid). They should be given later, as replies arriving
+ *   from a real server would. The game information is the exception:
+ *   it must be set before requestGame() returns.
+ */
+
+package se.sics.tac.aw;
+import java.util.Properties;
+
+public abstract class LocalServer {
+
+  /**
+   * Creates an agent playing against this server. The agent
+   * implementation is initialized with the specified configuration which
+   * it can read using TACAgent.getConfig().
+   */
+  protected final TACAgent createAgent(AgentImpl agent, String name,
+				       Properties config) {
+    return new TACAgent(agent, name, config, this);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Time handling
+  // -------------------------------------------------------------------
+
+  public abstract long getServerTime();
+
+  public abstract void addTask(long time, Object key, Object value,
+			       Task task);
+
+  public abstract void cancelTask(Object key, Task task);
+
+
+  // -------------------------------------------------------------------
+  // Requests from the agents
+  // -------------------------------------------------------------------
+
+  /**
+   * Requests the auctions and parameters for a game. Must be answered
+   * using setGameLength(), addAuction(), setClient() and addOwn()
+   * before returning.
+   */
+  protected abstract void requestGame(TACAgent agent, int gameID);
+
+  /**
+   * Requests a quote. Answered with quote(). The bid id is
+   * Bid.NO_ID if no hypothetical quantity won is wanted.
+   */
+  protected abstract void requestQuote(TACAgent agent, Quote quote,
+				       int auctionID, int bidID);
+
+  /**
+   * Submits a new bid or replaces the bid with the specified id and
+   * hash (oldBidID is Bid.NO_ID for new bids). Answered with
+   * bidSubmitted().
+   */
+  protected abstract void submitBid(TACAgent agent, Bid bid, int auctionID,
+				    String bidString,
+				    int oldBidID, String oldBidHash);
+
+  /** Requests information about a bid. Answered with bidInfo(). */
+  protected abstract void requestBidInfo(TACAgent agent, Bid bid,
+					 int bidID);
+
+  /**
+   * Requests the transactions after the specified transaction.
+   * Answered with transaction() for each transaction followed by
+   * transactionsComplete().
+   */
+  protected abstract void requestTransactions(TACAgent agent,
+					      int earliestTransID);
+
+
+  // -------------------------------------------------------------------
+  // Answers and notifications to the agents
+  // -------------------------------------------------------------------
+
+  /** Tells the agent to play the specified game */
+  protected final void nextGame(TACAgent agent, int gameID, long startTime) {
+    agent.localNextGame(gameID, startTime);
+  }
+
+  protected final void setGameLength(TACAgent agent, int gameLength) {
+    agent.localGameLength(gameLength);
+  }
+
+  protected final void addAuction(TACAgent agent, int category, int type,
+				  int day, int auctionID) {
+    agent.localAuction(category, type, day, auctionID);
+  }
+
+  /** Sets the preferences of a client (1 - 8) */
+  protected final void setClient(TACAgent agent, int client,
+				 int arrival, int departure, int hotel,
+				 int e1, int e2, int e3) {
+    agent.localClient(client - 1, arrival, departure, hotel,
+		      new int[] { e1, e2, e3 });
+  }
+
+  /** Adds an endowment */
+  protected final void addOwn(TACAgent agent, int category, int type,
+			      int day, int quantity) {
+    agent.localOwn(category, type, day, quantity);
+  }
+
+  /**
+   * Answers a quote request. The hypothetical quantity won is -1 if
+   * not known and the quote times are in milliseconds.
+   */
+  protected final void quote(TACAgent agent, Quote quote,
+			     float askPrice, float bidPrice, int hqw,
+			     int auctionStatus, long nextQuoteTime,
+			     long lastQuoteTime) {
+    agent.localQuote(quote, askPrice, bidPrice, hqw, auctionStatus,
+		     nextQuoteTime, lastQuoteTime);
+  }
+
+  /** Answers a bid submission */
+  protected final void bidSubmitted(TACAgent agent, Bid bid, int bidID,
+				    String bidHash, int rejectReason,
+				    int commandStatus) {
+    agent.localBidSubmitted(bid, bidID, bidHash, rejectReason,
+			    commandStatus);
+  }
+
+  /**
+   * Answers a bid information request. The states and times are given
+   * as in the messages from the server (times in seconds).
+   */
+  protected final void bidInfo(TACAgent agent, Bid bid, String bidString,
+			       String bidHash, int rejectReason,
+			       int processingState, long timeClosed,
+			       long timeProcessed, int commandStatus) {
+    agent.localBidInfo(bid, bidString, bidHash, rejectReason,
+		       processingState, timeClosed, timeProcessed,
+		       commandStatus);
+  }
+
+  /** Answers a transaction request, once per transaction */
+  protected final void transaction(TACAgent agent, int transID,
+				   int auctionID, int quantity, float price) {
+    agent.localTransaction(transID, auctionID, quantity, price);
+  }
+
+  /** Ends the answer to a transaction request */
+  protected final void transactionsComplete(TACAgent agent) {
+    agent.localTransactionsComplete();
+  }
+
+} // LocalServer
@@ -32,6 +32,7 @@ import se.sics.tac.util.LogFormatter;
 
 import javax.swing.table.AbstractTableModel;
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Properties;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
@@ -181,6 +182,17 @@ public class TACAgent implements Task, TACMessageReceiver {
 
   private TACConnection connection = null;
 
+  // The connection that the server pushes quotes, bids, and
+  // transactions on (no polling is needed when this is the connection)
+  private TACConnection subscribedConnection = null;
+
+  // The connection to a server that does not support several quotes or
+  // bids in one message (getQuotes, submitBids)
+  private TACConnection unbatchedConnection = null;
+
+  // The server if the agent plays in the same process as the server
+  private LocalServer localServer = null;
+
   private int nextGameID = -1;
   private long nextGameTime = -1;
 
@@ -214,6 +226,10 @@ public class TACAgent implements Task, TACMessageReceiver {
   private int earliestTransID = -1;
   private boolean isGameStarted = false;
 
+  // Transactions might both be pushed and requested
+  private int[] receivedTransIDs = new int[32];
+  private int receivedTransNumber = 0;
+
   private int[] transActions = new int[10];
   private int transActionsNum = 0;
   private int[] waitActions = new int[10];
@@ -337,6 +353,21 @@ public class TACAgent implements Task, TACMessageReceiver {
     connect();
   }
 
+  // Used by LocalServer for agents playing in the same process as the
+  // server. Such agents never connect and have no GUI or log files.
+  TACAgent(AgentImpl agent, String user, Properties config,
+	   LocalServer localServer) {
+    this(agent);
+    this.userName = user;
+    this.config = config;
+    this.localServer = localServer;
+
+    agent.init(this, new ArgEnumerator(new String[0], "", false));
+
+    // Allow garbage collection
+    this.config = null;
+  }
+
 
 
   // -------------------------------------------------------------------
@@ -408,61 +439,103 @@ public class TACAgent implements Task, TACMessageReceiver {
   // Timer tasks - handles game start/end, quote and bid requests, etc
   // -------------------------------------------------------------------
 
+  // Schedules a task at the specified server time. Agent implementations
+  // should use this instead of their own timers since the time might not
+  // be real time when playing against a LocalServer.
+  public void addTask(long time, Object key, Object value, Task task) {
+    if (localServer != null) {
+      localServer.addTask(time, key, value, task);
+    } else {
+      TimeDispatcher.getDefault().addTask(time, key, value, task);
+    }
+  }
+
+  public void cancelTask(Object key, Task task) {
+    if (localServer != null) {
+      localServer.cancelTask(key, task);
+    } else {
+      TimeDispatcher.getDefault().cancelTask(key, task);
+    }
+  }
+
   private void cancelTimers() {
-    TimeDispatcher d = TimeDispatcher.getDefault();
-    d.cancelTask("gameStarts", this);
-    d.cancelTask("gameEnds", this);
-    d.cancelTask("hotelQuotes", this);
-    d.cancelTask("flightQuotes", this);
-    d.cancelTask("quotes", this);
-    d.cancelTask("bids", this);
-    d.cancelTask("printOwn", this);
+    cancelTask("gameStarts", this);
+    cancelTask("gameEnds", this);
+    cancelTask("hotelQuotes", this);
+    cancelTask("flightQuotes", this);
+    cancelTask("quotes", this);
+    cancelTask("bids", this);
+    cancelTask("printOwn", this);
+    cancelTask("hotelPushes", this);
   }
 
   public void performWork(long time, Object key, Object value) {
-    TimeDispatcher td = TimeDispatcher.getDefault();
     if (key == "hotelQuotes") {
       // Request all hotel quotes
       if (value == connection) {
-	td.addTask(time + 60000, key, value, this);
+	addTask(time + 60000, key, value, this);
 	TACConnection conn = (TACConnection) value;
-	for (int i = MIN_HOTEL; i <= MAX_HOTEL; i++) {
-	  if (!quotes[i].isAuctionClosed()) {
-	    lastHotelAuction = i;
-	    requestQuote(quotes[i], conn, false);
+	if (isSubscribed()) {
+	  hotelQuotesPushed();
+	} else {
+	  ArrayList batch = new ArrayList();
+	  for (int i = MIN_HOTEL; i <= MAX_HOTEL; i++) {
+	    if (!quotes[i].isAuctionClosed()) {
+	      lastHotelAuction = i;
+	      requestQuote(quotes[i], conn, false, batch);
+	    }
 	  }
+	  sendQuoteRequests(conn, batch);
 	}
       }
 
+    } else if (key == "hotelPushes") {
+      if (value == connection) {
+	hotelQuotesPushed();
+      }
+
     } else if (key == "flightQuotes") {
       // Request all flight quotes
       if (value == connection) {
-	td.addTask(time + 10000, key, value, this);
+	addTask(time + 10000, key, value, this);
 	TACConnection conn = (TACConnection) value;
 
-	for (int i = MIN_FLIGHT; i <= MAX_FLIGHT; i++) {
-	  if (!quotes[i].isAuctionClosed()) {
-	    requestQuote(quotes[i], conn, false);
+	if (isSubscribed()) {
+	  quotesPushed(CAT_FLIGHT, MAX_FLIGHT);
+	} else {
+	  ArrayList batch = new ArrayList();
+	  for (int i = MIN_FLIGHT; i <= MAX_FLIGHT; i++) {
+	    if (!quotes[i].isAuctionClosed()) {
+	      requestQuote(quotes[i], conn, false, batch);
+	    }
 	  }
+	  sendQuoteRequests(conn, batch);
 	}
       }
 
     } else if (key == "quotes") {
       if (value == connection) {
 	// Request the entertainment quotes only
-	td.addTask(time + INFO_UPDATE_PERIOD, key, value, this);
-	requestQuotes((TACConnection) value, false, false);
+	addTask(time + INFO_UPDATE_PERIOD, key, value, this);
+	if (isSubscribed()) {
+	  quotesPushed(CAT_ENTERTAINMENT, MAX_ENTERTAINMENT);
+	} else {
+	  requestQuotes((TACConnection) value, false, false);
+	}
       }
 
     } else if (key == "bids") {
       if (value == connection) {
-	td.addTask(time + INFO_UPDATE_PERIOD, key, value, this);
-	requestBidInfos((TACConnection) value);
+	addTask(time + INFO_UPDATE_PERIOD, key, value, this);
+	// Bid states and transactions are pushed to subscribers
+	if (!isSubscribed()) {
+	  requestBidInfos((TACConnection) value);
+	}
       }
 
     } else if (key == "printOwn") {
       if (value == connection && (printOwnDelay > 0)) {
-	td.addTask(time + printOwnDelay, key, value, this);
+	addTask(time + printOwnDelay, key, value, this);
 	printOwn();
       }
 
@@ -510,6 +583,9 @@ public class TACAgent implements Task, TACMessageReceiver {
   }
 
   public long getServerTime() {
+    if (localServer != null) {
+      return localServer.getServerTime();
+    }
     return System.currentTimeMillis() - timeDiff;
   }
 
@@ -517,6 +593,10 @@ public class TACAgent implements Task, TACMessageReceiver {
     return getServerTime() - startTime;
   }
 
+  public long getStartTime() {
+    return startTime;
+  }
+
   public long getGameTimeLeft() {
     long time = startTime + gameLength - getServerTime();
     return time > 0L ? time : 0L;
@@ -692,6 +772,7 @@ public class TACAgent implements Task, TACMessageReceiver {
     isGameStarted = false;
     lastHotelAuction = -1;
     clearID = 0;
+    clearReceivedTransactions();
     for (int i = 0, n = clientPrefs.length; i < n; i++) {
       int[] tmp = clientPrefs[i];
       for (int j = 0, m = tmp.length; j < m; j++) {
@@ -719,10 +800,44 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
     int auction = bid.getAuction();
     bid.submitted();
-    TACMessage msg = new TACMessage("submitBid");
-    prepareBidMsg(msg, bid);
-    updateBid(bid);
-    sendMessage(msg, this);
+    if (localServer != null) {
+      updateBid(bid);
+      localServer.submitBid(this, bid, auctionIDs[auction],
+			    bid.getBidString(), Bid.NO_ID, null);
+    } else {
+      TACMessage msg = new TACMessage("submitBid");
+      prepareBidMsg(msg, bid);
+      updateBid(bid);
+      sendMessage(msg, this);
+    }
+  }
+
+  // Submits several new bids at once. The bids are sent in one message
+  // if the server supports it and otherwise one by one as submitBid().
+  public void submitBids(Bid[] bids) {
+    if (getGameID() < 0) {
+      throw new IllegalStateException("No game playing");
+    }
+    if (bids.length < 2 || localServer != null || !isBatchSupported()) {
+      for (int i = 0, n = bids.length; i < n; i++) {
+	submitBid(bids[i]);
+      }
+    } else {
+      StringBuffer sb = new StringBuffer();
+      for (int i = 0, n = bids.length; i < n; i++) {
+	Bid bid = bids[i];
+	bid.submitted();
+	sb.append("<bidTuple><auctionID>")
+	  .append(auctionIDs[bid.getAuction()])
+	  .append("</auctionID><bidString>").append(bid.getBidString())
+	  .append("</bidString></bidTuple>");
+	updateBid(bid);
+      }
+      TACMessage msg = new TACMessage("submitBids");
+      msg.setParameter("list", sb.toString());
+      msg.setUserData(bids.clone());
+      sendMessage(msg, this);
+    }
   }
 
   public void replaceBid(Bid oldBid, Bid bid) {
@@ -746,6 +861,11 @@ public class TACAgent implements Task, TACMessageReceiver {
       } catch (Exception e) {
 	log.log(Level.SEVERE, "agent could not handle bidRejected", e);
       }
+    } else if (localServer != null) {
+      updateBid(bid);
+      localServer.submitBid(this, bid, auctionIDs[auction],
+			    bid.getBidString(), oldBid.getID(),
+			    oldBid.getBidHash());
     } else {
       TACMessage msg = new TACMessage("replaceBid");
       msg.setParameter("bidID", oldBid.getID());
@@ -863,6 +983,12 @@ public class TACAgent implements Task, TACMessageReceiver {
 	// This is only for backward compability.  Older versions of the
 	// server might return tacerror for unknown message types.
 	log.warning("ignoring error for getGameConst: " + msg.getValue());
+      } else if ("subscribe".equals(type)) {
+	// Older servers do not support subscriptions
+	log.fine("subscription not supported (polling): " + msg.getValue());
+      } else if ("getQuotes".equals(type) || "submitBids".equals(type)) {
+	// Older servers might return tacerror for unknown message types
+	batchNotSupported(msg);
       } else {
 	agent.tacerrorReceived(msg);
       }
@@ -893,8 +1019,12 @@ public class TACAgent implements Task, TACMessageReceiver {
 	handleBidSubmission(msg);
       } else if (msg.isTag("replaceBid")) {
 	handleBidSubmission(msg);
+      } else if (msg.isTag("submitBids")) {
+	handleBidSubmissions(msg);
       } else if (msg.isTag("getQuote")) {
 	handleQuote(msg);
+      } else if (msg.isTag("getQuotes")) {
+	handleQuotes(msg);
       } else if (msg.isTag("bidInfo")) {
 	handleBidInfo(msg);
       } else if (msg.isTag("transIDs")) {
@@ -903,6 +1033,16 @@ public class TACAgent implements Task, TACMessageReceiver {
 	handleTransInfo(msg);
       } else if (msg.isTag("recoverBidIDs")) {
 	handleRecoverBidIDs(msg);
+      } else if (msg.isTag("subscribe")) {
+	handleSubscribe(msg);
+      } else if (msg.isTag("pushQuote")) {
+	handlePushedQuote(msg);
+      } else if (msg.isTag("pushBidInfo")) {
+	handleBidInfo(msg);
+      } else if (msg.isTag("pushTransaction")) {
+	handlePushedTransaction(msg);
+      } else if (msg.isTag("pushAuctionClosed")) {
+	handlePushedAuctionClosed(msg);
       }
     }
   }
@@ -928,16 +1068,17 @@ public class TACAgent implements Task, TACMessageReceiver {
 			     boolean hotelQuotes) {
     // This should be changed so that it will only request those quotes
     // that are old enough...
+    ArrayList batch = new ArrayList();
     if (flightQuotes) {
       for (int i = MIN_FLIGHT; i <= MAX_FLIGHT ; i++) {
 	if (!quotes[i].isAuctionClosed()) {
-	  requestQuote(quotes[i], conn, false);
+	  requestQuote(quotes[i], conn, false, batch);
 	}
       }
     }
     for (int i = MIN_ENTERTAINMENT; i <= MAX_ENTERTAINMENT ; i++) {
       if (!quotes[i].isAuctionClosed()) {
-	requestQuote(quotes[i], conn, false);
+	requestQuote(quotes[i], conn, false, batch);
       }
     }
 
@@ -945,13 +1086,22 @@ public class TACAgent implements Task, TACMessageReceiver {
       for (int i = MIN_HOTEL; i <= MAX_HOTEL ; i++) {
 	if (!quotes[i].isAuctionClosed()) {
 	  lastHotelAuction = i;
-	  requestQuote(quotes[i], conn, false);
+	  requestQuote(quotes[i], conn, false, batch);
 	}
       }
     }
+    sendQuoteRequests(conn, batch);
   }
 
   private void requestQuote(Quote quote, TACConnection conn, boolean force) {
+    requestQuote(quote, conn, force, null);
+  }
+
+  // Requests the quote directly or, if a batch is specified, adds the
+  // request (the quote or the bid to get the HQW for) to the batch to
+  // be sent by sendQuoteRequests()
+  private void requestQuote(Quote quote, TACConnection conn, boolean force,
+			    ArrayList batch) {
     int auction = quote.getAuction();
     int auctionID = auctionIDs[auction];
 
@@ -976,24 +1126,26 @@ public class TACAgent implements Task, TACMessageReceiver {
       } else {
 	pendingQuotes[auction] = currentTime;
 	try {
-	  TACMessage msg = new TACMessage("getQuote");
-	  msg.setParameter("auctionID", auctionID);
 	  Bid bid = bids[auction];
-	  msg.setUserData(quote);
-	  if (bid != null) {
-	    int id;
-	    if ((id = bid.getID()) != Bid.NO_ID) {
-	      msg.setParameter("bidID", id);
-	      msg.setUserData(bid);
-	    } else if (((bid = bid.getReplacing()) != null)
-		       && ((id = bid.getID()) != Bid.NO_ID)) {
-	      // Request HQW for previous bid if it currently is being
-	      // replaced (in case the new bid is rejected)
-	      msg.setParameter("bidID", id);
-	      msg.setUserData(bid);
+	  if (bid != null && bid.getID() == Bid.NO_ID) {
+	    // Request HQW for previous bid if it currently is being
+	    // replaced (in case the new bid is rejected)
+	    bid = bid.getReplacing();
+	  }
+	  int id = bid != null ? bid.getID() : Bid.NO_ID;
+	  if (localServer != null) {
+	    if (id != Bid.NO_ID) {
+	      quote.setHQW(-1);
+	      quote.setBid(bid);
 	    }
+	    localServer.requestQuote(this, quote, auctionID, id);
+	  } else if (batch != null) {
+	    batch.add(id != Bid.NO_ID ? (Object) bid : quote);
+	  } else {
+	    conn.sendMessage(createQuoteRequest(id != Bid.NO_ID
+						? (Object) bid : quote),
+			     this);
 	  }
-	  conn.sendMessage(msg, this);
 	} catch (Exception e) {
 	  log.log(Level.SEVERE, "could not request quote for auction "
 		  + auction + " (" + getAuctionTypeAsString(auction) + ')', e);
@@ -1004,6 +1156,83 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
   }
 
+  // Sends the quote requests collected by requestQuote() in one message
+  private void sendQuoteRequests(TACConnection conn, ArrayList batch) {
+    int size = batch.size();
+    if (size == 0) {
+      return;
+    }
+    try {
+      if (size == 1 || !isBatchSupported()) {
+	for (int i = 0; i < size; i++) {
+	  conn.sendMessage(createQuoteRequest(batch.get(i)), this);
+	}
+      } else {
+	StringBuffer sb = new StringBuffer();
+	for (int i = 0; i < size; i++) {
+	  Object request = batch.get(i);
+	  sb.append("<quoteTuple><auctionID>")
+	    .append(auctionIDs[getRequestedAuction(request)])
+	    .append("</auctionID>");
+	  if (request instanceof Bid) {
+	    sb.append("<bidID>").append(((Bid) request).getID())
+	      .append("</bidID>");
+	  }
+	  sb.append("</quoteTuple>");
+	}
+	TACMessage msg = new TACMessage("getQuotes");
+	msg.setParameter("list", sb.toString());
+	msg.setUserData(batch.toArray());
+	conn.sendMessage(msg, this);
+      }
+    } catch (Exception e) {
+      log.log(Level.SEVERE, "could not request quotes", e);
+      for (int i = 0; i < size; i++) {
+	pendingQuotes[getRequestedAuction(batch.get(i))] = 0L;
+      }
+      reset(0, conn);
+    }
+  }
+
+  // The request is the quote or the bid to get the HQW for
+  private TACMessage createQuoteRequest(Object request) {
+    TACMessage msg = new TACMessage("getQuote");
+    msg.setParameter("auctionID", auctionIDs[getRequestedAuction(request)]);
+    if (request instanceof Bid) {
+      msg.setParameter("bidID", ((Bid) request).getID());
+    }
+    msg.setUserData(request);
+    return msg;
+  }
+
+  private int getRequestedAuction(Object request) {
+    return request instanceof Bid
+      ? ((Bid) request).getAuction()
+      : ((Quote) request).getAuction();
+  }
+
+  private boolean isBatchSupported() {
+    TACConnection conn = unbatchedConnection;
+    return conn == null || conn != connection;
+  }
+
+  // Resends the requests in a getQuotes or submitBids message one by one
+  private void batchNotSupported(TACMessage msg) {
+    log.fine("batched requests not supported: " + msg.getType());
+    unbatchedConnection = connection;
+
+    Object[] requests = (Object[]) msg.getUserData();
+    for (int i = 0, n = requests.length; i < n; i++) {
+      if ("getQuotes".equals(msg.getType())) {
+	sendMessage(createQuoteRequest(requests[i]), this);
+      } else {
+	TACMessage msg2 = new TACMessage("submitBid");
+	prepareBidMsg(msg2, (Bid) requests[i]);
+	sendMessage(msg2, this);
+      }
+    }
+  }
+
   private void requestBidInfos(TACConnection conn) {
     Bid bid;
     int bidID;
@@ -1012,10 +1241,14 @@ public class TACAgent implements Task, TACMessageReceiver {
 	bid = bids[i];
 	if (bid != null && ((bidID = bid.getID()) != Bid.NO_ID)
 	    && !quotes[i].isAuctionClosed()) {
-	  TACMessage msg = new TACMessage("bidInfo");
-	  msg.setParameter("bidID", bidID);
-	  msg.setUserData(bid);
-	  conn.sendMessage(msg, this);
+	  if (localServer != null) {
+	    localServer.requestBidInfo(this, bid, bidID);
+	  } else {
+	    TACMessage msg = new TACMessage("bidInfo");
+	    msg.setParameter("bidID", bidID);
+	    msg.setUserData(bid);
+	    conn.sendMessage(msg, this);
+	  }
 	}
       }
     } catch (IOException e) {
@@ -1029,10 +1262,8 @@ public class TACAgent implements Task, TACMessageReceiver {
     if (transActionsNum == 0) {
       transActions[0] = call;
       transActionsNum++;
-      TACMessage msg = new TACMessage("transIDs");
-      msg.setParameter("earliestTransID", earliestTransID);
       lastSentTransactionRequest = System.currentTimeMillis();
-      sendMessage(msg, this);
+      sendTransactionRequest();
     } else {
       if (waitActionsNum == waitActions.length) {
 	int[] tmp = new int[waitActions.length * 2];
@@ -1042,7 +1273,9 @@ public class TACAgent implements Task, TACMessageReceiver {
       waitActions[waitActionsNum++] = call;
 
       long currentTime = System.currentTimeMillis();
-      if ((currentTime - lastSentTransactionRequest) > 30000) {
+      // A LocalServer always answers so there is no need to resend
+      if ((currentTime - lastSentTransactionRequest) > 30000
+	  && localServer == null) {
 	// Too long time after last sent transaction
 	TACMessage msg = new TACMessage("transIDs");
 	msg.setParameter("earliestTransID", earliestTransID);
@@ -1055,6 +1288,16 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
   }
 
+  private void sendTransactionRequest() {
+    if (localServer != null) {
+      localServer.requestTransactions(this, earliestTransID);
+    } else {
+      TACMessage msg = new TACMessage("transIDs");
+      msg.setParameter("earliestTransID", earliestTransID);
+      sendMessage(msg, this);
+    }
+  }
+
   private void prepareBidMsg(TACMessage msg, Bid bid) {
     int auction = bid.getAuction();
     msg.setParameter("auctionID", auctionIDs[auction]);
@@ -1082,6 +1325,14 @@ public class TACAgent implements Task, TACMessageReceiver {
       return;
     }
 
+    if (localServer != null) {
+      // The game information has been set when requestGame() returns
+      localServer.requestGame(this, nextGameID);
+      addTask(startTime + 1000 + gameLength, "gameEnds", connection, this);
+      requestTransactions(OP_GAME_STARTS);
+      return;
+    }
+
     try {
       TACMessage msg = new TACMessage("getGameAuctionIDs");
       msg.setParameter("gameID", nextGameID);
@@ -1106,7 +1357,9 @@ public class TACAgent implements Task, TACMessageReceiver {
       handleGameEnd();
     }
 
-    if (exitAfterGames <= 0 || gamesPlayed < exitAfterGames) {
+    // A LocalServer tells the agent when to play the next game
+    if ((exitAfterGames <= 0 || gamesPlayed < exitAfterGames)
+	&& localServer == null) {
       requestNextGame();
     }
   }
@@ -1131,6 +1384,13 @@ public class TACAgent implements Task, TACMessageReceiver {
       if (msg.isTag("userID")) {
 	userID = msg.getValueAsInt(-1);
 	log.fine("Logged in as " + userID);
+	TACConnection connection = this.connection;
+	if (connection != null && connection.isPushSupported()) {
+	  // Ask the server to push information instead of polling
+	  TACMessage subscribe = new TACMessage("subscribe");
+	  subscribe.setUserData(connection);
+	  sendMessage(subscribe, this);
+	}
 	TACMessage msg2 = new TACMessage("serverTime");
 	sendMessage(msg2, this);
 
@@ -1148,6 +1408,27 @@ public class TACAgent implements Task, TACMessageReceiver {
     return false;
   }
 
+  private void handleSubscribe(TACMessage msg) {
+    int status = NO_ERROR;
+    while (msg.nextTag()) {
+      if (msg.isTag("commandStatus")) {
+	status = msg.getValueAsInt(NO_ERROR);
+      }
+    }
+    if (status == NO_ERROR) {
+      log.fine("server pushes quotes, bids, and transactions");
+      subscribedConnection = (TACConnection) msg.getUserData();
+    } else {
+      log.fine("subscription not supported (polling): "
+	       + commandStatusToString(status));
+    }
+  }
+
+  private boolean isSubscribed() {
+    TACConnection conn = subscribedConnection;
+    return conn != null && conn == connection;
+  }
+
   private void handleBidSubmission(TACMessage msg) {
     Bid bid = (Bid) msg.getUserData();
     int status = NO_ERROR;
@@ -1169,7 +1450,50 @@ public class TACAgent implements Task, TACMessageReceiver {
 	status = mapCommandStatus(msg.getValueAsInt(NO_ERROR));
       }
     }
+    bidSubmitted(bid, status);
+  }
+
+  private void handleBidSubmissions(TACMessage msg) {
+    Bid[] bids = (Bid[]) msg.getUserData();
+    Bid bid = null;
+    int index = 0;
+    int status = NO_ERROR;
+
+    while (msg.nextTag()) {
+      if (msg.isTag("bidTuple")) {
+	bid = bids[index++];
+	status = NO_ERROR;
+      } else if (msg.isTag("/bidTuple")) {
+	bidSubmitted(bid, status);
+	bid = null;
+      } else if (msg.isTag("commandStatus")) {
+	status = mapCommandStatus(msg.getValueAsInt(NO_ERROR));
+      } else if (bid == null) {
+	// Not in a tuple
+      } else if (msg.isTag("bidID")) {
+	bid.setID(msg.getValueAsInt(Bid.NO_ID));
+      } else if (msg.isTag("bidHash")) {
+	bid.setBidHash(msg.getValue());
+      } else if (msg.isTag("rejectReason")) {
+	int reject = msg.getValueAsInt(Bid.NOT_REJECTED);
+	bid.setRejectReason(reject);
+	if (reject != Bid.NOT_REJECTED) {
+	  bid.setProcessingState(Bid.REJECTED);
+	}
+      }
+    }
+
+    if (index == 0 && status == NOT_SUPPORTED) {
+      batchNotSupported(msg);
+    } else {
+      // Bids without reply are handled as the status of the message
+      for (int n = bids.length; index < n; index++) {
+	bidSubmitted(bids[index], status);
+      }
+    }
+  }
 
+  private void bidSubmitted(Bid bid, int status) {
     if (bid.isRejected()) {
       // reset the active bid!
       revertBid(bid, NO_ERROR);
@@ -1180,6 +1504,8 @@ public class TACAgent implements Task, TACMessageReceiver {
     } else if (status != NO_ERROR) {
       fatalError("Can not handle bid submission: "
 		 + commandStatusToString(status), 5000);
+    } else if (localServer != null) {
+      localServer.requestBidInfo(this, bid, bid.getID());
     } else {
       // Request Bid info
       TACMessage msg2 = new TACMessage("bidInfo");
@@ -1251,7 +1577,7 @@ public class TACAgent implements Task, TACMessageReceiver {
 	if (id > earliestTransID) {
 	  earliestTransID = id;
 	}
-	if (id > oldEarliest) {
+	if (id > oldEarliest && !isTransactionReceived(id)) {
 	  msg2 = new TACMessage("transInfo");
 	  msg2.setParameter("transID", id);
 	  sendMessage(msg2, this);
@@ -1272,23 +1598,13 @@ public class TACAgent implements Task, TACMessageReceiver {
     int auction = 0;
     float price = 0f;
     int status = NO_ERROR;
+    int transID = Integer.parseInt(msg.getParameter("transID"));
     while (msg.nextTag()) {
       if (msg.isTag("/transInfo")) {
-	if (status == NO_ERROR) {
-	  Transaction trans = new Transaction(auction, quantity, price);
-	  owns[auction] += quantity;
-	  costs[auction] += quantity * price;
-	  try {
-	    if (tableModel != null) {
-	      tableModel.fireTableRowsUpdated(auction, auction);
-	    }
-	    agent.transaction(trans);
-	  } catch (Exception e) {
-	    log.log(Level.SEVERE, "agent could not handle transaction "
-		    + trans, e);
-	  }
-	} else {
+	if (status != NO_ERROR) {
 	  // What should we do here??? FIX THIS!!!
+	} else if (addReceivedTransaction(transID)) {
+	  transactionReceived(auction, quantity, price);
 	}
       } else if (msg.isTag("quantity")) {
 	quantity = (int) msg.getValueAsFloat(0f);
@@ -1306,6 +1622,74 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
   }
 
+  private void transactionReceived(int auction, int quantity, float price) {
+    Transaction trans = new Transaction(auction, quantity, price);
+    owns[auction] += quantity;
+    costs[auction] += quantity * price;
+    try {
+      if (tableModel != null) {
+	tableModel.fireTableRowsUpdated(auction, auction);
+      }
+      agent.transaction(trans);
+    } catch (Exception e) {
+      log.log(Level.SEVERE, "agent could not handle transaction "
+	      + trans, e);
+    }
+  }
+
+  private void handlePushedTransaction(TACMessage msg) {
+    int transID = -1;
+    int auctionID = -1;
+    int quantity = 0;
+    float price = 0f;
+    while (msg.nextTag()) {
+      if (msg.isTag("transID")) {
+	transID = msg.getValueAsInt(-1);
+      } else if (msg.isTag("quantity")) {
+	quantity = (int) msg.getValueAsFloat(0f);
+      } else if (msg.isTag("price")) {
+	price =  msg.getValueAsFloat(0f);
+      } else if (msg.isTag("auctionID")) {
+	auctionID = msg.getValueAsInt(-1);
+      }
+    }
+    // Transactions pushed before the auctions are known are retrieved
+    // with the transactions at game start. The earliest transaction is
+    // not changed because older transactions might not have been
+    // retrieved yet.
+    int auction = indexOfAuction(auctionID);
+    if (auction >= 0 && addReceivedTransaction(transID)) {
+      transactionReceived(auction, quantity, price);
+    }
+  }
+
+  private synchronized boolean isTransactionReceived(int transID) {
+    for (int i = 0; i < receivedTransNumber; i++) {
+      if (receivedTransIDs[i] == transID) {
+	return true;
+      }
+    }
+    return false;
+  }
+
+  // Returns false if the transaction already has been received
+  private synchronized boolean addReceivedTransaction(int transID) {
+    if (isTransactionReceived(transID)) {
+      return false;
+    }
+    if (receivedTransNumber == receivedTransIDs.length) {
+      int[] tmp = new int[receivedTransNumber * 2];
+      System.arraycopy(receivedTransIDs, 0, tmp, 0, receivedTransNumber);
+      receivedTransIDs = tmp;
+    }
+    receivedTransIDs[receivedTransNumber++] = transID;
+    return true;
+  }
+
+  private synchronized void clearReceivedTransactions() {
+    receivedTransNumber = 0;
+  }
+
   private void callAgent() {
     for (int i = 0; i < transActionsNum; i++) {
       int ival = transActions[i];
@@ -1337,16 +1721,15 @@ public class TACAgent implements Task, TACMessageReceiver {
 	if (ival == OP_GAME_ENDS) {
 	  handleGameEnd();
 	} else if (ival == OP_GAME_STARTS) {
-	  TimeDispatcher d = TimeDispatcher.getDefault();
 	  long currentTime = getServerTime();
 	  isGameStarted = true;
-	  d.addTask(currentTime + INFO_UPDATE_PERIOD,
-		    "quotes", connection, this);
-	  d.addTask(currentTime + (int) (1.5 * INFO_UPDATE_PERIOD),
-		    "bids", connection, this);
+	  addTask(currentTime + INFO_UPDATE_PERIOD,
+		  "quotes", connection, this);
+	  addTask(currentTime + (int) (1.5 * INFO_UPDATE_PERIOD),
+		  "bids", connection, this);
 	  if (printOwnDelay > 0) {
-	    d.addTask(currentTime + printOwnDelay,
-		      "printOwn", connection, this);
+	    addTask(currentTime + printOwnDelay,
+		    "printOwn", connection, this);
 	  }
 
 	  // Start the hotel quote fetch (one second after update)
@@ -1359,12 +1742,8 @@ public class TACAgent implements Task, TACMessageReceiver {
 	    nextFlightTime += 10000 * ((currentTime - nextFlightTime) / 10000);
 	  }
 
-	  TimeDispatcher.getDefault().addTask(nextHotelTime,
-					      "hotelQuotes",
-					      connection, this);
-	  TimeDispatcher.getDefault().addTask(nextFlightTime,
-					      "flightQuotes",
-					      connection, this);
+	  addTask(nextHotelTime, "hotelQuotes", connection, this);
+	  addTask(nextFlightTime, "flightQuotes", connection, this);
 	  requestQuotes(connection, true, true);
 	}
       }
@@ -1385,21 +1764,60 @@ public class TACAgent implements Task, TACMessageReceiver {
       waitActionsNum = 0;
 
       // Request new transaction!!!
-      TACMessage msg = new TACMessage("transIDs");
-      msg.setParameter("earliestTransID", earliestTransID);
-      sendMessage(msg, this);
+      sendTransactionRequest();
     }
   }
 
   private void handleQuote(TACMessage msg) {
-    Object obj = msg.getUserData();
+    Quote quote = getRequestedQuote(msg.getUserData());
+    int oldAuctionStatus = quote.getAuctionStatus();
+    while (msg.nextTag()) {
+      setQuoteField(msg, quote);
+    }
+    quoteReceived(quote, oldAuctionStatus, true);
+  }
+
+  private void handleQuotes(TACMessage msg) {
+    Object[] requests = (Object[]) msg.getUserData();
+    Quote quote = null;
+    int oldAuctionStatus = 0;
+    int index = 0;
+    int status = NO_ERROR;
+
+    while (msg.nextTag()) {
+      if (msg.isTag("quoteTuple")) {
+	quote = getRequestedQuote(requests[index++]);
+	oldAuctionStatus = quote.getAuctionStatus();
+      } else if (msg.isTag("/quoteTuple")) {
+	quoteReceived(quote, oldAuctionStatus, true);
+	quote = null;
+      } else if (quote != null) {
+	setQuoteField(msg, quote);
+      } else if (msg.isTag("commandStatus")) {
+	status = msg.getValueAsInt(NO_ERROR);
+      }
+    }
+
+    if (index == 0 && mapCommandStatus(status) == NOT_SUPPORTED) {
+      batchNotSupported(msg);
+    } else {
+      // Quotes without reply may be requested again
+      for (int n = requests.length; index < n; index++) {
+	pendingQuotes[getRequestedAuction(requests[index])] = 0L;
+      }
+    }
+  }
+
+  // Returns the quote for a quote request (the quote or the bid to get
+  // the HQW for) that is no longer pending
+  private Quote getRequestedQuote(Object request) {
     Quote quote;
     int auction;
-    if (obj instanceof Quote) {
-      quote = (Quote) obj;
+    if (request instanceof Quote) {
+      quote = (Quote) request;
       auction = quote.getAuction();
     } else {
-      Bid bid = (Bid) obj;
+      Bid bid = (Bid) request;
       auction = bid.getAuction();
       quote = quotes[auction];
       quote.setHQW(-1);
@@ -1408,24 +1826,138 @@ public class TACAgent implements Task, TACMessageReceiver {
 
     // Quote is no longer pending
     pendingQuotes[auction] = 0L;
-
-    int oldAuctionStatus = quote.getAuctionStatus();
+    return quote;
+  }
+
+  private void setQuoteField(TACMessage msg, Quote quote) {
+    if (msg.isTag("lastAskPrice")) {
+      quote.setAskPrice(msg.getValueAsFloat(0f));
+    } else if (msg.isTag("lastBidPrice")) {
+      quote.setBidPrice(msg.getValueAsFloat(0f));
+    } else if (msg.isTag("hypotheticalQuantityWon")) {
+      quote.setHQW(msg.getValueAsInt(-1));
+    } else if (msg.isTag("auctionStatus")) {
+      quote.setAuctionStatus(msg.getValueAsInt(Quote.AUCTION_INITIALIZING));
+    } else if (msg.isTag("nextQuoteTime")) {
+      quote.setNextQuoteTime(1000 * msg.getValueAsLong(0));
+    } else if (msg.isTag("lastQuoteTime")) {
+      quote.setLastQuoteTime(1000 * msg.getValueAsLong(0));
+    }
+  }
+
+  private void handlePushedQuote(TACMessage msg) {
+    int auctionID = -1;
+    int bidID = Bid.NO_ID;
+    int hqw = -1;
+    float askPrice = 0f;
+    float bidPrice = 0f;
+    int auctionStatus = Quote.AUCTION_INITIALIZING;
+    long nextQuoteTime = 0L;
+    long lastQuoteTime = 0L;
     while (msg.nextTag()) {
-      if (msg.isTag("lastAskPrice")) {
-	quote.setAskPrice(msg.getValueAsFloat(0f));
+      if (msg.isTag("auctionID")) {
+	auctionID = msg.getValueAsInt(-1);
+      } else if (msg.isTag("bidID")) {
+	bidID = msg.getValueAsInt(Bid.NO_ID);
+      } else if (msg.isTag("lastAskPrice")) {
+	askPrice = msg.getValueAsFloat(0f);
       } else if (msg.isTag("lastBidPrice")) {
-	quote.setBidPrice(msg.getValueAsFloat(0f));
+	bidPrice = msg.getValueAsFloat(0f);
       } else if (msg.isTag("hypotheticalQuantityWon")) {
-	quote.setHQW(msg.getValueAsInt(-1));
+	hqw = msg.getValueAsInt(-1);
       } else if (msg.isTag("auctionStatus")) {
-	quote.setAuctionStatus(msg.getValueAsInt(Quote.AUCTION_INITIALIZING));
+	auctionStatus = msg.getValueAsInt(Quote.AUCTION_INITIALIZING);
       } else if (msg.isTag("nextQuoteTime")) {
-	quote.setNextQuoteTime(1000 * msg.getValueAsLong(0));
-      } else if (msg.isTag("auctionStatus")) {
-	quote.setLastQuoteTime(1000 * msg.getValueAsLong(0));
+	nextQuoteTime = 1000 * msg.getValueAsLong(0);
+      } else if (msg.isTag("lastQuoteTime")) {
+	lastQuoteTime = 1000 * msg.getValueAsLong(0);
+      }
+    }
+
+    // Quotes pushed before the auctions are known are requested at
+    // game start
+    int auction = indexOfAuction(auctionID);
+    if (auction < 0) {
+      return;
+    }
+    Quote quote = quotes[auction];
+    int oldAuctionStatus = quote.getAuctionStatus();
+    // The hypothetical quantity won is for the latest bid the server
+    // knows about
+    Bid bid = getBid(auction);
+    if (bid != null && bid.getID() == Bid.NO_ID) {
+      bid = bid.getReplacing();
+    }
+    if (bid != null && bid.getID() == bidID) {
+      quote.setBid(bid);
+      quote.setHQW(hqw);
+    } else {
+      quote.setHQW(-1);
+    }
+    quote.setAskPrice(askPrice);
+    quote.setBidPrice(bidPrice);
+    quote.setAuctionStatus(auctionStatus);
+    quote.setNextQuoteTime(nextQuoteTime);
+    quote.setLastQuoteTime(lastQuoteTime);
+    quoteReceived(quote, oldAuctionStatus, false);
+  }
+
+  private void handlePushedAuctionClosed(TACMessage msg) {
+    int auctionID = -1;
+    while (msg.nextTag()) {
+      if (msg.isTag("auctionID")) {
+	auctionID = msg.getValueAsInt(-1);
+      }
+    }
+    int auction = indexOfAuction(auctionID);
+    // The closed auction has normally already been seen in its last quote
+    if (auction >= 0 && !quotes[auction].isAuctionClosed()) {
+      Quote quote = quotes[auction];
+      int oldAuctionStatus = quote.getAuctionStatus();
+      quote.setAuctionStatus(Quote.AUCTION_CLOSED);
+      quoteReceived(quote, oldAuctionStatus, false);
+    }
+  }
+
+  // Called when it is time for the agent to see all quotes in a
+  // category. Pushed quotes have already been received.
+  private void quotesPushed(int category, int lastAuction) {
+    if (!quotes[lastAuction].isAuctionClosed()) {
+      try {
+	agent.quoteUpdated(category);
+      } catch (Exception e) {
+	log.log(Level.SEVERE, "agent could not handle quoteUpdated for "
+		+ categoryName[category], e);
       }
     }
+  }
 
+  // Waits until all open hotel auctions have pushed their quotes for
+  // this minute
+  private void hotelQuotesPushed() {
+    long serverTime = getServerTime();
+    int lastAuction = -1;
+    for (int i = MIN_HOTEL; i <= MAX_HOTEL; i++) {
+      Quote quote = quotes[i];
+      if (!quote.isAuctionClosed()) {
+	long quoteTime = quote.getNextQuoteTime();
+	if (quoteTime > 0 && serverTime > quoteTime) {
+	  log.fine("waiting for hotel quote for auction " + i);
+	  addTask(serverTime + 1000, "hotelPushes", connection, this);
+	  return;
+	}
+	lastAuction = i;
+      }
+    }
+    if (lastAuction >= 0) {
+      lastHotelAuction = lastAuction;
+      quotesPushed(CAT_HOTEL, lastAuction);
+    }
+  }
+
+  private void quoteReceived(Quote quote, int oldAuctionStatus,
+			     boolean isRequested) {
+    int auction = quote.getAuction();
     try {
       agent.quoteUpdated(quote);
     } catch (Exception e) {
@@ -1434,7 +1966,8 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
 
     try {
-      if (isLastAuction(quote)) {
+      // Pushed quotes are given to the agent per category by the timers
+      if (isRequested && isLastAuction(quote)) {
 	agent.quoteUpdated(getAuctionCategory(auction));
       }
     } catch (Exception e) {
@@ -1463,8 +1996,7 @@ public class TACAgent implements Task, TACMessageReceiver {
 	       (serverTime = getServerTime()) > quoteTime) {
       lastHotelAuction = auction;
       log.fine("rerequesting hotel quote for auction " + auction);
-      TimeDispatcher.getDefault()
-	.addTask(serverTime + 1000, quote, connection, this);
+      addTask(serverTime + 1000, quote, connection, this);
       return false;
     } else {
       return auction == lastHotelAuction;
@@ -1473,6 +2005,8 @@ public class TACAgent implements Task, TACMessageReceiver {
 
   private void handleBidInfo(TACMessage msg) {
     Bid bid = (Bid) msg.getUserData();
+    int bidID = Bid.NO_ID;
+    int auctionID = -1;
     String bidHash = null;
     String bidString = null;
     int rejectReason = Bid.NOT_REJECTED;
@@ -1497,9 +2031,29 @@ public class TACAgent implements Task, TACMessageReceiver {
 	timeProcessed = msg.getValueAsLong(0);
       } else if (msg.isTag("commandStatus")) {
 	commandStatus = msg.getValueAsInt(NO_ERROR);
+      } else if (msg.isTag("bidID")) {
+	bidID = msg.getValueAsInt(Bid.NO_ID);
+      } else if (msg.isTag("auctionID")) {
+	auctionID = msg.getValueAsInt(-1);
       }
     }
+    if (bid == null) {
+      // Pushed by the server. Only the latest bid is updated: bids not
+      // yet replied are requested when the reply arrives.
+      int auction = indexOfAuction(auctionID);
+      if (auction < 0 || (bid = getBid(auction)) == null
+	  || bid.getID() != bidID) {
+	return;
+      }
+    }
+    bidInfoReceived(bid, bidString, bidHash, rejectReason, processingState,
+		    timeClosed, timeProcessed, commandStatus);
+  }
 
+  private void bidInfoReceived(Bid bid, String bidString, String bidHash,
+			       int rejectReason, int processingState,
+			       long timeClosed, long timeProcessed,
+			       int commandStatus) {
     // Potential problem 1:
     // 1. BidInfo is sent by return of submitBid
     // 2. BidInfo is sent pga 45 second period bid info requesting
@@ -1781,9 +2335,7 @@ public class TACAgent implements Task, TACMessageReceiver {
     }
 
     if (gameRunning) {
-      TimeDispatcher.getDefault()
-	.addTask(startTime + 1000 + gameLength, "gameEnds",
-		 connection, this);
+      addTask(startTime + 1000 + gameLength, "gameEnds", connection, this);
     }
   }
 
@@ -1838,12 +2390,20 @@ public class TACAgent implements Task, TACMessageReceiver {
   }
 
   private int getAuctionPos(int id) {
+    int auction = indexOfAuction(id);
+    if (auction < 0) {
+      throw new IllegalArgumentException("auction " + id + " not found");
+    }
+    return auction;
+  }
+
+  private int indexOfAuction(int id) {
     for (int i = 0; i < NO_AUCTIONS; i++) {
       if (auctionIDs[i] == id) {
 	return i;
       }
     }
-    throw new IllegalArgumentException("auction " + id + " not found");
+    return -1;
   }
 
   private void setClient(int client, int arr, int dep, int hotel,
@@ -1903,8 +2463,7 @@ public class TACAgent implements Task, TACMessageReceiver {
 	  long sleepTime = (long) (60 * (10000 + Math.random() * 2000));
 	  reset(sleepTime < delay ? sleepTime : delay, connection);
 	} else {
-	  TimeDispatcher.getDefault()
-	    .addTask(nextGameTime + 1000, "gameStarts", connection, this);
+	  addTask(nextGameTime + 1000, "gameStarts", connection, this);
 	}
       }
     } else if (status != NO_ERROR) {
@@ -1941,6 +2500,84 @@ public class TACAgent implements Task, TACMessageReceiver {
 
 
 
+  // -------------------------------------------------------------------
+  // API's for the LocalServer
+  // -------------------------------------------------------------------
+
+  void localNextGame(int gameID, long startTime) {
+    log.fine("Next Game -> " + gameID);
+    this.nextGameID = gameID;
+    this.nextGameTime = startTime;
+    addTask(nextGameTime + 1000, "gameStarts", connection, this);
+  }
+
+  void localGameLength(int gameLength) {
+    this.gameLength = gameLength;
+  }
+
+  void localAuction(int category, int type, int day, int auctionID) {
+    addAuction(category, type, day, auctionID);
+  }
+
+  void localClient(int client, int arr, int dep, int hotel, int[] events) {
+    setClient(client, arr, dep, hotel, events);
+  }
+
+  void localOwn(int category, int type, int day, int quantity) {
+    addOwn(category, type, day, quantity);
+  }
+
+  void localQuote(Quote quote, float askPrice, float bidPrice, int hqw,
+		  int auctionStatus, long nextQuoteTime, long lastQuoteTime) {
+    // Quote is no longer pending
+    pendingQuotes[quote.getAuction()] = 0L;
+
+    int oldAuctionStatus = quote.getAuctionStatus();
+    quote.setAskPrice(askPrice);
+    quote.setBidPrice(bidPrice);
+    quote.setHQW(hqw);
+    quote.setAuctionStatus(auctionStatus);
+    quote.setNextQuoteTime(nextQuoteTime);
+    quote.setLastQuoteTime(lastQuoteTime);
+    quoteReceived(quote, oldAuctionStatus, true);
+  }
+
+  void localBidSubmitted(Bid bid, int bidID, String bidHash,
+			 int rejectReason, int commandStatus) {
+    if (commandStatus == NO_ERROR) {
+      bid.setID(bidID);
+      bid.setBidHash(bidHash);
+      bid.setRejectReason(rejectReason);
+      if (rejectReason != Bid.NOT_REJECTED) {
+	bid.setProcessingState(Bid.REJECTED);
+      }
+    }
+    bidSubmitted(bid, mapCommandStatus(commandStatus));
+  }
+
+  void localBidInfo(Bid bid, String bidString, String bidHash,
+		    int rejectReason, int processingState,
+		    long timeClosed, long timeProcessed, int commandStatus) {
+    bidInfoReceived(bid, bidString, bidHash,
+		    Bid.mapRejectReason(rejectReason),
+		    Bid.mapProcessingState(processingState),
+		    timeClosed, timeProcessed, commandStatus);
+  }
+
+  void localTransaction(int transID, int auctionID, int quantity,
+			float price) {
+    if (transID > earliestTransID) {
+      earliestTransID = transID;
+    }
+    transactionReceived(getAuctionPos(auctionID), quantity, price);
+  }
+
+  void localTransactionsComplete() {
+    callAgent();
+  }
+
+
+
   // -------------------------------------------------------------------
   // Logging handling
   // -------------------------------------------------------------------
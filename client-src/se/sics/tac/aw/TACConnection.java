@@ -40,6 +40,13 @@ public abstract class TACConnection {
   public abstract boolean isConnected();
   public abstract void disconnect();
   public abstract void sendMessage(TACMessage msg) throws IOException;
+
+  // Returns true if messages pushed by the server (after a subscription)
+  // are delivered to the agent
+  public boolean isPushSupported() {
+    return false;
+  }
+
   public void sendMessage(TACMessage msg, TACMessageReceiver rcv)
     throws IOException {
     msg.setMessageReceiver(rcv);
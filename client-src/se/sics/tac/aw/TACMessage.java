@@ -98,12 +98,13 @@ public class TACMessage {
       throw new IllegalStateException("Message alredy received: " +
 				      this.receivedMessage);
     }
+    this.receivedMessage = receivedMessage;
+    // Pushed messages were never sent and have no response time
     if (timeSent > 0) {
       responseTime = System.currentTimeMillis() - timeSent;
+      totalResponseTime += responseTime;
+      msgCount++;
     }
-    this.receivedMessage = receivedMessage;
-    totalResponseTime += responseTime;
-    msgCount++;
 
     // Check if extra information should be displayed
     if ("getQuote".equals(type)) {
@@ -68,6 +68,10 @@ public class TACReader extends TACConnection implements Runnable {
     }
   }
 
+  public boolean isPushSupported() {
+    return true;
+  }
+
   public synchronized void sendMessage(TACMessage msg) throws IOException {
     if (disconnected) {
       throw new IOException("Disconnected from server");
@@ -153,6 +157,18 @@ public class TACReader extends TACConnection implements Runnable {
   }
 
   private void handleMessage(String msg) {
+    String pushType = getPushType(msg);
+    if (pushType != null) {
+      // Pushed by the server and not a reply to any message
+      if (!disconnected) {
+	TACMessage tacMsg = new TACMessage(pushType);
+	tacMsg.setReceivedMessage(msg);
+	tacMsg.setMessageReceiver(agent);
+	tacMsg.deliverMessage();
+      }
+      return;
+    }
+
     TACMessage tacMsg = getMessage();
     if (tacMsg == null) {
       ///??? ILLEGAL STATE!!!
@@ -164,4 +180,18 @@ public class TACReader extends TACConnection implements Runnable {
       tacMsg.deliverMessage();
     }
   }
+
+  // Returns the type of a message pushed by the server or null if the
+  // message is a reply
+  private String getPushType(String msg) {
+    int start = msg.indexOf("?>");
+    start = start < 0 ? 0 : start + 2;
+    if (msg.startsWith("<push", start)) {
+      int end = msg.indexOf('>', start);
+      if (end > 0) {
+	return msg.substring(start + 1, end);
+      }
+    }
+    return null;
+  }
 }
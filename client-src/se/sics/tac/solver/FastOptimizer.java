@@ -44,9 +44,15 @@
  */
 
 package se.sics.tac.solver;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class FastOptimizer implements Solver {
+public class FastOptimizer implements DeltaSolver {
 
   private final static String EOL = System.getProperty("line.separator",
 						       "\r\n");
@@ -56,6 +62,25 @@ public class FastOptimizer implements Solver {
 
   private static final boolean DEBUG = false;
 
+  // One optimizer per thread for callers that solve over and over again
+  private static final ThreadLocal threadOptimizer = new ThreadLocal() {
+      protected Object initialValue() {
+	return new FastOptimizer();
+      }
+    };
+  private static final ThreadLocal threadParallelOptimizer = new ThreadLocal() {
+      protected Object initialValue() {
+	return new FastOptimizer(true);
+      }
+    };
+
+  // In parallel mode all allocations of the first SPLIT_POS clients are
+  // expanded into branches which are searched by separate ForkJoin tasks.
+  private static final int SPLIT_POS = 2;
+  // How many bnb calls a branch search makes between bound updates
+  private static final int SHARE_MASK = 0x3ff;
+  private static ForkJoinPool pool;
+
   private static final int MAX_FLIGHT_POS = 8;
   private static final int MAX_ALLOC_POS = 2 * 8;
   private static final int[] MAX_VAL = { 5, 4, 2, 5, 5, 5};
@@ -154,6 +179,8 @@ public class FastOptimizer implements Solver {
   int enterMin[] = new int[3];
   int enterMax[] = new int[3];
   int scoreClient[] = new int[8];
+  // Scratch space for calcBestScore
+  int enterValues[] = new int[8];
 
   // From this the allocation can be extracted
   // Should be a better interface later...
@@ -173,9 +200,47 @@ public class FastOptimizer implements Solver {
   long startTime = 0L;
   long calculationTime = -1L;
 
+  private final boolean parallel;
+  // Set while expanding the branches for a parallel solve
+  private int splitPos = -1;
+  private ArrayList branches;
+  // Set for optimizers searching a single branch of a parallel solve. The
+  // best score found by any branch is shared as (score << 32) |
+  // (Integer.MAX_VALUE - branchIndex), so that ties go to the first branch.
+  private AtomicLong sharedBound;
+  private int branchIndex;
+  // The search stops once the bound reaches this score
+  private int limit = Integer.MAX_VALUE;
+
+  public FastOptimizer() {
+    this(false);
+  }
+
+  /**
+   * Creates an optimizer. In parallel mode each solve is split into branches
+   * that are searched on a ForkJoinPool, sharing the best bound found so
+   * far. The result and allocation are the same as in sequential mode.
+   */
+  public FastOptimizer(boolean parallel) {
+    this.parallel = parallel;
+  }
+
+  // Creates an optimizer searching one branch of a parallel solve. The
+  // client data is shared with the parent and only read during the search.
+  private FastOptimizer(FastOptimizer parent, AtomicLong sharedBound,
+			int branchIndex) {
+    this.parallel = false;
+    this.preferences = parent.preferences;
+    this.enterMin = parent.enterMin;
+    this.enterMax = parent.enterMax;
+    this.scoreClient = parent.scoreClient;
+    this.sharedBound = sharedBound;
+    this.branchIndex = branchIndex;
+  }
+
   int calcBestScore() {
     int score = 0;
-    int arr[] = new int[8];
+    int arr[] = enterValues;
     for (int type = 0; type < 3; type++) {
       //System.arraycopy(entertainment[type], 0, arr, 0, 8);
       // Copy the clients preferences value for a specific entertainment type
@@ -234,7 +299,18 @@ public class FastOptimizer implements Solver {
   void bnb(int hscore, long stay, long alloc, int allocPos,
 	   long stuff1, long stuff2, int flights) {
 //      System.out.println("Alloc: " + allocPos + " Max: " + MAX_ALLOC_POS);
+    if (allocPos == splitPos) {
+      branches.add(new Branch(hscore, stay, alloc, allocPos,
+			      stuff1, stuff2, flights));
+      return;
+    }
+    if (bound >= limit) {
+      return;
+    }
     bnbs++;
+    if ((bnbs & SHARE_MASK) == 0 && sharedBound != null) {
+      readSharedBound();
+    }
     if (allocPos >= MAX_ALLOC_POS) {
       int inf, outf, a, a2;
       int score = 0;
@@ -268,8 +344,13 @@ public class FastOptimizer implements Solver {
 	bound = score;
 	finalAlloc = alloc;
 	finalStay = stay;
-	log.finest("New Bound: " + bound + ", h = " + hscore +
-		   " time = " + (System.currentTimeMillis() - startTime));
+	if (sharedBound != null) {
+	  offerSharedBound(score);
+	}
+	if (log.isLoggable(Level.FINEST)) {
+	  log.finest("New Bound: " + bound + ", h = " + hscore +
+		     " time = " + (System.currentTimeMillis() - startTime));
+	}
 	if (DEBUG) {
 	  StringBuffer sb = new StringBuffer().append(EOL);
 	  setLatestAlloc(sb, stay, alloc);
@@ -524,13 +605,76 @@ public class FastOptimizer implements Solver {
 
   public int solve() {
     int startScore = calcBestScore();
-    log.finest("Best Util: " + startScore);
+    if (log.isLoggable(Level.FINEST)) {
+      log.finest("Best Util: " + startScore);
+    }
     bound = 0;
     finalAlloc = allocs = 0L;
     finalStay = 0L;
     bnbs = 0L;
     calculationTime = -1L;
+    return search(startScore, parallel);
+  }
+
+  public int solveDelta(SolveResult parent, int day, int type, int quantity) {
+    // Outflights are shifted one day, see setClientData
+    int d = type == OUT_FLIGHT ? day - 1 : day;
+    own[type][d] = max15(own[type][d] + quantity);
+    if (quantity <= 0 || parent == null) {
+      return solve();
+    }
 
+    int startScore = calcBestScore();
+    allocs = 0L;
+    bnbs = 0L;
+    calculationTime = -1L;
+    if (parent.hasAllocation) {
+      // The parents allocation is still possible, only look for better ones
+      bound = parent.score;
+      finalAlloc = parent.alloc;
+      finalStay = parent.stay;
+    } else {
+      // Look for any allocation at least as good as the parents
+      bound = parent.score - 1;
+      finalAlloc = 0L;
+      finalStay = 0L;
+    }
+    if (type == HOTEL || type == HOTEL + 1) {
+      limit = parent.score + getMaxRoomValue(d, type == HOTEL);
+    }
+    try {
+      return search(startScore, false);
+    } finally {
+      limit = Integer.MAX_VALUE;
+    }
+  }
+
+  public SolveResult getLatestResult() {
+    return new SolveResult(bound, finalStay, finalAlloc);
+  }
+
+  // An extra room can at most let one more client stay that night, so this
+  // is the most the utility can rise by adding it
+  private int getMaxRoomValue(int day, boolean good) {
+    int max = 0;
+    for (int c = 0; c < 8; c++) {
+      int[] prefs = preferences[c];
+      int value = 1000
+	- (Math.max(0, prefs[IN_FLIGHT] - day)
+	   + Math.max(0, day - prefs[OUT_FLIGHT])) * 100
+	+ prefs[E1] + prefs[E2] + prefs[E3];
+      if (good) {
+	value += prefs[HOTEL];
+      }
+      if (value > max) {
+	max = value;
+      }
+    }
+    return max;
+  }
+
+  // Runs the search with the bound and incumbent already set up
+  private int search(int startScore, boolean parallel) {
     long stuff1 = 0;
     long stuff2 = 0;
     // inflight day1-4 -> bit 0-4 *
@@ -546,31 +690,165 @@ public class FastOptimizer implements Solver {
     }
 //      System.out.println("Stuff2: " + stuff2);
     startTime = System.currentTimeMillis();
-    bnb(startScore, 0, 0L, 0, stuff1, stuff2, 0);
-
-    StringBuffer sb = new StringBuffer();
-    sb.append(EOL)
-      .append("-------------------------------------------")
-      .append(EOL)
-      .append("Final score").append(EOL)
-      .append("-------------------------------------------")
-      .append(EOL);
+    if (parallel) {
+      solveParallel(startScore, stuff1, stuff2);
+    } else {
+      bnb(startScore, 0, 0L, 0, stuff1, stuff2, 0);
+    }
+
+    // The log output is only built if it will be logged
+    StringBuffer sb = null;
+    if (log.isLoggable(Level.FINE)) {
+      sb = new StringBuffer();
+      sb.append(EOL)
+	.append("-------------------------------------------")
+	.append(EOL)
+	.append("Final score").append(EOL)
+	.append("-------------------------------------------")
+	.append(EOL);
+    }
     // THIS METHOD MUST BE CALLED BEFORE RETURNING BECAUSE IT WILL SET
     // LATESTALLOC!!!!
     setLatestAlloc(sb, finalStay, finalAlloc);
     calculationTime = (System.currentTimeMillis() - startTime);
-    sb.append("-------------------------------------------")
-      .append(EOL)
-      .append("Time: ").append(calculationTime)
-      .append("        \tAllocs: ").append(allocs).append(EOL)
-      .append("Bnbs: ").append(bnbs).append("    \tBound: ").append(bound)
-      .append(EOL)
-      .append("-------------------------------------------");
-    log.fine(sb.toString());
+    if (sb != null) {
+      sb.append("-------------------------------------------")
+	.append(EOL)
+	.append("Time: ").append(calculationTime)
+	.append("        \tAllocs: ").append(allocs).append(EOL)
+	.append("Bnbs: ").append(bnbs).append("    \tBound: ").append(bound)
+	.append(EOL)
+	.append("-------------------------------------------");
+      log.fine(sb.toString());
+    }
     startTime = 0L;
     return bound;
   }
 
+  private void solveParallel(int startScore, long stuff1, long stuff2) {
+    // Let bnb collect the branches in the order it would search them
+    ArrayList list = new ArrayList();
+    branches = list;
+    splitPos = SPLIT_POS;
+    try {
+      bnb(startScore, 0, 0L, 0, stuff1, stuff2, 0);
+    } finally {
+      splitPos = -1;
+      branches = null;
+    }
+
+    int n = list.size();
+    if (n == 0) {
+      return;
+    }
+    Branch[] todo = (Branch[]) list.toArray(new Branch[n]);
+    FastOptimizer[] workers = new FastOptimizer[n];
+    AtomicLong shared = new AtomicLong(0L);
+    for (int i = 0; i < n; i++) {
+      workers[i] = new FastOptimizer(this, shared, i);
+    }
+    getPool().invoke(new BranchTask(workers, todo, 0, n));
+
+    for (int i = 0; i < n; i++) {
+      bnbs += workers[i].bnbs;
+      allocs += workers[i].allocs;
+    }
+    long best = shared.get();
+    int score = (int) (best >>> 32);
+    if (score > bound) {
+      FastOptimizer winner =
+	workers[Integer.MAX_VALUE - (int) (best & 0x7fffffffL)];
+      bound = score;
+      finalAlloc = winner.finalAlloc;
+      finalStay = winner.finalStay;
+    }
+  }
+
+  // Searches one branch of a parallel solve
+  private void searchBranch(Branch branch) {
+    readSharedBound();
+    bnb(branch.hscore, branch.stay, branch.alloc, branch.allocPos,
+	branch.stuff1, branch.stuff2, branch.flights);
+  }
+
+  // Raises the bound to the best score found by any branch. A score found
+  // by a later branch only prunes worse scores, as an equal score found in
+  // this branch would still win.
+  private void readSharedBound() {
+    long best = sharedBound.get();
+    int score = (int) (best >>> 32);
+    int index = Integer.MAX_VALUE - (int) (best & 0x7fffffffL);
+    if (index > branchIndex) {
+      score--;
+    }
+    if (score > bound) {
+      bound = score;
+    }
+  }
+
+  private void offerSharedBound(int score) {
+    long offer = (((long) score) << 32) | (Integer.MAX_VALUE - branchIndex);
+    long best;
+    while (offer > (best = sharedBound.get())
+	   && !sharedBound.compareAndSet(best, offer)) {
+      // Retry until the offer is stored or beaten
+    }
+  }
+
+  private static synchronized ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool();
+    }
+    return pool;
+  }
+
+  // The arguments of a bnb call, saved for a parallel solve
+  private static class Branch {
+    final int hscore;
+    final long stay;
+    final long alloc;
+    final int allocPos;
+    final long stuff1;
+    final long stuff2;
+    final int flights;
+
+    Branch(int hscore, long stay, long alloc, int allocPos,
+	   long stuff1, long stuff2, int flights) {
+      this.hscore = hscore;
+      this.stay = stay;
+      this.alloc = alloc;
+      this.allocPos = allocPos;
+      this.stuff1 = stuff1;
+      this.stuff2 = stuff2;
+      this.flights = flights;
+    }
+  }
+
+  // Searches a range of branches, splitting it until one branch is left
+  private static class BranchTask extends RecursiveAction {
+    private final FastOptimizer[] workers;
+    private final Branch[] branches;
+    private final int from;
+    private final int to;
+
+    BranchTask(FastOptimizer[] workers, Branch[] branches, int from, int to) {
+      this.workers = workers;
+      this.branches = branches;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from == 1) {
+	workers[from].searchBranch(branches[from]);
+      } else {
+	int mid = (from + to) >>> 1;
+	invokeAll(new BranchTask(workers, branches, from, mid),
+		  new BranchTask(workers, branches, mid, to));
+      }
+    }
+  }
+
   // This will store the latest allocation
   int[][] latestAlloc = new int[8][6];
   public int[][] getLatestAllocation() {
@@ -581,6 +859,25 @@ public class FastOptimizer implements Solver {
     return calculationTime;
   }
 
+  /**
+   * Returns the optimizer confined to the calling thread. It is created on
+   * first use and then reused, so repeated solves do not allocate. The
+   * array returned by getLatestAllocation() is overwritten by the next
+   * solve and must be copied if it is kept.
+   */
+  public static DeltaSolver getThreadSolver() {
+    return (DeltaSolver) threadOptimizer.get();
+  }
+
+  /**
+   * Returns the optimizer confined to the calling thread, in sequential or
+   * parallel mode. See getThreadSolver().
+   */
+  public static DeltaSolver getThreadSolver(boolean parallel) {
+    return (DeltaSolver) (parallel ? threadParallelOptimizer : threadOptimizer).get();
+  }
+
+  // The string buffer may be null, in which case only latestAlloc is set
   private void setLatestAlloc(StringBuffer sb, long stay, long alloc) {
     int day;
     int total = 0;
@@ -607,58 +904,58 @@ public class FastOptimizer implements Solver {
       if (inf != -1) {
 	clientAlloc[0] = inf;
 	clientAlloc[1] = outf;
-
-	int score = 1000 - Math.abs(inf - 1 - preferences[i][0]) * 100 +
-	  - Math.abs(outf - 2 - preferences[i][1]) * 100;
-	sb.append("Client ").append(i + 1).append(" stays ")
-	  .append(inf).append(" - ").append(outf);
-	if ((a2 & HOTEL_MASK) > 0) {
-	  sb.append(" on good hotel  ");
-	  score += preferences[i][HOTEL];
-	  clientAlloc[2] = 1;
-	} else {
-	  sb.append(" on cheap hotel ");
-	  clientAlloc[2] = 0;
-	}
-
-	if ((a & 0x10) > 0) {
-	  sb.append(" E1 day ").append(1 + (a2 & 3));
-	  score += preferences[i][E1];
-	  clientAlloc[3] = (1 + (a2 & 3));
-	} else {
-	  sb.append("         ");
-	  clientAlloc[3] = 0;
-	}
-	if ((a & 0x20) > 0) {
-	  sb.append(" E2 day ").append(1 + ((a2 >> 2) & 3));
-	  score += preferences[i][E2];
-	  clientAlloc[4] = (1 + ((a2 >> 2) & 3));
-	} else {
-	  sb.append("         ");
-	  clientAlloc[4] = 0;
-	}
-
-	if ((a & 0x40) > 0) {
-	  sb.append(" E3 day ").append(1 + ((a2 >> 4) & 3));
-	  score += preferences[i][E3];
-	  clientAlloc[5] = (1 + ((a2 >> 4) & 3));
-	} else {
-	  sb.append("         ");
-	  clientAlloc[5] = 0;
+	clientAlloc[2] = (a2 & HOTEL_MASK) > 0 ? 1 : 0;
+	clientAlloc[3] = (a & 0x10) > 0 ? (1 + (a2 & 3)) : 0;
+	clientAlloc[4] = (a & 0x20) > 0 ? (1 + ((a2 >> 2) & 3)) : 0;
+	clientAlloc[5] = (a & 0x40) > 0 ? (1 + ((a2 >> 4) & 3)) : 0;
+	if (sb != null) {
+	  total += appendClient(sb, i, clientAlloc);
 	}
-
-	sb.append(" score = ").append(score);
-	total += score;
       } else {
-	sb.append("Client ").append(i + 1).append(" does not go, score = 0");
+	if (sb != null) {
+	  sb.append("Client ").append(i + 1).append(" does not go, score = 0");
+	}
 	// MUST CLEAR latestAlloc if the client does not go!!!!
 	for (int j = 0, m = clientAlloc.length; j < m; j++) {
 	  clientAlloc[j] = 0;
 	}
       }
-      sb.append(EOL);
+      if (sb != null) {
+	sb.append(EOL);
+      }
+    }
+    if (sb != null) {
+      sb.append("Total score = ").append(total).append(EOL);
+    }
+  }
+
+  // Appends the allocation of a client that goes and returns its score
+  private int appendClient(StringBuffer sb, int i, int[] clientAlloc) {
+    int inf = clientAlloc[0];
+    int outf = clientAlloc[1];
+    int score = 1000 - Math.abs(inf - 1 - preferences[i][0]) * 100 +
+      - Math.abs(outf - 2 - preferences[i][1]) * 100;
+    sb.append("Client ").append(i + 1).append(" stays ")
+      .append(inf).append(" - ").append(outf);
+    if (clientAlloc[2] == 1) {
+      sb.append(" on good hotel  ");
+      score += preferences[i][HOTEL];
+    } else {
+      sb.append(" on cheap hotel ");
     }
-    sb.append("Total score = ").append(total).append(EOL);
+
+    for (int e = 0; e < 3; e++) {
+      if (clientAlloc[3 + e] > 0) {
+	sb.append(" E").append(e + 1).append(" day ")
+	  .append(clientAlloc[3 + e]);
+	score += preferences[i][E1 + e];
+      } else {
+	sb.append("         ");
+      }
+    }
+
+    sb.append(" score = ").append(score);
+    return score;
   }
 
   // Set a clients preferences based on an array of 8 x 6
@@ -705,8 +1002,22 @@ public class FastOptimizer implements Solver {
 //     }
 //   }
 
+  // Solves the example above in sequential and parallel mode, side by side
   public static void main (String[] args) {
-    new FastOptimizer().solve();
+    FastOptimizer sequential = new FastOptimizer();
+    FastOptimizer parallel = new FastOptimizer(true);
+    int sequentialScore = sequential.solve();
+    int parallelScore = parallel.solve();
+    System.out.println("Sequential: score = " + sequentialScore
+		       + ", time = " + sequential.getCalculationTime()
+		       + " ms, bnbs = " + sequential.bnbs);
+    System.out.println("Parallel:   score = " + parallelScore
+		       + ", time = " + parallel.getCalculationTime()
+		       + " ms, bnbs = " + parallel.bnbs
+		       + ", threads = " + getPool().getParallelism());
+    System.out.println("Same allocation: "
+		       + Arrays.deepEquals(sequential.getLatestAllocation(),
+					   parallel.getLatestAllocation()));
   }
 
 } // FastOptimizer
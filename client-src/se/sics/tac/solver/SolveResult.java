@@ -0,0 +1,40 @@
+/**
+ * -----------------------------------------------------------------
+ *
+ * SolveResult
+ *
+ * Purpose : The utility and allocation found by a solve, used as the
+ *	     starting point of a delta solve
+ *
+ */
+
+package se.sics.tac.solver;
+
+public final class SolveResult {
+
+  public final int score;
+
+  // The allocation in the optimizers packed format, if known
+  final boolean hasAllocation;
+  final long stay;
+  final long alloc;
+
+  /**
+   * Creates a result where only the utility is known, for example because
+   * it was cached. A delta solve from it has to find an allocation again.
+   */
+  public SolveResult(int score) {
+    this.score = score;
+    this.hasAllocation = false;
+    this.stay = 0L;
+    this.alloc = 0L;
+  }
+
+  SolveResult(int score, long stay, long alloc) {
+    this.score = score;
+    this.hasAllocation = true;
+    this.stay = stay;
+    this.alloc = alloc;
+  }
+
+} // SolveResult
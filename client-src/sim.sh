@@ -0,0 +1,25 @@
+#!/bin/sh
+# Plays games against the TAC server in one process using the simulator
+# in sim/, e.g. ./sim.sh -games 100 or ./sim.sh -h for all the options.
+# The agent is configured with -config <file> (agent007.* parameters) and
+# a parameter is swept with -sweep agent007.hotelBidFactor=0.5,0.6,0.7.
+# Needs the TAC server classes, built by compile.sh in ../server-src.
+# The server checks in sim/ are run with SIM_MAIN, for example
+# SIM_MAIN=se.sics.tac.server.OrderBookCheck ./sim.sh
+
+SERVER=../server-src/tacserver.jar
+
+if [ ! -f $SERVER ]; then
+  echo "$SERVER not found: run compile.sh in ../server-src first" >&2
+  exit 1
+fi
+
+rm -rf sim/classes
+mkdir -p sim/classes
+javac -encoding ISO-8859-1 -d sim/classes -classpath "$SERVER" \
+  -sourcepath .:sim \
+  se/sics/tac/aw/*.java se/bth/ooseven/*.java `find sim -name '*.java'` \
+  || exit 1
+
+java -classpath "sim/classes:$SERVER" \
+  ${SIM_MAIN:-se.sics.tac.server.GameSimulator} "$@"
@@ -0,0 +1,104 @@
+package se.bth.ooseven;
+
+import java.io.File;
+
+import se.sics.isl.util.ConfigManager;
+import se.sics.tac.log.ISCursor;
+import se.sics.tac.log.PriceModelCreator;
+import se.sics.tac.log.TACGameInfo;
+
+/**
+ * Checks that the price model written by PriceModelCreator is read back by
+ * PriceModel with each hotel room in its own slot.
+ *
+ * A game log is generated where only the cheap hotel on day 1 has quotes.
+ * The log lists the good hotel auctions before the cheap ones, while the
+ * agent has the cheap hotel first, so the check fails if the creator writes
+ * the rooms in log order. Exits with status 1 at the first difference.
+ *
+ *     PriceModelCheck
+ */
+public class PriceModelCheck {
+
+    private static final long START = 1000000000L;
+
+    // Auction 9 is the good hotel on day 1 and auction 13 the cheap hotel
+    // on day 1 (resource 2 is TampaTowers and resource 3 ShorelineShanty).
+    private static final String[] LOG = {
+        START + ",g,1," + START + "," + (START + 540) + ",1,tacClassic,8",
+        START + ",u,9,2,1,13,3,1",
+        START + ",a,agent0,0",
+        START + ",a,agent1,11",
+        START + ",a,Dummy-1,-1",
+        START + ",a,Dummy-2,-2",
+        START + ",a,Dummy-3,-3",
+        START + ",a,Dummy-4,-4",
+        START + ",a,Dummy-5,-5",
+        START + ",a,Dummy-6,-6",
+        (START + 60) + ",q,13,10.0000,10.0000",
+        (START + 120) + ",q,13,50.0000,50.0000",
+        (START + 180) + ",q,13,50.0000,50.0000",
+        (START + 180) + ",z,13",
+        (START + 540) + ",s,1,0,1000,0,2000",
+        (START + 540) + ",s,1,11,1000,0,2000",
+        (START + 540) + ",s,1,-1,1000,0,2000",
+        (START + 540) + ",s,1,-2,1000,0,2000",
+        (START + 540) + ",s,1,-3,1000,0,2000",
+        (START + 540) + ",s,1,-4,1000,0,2000",
+        (START + 540) + ",s,1,-5,1000,0,2000",
+        (START + 540) + ",s,1,-6,1000,0,2000"
+    };
+
+    private int errors;
+
+    private void run() throws Exception {
+        TACGameInfo game = new TACGameInfo();
+        ISCursor cursor = new ISCursor();
+        for (String line : LOG) {
+            game.gameData(cursor.reset(line));
+        }
+
+        File file = File.createTempFile("pricemodel", ".dat");
+        try {
+            ConfigManager config = new ConfigManager();
+            config.setProperty("model", file.getPath());
+            PriceModelCreator creator = new PriceModelCreator();
+            creator.init(config);
+            creator.gameOpened("check", game);
+            creator.gameClosed("check", game);
+            creator.finishedGames();
+
+            PriceModel model = PriceModel.open(file);
+            check("games", 1, model.getGames());
+            // Closed at 50 after 3 minutes with the ask 10 the first 2 minutes
+            check("cheap hotel day 1 (bucket 0)", 40f,
+                    model.getHotelIncrease(Item.CHEAP_HOTEL_1, 30000, -1));
+            check("cheap hotel day 1 (bucket 2)", 0f,
+                    model.getHotelIncrease(Item.CHEAP_HOTEL_1, 150000, -1));
+            check("good hotel day 1", Float.NaN,
+                    model.getHotelIncrease(Item.GOOD_HOTEL_1, 30000, -1));
+            check("cheap hotel day 2", Float.NaN,
+                    model.getHotelIncrease(Item.CHEAP_HOTEL_2, 30000, -1));
+        } finally {
+            file.delete();
+        }
+
+        if (errors > 0) {
+            System.err.println(errors + " differences found");
+            System.exit(1);
+        }
+        System.out.println("Price model hotel slots are correct");
+    }
+
+    private void check(String name, float expected, float value) {
+        if (Float.compare(expected, value) != 0) {
+            System.err.println("Difference: " + name + ": expected "
+                    + expected + " but was " + value);
+            errors++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new PriceModelCheck().run();
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * TAC AgentWare
+ * http://www.sics.se/tac        tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2005 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * QuoteTimeCheck
+ *
+ * Purpose :
+ *   Checks that the agent keeps the last quote time of quotes that it
+ *   polls one at a time, polls in batches and gets from a LocalServer.
+ *   The replies are given to the agent as if they had been received
+ *   from a server. Exits with status 1 at the first difference.
+ *
+ *     QuoteTimeCheck
+ */
+
+package se.sics.tac.aw;
+import java.util.Properties;
+
+import se.sics.tac.util.ArgEnumerator;
+
+public class QuoteTimeCheck extends LocalServer {
+
+  private static final long START = 1000000000L;
+
+  private TACAgent agent;
+  private int errors;
+
+  public void run() {
+    agent = createAgent(new AgentImpl() {
+	protected void init(ArgEnumerator args) {
+	}
+	public void bidUpdated(Bid bid) {
+	}
+	public void bidRejected(Bid bid) {
+	}
+	public void bidError(Bid bid, int error) {
+	}
+	public void gameStarted() {
+	}
+	public void gameStopped() {
+	}
+	public void auctionClosed(int auction) {
+	}
+      }, "check", new Properties());
+
+    Quote quote = agent.getQuote(0);
+    TACMessage msg = new TACMessage("getQuote");
+    msg.setUserData(quote);
+    reply(msg, "<getQuote>" + getFields(10, START + 60) + "</getQuote>");
+    check("polled quote", 1000 * (START + 60), quote.getLastQuoteTime());
+
+    msg = new TACMessage("getQuotes");
+    msg.setUserData(new Object[] { quote });
+    reply(msg, "<getQuotes><quoteTuple><auctionID>0</auctionID>"
+	  + getFields(20, START + 120)
+	  + "<commandStatus>0</commandStatus></quoteTuple></getQuotes>");
+    check("batched quote", 1000 * (START + 120), quote.getLastQuoteTime());
+
+    quote(agent, quote, 30f, 0f, -1, Quote.AUCTION_INTERMEDIATE_CLEAR,
+	  1000 * (START + 240), 1000 * (START + 180));
+    check("local quote", 1000 * (START + 180), quote.getLastQuoteTime());
+
+    if (errors > 0) {
+      System.err.println(errors + " differences found");
+      System.exit(1);
+    }
+    System.out.println("Quote times are correct");
+  }
+
+  // The quote fields as sent by the server (times in seconds)
+  private String getFields(int askPrice, long lastQuoteTime) {
+    return "<lastAskPrice>" + askPrice + "</lastAskPrice>"
+      + "<lastBidPrice>0</lastBidPrice>"
+      + "<lastQuoteTime>" + lastQuoteTime + "</lastQuoteTime>"
+      + "<nextQuoteTime>" + (lastQuoteTime + 60) + "</nextQuoteTime>"
+      + "<auctionStatus>" + Quote.AUCTION_INTERMEDIATE_CLEAR
+      + "</auctionStatus>";
+  }
+
+  private void reply(TACMessage msg, String reply) {
+    msg.setMessageReceiver(agent);
+    msg.setReceivedMessage(reply);
+    msg.deliverMessage();
+  }
+
+  private void check(String name, long expected, long value) {
+    if (expected != value) {
+      System.err.println("Difference: " + name + ": expected " + expected
+			 + " but was " + value);
+      errors++;
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // LocalServer
+  // -------------------------------------------------------------------
+
+  public long getServerTime() {
+    return 1000 * START;
+  }
+
+  public void addTask(long time, Object key, Object value, Task task) {
+  }
+
+  public void cancelTask(Object key, Task task) {
+  }
+
+  protected void requestGame(TACAgent agent, int gameID) {
+  }
+
+  protected void requestQuote(TACAgent agent, Quote quote,
+			      int auctionID, int bidID) {
+  }
+
+  protected void submitBid(TACAgent agent, Bid bid, int auctionID,
+			   String bidString,
+			   int oldBidID, String oldBidHash) {
+  }
+
+  protected void requestBidInfo(TACAgent agent, Bid bid, int bidID) {
+  }
+
+  protected void requestTransactions(TACAgent agent, int earliestTransID) {
+  }
+
+
+  // -------------------------------------------------------------------
+  // Main
+  // -------------------------------------------------------------------
+
+  public static void main(String[] args) {
+    new QuoteTimeCheck().run();
+  }
+
+} // QuoteTimeCheck
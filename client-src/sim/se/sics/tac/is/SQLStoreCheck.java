@@ -0,0 +1,301 @@
+/**
+ * SICS TAC Server - InfoServer
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * SQLStoreCheck
+ *
+ * Purpose :
+ *   Checks SQLTACStore against an empty database. The results of the
+ *   archived games (<games>/<id>/applet.log.gz) are stored, stored a
+ *   second time (which must be ignored) and then compared with the
+ *   scores kept in memory, both directly in the tables and after the
+ *   store has been loaded again from the database. Any JDBC driver
+ *   can be used, for example an embedded H2 database in MySQL mode:
+ *
+ *     SQLStoreCheck -driver org.h2.Driver
+ *                   -url jdbc:h2:mem:tac;MODE=MySQL;DB_CLOSE_DELAY=-1
+ *                   -games <directory> [-count <number>]
+ *
+ *   Exits with status 1 at the first difference.
+ */
+
+package se.sics.tac.is;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import se.sics.isl.util.ArgumentManager;
+import se.sics.isl.util.ConfigManager;
+import se.sics.tac.log.ISCursor;
+import se.sics.tac.log.TACGameInfo;
+
+public class SQLStoreCheck {
+
+  private final ConfigManager config;
+  private final String dataBase;
+  private int errors;
+
+  public SQLStoreCheck(ConfigManager config) {
+    this.config = config;
+    this.dataBase = config.getProperty("sql.database");
+  }
+
+  private TACGameInfo[] readGames(File directory, int count)
+    throws IOException
+  {
+    String[] names = directory.list();
+    int[] ids = new int[names == null ? 0 : names.length];
+    int n = 0;
+    for (int i = 0; i < ids.length; i++) {
+      try {
+	ids[n] = Integer.parseInt(names[i]);
+	n++;
+      } catch (NumberFormatException e) {
+	// Not a game directory
+      }
+    }
+    Arrays.sort(ids, 0, n);
+
+    ArrayList games = new ArrayList();
+    HashSet gameIDs = new HashSet();
+    ISCursor cursor = new ISCursor();
+    for (int i = 0; i < n && games.size() < count; i++) {
+      File file = new File(new File(directory, Integer.toString(ids[i])),
+			   "applet.log.gz");
+      if (!file.isFile()) {
+	continue;
+      }
+      TACGameInfo game = new TACGameInfo();
+      game.setProperty(TACGameInfo.IGNORE_QUOTES, "true");
+      game.setProperty(TACGameInfo.IGNORE_BIDS, "true");
+      BufferedReader reader =
+	new BufferedReader(new InputStreamReader
+			   (new GZIPInputStream(new FileInputStream(file))));
+      try {
+	String line;
+	while ((line = reader.readLine()) != null) {
+	  if (line.length() > 0) {
+	    game.gameData(cursor.reset(line));
+	  }
+	}
+      } finally {
+	reader.close();
+      }
+      // Only the first game with a game id is stored by the store
+      if (game.isFinished() && !game.isScratched()
+	  && gameIDs.add(new Integer(game.getGameID()))) {
+	games.add(game);
+      }
+    }
+    return (TACGameInfo[]) games.toArray(new TACGameInfo[games.size()]);
+  }
+
+  private void createUsers(TACStore store, TACGameInfo[] games)
+    throws TACException
+  {
+    // Users get the ids 0, 11, 22, ... in order of creation
+    int maxID = 0;
+    for (int i = 0; i < games.length; i++) {
+      for (int a = 0, n = games[i].getNumberOfAgents(); a < n; a++) {
+	if (!games[i].isBuiltinAgent(a)) {
+	  maxID = Math.max(maxID, games[i].getAgentID(a));
+	}
+      }
+    }
+    while (store.getUser(maxID) == null) {
+      TACUser[] users = store.getUsers();
+      int n = users == null ? 0 : users.length;
+      store.createUser("check" + n, "password", null);
+    }
+  }
+
+  public void run(File directory, int count) throws Exception {
+    TACGameInfo[] games = readGames(directory, count);
+    if (games.length == 0) {
+      throw new IllegalArgumentException("no finished games in "
+					 + directory);
+    }
+
+    SQLTACStore store = new SQLTACStore(config, true);
+    createUsers(store, games);
+
+    long time = System.currentTimeMillis();
+    for (int i = 0; i < games.length; i++) {
+      store.addGameResults(games[i]);
+    }
+    time = System.currentTimeMillis() - time;
+    System.out.println("Stored " + games.length + " games in " + time
+		       + " ms (" + ((double) time / games.length)
+		       + " ms/game)");
+
+    // The results of a game must only be stored once
+    for (int i = 0; i < games.length; i++) {
+      store.addGameResults(games[i]);
+    }
+
+    int results = 0;
+    for (int i = 0; i < games.length; i++) {
+      for (int a = 0, n = games[i].getNumberOfAgents(); a < n; a++) {
+	if (!games[i].isBuiltinAgent(a)) {
+	  results++;
+	}
+      }
+    }
+
+    Connection connection = DriverManager.getConnection
+      (config.getProperty("sql.url"), config.getProperty("sql.user"),
+       config.getProperty("sql.password", ""));
+    try {
+      check("played games", games.length,
+	    count(connection, "SELECT count(*) FROM " + dataBase
+		  + ".playedgames"));
+      check("game results", results,
+	    count(connection, "SELECT count(*) FROM " + dataBase
+		  + ".gameresults"));
+
+      TACUser[] users = store.getUsers();
+      PreparedStatement stm =
+	connection.prepareStatement("SELECT score,playedgames,"
+				    + "zeroplayedgames FROM " + dataBase
+				    + ".agentinfo WHERE id=?");
+      for (int i = 0, n = users.length; i < n; i++) {
+	TACUser user = users[i];
+	stm.setInt(1, user.getID());
+	ResultSet rs = stm.executeQuery();
+	if (!rs.next()) {
+	  error("no agent info for " + user.getName());
+	  continue;
+	}
+	check("score for " + user.getName(), user.getTotalScore(),
+	      rs.getDouble(1));
+	check("played games for " + user.getName(), user.getGamesPlayed(),
+	      rs.getInt(2));
+	check("zero games for " + user.getName(), user.getZeroGamesPlayed(),
+	      rs.getInt(3));
+	check("latest games for " + user.getName(), user.getGamesPlayed(),
+	      store.getLatestGameResult(user.getID(), 0, games.length)
+	      .getNumberOfGames());
+      }
+      stm.close();
+    } finally {
+      connection.close();
+    }
+
+    // The scores must survive loading the store again
+    TACStore loaded = new SQLTACStore(config);
+    TACUser[] users = store.getUsers();
+    for (int i = 0, n = users.length; i < n; i++) {
+      TACUser user = loaded.getUser(users[i].getID());
+      if (user == null) {
+	error("user " + users[i].getName() + " not loaded");
+      } else {
+	check("loaded score for " + user.getName(),
+	      users[i].getTotalScore(), user.getTotalScore());
+	check("loaded played games for " + user.getName(),
+	      users[i].getGamesPlayed(), user.getGamesPlayed());
+      }
+    }
+
+    if (errors > 0) {
+      System.err.println(errors + " differences found");
+      System.exit(1);
+    }
+    System.out.println("Checked " + games.length + " games ("
+		       + results + " results) for "
+		       + users.length + " agents");
+  }
+
+  private int count(Connection connection, String sql) throws Exception {
+    PreparedStatement stm = connection.prepareStatement(sql);
+    try {
+      ResultSet rs = stm.executeQuery();
+      return rs.next() ? rs.getInt(1) : 0;
+    } finally {
+      stm.close();
+    }
+  }
+
+  private void check(String name, double expected, double value) {
+    // Scores are stored as floats in the game results
+    if (Math.abs(expected - value) > 1e-6 * Math.max(1, Math.abs(expected))) {
+      error(name + ": expected " + expected + " but was " + value);
+    }
+  }
+
+  private void error(String message) {
+    System.err.println("Difference: " + message);
+    errors++;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Main
+  // -------------------------------------------------------------------
+
+  public static void main(String[] args) throws Exception {
+    ArgumentManager arguments = new ArgumentManager("SQLStoreCheck", args);
+    arguments.addOption("driver", "class", "set the JDBC driver");
+    arguments.addOption("url", "url", "set the JDBC database URL");
+    arguments.addOption("user", "name", "set the database user");
+    arguments.addOption("password", "password", "set the database password");
+    arguments.addOption("database", "name", "set the database name");
+    arguments.addOption("games", "directory",
+			"set the directory with archived games");
+    arguments.addOption("count", "number",
+			"set the number of games to store");
+    arguments.addHelp("h", "show this help message");
+    arguments.addHelp("help");
+    arguments.validateArguments();
+
+    String driver = arguments.getArgument("driver");
+    String url = arguments.getArgument("url");
+    String games = arguments.getArgument("games");
+    if (driver == null || url == null || games == null) {
+      arguments.usage(1);
+    }
+
+    ConfigManager config = new ConfigManager();
+    config.setProperty("sql.driver", driver);
+    config.setProperty("sql.url", url);
+    config.setProperty("sql.database",
+		       arguments.getArgument("database", "tacserver"));
+    String user = arguments.getArgument("user");
+    if (user != null) {
+      config.setProperty("sql.user", user);
+      config.setProperty("sql.password",
+			 arguments.getArgument("password", ""));
+    }
+    Logger.getLogger("").setLevel(Level.WARNING);
+
+    new SQLStoreCheck(config).run(new File(games),
+				  arguments.getArgumentAsInt("count", 100));
+  }
+
+} // SQLStoreCheck
@@ -0,0 +1,123 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * GameDataCheck
+ *
+ * Purpose :
+ *   Checks that a game written with GameDataFile reads back the same
+ *   game type, agents, and quotes. The game has no game type (as in
+ *   old game logs) and one agent without name to check that null
+ *   strings do not move the strings that follow. Exits with status 1
+ *   at the first difference.
+ *
+ *     GameDataCheck
+ */
+
+package se.sics.tac.log;
+import java.io.File;
+
+public class GameDataCheck {
+
+  private final static long START = 1000000000L;
+
+  // No game type in the game line
+  private final static String[] LOG = {
+    START + ",g,1," + START + "," + (START + 540),
+    START + ",u,13,3,1",
+    START + ",a,agent0,0",
+    START + ",a,noname,11",
+    START + ",a,Dummy-1,-1",
+    START + ",a,Dummy-2,-2",
+    START + ",a,Dummy-3,-3",
+    START + ",a,Dummy-4,-4",
+    START + ",a,Dummy-5,-5",
+    START + ",a,Dummy-6,-6",
+    (START + 60) + ",q,13,10.0000,10.0000",
+    (START + 120) + ",q,13,50.0000,50.0000"
+  };
+
+  // The agent without name
+  private final static int NO_NAME = 1;
+
+  private int errors;
+
+  private void run() throws Exception {
+    TACGameInfo game = new TACGameInfo() {
+	public String getAgentName(int index) {
+	  return index == NO_NAME ? null : super.getAgentName(index);
+	}
+      };
+    ISCursor cursor = new ISCursor();
+    for (int i = 0, n = LOG.length; i < n; i++) {
+      game.gameData(cursor.reset(LOG[i]));
+    }
+
+    File file = File.createTempFile("applet", ".dat");
+    try {
+      GameDataFile.write(game, file.getPath());
+      GameDataFile data = new GameDataFile(file.getPath());
+
+      check("game type", game.getGameType(), data.getGameType());
+      check("agents", game.getNumberOfAgents(), data.getNumberOfAgents());
+      for (int i = 0, n = game.getNumberOfAgents(); i < n; i++) {
+	check("agent " + i + " name", game.getAgentName(i),
+	      data.getAgentName(i));
+	check("agent " + i + " id", game.getAgentID(i), data.getAgentID(i));
+      }
+      TACQuote[] quotes = game.getAuctionQuotes(12);
+      for (int i = 0, n = quotes.length; i < n; i++) {
+	int time =
+	  (int) ((quotes[i].getLastUpdated() - game.getStartTime()) / 1000);
+	TACQuote quote = data.getAuctionQuote(time, 12);
+	check("quote " + i, quotes[i].getAsk(),
+	      quote == null ? Float.NaN : quote.getAsk());
+      }
+    } finally {
+      file.delete();
+    }
+
+    if (errors > 0) {
+      System.err.println(errors + " differences found");
+      System.exit(1);
+    }
+    System.out.println("Game data file read back correctly");
+  }
+
+  private void check(String name, Object expected, Object value) {
+    if (expected == null ? value != null : !expected.equals(value)) {
+      error(name + ": expected " + expected + " but was " + value);
+    }
+  }
+
+  private void check(String name, float expected, float value) {
+    if (Float.compare(expected, value) != 0) {
+      error(name + ": expected " + expected + " but was " + value);
+    }
+  }
+
+  private void error(String message) {
+    System.err.println("Difference: " + message);
+    errors++;
+  }
+
+  public static void main(String[] args) throws Exception {
+    new GameDataCheck().run();
+  }
+
+} // GameDataCheck
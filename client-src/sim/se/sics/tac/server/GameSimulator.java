@@ -0,0 +1,556 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * GameSimulator
+ *
+ * Purpose :
+ *   Plays TAC Classic games with the agents and the markets in the same
+ *   process. There are no connections and no real time: the markets,
+ *   the agent requests and the agent timers are all events in one queue
+ *   ordered by server time, and the clock jumps directly to the next
+ *   event. A game takes as long as the agents need to compute.
+ *
+ *   Every game is played with its own random seed so the same games can
+ *   be replayed with different agent configurations, for example to
+ *   sweep a parameter of the agent:
+ *
+ *     GameSimulator -games 100 -sweep agent007.hotelBidFactor=0.5,0.6,0.7
+ */
+
+package se.sics.tac.server;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.TimerTask;
+
+import se.sics.isl.util.ArgumentManager;
+import se.sics.isl.util.ConfigManager;
+import se.sics.tac.aw.AgentImpl;
+import se.sics.tac.aw.LocalServer;
+import se.sics.tac.aw.TACAgent;
+import se.sics.tac.aw.Task;
+import se.sics.tac.server.classic.ClassicGameManager;
+import se.sics.tac.server.classic.ClassicMarket;
+import se.sics.tac.solver.FastOptimizer;
+
+public class GameSimulator extends LocalServer {
+
+  /** The server time when the first game is created */
+  private final static long START_TIME = 1000000000000L;
+
+  /** The time between the creation and the start of a game */
+  private final static long GAME_DELAY = 10000L;
+
+  private final Markets markets;
+  private final long latency;
+
+  private final PriorityQueue queue = new PriorityQueue();
+  private long currentTime = START_TIME;
+  private long eventNumber = 0L;
+
+  private TACAgent[] agents;
+  private User[] users;
+  private Hashtable userTable = new Hashtable();
+  private Market market;
+
+  private final FastOptimizer solver = new FastOptimizer();
+
+  public GameSimulator(ConfigManager config, long latency)
+    throws IOException
+  {
+    this.markets = new Markets(config);
+    this.latency = latency;
+  }
+
+  // Creates the agents for the next games. The agents keep playing
+  // until new agents are set.
+  public void setAgents(AgentImpl[] agentImpls, String[] names,
+			Properties[] configs) {
+    int number = agentImpls.length;
+    this.agents = new TACAgent[number];
+    this.users = new User[number];
+    this.userTable.clear();
+    for (int i = 0; i < number; i++) {
+      // User ids are spaced 11 apart as on the real server
+      users[i] = markets.addUser((i + 1) * 11, names[i], names[i]);
+      agents[i] = createAgent(agentImpls[i], names[i], configs[i]);
+      userTable.put(agents[i], users[i]);
+    }
+  }
+
+  // Plays one game and returns the scores of the agents
+  public float[] playGame(long seed) {
+    markets.setSeed(seed);
+
+    Game game = new Game(ClassicGameManager.TAC_CLASSIC,
+			 ClassicMarket.DEFAULT_GAME_LENGTH, users.length);
+    for (int i = 0, n = users.length; i < n; i++) {
+      game.addParticipant(users[i]);
+    }
+    game.setGameID(Market.getNextGameID());
+    game.setStartTime(currentTime + GAME_DELAY);
+
+    final Market market = new ClassicMarket(markets, game);
+    final float[] scores = new float[users.length];
+    market.setup();
+    this.market = market;
+
+    schedule(new Event() {
+	public void perform() {
+	  market.start();
+	}
+      }, game.getStartTime());
+    schedule(new Event() {
+	public void perform() {
+	  market.stop();
+	  for (int i = 0, n = users.length; i < n; i++) {
+	    scores[i] = getScore(market, users[i]);
+	  }
+	}
+      }, game.getEndTime());
+
+    for (int i = 0, n = agents.length; i < n; i++) {
+      nextGame(agents[i], game.getGameID(), game.getStartTime());
+    }
+
+    // The game is over when the agents have nothing more to do
+    Event event;
+    while ((event = (Event) queue.poll()) != null) {
+      if (event.time > currentTime) {
+	currentTime = event.time;
+      }
+      event.perform();
+    }
+    this.market = null;
+    return scores;
+  }
+
+  // The score as calculated by the TAC server: the utility of the
+  // best allocation of the owned goods minus the costs and penalties
+  private float getScore(Market market, User user) {
+    Ownership ownership = market.getOwnership();
+    int index = market.indexOfParticipant(user);
+    int[] own = ownership.getOwn(index);
+    int[][] calcOwn = new int[5][7];
+    if (own != null) {
+      Auction[] auctions = market.getAuctions();
+      for (int i = 0, n = own.length; i < n; i++) {
+	Auction a = auctions[i];
+	// Outflights are on day 2-5 and end up one day later
+	calcOwn[a.getDay() - 1][a.getType()] = own[i];
+      }
+    }
+    solver.setClientData(market.getGamePreferences(user), calcOwn);
+    return (float) (solver.solve() - ownership.getCost(index)
+		    - ownership.getPenalty(index));
+  }
+
+
+  /*********************************************************************
+   * Event queue
+   *********************************************************************/
+
+  private void schedule(Event event, long time) {
+    event.time = time;
+    event.number = eventNumber++;
+    queue.add(event);
+  }
+
+  public long getServerTime() {
+    return currentTime;
+  }
+
+  public void addTask(long time, Object key, Object value, Task task) {
+    schedule(new TaskEvent(time, key, value, task), time);
+  }
+
+  public void cancelTask(Object key, Task task) {
+    Iterator iterator = queue.iterator();
+    while (iterator.hasNext()) {
+      Object event = iterator.next();
+      if (event instanceof TaskEvent
+	  && ((TaskEvent) event).key == key
+	  && ((TaskEvent) event).task == task) {
+	iterator.remove();
+      }
+    }
+  }
+
+  private static abstract class Event implements Comparable {
+    long time;
+    long number;
+
+    public abstract void perform();
+
+    // Events at the same time are performed in the order they were added
+    public int compareTo(Object o) {
+      Event e = (Event) o;
+      return time < e.time ? -1
+	: (time > e.time ? 1
+	   : (number < e.number ? -1 : (number > e.number ? 1 : 0)));
+    }
+  }
+
+  private static class TaskEvent extends Event {
+    final long taskTime;
+    final Object key;
+    final Object value;
+    final Task task;
+
+    TaskEvent(long taskTime, Object key, Object value, Task task) {
+      this.taskTime = taskTime;
+      this.key = key;
+      this.value = value;
+      this.task = task;
+    }
+
+    public void perform() {
+      task.performWork(taskTime, key, value);
+    }
+  }
+
+
+  /*********************************************************************
+   * Requests from the agents
+   *********************************************************************/
+
+  // The answers are given when the request has reached the server
+  private void request(Event event) {
+    schedule(event, currentTime + latency);
+  }
+
+  private User getUser(TACAgent agent) {
+    return (User) userTable.get(agent);
+  }
+
+  protected void requestGame(TACAgent agent, int gameID) {
+    Market market = this.market;
+    User user = getUser(agent);
+    Game game = market.getGame();
+    setGameLength(agent, game.getGameLength());
+
+    Auction[] auctions = market.getAuctions();
+    for (int i = 0, n = auctions.length; i < n; i++) {
+      Auction auction = auctions[i];
+      if (auction != null) {
+	addAuction(agent, getCategory(auction), getType(auction),
+		   auction.getDay(), auction.getID());
+      }
+    }
+
+    int[][] prefs = market.getGamePreferences(user);
+    for (int i = 0, n = prefs.length; i < n; i++) {
+      int[] p = prefs[i];
+      setClient(agent, i + 1, p[ClassicMarket.ARRIVAL],
+		p[ClassicMarket.DEPARTURE], p[ClassicMarket.HOTEL_VALUE],
+		p[ClassicMarket.E1], p[ClassicMarket.E2], p[ClassicMarket.E3]);
+    }
+
+    // The endowments are the only transactions before the game starts
+    Transaction[] transactions = market.getTransactions();
+    for (int i = 0, n = transactions.length; i < n; i++) {
+      Transaction t = transactions[i];
+      if (t != null && t.isEndowment() && t.getBuyer() == user) {
+	Auction auction = t.getAuction();
+	addOwn(agent, getCategory(auction), getType(auction),
+	       auction.getDay(), t.getQuantity());
+      }
+    }
+  }
+
+  // Auction types 0-1 are flights, 2-3 hotels, and the rest entertainment
+  private int getCategory(Auction auction) {
+    int type = auction.getType();
+    return type < 2 ? TACAgent.CAT_FLIGHT
+      : (type < 4 ? TACAgent.CAT_HOTEL : TACAgent.CAT_ENTERTAINMENT);
+  }
+
+  private int getType(Auction auction) {
+    int type = auction.getType();
+    if (type < 2) {
+      return type == 0 ? TACAgent.TYPE_INFLIGHT : TACAgent.TYPE_OUTFLIGHT;
+    } else if (type < 4) {
+      return type == 2 ? TACAgent.TYPE_GOOD_HOTEL : TACAgent.TYPE_CHEAP_HOTEL;
+    } else {
+      return type - 3;
+    }
+  }
+
+  protected void requestQuote(final TACAgent agent,
+			      final se.sics.tac.aw.Quote quote,
+			      final int auctionID, final int bidID) {
+    request(new Event() {
+	public void perform() {
+	  Quote q = market.getQuote(auctionID);
+	  quote(agent, quote, (float) q.getAskPrice(),
+		(float) q.getBidPrice(),
+		bidID >= 0 ? q.getHQW(getUser(agent), bidID) : -1,
+		q.getAuctionStatus(),
+		// Quote times are sent in seconds
+		1000 * (q.getNextQuoteTime() / 1000),
+		1000 * (q.getLastQuoteTime() / 1000));
+	}
+      });
+  }
+
+  protected void submitBid(final TACAgent agent,
+			   final se.sics.tac.aw.Bid bid,
+			   final int auctionID, final String bidString,
+			   final int oldBidID, final String oldBidHash) {
+    request(new Event() {
+	public void perform() {
+	  Auction auction = market.getAuction(auctionID);
+	  BidList bidList = new BidList();
+	  int status = TACException.NO_ERROR;
+	  Bid b = null;
+	  if (auction == null) {
+	    status = TACException.AUCTION_NOT_FOUND;
+	  } else if (!bidList.setBidString(bidString)) {
+	    status = TACException.BAD_BIDSTRING_FORMAT;
+	  } else {
+	    try {
+	      b = oldBidID >= 0
+		? auction.replace(getUser(agent), bidList, oldBidID, oldBidHash)
+		: auction.submit(getUser(agent), bidList);
+	    } catch (TACException e) {
+	      status = e.getStatusCode();
+	    }
+	  }
+	  if (b != null) {
+	    bidSubmitted(agent, bid, b.getBidID(), b.getOriginalBidHash(),
+			 b.getRejectReason(), status);
+	  } else {
+	    bidSubmitted(agent, bid, -1, null, Bid.NOT_REJECTED, status);
+	  }
+	}
+      });
+  }
+
+  protected void requestBidInfo(final TACAgent agent,
+				final se.sics.tac.aw.Bid bid,
+				final int bidID) {
+    request(new Event() {
+	public void perform() {
+	  Bid b = market.getBid(bidID);
+	  if (b == null || b.getUser() != getUser(agent)) {
+	    bidInfo(agent, bid, null, null, Bid.NOT_REJECTED, Bid.VALID,
+		    0L, 0L, TACException.BID_NOT_FOUND);
+	  } else {
+	    bidInfo(agent, bid, b.getBidList().getBidString(),
+		    b.getBidHash(), b.getRejectReason(),
+		    b.getProcessingState(), b.getTimeClosed() / 1000,
+		    b.getTimeProcessed() / 1000, TACException.NO_ERROR);
+	  }
+	}
+      });
+  }
+
+  protected void requestTransactions(final TACAgent agent,
+				     final int earliestTransID) {
+    request(new Event() {
+	public void perform() {
+	  User user = getUser(agent);
+	  Transaction t;
+	  int id = earliestTransID;
+	  while ((t = market.getNextTransaction(id, user)) != null) {
+	    id = t.getID();
+	    transaction(agent, id, t.getAuctionID(),
+			t.getBuyer() == user ? t.getQuantity() : -t.getQuantity(),
+			(float) t.getPrice());
+	  }
+	  transactionsComplete(agent);
+	}
+      });
+  }
+
+
+  /*********************************************************************
+   * The markets
+   *********************************************************************/
+
+  // Runs the markets in simulated time
+  private class Markets extends InfoManager {
+
+    private Random random;
+
+    Markets(ConfigManager config) throws IOException {
+      super(config);
+    }
+
+    void setSeed(long seed) {
+      this.random = new Random(seed);
+    }
+
+    protected Random getRandom() {
+      return random;
+    }
+
+    public long getServerTime() {
+      return currentTime;
+    }
+
+    protected void scheduleTask(final TimerTask task, long serverTime,
+				final long period) {
+      final Market market = GameSimulator.this.market;
+      schedule(new Event() {
+	  public void perform() {
+	    // The market ticker is stopped with the market
+	    if (market.isRunning()) {
+	      task.run();
+	      schedule(this, time + period);
+	    }
+	  }
+	}, serverTime);
+    }
+  }
+
+
+  /*********************************************************************
+   * Startup handling
+   *********************************************************************/
+
+  public static void main(String[] args) throws Exception {
+    ArgumentManager config = new ArgumentManager("GameSimulator", args);
+    config.addOption("games", "number", "set the number of games to play");
+    config.addOption("seed", "seed", "set the random seed of the first game");
+    config.addOption("agentimpl", "class", "set the agent to evaluate");
+    config.addOption("opponent", "class", "set the agent to play against");
+    config.addOption("config", "configfile",
+		     "set the configuration of the evaluated agent");
+    config.addOption("sweep", "name=v1,v2,...",
+		     "play the games once for each value of the"
+		     + " configuration parameter");
+    config.addOption("latency", "ms", "set the delay of agent requests");
+    config.addOption("verbose", "show the output of the agents");
+    config.addHelp("h", "show this help message");
+    config.addHelp("help");
+    config.validateArguments();
+
+    int games = config.getArgumentAsInt("games", 10);
+    long seed = config.getArgumentAsLong("seed", 1L);
+    String agentImpl =
+      config.getArgument("agentimpl", "se.bth.ooseven.Agent007");
+    String opponent =
+      config.getArgument("opponent", "se.sics.tac.aw.DummyAgent");
+    Properties agentConfig = new Properties();
+    String configFile = config.getArgument("config");
+    if (configFile != null) {
+      FileInputStream input = new FileInputStream(configFile);
+      try {
+	agentConfig.load(input);
+      } finally {
+	input.close();
+      }
+    }
+
+    String sweepName = null;
+    String[] sweepValues = { null };
+    String sweep = config.getArgument("sweep");
+    if (sweep != null) {
+      int index = sweep.indexOf('=');
+      if (index <= 0) {
+	System.err.println("illegal sweep '" + sweep + '\'');
+	config.usage(1);
+      }
+      sweepName = sweep.substring(0, index);
+      StringTokenizer tok = new StringTokenizer(sweep.substring(index + 1),
+						", ");
+      sweepValues = new String[tok.countTokens()];
+      for (int i = 0; tok.hasMoreTokens(); i++) {
+	sweepValues[i] = tok.nextToken();
+      }
+    }
+
+    // The agents tend to talk a lot
+    PrintStream out = System.out;
+    if (!config.getArgumentAsBoolean("verbose", false)) {
+      System.setOut(new PrintStream(new OutputStream() {
+	  public void write(int b) {
+	  }
+	  public void write(byte[] b, int off, int len) {
+	  }
+	}));
+    }
+
+    ConfigManager serverConfig = new ConfigManager();
+    serverConfig.setProperty("log.directory",
+			     System.getProperty("java.io.tmpdir"));
+    serverConfig.setProperty("log.consoleLevel",
+			     config.getArgumentAsBoolean("verbose", false)
+			     ? "4" : "6");
+    serverConfig.setProperty("log.fileLevel", "6");
+    GameSimulator simulator =
+      new GameSimulator(serverConfig, config.getArgumentAsLong("latency", 0L));
+
+    for (int v = 0, vn = sweepValues.length; v < vn; v++) {
+      AgentImpl[] impls = new AgentImpl[8];
+      String[] names = new String[8];
+      Properties[] configs = new Properties[8];
+      for (int i = 0; i < 8; i++) {
+	impls[i] = (AgentImpl) Class.forName(i == 0 ? agentImpl : opponent)
+	  .newInstance();
+	names[i] = i == 0 ? "agent" : ("opponent" + i);
+	configs[i] = new Properties();
+      }
+      configs[0].putAll(agentConfig);
+      if (sweepName != null) {
+	configs[0].setProperty(sweepName, sweepValues[v]);
+      }
+      simulator.setAgents(impls, names, configs);
+
+      long startTime = System.currentTimeMillis();
+      double total = 0.0;
+      double opponentTotal = 0.0;
+      for (int g = 0; g < games; g++) {
+	float[] scores = simulator.playGame(seed + g);
+	total += scores[0];
+	opponentTotal += average(scores);
+	if (sweepName == null) {
+	  out.println("game " + (g + 1) + ": " + scores[0]
+		      + " (opponents " + average(scores) + ')');
+	}
+      }
+      long time = Math.max(1L, System.currentTimeMillis() - startTime);
+      out.println((sweepName != null
+		   ? (sweepName + '=' + sweepValues[v] + ": ") : "")
+		  + "average " + (float) (total / games)
+		  + " (opponents " + (float) (opponentTotal / games) + ") in "
+		  + games + " games, " + (games * 3600000L / time)
+		  + " games/hour");
+    }
+    System.exit(0);
+  }
+
+  // The average score of the opponents
+  private static float average(float[] scores) {
+    float total = 0f;
+    for (int i = 1, n = scores.length; i < n; i++) {
+      total += scores[i];
+    }
+    return total / (scores.length - 1);
+  }
+
+} // GameSimulator
@@ -0,0 +1,269 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * HotelAuctionCheck
+ *
+ * Purpose :
+ *   Checks that EngAscAuction clears exactly as the original clearing
+ *   (ArrayEngAscAuction). The same random bids and replacements are sent
+ *   to both auctions with quote updates in between and the results,
+ *   quotes, hypothetical quantities won, bid states and transactions
+ *   are compared after every step. Exits with status 1 at the first
+ *   difference.
+ *
+ *     HotelAuctionCheck [-rounds <number>] [-steps <number>] [-seed <seed>]
+ */
+
+package se.sics.tac.server;
+import java.util.ArrayList;
+import java.util.Random;
+
+import se.sics.isl.util.ArgumentManager;
+import se.sics.isl.util.ConfigManager;
+import se.sics.tac.server.classic.ArrayEngAscAuction;
+import se.sics.tac.server.classic.ClassicGameManager;
+import se.sics.tac.server.classic.ClassicMarket;
+import se.sics.tac.server.classic.EngAscAuction;
+
+public class HotelAuctionCheck {
+
+  // More users than hotel rooms to get many units dropping out
+  private final static int USERS = 24;
+
+  private final InfoManager infoManager;
+  private final User[] users = new User[USERS];
+  private long currentTime = 1000000000000L;
+
+  private Auction auction;
+  private Auction reference;
+  private ArrayList bids = new ArrayList();
+  private ArrayList referenceBids = new ArrayList();
+  private int[] lastBid = new int[USERS];
+  private int checkedTransactions;
+  private String step;
+
+  public HotelAuctionCheck() throws Exception {
+    ConfigManager config = new ConfigManager();
+    config.setProperty("log.directory", System.getProperty("java.io.tmpdir"));
+    config.setProperty("log.consoleLevel", "6");
+    config.setProperty("log.fileLevel", "6");
+    infoManager = new InfoManager(config) {
+	public long getServerTime() {
+	  return currentTime;
+	}
+      };
+    for (int i = 0; i < USERS; i++) {
+      users[i] = infoManager.addUser((i + 1) * 11, "user" + i, "");
+    }
+  }
+
+  private Market createMarket() {
+    Game game = new Game(ClassicGameManager.TAC_CLASSIC,
+			 ClassicMarket.DEFAULT_GAME_LENGTH, USERS);
+    for (int i = 0; i < USERS; i++) {
+      game.addParticipant(users[i]);
+    }
+    game.setGameID(Market.getNextGameID());
+    game.setStartTime(currentTime);
+    return new ClassicMarket(infoManager, game);
+  }
+
+  public void run(Random random, int steps) {
+    Market market = createMarket();
+    Market referenceMarket = createMarket();
+    long closeTime = currentTime + ClassicMarket.DEFAULT_GAME_LENGTH;
+    auction = new EngAscAuction(market, 1, 1, closeTime);
+    reference = new ArrayEngAscAuction(referenceMarket, 1, 1, closeTime);
+    auction.open(currentTime);
+    reference.open(currentTime);
+    bids.clear();
+    referenceBids.clear();
+    for (int i = 0; i < USERS; i++) {
+      lastBid[i] = -1;
+    }
+    checkedTransactions = 0;
+
+    for (int s = 0; s < steps; s++) {
+      // Several quote updates per game but not one per bid
+      currentTime += random.nextInt(20000);
+      step = "quote update at " + currentTime;
+      check("tick", auction.tickPerformed(currentTime),
+	    reference.tickPerformed(currentTime));
+      compare(market, referenceMarket);
+
+      int u = random.nextInt(USERS);
+      // Few prices to get many units with the same price
+      BidList list = new BidList();
+      BidList referenceList = new BidList();
+      double basePrice = auction.getQuote().getAskPrice();
+      for (int i = 0, n = 1 + random.nextInt(3); i < n; i++) {
+	int quantity = 1 + random.nextInt(8);
+	double price = basePrice + 5 * random.nextInt(6);
+	list.addBidPoint(quantity, price);
+	referenceList.addBidPoint(quantity, price);
+      }
+      step = "bid " + list + " by " + users[u].getName();
+      if (random.nextBoolean() && lastBid[u] >= 0) {
+	Bid oldBid = (Bid) bids.get(lastBid[u]);
+	Bid oldReferenceBid = (Bid) referenceBids.get(lastBid[u]);
+	submit(u, list, referenceList, oldBid, oldReferenceBid);
+      } else {
+	submit(u, list, referenceList, null, null);
+      }
+      compare(market, referenceMarket);
+    }
+
+    step = "close";
+    auction.close(currentTime);
+    reference.close(currentTime);
+    compare(market, referenceMarket);
+  }
+
+  private void submit(int u, BidList list, BidList referenceList,
+		      Bid oldBid, Bid oldReferenceBid) {
+    User user = users[u];
+    Bid bid = null;
+    Bid referenceBid = null;
+    int status = TACException.NO_ERROR;
+    int referenceStatus = TACException.NO_ERROR;
+    try {
+      bid = oldBid == null
+	? auction.submit(user, list)
+	: auction.replace(user, list, oldBid.getBidID(),
+			  oldBid.getBidHash());
+    } catch (TACException e) {
+      status = e.getStatusCode();
+    }
+    try {
+      referenceBid = oldReferenceBid == null
+	? reference.submit(user, referenceList)
+	: reference.replace(user, referenceList,
+			    oldReferenceBid.getBidID(),
+			    oldReferenceBid.getBidHash());
+    } catch (TACException e) {
+      referenceStatus = e.getStatusCode();
+    }
+    check("status", status, referenceStatus);
+    if (bid != null) {
+      check("reject reason", bid.getRejectReason(),
+	    referenceBid.getRejectReason());
+      bids.add(bid);
+      referenceBids.add(referenceBid);
+      if (!bid.isRejected()) {
+	lastBid[u] = bids.size() - 1;
+      }
+    }
+  }
+
+  private void compare(Market market, Market referenceMarket) {
+    Quote quote = auction.getQuote();
+    Quote referenceQuote = reference.getQuote();
+    check("ask price", quote.getAskPrice(), referenceQuote.getAskPrice());
+    check("bid price", quote.getBidPrice(), referenceQuote.getBidPrice());
+    check("next quote time", auction.getNextQuoteTime(),
+	  reference.getNextQuoteTime());
+
+    for (int i = 0, n = bids.size(); i < n; i++) {
+      Bid bid = (Bid) bids.get(i);
+      Bid referenceBid = (Bid) referenceBids.get(i);
+      check("state of bid " + i, bid.getProcessingState(),
+	    referenceBid.getProcessingState());
+      check("bid list of bid " + i, bid.getBidList().toString(),
+	    referenceBid.getBidList().toString());
+      check("close time of bid " + i, bid.getTimeClosed(),
+	    referenceBid.getTimeClosed());
+      check("active bid " + i, auction.isBidActive(bid),
+	    reference.isBidActive(referenceBid));
+      check("hqw of bid " + i, quote.getHQW(bid.getUser(), bid.getBidID()),
+	    referenceQuote.getHQW(referenceBid.getUser(),
+				  referenceBid.getBidID()));
+    }
+
+    ArrayList transactions = getTransactions(market);
+    ArrayList referenceTransactions = getTransactions(referenceMarket);
+    int number = transactions.size();
+    check("transactions", number, referenceTransactions.size());
+    for (int i = checkedTransactions; i < number; i++) {
+      Transaction t = (Transaction) transactions.get(i);
+      Transaction r = (Transaction) referenceTransactions.get(i);
+      check("buyer", t.getBuyer(), r.getBuyer());
+      check("quantity", t.getQuantity(), r.getQuantity());
+      check("price", t.getPrice(), r.getPrice());
+    }
+    checkedTransactions = number;
+  }
+
+  // The transaction ids are shared by all markets and the transactions
+  // of the other market leave holes in the transaction array
+  private ArrayList getTransactions(Market market) {
+    ArrayList list = new ArrayList();
+    Transaction[] transactions = market.getTransactions();
+    if (transactions != null) {
+      for (int i = 0, n = transactions.length; i < n; i++) {
+	if (transactions[i] != null) {
+	  list.add(transactions[i]);
+	}
+      }
+    }
+    return list;
+  }
+
+  private void check(String what, Object value, Object expected) {
+    if (value == expected || (value != null && value.equals(expected))) {
+      return;
+    }
+    System.err.println("DIFFERENCE after " + step + ": " + what + " is "
+		       + value + " but should be " + expected);
+    System.exit(1);
+  }
+
+  private void check(String what, boolean value, boolean expected) {
+    check(what, Boolean.valueOf(value), Boolean.valueOf(expected));
+  }
+
+  private void check(String what, long value, long expected) {
+    check(what, new Long(value), new Long(expected));
+  }
+
+  private void check(String what, double value, double expected) {
+    check(what, new Double(value), new Double(expected));
+  }
+
+  public static void main(String[] args) throws Exception {
+    ArgumentManager config = new ArgumentManager("HotelAuctionCheck", args);
+    config.addOption("rounds", "number", "set the number of auctions");
+    config.addOption("steps", "number", "set the number of bids per auction");
+    config.addOption("seed", "seed", "set the random seed");
+    config.addHelp("h", "show this help message");
+    config.addHelp("help");
+    config.validateArguments();
+
+    int rounds = config.getArgumentAsInt("rounds", 1000);
+    int steps = config.getArgumentAsInt("steps", 200);
+    Random random = new Random(config.getArgumentAsLong("seed", 1L));
+    HotelAuctionCheck check = new HotelAuctionCheck();
+    for (int i = 0; i < rounds; i++) {
+      check.run(random, steps);
+    }
+    System.out.println("No differences in " + rounds + " auctions with "
+		       + steps + " bids each");
+    System.exit(0);
+  }
+
+} // HotelAuctionCheck
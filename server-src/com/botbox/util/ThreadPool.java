@@ -315,8 +315,6 @@ public final class ThreadPool {
 
   final void threadDied(PoolThread thread) {
     synchronized (lock) {
-      threadCount--;
-
       // Remove the thread if it is among the idle threads
       int idleIndex = thread.getIdleIndex();
       if (idleIndex >= 0 && idleIndex < idleThreadCount
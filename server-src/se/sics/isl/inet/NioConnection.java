@@ -0,0 +1,285 @@
+/**
+ * SICS ISL Java Utilities
+ * http://www.sics.se/tac/    tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * NioConnection
+ *
+ * Purpose :
+ *   A non-blocking connection accepted by a NioServer. The connection
+ *   has no threads of its own: all data is read by the server thread
+ *   and handed to dataRead(). Data written is sent directly if the
+ *   socket accepts it and otherwise queued and sent by the server
+ *   thread when the socket becomes writable.
+ */
+package se.sics.isl.inet;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.botbox.util.ArrayQueue;
+
+public abstract class NioConnection {
+
+  private static final Logger log =
+    Logger.getLogger(NioConnection.class.getName());
+
+  // Reading is suspended while this much data waits to be sent
+  private static final int MAX_QUEUED_WRITES = 64;
+
+  private String name;
+  private String fullName;
+  private String userName;
+
+  private long connectTime;
+
+  private final SocketChannel channel;
+  private String remoteHost;
+  private int remotePort;
+
+  private NioServer.Server server;
+  private SelectionKey key;
+  private boolean isOpen = false;
+  private boolean isClosed = true;
+  private boolean isReadSuspended = false;
+
+  private final ArrayQueue outBuffer = new ArrayQueue();
+
+  public NioConnection(String name, SocketChannel channel) {
+    this.name = name;
+    this.fullName = name;
+    this.channel = channel;
+    this.remoteHost = channel.socket().getInetAddress().getHostAddress();
+    this.remotePort = channel.socket().getPort();
+    this.connectTime = System.currentTimeMillis();
+  }
+
+  public String getName() {
+    return fullName;
+  }
+
+  public String getUserName() {
+    return userName;
+  }
+
+  public void setUserName(String userName) {
+    if (userName == null) {
+      throw new NullPointerException();
+    }
+    // User name can only be set once
+    this.fullName = userName + '@' + this.name;
+    this.userName = userName;
+  }
+
+  public String getRemoteHost() {
+    return remoteHost;
+  }
+
+  public int getRemotePort() {
+    return remotePort;
+  }
+
+  public long getConnectTime()  {
+    return connectTime;
+  }
+
+  public boolean isClosed() {
+    return !isOpen;
+  }
+
+  // Closes the connection after all queued data has been sent
+  public void close() {
+    synchronized (outBuffer) {
+      if (!isOpen) {
+	return;
+      }
+      isOpen = false;
+      if (!outBuffer.isEmpty()) {
+	// The server thread closes the connection when all is sent
+	return;
+      }
+    }
+    closeImmediately();
+  }
+
+  public void closeImmediately() {
+    synchronized (outBuffer) {
+      if (isClosed) {
+	return;
+      }
+      isOpen = false;
+      isClosed = true;
+      outBuffer.clear();
+    }
+
+    log.finest(fullName + ": connection closed from " + remoteHost);
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      connectionClosed();
+    } catch (Exception e) {
+      log.log(Level.WARNING, fullName + ": failed to close connection", e);
+    }
+    try {
+      channel.close();
+    } catch (Exception e) {
+      // Ignore errors when closing connection
+    }
+  }
+
+  /**
+   * Writes the remaining data in the buffer. The buffer may not be
+   * changed after this call.
+   */
+  protected final void write(ByteBuffer data) {
+    try {
+      synchronized (outBuffer) {
+	if (isClosed) {
+	  return;
+	}
+	if (outBuffer.isEmpty()) {
+	  channel.write(data);
+	  if (!data.hasRemaining()) {
+	    return;
+	  }
+	  outBuffer.add(data);
+	  // Let the server thread send the rest when possible
+	  updateInterest();
+	} else {
+	  outBuffer.add(data);
+	  if (outBuffer.size() == MAX_QUEUED_WRITES) {
+	    // Stop reading until the other side reads its data
+	    updateInterest();
+	  }
+	}
+      }
+    } catch (Throwable e) {
+      log.log(Level.SEVERE, fullName + ": could not send data", e);
+      // Since it was not possible to send the complete data the
+      // connection is in an unknown state and the best thing to do
+      // is to close it.
+      closeImmediately();
+
+      if (e instanceof ThreadDeath) {
+	throw (ThreadDeath) e;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of buffers waiting to be sent.
+   */
+  protected final int getQueuedWrites() {
+    synchronized (outBuffer) {
+      return outBuffer.size();
+    }
+  }
+
+  /**
+   * Stops (or resumes) reading from this connection. Used to stop
+   * reading when too much data has been read but not yet handled.
+   */
+  protected final void setReadSuspended(boolean isReadSuspended) {
+    synchronized (outBuffer) {
+      if (this.isReadSuspended != isReadSuspended) {
+	this.isReadSuspended = isReadSuspended;
+	updateInterest();
+      }
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Interface towards the server thread
+  // -------------------------------------------------------------------
+
+  // Called by the server thread when the connection has been accepted
+  final void open(NioServer.Server server, SelectionKey key)
+    throws IOException
+  {
+    this.server = server;
+    this.key = key;
+    isClosed = false;
+    isOpen = true;
+    connectionOpened();
+  }
+
+  // Called by the server thread when the socket is writable
+  final void writeQueued() throws IOException {
+    synchronized (outBuffer) {
+      while (!outBuffer.isEmpty()) {
+	ByteBuffer data = (ByteBuffer) outBuffer.get(0);
+	channel.write(data);
+	if (data.hasRemaining()) {
+	  // Wait until the socket is writable again
+	  return;
+	}
+	outBuffer.remove(0);
+      }
+      updateInterestOps();
+    }
+    if (!isOpen) {
+      // All has been sent for a closed connection
+      closeImmediately();
+    }
+  }
+
+  // Called by the server thread when interests might have changed
+  final void updateInterestOps() {
+    synchronized (outBuffer) {
+      if (!isClosed && key.isValid()) {
+	boolean isReading = !isReadSuspended
+	  && outBuffer.size() < MAX_QUEUED_WRITES;
+	key.interestOps((isReading ? SelectionKey.OP_READ : 0)
+			| (outBuffer.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      }
+    }
+  }
+
+  final SocketChannel getChannel() {
+    return channel;
+  }
+
+  // The interest operations may only be changed by the server thread
+  private void updateInterest() {
+    NioServer.Server server = this.server;
+    if (server != null) {
+      server.interestChanged(this);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Child API
+  // -------------------------------------------------------------------
+
+  protected abstract void connectionOpened() throws IOException;
+
+  protected abstract void connectionClosed() throws IOException;
+
+  /**
+   * Called by the server thread with the data read. The buffer is
+   * reused after this call and the data must be copied if it is
+   * needed later.
+   */
+  protected abstract void dataRead(ByteBuffer data) throws IOException;
+
+} // NioConnection
@@ -0,0 +1,284 @@
+/**
+ * SICS ISL Java Utilities
+ * http://www.sics.se/tac/    tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * NioServer
+ *
+ * Purpose :
+ *   A server with the same API as InetServer but using non-blocking
+ *   sockets. One thread accepts new connections and does all reading
+ *   and queued writing for every connection, which means that the
+ *   number of connections is not limited by the number of threads.
+ */
+package se.sics.isl.inet;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.botbox.util.ArrayQueue;
+
+public abstract class NioServer {
+
+  private static final Logger log =
+    Logger.getLogger(NioServer.class.getName());
+
+  private static final int READ_BUFFER_SIZE = 8192;
+
+  // The number of connections waiting to be accepted
+  private static final int BACKLOG = 256;
+
+  private String name;
+  private String host;
+  private Server server;
+  private int port;
+
+  public NioServer(String name, int port) {
+    this(name, null, port);
+  }
+
+  public NioServer(String name, String host, int port) {
+    if (name == null) {
+      throw new NullPointerException();
+    }
+    this.name = name;
+    this.host = host;
+    this.port = port;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getBindAddress() {
+    return (host == null ? "*" : host) + ':' + port;
+  }
+
+  public String getHost() {
+    return host == null ? getLocalHostName() : host;
+  }
+
+  public int getPort() {
+    return port;
+  }
+
+  public boolean isRunning() {
+    return server != null;
+  }
+
+  public final void start() throws IOException {
+    if (server == null) {
+      server = new Server(this, host, port);
+      server.start();
+      serverStarted();
+    }
+  }
+
+  public final void stop() {
+    if (server != null) {
+      server.shutdown();
+      server = null;
+      serverShutdown();
+    }
+  }
+
+  public static String getLocalHostName() {
+    return InetServer.getLocalHostName();
+  }
+
+  protected abstract void serverStarted();
+  protected abstract void serverShutdown();
+
+  /**
+   * Called by the server thread for each accepted connection. The
+   * returned connection is opened by the server thread and may not be
+   * used for writing until then.
+   */
+  protected abstract NioConnection newConnection(SocketChannel channel)
+    throws IOException;
+
+
+  // -------------------------------------------------------------------
+  // Selecting thread
+  // -------------------------------------------------------------------
+
+  static class Server extends Thread {
+    private boolean stopped = false;
+    private final NioServer nio;
+    private final Selector selector;
+    private final ServerSocketChannel socket;
+    private final ByteBuffer readBuffer =
+      ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    // Connections with changed interests since the last select
+    private final ArrayQueue changedConnections = new ArrayQueue();
+
+    Server(NioServer nio, String host, int port) throws IOException {
+      super(nio.name);
+      this.nio = nio;
+      this.selector = Selector.open();
+      this.socket = ServerSocketChannel.open();
+      try {
+	socket.configureBlocking(false);
+	socket.socket().bind(host != null
+			     ? new InetSocketAddress(host, port)
+			     : new InetSocketAddress(port), BACKLOG);
+	socket.register(selector, SelectionKey.OP_ACCEPT);
+      } catch (IOException e) {
+	socket.close();
+	selector.close();
+	throw e;
+      }
+    }
+
+    void shutdown() {
+      if (!stopped) {
+	stopped = true;
+	selector.wakeup();
+      }
+    }
+
+    // May be called by any thread
+    void interestChanged(NioConnection connection) {
+      synchronized (changedConnections) {
+	changedConnections.add(connection);
+      }
+      selector.wakeup();
+    }
+
+    public void run() {
+      try {
+	while (!stopped) {
+	  selector.select();
+	  updateInterests();
+
+	  Iterator keys = selector.selectedKeys().iterator();
+	  while (keys.hasNext()) {
+	    SelectionKey key = (SelectionKey) keys.next();
+	    keys.remove();
+	    if (!key.isValid()) {
+	      // Closed connection
+	    } else if (key.isAcceptable()) {
+	      accept();
+	    } else {
+	      handle(key, (NioConnection) key.attachment());
+	    }
+	  }
+	}
+
+      } catch (Exception exception) {
+	log.log(Level.SEVERE, nio.name + ": listening error", exception);
+
+      } finally {
+	stopped = true;
+	Iterator keys = selector.keys().iterator();
+	while (keys.hasNext()) {
+	  Object connection = ((SelectionKey) keys.next()).attachment();
+	  if (connection != null) {
+	    ((NioConnection) connection).closeImmediately();
+	  }
+	}
+	try {
+	  selector.close();
+	  socket.close();
+	} catch (Exception e2) {
+	}
+	nio.stop();
+      }
+    }
+
+    private void updateInterests() {
+      synchronized (changedConnections) {
+	while (!changedConnections.isEmpty()) {
+	  NioConnection connection =
+	    (NioConnection) changedConnections.remove(0);
+	  connection.updateInterestOps();
+	}
+      }
+    }
+
+    // Accepts all waiting connections
+    private void accept() {
+      while (true) {
+	SocketChannel channel;
+	try {
+	  channel = socket.accept();
+	} catch (IOException e) {
+	  log.log(Level.SEVERE, nio.name + ": failed to accept connection", e);
+	  return;
+	}
+	if (channel == null) {
+	  return;
+	}
+	try {
+	  channel.configureBlocking(false);
+	  NioConnection connection = nio.newConnection(channel);
+	  SelectionKey key =
+	    channel.register(selector, SelectionKey.OP_READ, connection);
+	  connection.open(this, key);
+	} catch (ThreadDeath e) {
+	  throw e;
+	} catch (Throwable e) {
+	  log.log(Level.SEVERE, nio.name
+		  + ": failed to handle new connection", e);
+	  // Try to close the connection
+	  try {
+	    channel.close();
+	  } catch (Exception e2) {
+	  }
+	}
+      }
+    }
+
+    private void handle(SelectionKey key, NioConnection connection) {
+      try {
+	if (key.isWritable()) {
+	  connection.writeQueued();
+	}
+	if (key.isValid() && key.isReadable()) {
+	  readBuffer.clear();
+	  int len = connection.getChannel().read(readBuffer);
+	  if (len < 0) {
+	    if (!connection.isClosed()) {
+	      log.warning(connection.getName() + ": connection closed");
+	    }
+	    connection.closeImmediately();
+	  } else if (len > 0) {
+	    readBuffer.flip();
+	    connection.dataRead(readBuffer);
+	  }
+	}
+      } catch (ThreadDeath e) {
+	throw e;
+      } catch (Throwable e) {
+	if (!connection.isClosed()) {
+	  log.log(Level.SEVERE, connection.getName()
+		  + ": connection error", e);
+	}
+	connection.closeImmediately();
+      }
+    }
+  }
+
+} // NioServer
@@ -43,6 +43,7 @@ import se.sics.isl.util.AMonitor;
 import se.sics.isl.util.AdminMonitor;
 import se.sics.tac.line.LineConnection;
 import se.sics.tac.line.LineListener;
+import se.sics.tac.log.ISCursor;
 import se.sics.tac.log.ISTokenizer;
 
 public class AppletServer extends InetServer implements LineListener,
@@ -84,6 +85,9 @@ public class AppletServer extends InetServer implements LineListener,
   private TACGame lastSentGame = null;
   private int lastSentGameID = -1;
 
+  // Reused for all applet commands (which are handled synchronized)
+  private final ISCursor cursor = new ISCursor();
+
   public AppletServer(InfoServer infoServer, String host, int port)
     throws IOException
   {
@@ -248,7 +252,7 @@ public class AppletServer extends InetServer implements LineListener,
   private void handleAppletCommand(LineConnection source, String line)
     throws NumberFormatException
   {
-    ISTokenizer tokenizer = new ISTokenizer(line);
+    ISCursor tokenizer = cursor.reset(line);
     TACStore store = infoServer.getTACStore();
     switch (tokenizer.getCommand()) {
     case ISTokenizer.SUBSCRIBE:
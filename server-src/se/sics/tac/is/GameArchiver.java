@@ -42,8 +42,9 @@ import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
 
 import com.botbox.util.ArrayQueue;
+import se.sics.tac.log.GameDataFile;
 import se.sics.tac.log.GameResultCreator;
-import se.sics.tac.log.ISTokenizer;
+import se.sics.tac.log.ISCursor;
 import se.sics.tac.log.TACGameInfo;
 import se.sics.tac.util.TACFormatter;
 
@@ -247,9 +248,10 @@ public class GameArchiver extends Thread implements FilenameFilter,
 	      // if this execution point was reached.
 	    }
 
-	    // Only generate score if game has not been scratched
+	    // Only generate score and game data if game has not been scratched
 	    if (!game.isScratched()) {
 	      generateScore(gameID, game);
+	      generateGameData(gameDirectory, game);
 	    }
 
 	    if (runAfterGame != null) {
@@ -280,6 +282,18 @@ public class GameArchiver extends Thread implements FilenameFilter,
     } while (true);
   }
 
+  // The binary game data lets the game be analyzed without parsing
+  // the game log
+  private void generateGameData(String gameDirectory, TACGameInfo game) {
+    String path = gameDirectory + File.separatorChar
+      + GameDataFile.DATA_NAME;
+    try {
+      GameDataFile.write(game, path);
+    } catch (Exception e) {
+      log.log(Level.WARNING, "could not write game data " + path, e);
+    }
+  }
+
   void generateScore(int gameID) {
     generateScore(gameID, null);
   }
@@ -354,10 +368,11 @@ public class GameArchiver extends Thread implements FilenameFilter,
     try {
       String line;
       TACGameInfo game = new TACGameInfo();
+      ISCursor cursor = new ISCursor();
       while ((line = reader.readLine()) != null) {
 	lineNumber++;
 	if (line.length() > 0) {
-	  game.gameData(new ISTokenizer(line));
+	  game.gameData(cursor.reset(line));
 	  writer.write(line);
 	  writer.newLine();
 	}
@@ -57,6 +57,7 @@ import se.sics.isl.util.LogFormatter;
 import se.sics.tac.line.LineConnection;
 import se.sics.tac.line.LineListener;
 import se.sics.tac.log.GameResultCreator;
+import se.sics.tac.log.ISCursor;
 import se.sics.tac.log.ISTokenizer;
 import se.sics.tac.solver.Solver;
 
@@ -407,7 +408,8 @@ public class InfoServer implements LineListener {
 
     timerTask.pong();
 
-    ISTokenizer tok = new ISTokenizer(line);
+    // A new cursor for each line since the solver keeps some of them
+    ISCursor tok = new ISCursor(line);
     // Must handle the message before notifying the applets in case
     // the server time or coming games are changed.
     try {
@@ -418,7 +420,7 @@ public class InfoServer implements LineListener {
     appletServer.messageReceived(tok.getCommand(), line);
   }
 
-  private void messageReceived(ISTokenizer tok, String line) {
+  private void messageReceived(ISCursor tok, String line) {
     switch (tok.getCommand()) {
     case ISTokenizer.GAME_STARTED:
       {
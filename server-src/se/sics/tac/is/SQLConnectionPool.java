@@ -0,0 +1,246 @@
+/**
+ * SICS TAC Server - InfoServer
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * SQLConnectionPool
+ *
+ * Purpose :
+ *   A small pool of JDBC connections to one database. Each connection
+ *   caches its prepared statements by SQL string (the least recently
+ *   used statements are closed when the cache is full) so statements
+ *   that are used again are only prepared once per connection.
+ *
+ *   Connections are borrowed with getConnection() and given back with
+ *   release(). A statement can also be prepared directly by the pool
+ *   with prepare(); its connection is then borrowed until the statement
+ *   is given back with close(). Connections are created when needed and
+ *   at most 'size' idle connections are kept.
+ */
+
+package se.sics.tac.is;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class SQLConnectionPool {
+
+  private static final Logger log =
+    Logger.getLogger(SQLConnectionPool.class.getName());
+
+  private final String databaseURL;
+  private final String user;
+  private final String password;
+  private final int size;
+  private final int statementCacheSize;
+
+  private final ArrayList idle = new ArrayList();
+  // Statement -> PooledConnection for the statements given by prepare()
+  private final IdentityHashMap borrowed = new IdentityHashMap();
+  private boolean isClosed = false;
+
+  public SQLConnectionPool(String databaseURL, String user, String password,
+			   int size, int statementCacheSize) {
+    if (size < 1 || statementCacheSize < 1) {
+      throw new IllegalArgumentException("size must be > 0");
+    }
+    this.databaseURL = databaseURL;
+    this.user = user;
+    this.password = password;
+    this.size = size;
+    this.statementCacheSize = statementCacheSize;
+  }
+
+  public PooledConnection getConnection() throws SQLException {
+    synchronized (this) {
+      if (isClosed) {
+	throw new SQLException("connection pool is closed");
+      }
+      while (idle.size() > 0) {
+	PooledConnection connection =
+	  (PooledConnection) idle.remove(idle.size() - 1);
+	if (!connection.getConnection().isClosed()) {
+	  return connection;
+	}
+	connection.close();
+      }
+    }
+    // New connections are created outside the lock because it might take
+    // some time
+    return new PooledConnection(connect());
+  }
+
+  public void release(PooledConnection connection) {
+    boolean keep = false;
+    try {
+      Connection c = connection.getConnection();
+      if (!c.isClosed()) {
+	if (!c.getAutoCommit()) {
+	  // Never hand out a connection with an open transaction or
+	  // statements with batches that were not executed
+	  c.rollback();
+	  c.setAutoCommit(true);
+	  connection.clearBatches();
+	}
+	synchronized (this) {
+	  if (!isClosed && idle.size() < size) {
+	    idle.add(connection);
+	    keep = true;
+	  }
+	}
+      }
+    } catch (SQLException e) {
+      log.log(Level.WARNING, "could not reset connection to "
+	      + databaseURL, e);
+    }
+    if (!keep) {
+      connection.close();
+    }
+  }
+
+  // Prepares (or reuses) a statement on a borrowed connection. The
+  // statement must be given back with close().
+  public PreparedStatement prepare(String sql) throws SQLException {
+    PooledConnection connection = getConnection();
+    try {
+      PreparedStatement stm = connection.prepare(sql);
+      synchronized (this) {
+	borrowed.put(stm, connection);
+      }
+      return stm;
+    } catch (SQLException e) {
+      release(connection);
+      throw e;
+    }
+  }
+
+  public void close(PreparedStatement stm) {
+    PooledConnection connection;
+    synchronized (this) {
+      connection = (PooledConnection) borrowed.remove(stm);
+    }
+    if (connection != null) {
+      release(connection);
+    } else if (stm != null) {
+      log.warning("statement not prepared by the pool");
+    }
+  }
+
+  public void closeAll() {
+    PooledConnection[] connections;
+    synchronized (this) {
+      isClosed = true;
+      connections = (PooledConnection[])
+	idle.toArray(new PooledConnection[idle.size()]);
+      idle.clear();
+    }
+    for (int i = 0, n = connections.length; i < n; i++) {
+      connections[i].close();
+    }
+  }
+
+  private Connection connect() throws SQLException {
+    if (user != null) {
+      log.finest("Connecting to database URL:" + databaseURL
+		 + " as " + user);
+      return DriverManager.getConnection(databaseURL, user,
+					 password == null ? "" : password);
+    } else {
+      log.finest("Connecting to database URL:" + databaseURL);
+      return DriverManager.getConnection(databaseURL, null);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // PooledConnection
+  // -------------------------------------------------------------------
+
+  public class PooledConnection {
+
+    private final Connection connection;
+    private final LinkedHashMap statements =
+      new LinkedHashMap(16, 0.75f, true) {
+	protected boolean removeEldestEntry(Map.Entry eldest) {
+	  if (size() > statementCacheSize) {
+	    closeStatement((PreparedStatement) eldest.getValue());
+	    return true;
+	  }
+	  return false;
+	}
+      };
+
+    PooledConnection(Connection connection) {
+      this.connection = connection;
+    }
+
+    public Connection getConnection() {
+      return connection;
+    }
+
+    // Returns the cached statement for the SQL if the connection has
+    // prepared it before. The statement must not be closed. Any batch
+    // added to the statement is kept until it is executed or the
+    // connection is released.
+    public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stm = (PreparedStatement) statements.get(sql);
+      if (stm == null) {
+	stm = connection.prepareStatement(sql);
+	statements.put(sql, stm);
+      } else {
+	stm.clearParameters();
+      }
+      return stm;
+    }
+
+    void clearBatches() throws SQLException {
+      for (Iterator i = statements.values().iterator(); i.hasNext(); ) {
+	((PreparedStatement) i.next()).clearBatch();
+      }
+    }
+
+    void close() {
+      for (Iterator i = statements.values().iterator(); i.hasNext(); ) {
+	closeStatement((PreparedStatement) i.next());
+      }
+      statements.clear();
+      try {
+	connection.close();
+      } catch (SQLException e) {
+	log.log(Level.FINE, "could not close connection", e);
+      }
+    }
+
+    private void closeStatement(PreparedStatement stm) {
+      try {
+	stm.close();
+      } catch (SQLException e) {
+	log.log(Level.FINE, "could not close statement", e);
+      }
+    }
+
+  } // PooledConnection
+
+} // SQLConnectionPool
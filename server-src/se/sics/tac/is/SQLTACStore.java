@@ -29,7 +29,6 @@ package se.sics.tac.is;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.Driver;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -52,6 +51,8 @@ public class SQLTACStore extends TACStore {
   private static final boolean DB = false;
   private static final boolean USERS = true;
 
+  private static final int STATEMENT_CACHE_SIZE = 32;
+
   // The default Driver and database URL
   private String databaseURL = "jdbc:mysql://localhost:3306/mysql";
   private String driverName = "org.gjt.mm.mysql.Driver";
@@ -59,7 +60,8 @@ public class SQLTACStore extends TACStore {
   private String databasePassword = null;
   private String dataBase = "tacserver";
   private Driver driver;
-  private Connection dbConnection;
+  private SQLConnectionPool dbPool;
+  private int poolSize = 4;
 
   private String userDatabaseURL = "jdbc:mysql://localhost:3306/mysql";
   private String userDriverName = "org.gjt.mm.mysql.Driver";
@@ -67,9 +69,25 @@ public class SQLTACStore extends TACStore {
   private String userDatabasePassword = null;
   private String userDataBase = null;
   private Driver userDriver;
-  private Connection userConnection;
+  private SQLConnectionPool userPool;
   private boolean useUserDatabase;
 
+  // The results of a game are written in one transaction on this
+  // connection (only accessed by the thread holding gameLock)
+  private final Object gameLock = new Object();
+  private SQLConnectionPool.PooledConnection gameConnection;
+  private boolean gameFailed;
+  private int gameResultBatch;
+  private int participantBatch;
+  private ArrayList agentInfoBatch = new ArrayList();
+
+  // The statements for storing game results (created when the name of
+  // the database is known)
+  private String insertGameResult;
+  private String updateParticipant;
+  private String updateAgentInfo;
+  private String insertAgentInfo;
+
   public SQLTACStore(ConfigManager config) {
     this(config, false, false);
   }
@@ -85,6 +103,7 @@ public class SQLTACStore extends TACStore {
     databaseURL = config.getProperty("sql.url", databaseURL);
     databaseUser = config.getProperty("sql.user");
     databasePassword = config.getProperty("sql.password");
+    poolSize = config.getPropertyAsInt("sql.poolSize", poolSize);
 
     userDataBase = config.getProperty("users.sql.database", userDataBase);
     userDriverName = config.getProperty("users.sql.driver", userDriverName);
@@ -93,6 +112,16 @@ public class SQLTACStore extends TACStore {
     userDatabasePassword = config.getProperty("users.sql.password");
     useUserDatabase = userDataBase != null;
 
+    insertGameResult = "INSERT INTO " + dataBase
+      + ".gameresults VALUES(?,?,?,?,?,?,?)";
+    updateParticipant = "UPDATE " + dataBase + ".participants SET score=?,"
+      + " playedgames=?, wscore=?, wplayedgames=?, zeroplayedgames=?,"
+      + " zerowplayedgames=? WHERE competition=? and agent=?";
+    updateAgentInfo = "UPDATE " + dataBase + ".agentinfo SET score=?,"
+      + " playedgames=?, zeroplayedgames=?, lastPlayed=? WHERE id=?";
+    insertAgentInfo = "INSERT INTO " + dataBase
+      + ".agentinfo VALUES(?,?,?,?,?)";
+
     if (!useUserDatabase) {
       userDataBase = dataBase;
     } else {
@@ -104,15 +133,21 @@ public class SQLTACStore extends TACStore {
 
       if (useUserDatabase && userDriverName != null
 	  && !userDriverName.equals(driverName)) {
-	userDriver = (Driver) Class.forName(driverName).newInstance();
+	userDriver = (Driver) Class.forName(userDriverName).newInstance();
 	log.finest("Database Driver: " + driver + " User database driver: "
 		   + userDriver);
       } else {
 	log.finest("Database Driver: " + driver);
       }
-      connect(DB);
+      dbPool = new SQLConnectionPool(databaseURL, databaseUser,
+				     databasePassword, poolSize,
+				     STATEMENT_CACHE_SIZE);
       if (useUserDatabase) {
-	connect(USERS);
+	userPool = new SQLConnectionPool(userDatabaseURL, userDatabaseUser,
+					 userDatabasePassword, poolSize,
+					 STATEMENT_CACHE_SIZE);
+      } else {
+	userPool = dbPool;
       }
 
       if (createDatabase) {
@@ -133,92 +168,70 @@ public class SQLTACStore extends TACStore {
     }
   }
 
-  private void connect(boolean users) throws SQLException {
-    if (users && useUserDatabase) {
-      if (userConnection == null || userConnection.isClosed()) {
-	userConnection = connect(userDatabaseURL, userDatabaseUser,
-				 userDatabasePassword);
-	log.finest("User Database Connection: " + userConnection);
-      }
-
-    } else if (dbConnection == null || dbConnection.isClosed()) {
-      dbConnection = connect(databaseURL, databaseUser, databasePassword);
-      log.finest("Database Connection: " + dbConnection);
-      if (!useUserDatabase) {
-	userConnection = dbConnection;
-      }
-    }
-  }
-
-  private Connection connect(String databaseURL, String user, String password)
-    throws SQLException
-  {
-    if (user != null) {
-      log.finest("Connecting to database URL:" + databaseURL
-		 + " as " + user);
-      return DriverManager.getConnection(databaseURL, user,
-					 password == null ? "" : password);
-    } else {
-      log.finest("Connecting to database URL:" + databaseURL);
-      return DriverManager.getConnection(databaseURL, null);
-    }
-  }
-
   private void loadAttributes() throws SQLException {
-    PreparedStatement stm =
-      dbConnection.prepareStatement("SELECT * from " + dataBase + ".state");
-    ResultSet result = stm.executeQuery();
-    if (result.next()) {
-      String[] intNames = new String[10];
-      int[] intValues = new int[10];
-      int count = 0;
-      do {
-	String name = result.getString(1);
-	int value = result.getInt(2);
-	if (count == intNames.length) {
-	  intNames = (String[]) ArrayUtils.setSize(intNames, count + 10);
-	  intValues = ArrayUtils.setSize(intValues, count + 10);
+    PreparedStatement stm = prepare(DB, "SELECT * from " + dataBase
+				    + ".state");
+    try {
+      ResultSet result = stm.executeQuery();
+      if (result.next()) {
+	String[] intNames = new String[10];
+	int[] intValues = new int[10];
+	int count = 0;
+	do {
+	  String name = result.getString(1);
+	  int value = result.getInt(2);
+	  if (count == intNames.length) {
+	    intNames = (String[]) ArrayUtils.setSize(intNames, count + 10);
+	    intValues = ArrayUtils.setSize(intValues, count + 10);
+	  }
+	  intNames[count] = name;
+	  intValues[count] = value;
+	  count++;
+	} while (result.next());
+	if (count < intNames.length) {
+	  intNames = (String[]) ArrayUtils.setSize(intNames, count);
+	  intValues = ArrayUtils.setSize(intValues, count);
 	}
-	intNames[count] = name;
-	intValues[count] = value;
-	count++;
-      } while (result.next());
-      if (count < intNames.length) {
-	intNames = (String[]) ArrayUtils.setSize(intNames, count);
-	intValues = ArrayUtils.setSize(intValues, count);
+	this.intNames = intNames;
+	this.intValues = intValues;
       }
-      this.intNames = intNames;
-      this.intValues = intValues;
+    } finally {
+      sqlClose(DB, stm);
     }
-    stm.close();
   }
 
   private void loadUsers() throws SQLException {
     PreparedStatement stm =
-      sqlPrepare(USERS, "SELECT id,parent,name,password,email from "
-		 + userDataBase + ".users ORDER BY id");
-    ResultSet result = stm.executeQuery();
+      prepare(USERS, "SELECT id,parent,name,password,email from "
+	      + userDataBase + ".users ORDER BY id");
     ArrayList list = new ArrayList();
-    while (result.next()) {
-      TACUser user = new TACUser(result.getInt(1),
-				 result.getInt(2),
-				 result.getString(3),
-				 result.getString(4),
-				 result.getString(5));
-
-      PreparedStatement stm2 = sqlPrepare(DB, "SELECT score,playedgames,"
-					  + "zeroplayedgames from " + dataBase
-					  + ".agentinfo WHERE id='"
-					  + user.getID()
-					  + "' LIMIT 1");
-      ResultSet result2 = stm2.executeQuery();
-      if (result2.next()) {
-	user.setScore(result2.getDouble(1), result2.getInt(2));
-	user.setZeroGames(result2.getInt(3));
-      }
-      stm2.close();
+    try {
+      ResultSet result = stm.executeQuery();
+      while (result.next()) {
+	TACUser user = new TACUser(result.getInt(1),
+				   result.getInt(2),
+				   result.getString(3),
+				   result.getString(4),
+				   result.getString(5));
+
+	PreparedStatement stm2 = prepare(DB, "SELECT score,playedgames,"
+					 + "zeroplayedgames from " + dataBase
+					 + ".agentinfo WHERE id=? LIMIT 1");
+	try {
+	  stm2.setInt(1, user.getID());
+	  ResultSet result2 = stm2.executeQuery();
+	  if (result2.next()) {
+	    user.setScore(result2.getDouble(1), result2.getInt(2));
+	    user.setZeroGames(result2.getInt(3));
+	  }
+	} finally {
+	  sqlClose(DB, stm2);
+	}
 
-      list.add(user);
+	list.add(user);
+      }
+    } finally {
+      sqlClose(USERS, stm);
     }
     if (list.size() > 0) {
       setUsers((TACUser[]) list.toArray(new TACUser[list.size()]));
@@ -226,45 +239,49 @@ public class SQLTACStore extends TACStore {
   }
 
   private void loadGames() throws SQLException {
-    PreparedStatement stm = sqlPrepare(DB, "SELECT * from " + dataBase
-				       + ".cominggames ORDER BY starttime");
-    ResultSet result = stm.executeQuery();
+    PreparedStatement stm = prepare(DB, "SELECT * from " + dataBase
+				    + ".cominggames ORDER BY starttime");
     ArrayList list = null;
-    while (result.next()) {
-      int guid = result.getInt(1);
-      int gid = result.getInt(2);
-      String gameType = result.getString(3);
-      long startTime = result.getLong(4);
-      int gameLength = result.getInt(5);
-      int participantsInGame = result.getInt(6);
-      String participants = result.getString(7);
-      if (gameType != null) {
-	if ((gameType.length() == 0) || "null".equals(gameType)) {
-	  gameType = null;
-	} else {
-	  // Reuse same object for all games instead of many string objects
-	  // for the same type
-	  gameType = gameType.intern();
+    try {
+      ResultSet result = stm.executeQuery();
+      while (result.next()) {
+	int guid = result.getInt(1);
+	int gid = result.getInt(2);
+	String gameType = result.getString(3);
+	long startTime = result.getLong(4);
+	int gameLength = result.getInt(5);
+	int participantsInGame = result.getInt(6);
+	String participants = result.getString(7);
+	if (gameType != null) {
+	  if ((gameType.length() == 0) || "null".equals(gameType)) {
+	    gameType = null;
+	  } else {
+	    // Reuse same object for all games instead of many string objects
+	    // for the same type
+	    gameType = gameType.intern();
+	  }
 	}
-      }
-      TACGame game = new TACGame(guid, gid, gameType, startTime, gameLength,
-				 participantsInGame);
-      if (participants != null) {
-	try {
-	  StringTokenizer tok = new StringTokenizer(participants, ", ");
-	  while (tok.hasMoreTokens()) {
-	    game.joinGame(Integer.parseInt(tok.nextToken()));
+	TACGame game = new TACGame(guid, gid, gameType, startTime, gameLength,
+				   participantsInGame);
+	if (participants != null) {
+	  try {
+	    StringTokenizer tok = new StringTokenizer(participants, ", ");
+	    while (tok.hasMoreTokens()) {
+	      game.joinGame(Integer.parseInt(tok.nextToken()));
+	    }
+	  } catch (Exception e) {
+	    log.log(Level.SEVERE, "could not parse participants '"
+		    + participants + '\'', e);
 	  }
-	} catch (Exception e) {
-	  log.log(Level.SEVERE, "could not parse participants '"
-		  + participants + '\'', e);
 	}
-      }
-      if (list == null) {
-	list = new ArrayList();
-      }
-      list.add(game);
+	if (list == null) {
+	  list = new ArrayList();
+	}
+	list.add(game);
 
+      }
+    } finally {
+      sqlClose(DB, stm);
     }
     this.comingGames = (list != null)
       ? (TACGame[]) list.toArray(new TACGame[list.size()])
@@ -281,87 +298,94 @@ public class SQLTACStore extends TACStore {
 	select += " WHERE id > '" + lastID + '\'';
       }
     }
-    PreparedStatement stm = sqlPrepare(DB, select + " ORDER BY startgameid");
-    ResultSet result = stm.executeQuery();
+    PreparedStatement stm = prepare(DB, select + " ORDER BY startgameid");
     Competition[] competitions = null;
-    int currentComp = getInt("currentCompetition", -1);
     boolean hasCompetitionChain = false;
-    ArrayList agentList = null;
-    while (result.next()) {
-      int id = result.getInt(1);
-      int parentID = result.getInt(2);
-      String name = result.getString(3);
-      String description = result.getString(4);
-      long startTime = result.getLong(5);
-      long endTime = result.getLong(6);
-      int startGame = result.getInt(7);
-      int startGameID = result.getInt(8);
-      int gameCount = result.getInt(9);
-      float startWeight = result.getFloat(10);
-      String className = result.getString(11);
-      int flags = result.getInt(12);
-      TACUser[] agents = null;
-
-      PreparedStatement stm2 = sqlPrepare(DB, "SELECT * from " + dataBase +
-					  ".participants WHERE competition='"
-					  + id + '\'');
-      ResultSet result2 = stm2.executeQuery();
-      while (result2.next()) {
-	int uid = result2.getInt(2);
-	TACUser user = getUser(uid);
-	if (user != null) {
-	  log.fine("adding user " + user.getName() + " to competition "
-		   + name);
-	  user = new TACUser(user);
-	  user.setScore(result2.getDouble(3), result2.getInt(4),
-			result2.getDouble(5), result2.getDouble(6));
-	  user.setCompetitionFlag(result2.getInt(7));
-
-// 	  ResultSetMetaData rsmd = result2.getMetaData();
-// 	  int numberOfColumns = rsmd.getColumnCount();
-// 	  if (numberOfColumns > 8) {
-	  user.setZeroGames(result2.getInt(8), result2.getDouble(9));
-// 	  }
-	  // Find the NO_WORST worst games for this agent
-	  loadWorst(user, startGameID, startGameID + gameCount - 1,
-		    TACUser.NO_WORST);
+    try {
+      ResultSet result = stm.executeQuery();
+      int currentComp = getInt("currentCompetition", -1);
+      ArrayList agentList = null;
+      while (result.next()) {
+	int id = result.getInt(1);
+	int parentID = result.getInt(2);
+	String name = result.getString(3);
+	String description = result.getString(4);
+	long startTime = result.getLong(5);
+	long endTime = result.getLong(6);
+	int startGame = result.getInt(7);
+	int startGameID = result.getInt(8);
+	int gameCount = result.getInt(9);
+	float startWeight = result.getFloat(10);
+	String className = result.getString(11);
+	int flags = result.getInt(12);
+	TACUser[] agents = null;
+
+	PreparedStatement stm2 =
+	  prepare(DB, "SELECT * from " + dataBase
+		  + ".participants WHERE competition=?");
+	try {
+	  stm2.setInt(1, id);
+	  ResultSet result2 = stm2.executeQuery();
+	  while (result2.next()) {
+	    int uid = result2.getInt(2);
+	    TACUser user = getUser(uid);
+	    if (user != null) {
+	      log.fine("adding user " + user.getName() + " to competition "
+		       + name);
+	      user = new TACUser(user);
+	      user.setScore(result2.getDouble(3), result2.getInt(4),
+			    result2.getDouble(5), result2.getDouble(6));
+	      user.setCompetitionFlag(result2.getInt(7));
+
+// 	      ResultSetMetaData rsmd = result2.getMetaData();
+// 	      int numberOfColumns = rsmd.getColumnCount();
+// 	      if (numberOfColumns > 8) {
+	      user.setZeroGames(result2.getInt(8), result2.getDouble(9));
+// 	      }
+	      // Find the NO_WORST worst games for this agent
+	      loadWorst(user, startGameID, startGameID + gameCount - 1,
+			TACUser.NO_WORST);
+
+	      if (agentList == null) {
+		agentList = new ArrayList();
+	      }
+	      agentList.add(user);
+	    } else {
+	      log.severe("could not find participant " + uid
+			 + " for competition " + name);
+	    }
+	  }
 
-	  if (agentList == null) {
-	    agentList = new ArrayList();
+	  if (agentList != null && agentList.size() > 0) {
+	    agents = (TACUser[])
+	      agentList.toArray(new TACUser[agentList.size()]);
+	    agentList.clear();
+	  } else {
+	    agents = null;
 	  }
-	  agentList.add(user);
-	} else {
-	  log.severe("could not find participant " + uid
-		     + " for competition " + name);
+	} finally {
+	  sqlClose(DB, stm2);
 	}
-      }
 
-      if (agentList != null && agentList.size() > 0) {
-	agents = (TACUser[])
-	  agentList.toArray(new TACUser[agentList.size()]);
-	agentList.clear();
-      } else {
-	agents = null;
-      }
-      stm2.close();
-
-      Competition competition =
-	new Competition(id, gameCount, agents, name, description,
-			startWeight, className);
-      if (parentID > 0) {
-	competition.setParentCompetitionID(parentID);
-	hasCompetitionChain = true;
-      }
-      competition.setGameInfo(startGame, startTime, endTime);
-      competition.setStartGameID(startGameID);
-      competition.setFlags(flags);
-      competitions = (Competition[]) ArrayUtils.add(Competition.class,
-						    competitions, competition);
-      if (id == currentComp) {
-	currentCompetition = competition;
+	Competition competition =
+	  new Competition(id, gameCount, agents, name, description,
+			  startWeight, className);
+	if (parentID > 0) {
+	  competition.setParentCompetitionID(parentID);
+	  hasCompetitionChain = true;
+	}
+	competition.setGameInfo(startGame, startTime, endTime);
+	competition.setStartGameID(startGameID);
+	competition.setFlags(flags);
+	competitions = (Competition[])
+	  ArrayUtils.add(Competition.class, competitions, competition);
+	if (id == currentComp) {
+	  currentCompetition = competition;
+	}
       }
+    } finally {
+      sqlClose(DB, stm);
     }
-    stm.close();
 
     // Must identify all chained competitions
     if (hasCompetitionChain && competitions != null) {
@@ -411,44 +435,134 @@ public class SQLTACStore extends TACStore {
   {
     int uid = user.getID();
     PreparedStatement stm3 =
-      sqlPrepare(DB, "SELECT gameid,agentid,score,weight from " + dataBase +
-		 ".gameresults WHERE agentid = '" + uid
-		 + "' and gameid <='" + endID
-		 + "' and gameid >= '" + startID
-		 + "' ORDER BY (score-3000)*weight LIMIT "
-		 + limit);
-    ResultSet result3 = stm3.executeQuery();
-    while (result3.next()) {
-      int gid = result3.getInt(1);
-      int agentID = result3.getInt(2);
-      float sc = result3.getFloat(3);
-      float w = result3.getFloat(4);
-      log.finest(">>>>> AgentID: " + uid + " (" + agentID
-		 + ")      Score: " + sc + " w=" + w);
-      user.addToWorst(gid, sc, w);
+      prepare(DB, "SELECT gameid,agentid,score,weight from " + dataBase
+	      + ".gameresults WHERE agentid=? and gameid<=? and gameid>=?"
+	      + " ORDER BY (score-3000)*weight LIMIT " + limit);
+    try {
+      stm3.setInt(1, uid);
+      stm3.setInt(2, endID);
+      stm3.setInt(3, startID);
+      ResultSet result3 = stm3.executeQuery();
+      while (result3.next()) {
+	int gid = result3.getInt(1);
+	int agentID = result3.getInt(2);
+	float sc = result3.getFloat(3);
+	float w = result3.getFloat(4);
+	log.finest(">>>>> AgentID: " + uid + " (" + agentID
+		   + ")      Score: " + sc + " w=" + w);
+	user.addToWorst(gid, sc, w);
+      }
+    } finally {
+      sqlClose(DB, stm3);
     }
-    stm3.close();
   }
 
   protected boolean hasGameResults(int gameID) {
     try {
-      PreparedStatement stm = sqlPrepare(DB, "SELECT id from " + dataBase +
-					 ".playedgames WHERE id='"
-					 + gameID + "' LIMIT 1");
-      ResultSet result = stm.executeQuery();
-      boolean hasGameResults = result.next();
-      stm.close();
-      return hasGameResults;
+      PreparedStatement stm = prepare(DB, "SELECT id from " + dataBase
+				      + ".playedgames WHERE id=? LIMIT 1");
+      try {
+	stm.setInt(1, gameID);
+	return stm.executeQuery().next();
+      } finally {
+	sqlClose(DB, stm);
+      }
     } catch (SQLException e) {
       log.log(Level.SEVERE, "could not lookup game " + gameID, e);
       return false;
     }
   }
 
+  // The results of a game (the played game, the game results and the
+  // scores of the agents) are written in one transaction with the rows
+  // of the agents as batches
+  public void addGameResults(TACGameInfo game) {
+    int gameID = game.getGameID();
+    synchronized (gameLock) {
+      try {
+	gameConnection = dbPool.getConnection();
+	gameConnection.getConnection().setAutoCommit(false);
+      } catch (SQLException e) {
+	log.log(Level.SEVERE, "could not start transaction for game "
+		+ gameID + " (writing results one by one)", e);
+	if (gameConnection != null) {
+	  dbPool.release(gameConnection);
+	  gameConnection = null;
+	}
+      }
+      gameFailed = false;
+      gameResultBatch = 0;
+      participantBatch = 0;
+      agentInfoBatch.clear();
+      try {
+	super.addGameResults(game);
+	if (gameConnection != null) {
+	  if (gameFailed) {
+	    log.severe("could not store results for game " + gameID);
+	  } else {
+	    commitGameResults(gameID);
+	  }
+	}
+      } catch (SQLException e) {
+	log.log(Level.SEVERE, "could not store results for game "
+		+ gameID, e);
+      } finally {
+	agentInfoBatch.clear();
+	if (gameConnection != null) {
+	  // Any uncommitted results are rolled back by the pool
+	  dbPool.release(gameConnection);
+	  gameConnection = null;
+	}
+      }
+    }
+  }
+
+  private void commitGameResults(int gameID) throws SQLException {
+    SQLConnectionPool.PooledConnection connection = gameConnection;
+    if (gameResultBatch > 0) {
+      int[] result = connection.prepare(insertGameResult).executeBatch();
+      for (int i = 0, n = result.length; i < n; i++) {
+	if (result[i] == 0) {
+	  log.severe("could not set result for " + gameID);
+	}
+      }
+    }
+    if (participantBatch > 0) {
+      int[] result = connection.prepare(updateParticipant).executeBatch();
+      for (int i = 0, n = result.length; i < n; i++) {
+	if (result[i] == 0) {
+	  log.severe("could not set score for " + gameID);
+	}
+      }
+    }
+    if (agentInfoBatch.size() > 0) {
+      int[] result = connection.prepare(updateAgentInfo).executeBatch();
+      PreparedStatement insert = null;
+      long time = System.currentTimeMillis();
+      for (int i = 0, n = result.length; i < n; i++) {
+	if (result[i] == 0) {
+	  // No agent info for the agent
+	  if (insert == null) {
+	    insert = connection.prepare(insertAgentInfo);
+	  }
+	  setAgentInfo(insert, (TACUser) agentInfoBatch.get(i), time);
+	  insert.addBatch();
+	}
+      }
+      if (insert != null) {
+	insert.executeBatch();
+      }
+    }
+    connection.getConnection().commit();
+  }
+
   protected void gameStopped(TACGameInfo game) {
+    SQLConnectionPool.PooledConnection connection = null;
     try {
-      PreparedStatement stm = sqlPrepare(DB, "INSERT INTO " + dataBase +
-					 ".playedgames VALUES(?,?,?,?,?)");
+      connection = getGameConnection();
+      PreparedStatement stm =
+	connection.prepare("INSERT INTO " + dataBase
+			   + ".playedgames VALUES(?,?,?,?,?)");
       stm.setInt(1, game.getGameID());
       stm.setString(2, game.getGameType());
       stm.setLong(3, game.getStartTime());
@@ -459,10 +573,26 @@ public class SQLTACStore extends TACStore {
 	log.log(Level.SEVERE, "could not insert played game " +
 		game.getGameID());
       }
-      stm.close();
     } catch (SQLException e) {
       log.log(Level.SEVERE, "could not insert played game " +
 	      game.getID(), e);
+      gameFailed = true;
+    } finally {
+      releaseGameConnection(connection);
+    }
+  }
+
+  // Returns the connection of the game results transaction or a
+  // connection from the pool if there is no transaction
+  private SQLConnectionPool.PooledConnection getGameConnection()
+    throws SQLException
+  {
+    return gameConnection != null ? gameConnection : dbPool.getConnection();
+  }
+
+  private void releaseGameConnection(SQLConnectionPool.PooledConnection c) {
+    if (c != null && c != gameConnection) {
+      dbPool.release(c);
     }
   }
 
@@ -488,54 +618,42 @@ public class SQLTACStore extends TACStore {
 				   int maxNumberOfGames)
     throws SQLException
   {
-    PreparedStatement stm = sqlPrepare(DB, "SELECT gameid,utility,score,"
-				       + "penalty,weight,flags from "
-				       + dataBase
-				       + ".gameresults WHERE agentid="
-				       + agentID
-				       + " and gameid >= '"
-				       + competition.getStartGameID()
-				       + "' and gameid <= '"
-				       + competition.getEndGameID()
-				       + "' ORDER BY gameid DESC LIMIT "
-				       + (maxNumberOfGames
-					  - game.getNumberOfGames()));
-    ResultSet result = stm.executeQuery();
-    while (result.next()) {
-      int gameID = result.getInt(1);
-      int utility = result.getInt(2);
-      float score = result.getFloat(3);
-      int penalty = result.getInt(4);
-      float weight = result.getFloat(5);
-      int flags = result.getInt(6);
-      game.addGameResult(gameID, utility, score, penalty, weight, flags);
+    PreparedStatement stm = prepare(DB, "SELECT gameid,utility,score,"
+				    + "penalty,weight,flags from "
+				    + dataBase
+				    + ".gameresults WHERE agentid=?"
+				    + " and gameid>=? and gameid<=?"
+				    + " ORDER BY gameid DESC LIMIT "
+				    + (maxNumberOfGames
+				       - game.getNumberOfGames()));
+    stm.setInt(1, agentID);
+    stm.setInt(2, competition.getStartGameID());
+    stm.setInt(3, competition.getEndGameID());
+    try {
+      addGameResults(game, stm.executeQuery());
+    } finally {
+      sqlClose(DB, stm);
     }
-    stm.close();
   }
 
   public TACGameResult getLatestGameResult(int agentID, int lowestGameID,
 					   int maxNumberOfGames) {
     try {
       TACGameResult game = new TACGameResult(agentID, maxNumberOfGames, true);
-      PreparedStatement stm = sqlPrepare(DB, "SELECT gameid,utility,score,"
-					 + "penalty,weight,flags from "
-					 + dataBase
-					 + ".gameresults WHERE agentid="
-					 + agentID
-					 + " and gameid >= '" + lowestGameID
-					 + "' ORDER BY gameid DESC LIMIT "
-					 + maxNumberOfGames);
-      ResultSet result = stm.executeQuery();
-      while (result.next()) {
-	int gameID = result.getInt(1);
-	int utility = result.getInt(2);
-	float score = result.getFloat(3);
-	int penalty = result.getInt(4);
-	float weight = result.getFloat(5);
-	int flags = result.getInt(6);
-	game.addGameResult(gameID, utility, score, penalty, weight, flags);
+      PreparedStatement stm = prepare(DB, "SELECT gameid,utility,score,"
+				      + "penalty,weight,flags from "
+				      + dataBase
+				      + ".gameresults WHERE agentid=?"
+				      + " and gameid>=?"
+				      + " ORDER BY gameid DESC LIMIT "
+				      + maxNumberOfGames);
+      stm.setInt(1, agentID);
+      stm.setInt(2, lowestGameID);
+      try {
+	addGameResults(game, stm.executeQuery());
+      } finally {
+	sqlClose(DB, stm);
       }
-      stm.close();
       return game;
     } catch (SQLException e) {
       log.log(Level.SEVERE, "could not retrieve game result for agent " +
@@ -544,13 +662,32 @@ public class SQLTACStore extends TACStore {
     }
   }
 
+  private void addGameResults(TACGameResult game, ResultSet result)
+    throws SQLException
+  {
+    while (result.next()) {
+      int gameID = result.getInt(1);
+      int utility = result.getInt(2);
+      float score = result.getFloat(3);
+      int penalty = result.getInt(4);
+      float weight = result.getFloat(5);
+      int flags = result.getInt(6);
+      game.addGameResult(gameID, utility, score, penalty, weight, flags);
+    }
+  }
+
+  // Returns a statement from the connection pool. The statement must be
+  // given back with sqlClose() and not closed.
+  private PreparedStatement prepare(boolean type, String sql)
+    throws SQLException
+  {
+    return (type == DB ? dbPool : userPool).prepare(sql);
+  }
+
   private PreparedStatement sqlPrepare(boolean type, String sql) {
     try {
-      connect(type);
       // Should empty queue before this update...
-      return type == DB
-	? dbConnection.prepareStatement(sql)
-	: userConnection.prepareStatement(sql);
+      return prepare(type, sql);
     } catch (Exception e) {
       // Should add update to queue of updates...
       log.log(Level.SEVERE, "could prepare SQL statement: " + sql, e);
@@ -559,13 +696,15 @@ public class SQLTACStore extends TACStore {
     }
   }
 
+  private void sqlClose(boolean type, PreparedStatement stm) {
+    (type == DB ? dbPool : userPool).close(stm);
+  }
+
   private int sqlExecute(boolean type, String sql) {
     try {
       // Should empty queue before this update...
-      PreparedStatement stm = sqlPrepare(type, sql);
-      int result = stm.executeUpdate();
-      stm.close();
-      return result;
+      PreparedStatement stm = prepare(type, sql);
+      return sqlExecute(type, stm);
     } catch (Exception e) {
       // Should add update to queue of updates...
       log.log(Level.SEVERE, "could not execute SQL statement: " + sql, e);
@@ -573,38 +712,46 @@ public class SQLTACStore extends TACStore {
     }
   }
 
-  private int sqlExecute(PreparedStatement stm) {
+  private int sqlExecute(boolean type, PreparedStatement stm) {
     try {
-      int result = stm.executeUpdate();
-      stm.close();
-      return result;
+      return stm.executeUpdate();
     } catch (Exception e) {
       // Should add update to queue of updates...
       log.log(Level.SEVERE, "could not execute SQL statement: " + stm, e);
       return 0;
+    } finally {
+      sqlClose(type, stm);
     }
   }
 
   public TACUser updateUser(int userID) {
     try {
       PreparedStatement stm =
-	sqlPrepare(USERS, "SELECT parent,name,password,email from "
-		   + userDataBase + ".users WHERE id=" + userID);
-      ResultSet result = stm.executeQuery();
-      if (result.next()) {
-	int parent = result.getInt(1);
-	String name = result.getString(2);
-	String password = result.getString(3);
-	String email = result.getString(4);
-	TACUser user = getUser(userID);
-	if (user != null) {
-	  user = changeUserInMemory(user, parent, name, password, email);
-	} else {
-	  // User not already in memory cache
-	  user = addUserToMemory(userID, parent, name, password, email);
+	prepare(USERS, "SELECT parent,name,password,email from "
+		+ userDataBase + ".users WHERE id=?");
+      String name, password, email;
+      int parent;
+      try {
+	stm.setInt(1, userID);
+	ResultSet result = stm.executeQuery();
+	if (!result.next()) {
+	  return null;
 	}
-	return user;
+	parent = result.getInt(1);
+	name = result.getString(2);
+	password = result.getString(3);
+	email = result.getString(4);
+      } finally {
+	sqlClose(USERS, stm);
+      }
+      TACUser user = getUser(userID);
+      if (user != null) {
+	user = changeUserInMemory(user, parent, name, password, email);
+      } else {
+	// User not already in memory cache
+	user = addUserToMemory(userID, parent, name, password, email);
       }
+      return user;
 
     } catch (Exception e) {
       log.log(Level.SEVERE, "could not update user " + userID, e);
@@ -615,25 +762,31 @@ public class SQLTACStore extends TACStore {
   public TACUser updateUser(String userName) {
     try {
       PreparedStatement stm =
-	sqlPrepare(USERS, "SELECT id,parent,password,email from "
-		   + userDataBase + ".users WHERE name=?");
-      stm.setString(1, userName);
-
-      ResultSet result = stm.executeQuery();
-      if (result.next()) {
-	int userID = result.getInt(1);
-	int parent = result.getInt(2);
-	String password = result.getString(3);
-	String email = result.getString(4);
-	TACUser user = getUser(userName);
-	if (user != null) {
-	  user = changeUserInMemory(user, parent, userName, password, email);
-	} else {
-	  // User not already in memory cache
-	  user = addUserToMemory(userID, parent, userName, password, email);
+	prepare(USERS, "SELECT id,parent,password,email from "
+		+ userDataBase + ".users WHERE name=?");
+      String password, email;
+      int userID, parent;
+      try {
+	stm.setString(1, userName);
+	ResultSet result = stm.executeQuery();
+	if (!result.next()) {
+	  return null;
 	}
-	return user;
+	userID = result.getInt(1);
+	parent = result.getInt(2);
+	password = result.getString(3);
+	email = result.getString(4);
+      } finally {
+	sqlClose(USERS, stm);
+      }
+      TACUser user = getUser(userName);
+      if (user != null) {
+	user = changeUserInMemory(user, parent, userName, password, email);
+      } else {
+	// User not already in memory cache
+	user = addUserToMemory(userID, parent, userName, password, email);
       }
+      return user;
 
     } catch (Exception e) {
       log.log(Level.SEVERE, "could not update user " + userName, e);
@@ -650,7 +803,7 @@ public class SQLTACStore extends TACStore {
       }
     } else if (operation == REMOVED) {
       sqlExecute(DB, "DELETE FROM " + dataBase + ".state WHERE name='"
-		 + name + "' LIMIT 1");
+		 + name + '\'');
     } else {
       // operation == CHANGED
       if (sqlExecute(DB, "UPDATE " + dataBase + ".state SET value='" +
@@ -665,66 +818,95 @@ public class SQLTACStore extends TACStore {
 			  int penalty, int util, float weight,
 			  int flags) {
     log.fine("Setting score for " + gameID + " agent " + user.getName());
-    int result = sqlExecute(DB, "INSERT INTO " + dataBase
-			    + ".gameresults VALUES('"
-			    + gameID + "','"
-			    + user.getID() + "','"
-			    + util + "','"
-			    + score + "','"
-			    + penalty + "','"
-			    + weight + "','"
-			    + flags + "')");
-    if (result == 0) {
-      log.severe("could not set result for " + gameID
-		 + " agent " + user.getName());
+    SQLConnectionPool.PooledConnection connection = null;
+    try {
+      connection = getGameConnection();
+      if (!addScore(connection, connection == gameConnection,
+		    competition, gameID, user, score, penalty, util,
+		    weight, flags)) {
+	log.severe("could not set result for " + gameID
+		   + " agent " + user.getName());
+      }
+    } catch (SQLException e) {
+      log.log(Level.SEVERE, "could not set result for " + gameID
+	      + " agent " + user.getName(), e);
+      gameFailed = true;
+    } finally {
+      releaseGameConnection(connection);
+    }
+  }
+
+  // Adds the rows for the score either as batches to be executed when
+  // the game results are committed or directly
+  private boolean addScore(SQLConnectionPool.PooledConnection connection,
+			   boolean batch, Competition competition,
+			   int gameID, TACUser user, float score,
+			   int penalty, int util, float weight, int flags)
+    throws SQLException
+  {
+    PreparedStatement stm = connection.prepare(insertGameResult);
+    stm.setInt(1, gameID);
+    stm.setInt(2, user.getID());
+    stm.setInt(3, util);
+    stm.setFloat(4, score);
+    stm.setInt(5, penalty);
+    stm.setFloat(6, weight);
+    stm.setInt(7, flags);
+    if (batch) {
+      stm.addBatch();
+      gameResultBatch++;
+    } else if (stm.executeUpdate() == 0) {
+      return false;
     }
 
     // Can not use current competition because the score might arrive
     // after the competition has ended
     if (competition != null) {
-      result = sqlExecute(DB, "UPDATE " + dataBase +
-			  ".participants SET score='" +
-			  user.getTotalScore() + "', playedgames='" +
-			  user.getGamesPlayed() + "', wscore='" +
-			  user.getTotalWScore() +
-			  "', wplayedgames='" +
-			  user.getGamesWPlayed() +
-			  "', zeroplayedgames='" +
-			  user.getZeroGamesPlayed() +
-			  "', zerowplayedgames='" +
-			  user.getZeroGamesWPlayed() +
-			  "' WHERE competition='" + competition.getID() +
-			  "' and agent='" + user.getID() + '\'');
-    } else {
-      result = sqlExecute(DB, "UPDATE " + dataBase + ".agentinfo SET score='" +
-			  user.getTotalScore() +
-			  "', playedgames='" +
-			  user.getGamesPlayed() +
-			  "', zeroplayedgames='" +
-			  user.getZeroGamesPlayed() +
-			  "', lastPlayed='" +
-			  System.currentTimeMillis()
-			  + "' WHERE id='" +
-			  user.getID() + "'");
-      if (result == 0) {
-	result = sqlExecute(DB, "INSERT INTO " + dataBase
-			    + ".agentinfo VALUES('" +
-			    user.getID() +
-			    "','" +
-			    user.getTotalScore() +
-			    "','" +
-			    user.getGamesPlayed() +
-			    "','" +
-			    user.getZeroGamesPlayed() +
-			    "','" +
-			    System.currentTimeMillis() +
-			    "')");
+      stm = connection.prepare(updateParticipant);
+      stm.setDouble(1, user.getTotalScore());
+      stm.setInt(2, user.getGamesPlayed());
+      stm.setDouble(3, user.getTotalWScore());
+      stm.setDouble(4, user.getGamesWPlayed());
+      stm.setInt(5, user.getZeroGamesPlayed());
+      stm.setDouble(6, user.getZeroGamesWPlayed());
+      stm.setInt(7, competition.getID());
+      stm.setInt(8, user.getID());
+      if (batch) {
+	stm.addBatch();
+	participantBatch++;
+	return true;
       }
+      return stm.executeUpdate() > 0;
+    }
+
+    long time = System.currentTimeMillis();
+    stm = connection.prepare(updateAgentInfo);
+    stm.setDouble(1, user.getTotalScore());
+    stm.setInt(2, user.getGamesPlayed());
+    stm.setInt(3, user.getZeroGamesPlayed());
+    stm.setLong(4, time);
+    stm.setInt(5, user.getID());
+    if (batch) {
+      stm.addBatch();
+      agentInfoBatch.add(user);
+      return true;
     }
-    if (result == 0) {
-      log.severe("could not set result for " + gameID
-		 + " agent " + user.getName());
+    if (stm.executeUpdate() > 0) {
+      return true;
     }
+    stm = connection.prepare(insertAgentInfo);
+    setAgentInfo(stm, user, time);
+    return stm.executeUpdate() > 0;
+  }
+
+  private void setAgentInfo(PreparedStatement stm, TACUser user, long time)
+    throws SQLException
+  {
+    stm.setInt(1, user.getID());
+    stm.setDouble(2, user.getTotalScore());
+    stm.setInt(3, user.getGamesPlayed());
+    stm.setInt(4, user.getZeroGamesPlayed());
+    stm.setLong(5, time);
   }
 
   protected void userChanged(TACUser user, int operation) {
@@ -739,7 +921,7 @@ public class SQLTACStore extends TACStore {
 	stm.setString(2, user.getPassword());
 	stm.setString(3, user.getEmail());
 
-	int result = stm.executeUpdate();
+	int result = sqlExecute(USERS, stm);
 	if (result == 0) {
 	  log.log(Level.SEVERE, "could not add user " + user.getName());
 	} else {
@@ -765,7 +947,7 @@ public class SQLTACStore extends TACStore {
 	stm.setString(1, user.getName());
 	stm.setString(2, user.getPassword());
 	stm.setString(3, user.getEmail());
-	int result = stm.executeUpdate();
+	int result = sqlExecute(USERS, stm);
 	if (result == 0) {
 	  log.log(Level.SEVERE, "could not update user " + user.getName());
 	}
@@ -775,9 +957,9 @@ public class SQLTACStore extends TACStore {
 
     } else if (operation == REMOVED) {
       sqlExecute(USERS, "DELETE FROM " + userDataBase + ".users WHERE id='"
-		 + user.getID() + "' LIMIT 1");
+		 + user.getID() + '\'');
       sqlExecute(DB, "DELETE FROM " + dataBase + ".agentinfo WHERE id='"
-		 + user.getID() + "' LIMIT 1");
+		 + user.getID() + '\'');
     }
   }
 
@@ -876,8 +1058,7 @@ public class SQLTACStore extends TACStore {
 	stm.setString(4, description != null ? description : "");
 	stm.setString(5, scoreClassName);
 
-	int result = sqlExecute(stm);
-	stm.close();
+	int result = sqlExecute(DB, stm);
 	if (result == 0) {
 	  log.log(Level.SEVERE, "could not add competition " + name);
 	} else {
@@ -891,12 +1072,11 @@ public class SQLTACStore extends TACStore {
 		.append(participants[i].getID())
 		.append("','0','0','0','0','0','0','0')");
 	      stm = sqlPrepare(DB, sb.toString());
-	      result = sqlExecute(stm);
+	      result = sqlExecute(DB, stm);
 	      if (result == 0) {
 		log.log(Level.SEVERE, "could not add participant " +
 			competition.getName());
 	      }
-	      stm.close();
 	    }
 	  }
 	}
@@ -931,7 +1111,7 @@ public class SQLTACStore extends TACStore {
 	stm.setString(1, competition.getName());
 	stm.setString(2, competition.getDescription());
 	stm.setString(3, competition.getScoreClassName());
-	int result = stm.executeUpdate();
+	int result = sqlExecute(DB, stm);
 	if (result == 0) {
 	  log.severe("could not save updated competition "
 		     + competition.getName());
@@ -991,60 +1171,75 @@ public class SQLTACStore extends TACStore {
 			String[][] tableAlterations,
 			boolean createDatabase) {
     boolean[] tableReady = new boolean[tableNames.length];
-    ResultSet rs = null;
-    Connection cdb = type == DB ? this.dbConnection : this.userConnection;
+    ArrayList existingTables = new ArrayList();
+    SQLConnectionPool pool = type == DB ? dbPool : userPool;
     String dataBase = type == DB ? this.dataBase : this.userDataBase;
+    String url = type == DB ? databaseURL : userDatabaseURL;
 
+    SQLConnectionPool.PooledConnection connection = null;
     try {
-      DatabaseMetaData dbmd = cdb.getMetaData();
-      rs = dbmd.getTables(dataBase, null, null, null);
-    } catch (Exception e) {
-      // Simply ignore any errors (rs will be null)
-    }
-
-    if (createDatabase) {
+      connection = pool.getConnection();
+      Connection cdb = connection.getConnection();
       try {
-	PreparedStatement stm =
-	  cdb.prepareStatement("CREATE DATABASE IF NOT EXISTS " + dataBase);
-	int result = stm.executeUpdate();
-	stm.close();
-
-	if (result == 0) {
-	  log.info("did not create database " + dataBase + " - maybe exists");
+	DatabaseMetaData dbmd = cdb.getMetaData();
+	ResultSet rs = dbmd.getTables(dataBase, null, null, null);
+	while (rs.next()) {
+	  existingTables.add(rs.getString(3));
 	}
+	rs.close();
       } catch (Exception e) {
-	log.log(Level.SEVERE, "could not create database " + dataBase, e);
-	System.exit(1);
+	// Simply ignore any errors (all tables will be created if needed)
+      }
+
+      if (createDatabase) {
+	// Only MySQL has databases - other databases use schemas
+	String sql = url.startsWith("jdbc:mysql:")
+	  ? "CREATE DATABASE IF NOT EXISTS "
+	  : "CREATE SCHEMA IF NOT EXISTS ";
+	try {
+	  PreparedStatement stm = cdb.prepareStatement(sql + dataBase);
+	  int result = stm.executeUpdate();
+	  stm.close();
+
+	  if (result == 0) {
+	    log.info("did not create database " + dataBase
+		     + " - maybe exists");
+	  }
+	} catch (Exception e) {
+	  log.log(Level.SEVERE, "could not create database " + dataBase, e);
+	  System.exit(1);
+	}
+      }
+    } catch (SQLException e) {
+      log.log(Level.SEVERE, "could not connect to database " + dataBase, e);
+      System.exit(1);
+    } finally {
+      if (connection != null) {
+	pool.release(connection);
       }
     }
 
-    if (rs != null) {
-      try {
-	while (rs.next()) {
-	  String name = rs.getString(3);
-	  int index = ArrayUtils.indexOf(tableNames, name);
-	  if (index < 0) {
-	    log.fine("Ignoring table " + name);
-	  } else {
-	    log.fine("Checking table " + name);
-	    tableReady[index] = true;
-	    if (tableAlterations[index] != null) {
-	      log.fine("Performing table alterations for " + name);
-	      for (int i = 0, n = tableAlterations[index].length; i < n; i++) {
-		try {
-		  sqlExecute(type, "ALTER TABLE " + dataBase
-			     + '.' + tableAlterations[index][i]);
-		} catch (Exception ae) {
-		  log.log(Level.WARNING,
-			  "could not perform alteration in table "
-			  + name + ": " + tableAlterations[index][i], ae);
-		}
-	      }
+    for (int j = 0, m = existingTables.size(); j < m; j++) {
+      String name = (String) existingTables.get(j);
+      int index = ArrayUtils.indexOf(tableNames, name);
+      if (index < 0) {
+	log.fine("Ignoring table " + name);
+      } else {
+	log.fine("Checking table " + name);
+	tableReady[index] = true;
+	if (tableAlterations[index] != null) {
+	  log.fine("Performing table alterations for " + name);
+	  for (int i = 0, n = tableAlterations[index].length; i < n; i++) {
+	    try {
+	      sqlExecute(type, "ALTER TABLE " + dataBase
+			 + '.' + tableAlterations[index][i]);
+	    } catch (Exception ae) {
+	      log.log(Level.WARNING,
+		      "could not perform alteration in table "
+		      + name + ": " + tableAlterations[index][i], ae);
 	    }
 	  }
 	}
-      } catch (Exception e) {
-	log.log(Level.SEVERE, "could not retrieve database names", e);
       }
     }
 
@@ -1085,48 +1280,50 @@ public class SQLTACStore extends TACStore {
 	      + id + " AND (score=0 OR (flags & " + ZERO_GAME + ") != 0)"
 	      + " AND gameid >= "
 	      + startGame + " AND gameid <= " + endGame;
-	    PreparedStatement stm = dbConnection.prepareStatement(stat);
-	    ResultSet rs = stm.executeQuery();
-	    if (rs.next()) {
-	      int zeroGames = rs.getInt(1);
-	      double zeroWGames = rs.getDouble(2);
-	      String stat2 =
-		"UPDATE " + dataBase
-		+ ".participants SET zeroplayedgames='" + zeroGames
-		+ "', zerowplayedgames='" + zeroWGames
-		+ "' WHERE agent="
-		+ id + " AND competition=" + compID;
-	      PreparedStatement stm2 = dbConnection.prepareStatement(stat2);
-	      stm2.executeUpdate();
-	      stm2.close();
+	    PreparedStatement stm = prepare(DB, stat);
+	    try {
+	      ResultSet rs = stm.executeQuery();
+	      if (rs.next()) {
+		int zeroGames = rs.getInt(1);
+		double zeroWGames = rs.getDouble(2);
+		String stat2 =
+		  "UPDATE " + dataBase
+		  + ".participants SET zeroplayedgames='" + zeroGames
+		  + "', zerowplayedgames='" + zeroWGames
+		  + "' WHERE agent="
+		  + id + " AND competition=" + compID;
+		sqlExecute(DB, stat2);
+	      }
+	    } finally {
+	      sqlClose(DB, stm);
 	    }
-	    stm.close();
 
 	    stat =
 	      "SELECT count(*), sum(score), sum(score*weight), sum(weight)"
 	      + " FROM " + dataBase + ".gameresults WHERE agentid="
 	      + id + " AND gameid >= "
 	      + startGame + " AND gameid <= " + endGame;
-	    stm = dbConnection.prepareStatement(stat);
-	    rs = stm.executeQuery();
-	    if (rs.next()) {
-	      int numberOfGames = rs.getInt(1);
-	      double score = rs.getDouble(2);
-	      double weightScore = rs.getDouble(3);
-	      double numberOfWeightGames = rs.getDouble(4);
-	      String stat2 =
-		"UPDATE " + dataBase
-		+ ".participants SET playedgames='" + numberOfGames
-		+ "', score='" + score
-		+ "', wscore='" + weightScore
-		+ "', wplayedgames='" + numberOfWeightGames
-		+ "' WHERE agent="
-		+ id + " AND competition=" + compID;
-	      PreparedStatement stm2 = dbConnection.prepareStatement(stat2);
-	      stm2.executeUpdate();
-	      stm2.close();
+	    stm = prepare(DB, stat);
+	    try {
+	      ResultSet rs = stm.executeQuery();
+	      if (rs.next()) {
+		int numberOfGames = rs.getInt(1);
+		double score = rs.getDouble(2);
+		double weightScore = rs.getDouble(3);
+		double numberOfWeightGames = rs.getDouble(4);
+		String stat2 =
+		  "UPDATE " + dataBase
+		  + ".participants SET playedgames='" + numberOfGames
+		  + "', score='" + score
+		  + "', wscore='" + weightScore
+		  + "', wplayedgames='" + numberOfWeightGames
+		  + "' WHERE agent="
+		  + id + " AND competition=" + compID;
+		sqlExecute(DB, stat2);
+	      }
+	    } finally {
+	      sqlClose(DB, stm);
 	    }
-	    stm.close();
 	  }
 	}
       }
@@ -1141,19 +1338,20 @@ public class SQLTACStore extends TACStore {
 	  String stat =
 	    "SELECT count(*) FROM " + dataBase + ".gameresults WHERE agentid="
 	    + id + " AND (score=0 OR ((flags & " + ZERO_GAME + ") != 0))";
-	  PreparedStatement stm = dbConnection.prepareStatement(stat);
-	  ResultSet rs = stm.executeQuery();
-	  if (rs.next()) {
-	    int zeroGames = rs.getInt(1);
-	    String stat2 =
-	      "UPDATE " + dataBase
-	      + ".agentinfo SET zeroplayedgames='" + zeroGames
-	      + "' WHERE id=" + id;
-	    PreparedStatement stm2 = dbConnection.prepareStatement(stat2);
-	    stm2.executeUpdate();
-	    stm2.close();
+	  PreparedStatement stm = prepare(DB, stat);
+	  try {
+	    ResultSet rs = stm.executeQuery();
+	    if (rs.next()) {
+	      int zeroGames = rs.getInt(1);
+	      String stat2 =
+		"UPDATE " + dataBase
+		+ ".agentinfo SET zeroplayedgames='" + zeroGames
+		+ "' WHERE id=" + id;
+	      sqlExecute(DB, stat2);
+	    }
+	  } finally {
+	    sqlClose(DB, stm);
 	  }
-	  stm.close();
 	}
       }
     }
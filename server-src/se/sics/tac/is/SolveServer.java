@@ -30,6 +30,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.botbox.util.ArrayQueue;
+import se.sics.tac.log.ISCursor;
 import se.sics.tac.log.ISTokenizer;
 import se.sics.tac.solver.FastOptimizer;
 import se.sics.tac.solver.Solver;
@@ -41,7 +42,7 @@ public class SolveServer implements Runnable {
 
   private final static boolean DEBUG = true;
   private final InfoServer infoServer;
-  private Solver solver = new FastOptimizer();
+  private Solver solver = new FastOptimizer(true);
   private ArrayQueue queue = new ArrayQueue();
 
   private int calcAID = 0;
@@ -56,22 +57,22 @@ public class SolveServer implements Runnable {
     new Thread(this, "solver").start();
   }
 
-  public synchronized void addCommand(ISTokenizer tok) {
+  public synchronized void addCommand(ISCursor tok) {
     queue.add(tok);
     notify();
   }
 
-  public synchronized ISTokenizer getCommand() throws InterruptedException {
+  public synchronized ISCursor getCommand() throws InterruptedException {
     while (queue.size() == 0) {
       wait();
     }
-    return (ISTokenizer) queue.remove(0);
+    return (ISCursor) queue.remove(0);
   }
 
   public void run() {
     while (true) {
       try {
-	ISTokenizer tok = getCommand();
+	ISCursor tok = getCommand();
 	switch (tok.getCommand()) {
 	case ISTokenizer.SOLVE_REQUEST:
 	  solveGame(tok);
@@ -98,7 +99,7 @@ public class SolveServer implements Runnable {
     }
   }
 
-  public void solveGame(ISTokenizer tok) {
+  public void solveGame(ISCursor tok) {
     try {
       int gID = tok.nextInt();
       int aID = tok.nextInt();
@@ -117,7 +118,7 @@ public class SolveServer implements Runnable {
     calcGoods = false;
   }
 
-  public void setOwn(ISTokenizer tok) {
+  public void setOwn(ISCursor tok) {
     try {
       int gID = tok.nextInt();
       int aID = tok.nextInt();
@@ -146,7 +147,7 @@ public class SolveServer implements Runnable {
     }
   }
 
-  public void setClient(ISTokenizer tok) {
+  public void setClient(ISCursor tok) {
     try {
       // Must check game id because clients might be recieved when
       // next game starts...
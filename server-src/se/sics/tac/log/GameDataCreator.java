@@ -0,0 +1,76 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * GameDataCreator
+ *
+ * Purpose :
+ *   Writes the binary game data file (see GameDataFile) next to each
+ *   parsed game log. Used with GameLogAnalyzer to create the game data
+ *   files for games archived before the files were written by the
+ *   game archiver.
+ */
+
+package se.sics.tac.log;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import se.sics.isl.util.ArgumentManager;
+import se.sics.isl.util.ConfigManager;
+
+public class GameDataCreator implements TACGameLogListener {
+
+  private static final Logger log =
+    Logger.getLogger(GameDataCreator.class.getName());
+
+  private int created = 0;
+
+  public GameDataCreator() {
+  }
+
+  public void init(ConfigManager config) {
+  }
+
+  public void addOptions(ArgumentManager manager) {
+  }
+
+  public void gameOpened(String path, TACGameInfo game) {
+    // The bids are not stored in the game data file
+    game.setProperty(TACGameInfo.IGNORE_BIDS, "true");
+  }
+
+  public void gameClosed(String path, TACGameInfo game) {
+    if (game != null && game.isFinished() && !game.isScratched()) {
+      File fp = new File(new File(path).getParentFile(),
+			 GameDataFile.DATA_NAME);
+      try {
+	GameDataFile.write(game, fp.getPath());
+	created++;
+      } catch (IOException e) {
+	log.log(Level.SEVERE, "could not write game data for " + path, e);
+      }
+    }
+  }
+
+  public void finishedGames() {
+    log.info("created " + created + " game data files");
+  }
+
+} // GameDataCreator
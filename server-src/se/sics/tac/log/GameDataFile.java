@@ -0,0 +1,476 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * GameDataFile
+ *
+ * Purpose :
+ *   Binary columnar copy of a parsed game (applet.dat) stored next to
+ *   the game log. The file is memory mapped when opened and the
+ *   quotes, transactions, and client preferences are read directly
+ *   from the mapped columns without parsing the game log. The quotes
+ *   of each auction are stored in time order which means that the
+ *   quote at a given time can be found with a binary search.
+ *
+ *   The file starts with a header (see HEADER_SIZE) with the game,
+ *   the agents, the auctions and their quote ranges, and the offsets
+ *   of the columns. All times are stored in milliseconds relative the
+ *   game start time.
+ *
+ *   Bids are not stored since they are not kept by TACGameInfo.
+ */
+
+package se.sics.tac.log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class GameDataFile {
+
+  public final static String DATA_NAME = "applet.dat";
+
+  private final static int MAGIC = ('T' << 24) | ('A' << 16) | ('C' << 8) | 'G';
+  private final static int VERSION = 1;
+
+  private final static int AUCTIONS = 7 * 5;
+  private final static int AGENTS = 8;
+  private final static int CLIENTS = 8;
+  private final static int PREFERENCES = 6;
+
+  // Header layout
+  private final static int GAME_ID = 8;
+  private final static int UNIQ_ID = 12;
+  private final static int START_TIME = 16;
+  private final static int END_TIME = 24;
+  private final static int AGENT_NUMBER = 32;
+  private final static int AGENT_IDS = 36;
+  private final static int AUCTION_IDS = AGENT_IDS + AGENTS * 4;
+  // Close time (or -1) for each auction
+  private final static int AUCTION_CLOSED = AUCTION_IDS + AUCTIONS * 4;
+  // First quote, number of quotes, and closed quote (or -1) per auction
+  private final static int AUCTION_QUOTES = AUCTION_CLOSED + AUCTIONS * 4;
+  private final static int QUOTE_NUMBER = AUCTION_QUOTES + AUCTIONS * 12;
+  private final static int HQW_NUMBER = QUOTE_NUMBER + 4;
+  private final static int TRANSACTION_NUMBER = HQW_NUMBER + 4;
+  // Column offsets
+  private final static int QUOTE_TIMES = TRANSACTION_NUMBER + 4;
+  private final static int QUOTE_ASKS = QUOTE_TIMES + 4;
+  private final static int QUOTE_BIDS = QUOTE_ASKS + 4;
+  private final static int QUOTE_HQWS = QUOTE_BIDS + 4;
+  private final static int HQWS = QUOTE_HQWS + 4;
+  private final static int TRANSACTIONS = HQWS + 4;
+  private final static int CLIENT_PREFERENCES = TRANSACTIONS + 4;
+  private final static int STRINGS = CLIENT_PREFERENCES + 4;
+  private final static int HEADER_SIZE = STRINGS + 4;
+
+  // Transaction columns
+  private final static int TRANSACTION_FIELDS = 7;
+
+  private final ByteBuffer data;
+  private final long startTime;
+  private final int[] quoteStart = new int[AUCTIONS];
+  private final int[] quoteNumber = new int[AUCTIONS];
+  private final int[] closedQuote = new int[AUCTIONS];
+  private final int transactionNumber;
+  private final int quoteTimes;
+  private final int quoteAsks;
+  private final int quoteBids;
+  private final int quoteHQWs;
+  private final int hqws;
+  private final int transactions;
+  private final int clientPreferences;
+  private final String gameType;
+  private final String[] agentNames;
+
+  public GameDataFile(String path) throws IOException {
+    FileInputStream input = new FileInputStream(path);
+    try {
+      FileChannel channel = input.getChannel();
+      this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+			      channel.size());
+    } finally {
+      input.close();
+    }
+
+    if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+      throw new IOException("not a game data file: " + path);
+    }
+    if (data.getInt(4) != VERSION) {
+      throw new IOException("unsupported game data version "
+			    + data.getInt(4) + ": " + path);
+    }
+    startTime = data.getLong(START_TIME);
+    for (int i = 0; i < AUCTIONS; i++) {
+      int index = AUCTION_QUOTES + i * 12;
+      quoteStart[i] = data.getInt(index);
+      quoteNumber[i] = data.getInt(index + 4);
+      closedQuote[i] = data.getInt(index + 8);
+    }
+    transactionNumber = data.getInt(TRANSACTION_NUMBER);
+    quoteTimes = data.getInt(QUOTE_TIMES);
+    quoteAsks = data.getInt(QUOTE_ASKS);
+    quoteBids = data.getInt(QUOTE_BIDS);
+    quoteHQWs = data.getInt(QUOTE_HQWS);
+    hqws = data.getInt(HQWS);
+    transactions = data.getInt(TRANSACTIONS);
+    clientPreferences = data.getInt(CLIENT_PREFERENCES);
+
+    // The strings are read once
+    int pos = data.getInt(STRINGS);
+    int agents = getNumberOfAgents();
+    agentNames = new String[agents];
+    gameType = readString(pos);
+    pos += 4 + Math.max(data.getInt(pos), 0);
+    for (int i = 0; i < agents; i++) {
+      agentNames[i] = readString(pos);
+      // A null string is only the length -1
+      pos += 4 + Math.max(data.getInt(pos), 0);
+    }
+  }
+
+  private String readString(int pos) throws UnsupportedEncodingException {
+    int len = data.getInt(pos);
+    if (len < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[len];
+    for (int i = 0; i < len; i++) {
+      bytes[i] = data.get(pos + 4 + i);
+    }
+    return new String(bytes, "UTF-8");
+  }
+
+
+  /*********************************************************************
+   * Information access API (as in TACGameInfo)
+   *********************************************************************/
+
+  public int getID() {
+    return data.getInt(UNIQ_ID);
+  }
+
+  public int getGameID() {
+    return data.getInt(GAME_ID);
+  }
+
+  public String getGameType() {
+    return gameType;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return data.getLong(END_TIME);
+  }
+
+  public int getNumberOfAgents() {
+    return data.getInt(AGENT_NUMBER);
+  }
+
+  public int getAgentID(int index) {
+    return index == Integer.MIN_VALUE
+      ? Integer.MIN_VALUE
+      : data.getInt(AGENT_IDS + index * 4);
+  }
+
+  public String getAgentName(int index) {
+    return index == Integer.MIN_VALUE ? "auction" : agentNames[index];
+  }
+
+  public int getClientPreferences(int agentIndex, int clientIndex,
+				  int type) {
+    return data.getInt(clientPreferences
+		       + ((agentIndex * CLIENTS + clientIndex) * PREFERENCES
+			  + type) * 4);
+  }
+
+  public int getAuctionID(int index) {
+    return data.getInt(AUCTION_IDS + index * 4);
+  }
+
+  public long getAuctionCloseTime(int index) {
+    int time = data.getInt(AUCTION_CLOSED + index * 4);
+    return time < 0 ? 0L : startTime + time;
+  }
+
+  public int getNumberOfQuotes(int auctionIndex) {
+    return quoteNumber[auctionIndex];
+  }
+
+  public TACQuote getQuote(int auctionIndex, int quoteIndex) {
+    if (quoteIndex < 0 || quoteIndex >= quoteNumber[auctionIndex]) {
+      throw new IndexOutOfBoundsException(Integer.toString(quoteIndex));
+    }
+    int q = quoteStart[auctionIndex] + quoteIndex;
+    int hqwStart = data.getInt(quoteHQWs + q * 4);
+    int[] hqw = null;
+    if (hqwStart >= 0) {
+      int hqwEnd = data.getInt(quoteHQWs + q * 4 + 4);
+      if (hqwEnd < 0) {
+	hqwEnd = -hqwEnd - 1;
+      }
+      hqw = new int[hqwEnd - hqwStart];
+      for (int i = 0, n = hqw.length; i < n; i++) {
+	hqw[i] = data.getInt(hqws + (hqwStart + i) * 4);
+      }
+    }
+    TACQuote quote =
+      new TACQuote(auctionIndex, data.getFloat(quoteAsks + q * 4),
+		   data.getFloat(quoteBids + q * 4), hqw,
+		   startTime + data.getInt(quoteTimes + q * 4));
+    if (quoteIndex == closedQuote[auctionIndex]) {
+      quote.setAuctionClosed();
+    }
+    return quote;
+  }
+
+  /**
+   * Returns the first quote after the specified number of seconds in
+   * game for the specified auction. If no quote was issued after
+   * the specified time, the last quote before the time is returned.
+   *
+   * @param gameTimeSeconds the earliest update time for the quote
+   * @param auctionIndex the auction for the quote
+   * @return the quote or NULL if no suitable quote was found
+   */
+  public TACQuote getAuctionQuote(int gameTimeSeconds, int auctionIndex) {
+    int number = quoteNumber[auctionIndex];
+    if (number == 0) {
+      return null;
+    }
+    // Binary search for the first quote updated at or after the time
+    int start = quoteStart[auctionIndex];
+    int time = gameTimeSeconds * 1000;
+    int low = 0;
+    int high = number;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (data.getInt(quoteTimes + (start + mid) * 4) < time) {
+	low = mid + 1;
+      } else {
+	high = mid;
+      }
+    }
+    return getQuote(auctionIndex, low < number ? low : number - 1);
+  }
+
+  public int getNumberOfTransactions() {
+    return transactionNumber;
+  }
+
+  public Transaction getTransaction(int index) {
+    if (index < 0 || index >= transactionNumber) {
+      throw new IndexOutOfBoundsException(Integer.toString(index));
+    }
+    int column = transactionNumber * 4;
+    int pos = transactions + index * 4;
+    return new Transaction(data.getInt(pos),
+			   data.getInt(pos + column),
+			   data.getInt(pos + column * 2),
+			   data.getInt(pos + column * 3),
+			   data.getFloat(pos + column * 4),
+			   startTime + data.getInt(pos + column * 5),
+			   data.getInt(pos + column * 6));
+  }
+
+  public Transaction[] getTransactions() {
+    Transaction[] list = new Transaction[transactionNumber];
+    for (int i = 0; i < transactionNumber; i++) {
+      list[i] = getTransaction(i);
+    }
+    return list;
+  }
+
+
+  /*********************************************************************
+   * Writing
+   *********************************************************************/
+
+  public static void write(TACGameInfo game, String path)
+    throws IOException
+  {
+    long startTime = game.getStartTime();
+    int agents = game.getNumberOfAgents();
+    TACQuote[][] quotes = new TACQuote[AUCTIONS][];
+    int quoteNumber = 0;
+    int hqwNumber = 0;
+    for (int i = 0; i < AUCTIONS; i++) {
+      TACQuote[] q = game.getAuctionQuotes(i);
+      quotes[i] = q = (q == null ? new TACQuote[0] : q);
+      quoteNumber += q.length;
+      for (int j = 0, n = q.length; j < n; j++) {
+	int[] hqw = q[j].getHQW();
+	if (hqw != null) {
+	  hqwNumber += hqw.length;
+	}
+      }
+    }
+    Transaction[] trans = game.getTransactions();
+    int transactionNumber = trans.length;
+    byte[][] strings = new byte[agents + 1][];
+    int stringSize = 0;
+    strings[0] = toBytes(game.getGameType());
+    for (int i = 0; i < agents; i++) {
+      strings[i + 1] = toBytes(game.getAgentName(i));
+    }
+    for (int i = 0; i <= agents; i++) {
+      stringSize += 4 + (strings[i] == null ? 0 : strings[i].length);
+    }
+
+    int quoteTimes = HEADER_SIZE;
+    int quoteAsks = quoteTimes + quoteNumber * 4;
+    int quoteBids = quoteAsks + quoteNumber * 4;
+    int quoteHQWs = quoteBids + quoteNumber * 4;
+    int hqws = quoteHQWs + (quoteNumber + 1) * 4;
+    int transactions = hqws + hqwNumber * 4;
+    int clientPreferences =
+      transactions + transactionNumber * TRANSACTION_FIELDS * 4;
+    int stringStart =
+      clientPreferences + agents * CLIENTS * PREFERENCES * 4;
+    ByteBuffer buffer = ByteBuffer.allocate(stringStart + stringSize);
+
+    // Header
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(GAME_ID, game.getGameID());
+    buffer.putInt(UNIQ_ID, game.getID());
+    buffer.putLong(START_TIME, startTime);
+    buffer.putLong(END_TIME, game.getEndTime());
+    buffer.putInt(AGENT_NUMBER, agents);
+    for (int i = 0; i < agents; i++) {
+      buffer.putInt(AGENT_IDS + i * 4, game.getAgentID(i));
+    }
+    for (int i = 0, q = 0; i < AUCTIONS; i++) {
+      long closed = game.getAuctionCloseTime(i);
+      buffer.putInt(AUCTION_IDS + i * 4, game.getAuctionID(i));
+      buffer.putInt(AUCTION_CLOSED + i * 4,
+		    closed == 0L ? -1 : (int) (closed - startTime));
+      int closedQuote = -1;
+      for (int j = 0, n = quotes[i].length; j < n; j++) {
+	if (quotes[i][j].isAuctionClosed()) {
+	  closedQuote = j;
+	}
+      }
+      buffer.putInt(AUCTION_QUOTES + i * 12, q);
+      buffer.putInt(AUCTION_QUOTES + i * 12 + 4, quotes[i].length);
+      buffer.putInt(AUCTION_QUOTES + i * 12 + 8, closedQuote);
+      q += quotes[i].length;
+    }
+    buffer.putInt(QUOTE_NUMBER, quoteNumber);
+    buffer.putInt(HQW_NUMBER, hqwNumber);
+    buffer.putInt(TRANSACTION_NUMBER, transactionNumber);
+    buffer.putInt(QUOTE_TIMES, quoteTimes);
+    buffer.putInt(QUOTE_ASKS, quoteAsks);
+    buffer.putInt(QUOTE_BIDS, quoteBids);
+    buffer.putInt(QUOTE_HQWS, quoteHQWs);
+    buffer.putInt(HQWS, hqws);
+    buffer.putInt(TRANSACTIONS, transactions);
+    buffer.putInt(CLIENT_PREFERENCES, clientPreferences);
+    buffer.putInt(STRINGS, stringStart);
+
+    // Quote columns. The HQW column holds the start of the HQW of each
+    // quote in the HQW pool followed by the end of the pool. The start
+    // is stored as (-start - 1) for quotes without HQW.
+    int hqwPos = 0;
+    for (int i = 0, q = 0; i < AUCTIONS; i++) {
+      for (int j = 0, n = quotes[i].length; j < n; j++, q++) {
+	TACQuote quote = quotes[i][j];
+	buffer.putInt(quoteTimes + q * 4,
+		      (int) (quote.getLastUpdated() - startTime));
+	buffer.putFloat(quoteAsks + q * 4, quote.getAsk());
+	buffer.putFloat(quoteBids + q * 4, quote.getBid());
+	int[] hqw = quote.getHQW();
+	if (hqw == null) {
+	  buffer.putInt(quoteHQWs + q * 4, -hqwPos - 1);
+	} else {
+	  buffer.putInt(quoteHQWs + q * 4, hqwPos);
+	  for (int k = 0, m = hqw.length; k < m; k++) {
+	    buffer.putInt(hqws + (hqwPos++) * 4, hqw[k]);
+	  }
+	}
+      }
+    }
+    buffer.putInt(quoteHQWs + quoteNumber * 4, hqwPos);
+
+    // Transaction columns
+    int column = transactionNumber * 4;
+    for (int i = 0; i < transactionNumber; i++) {
+      Transaction t = trans[i];
+      int pos = transactions + i * 4;
+      buffer.putInt(pos, t.getBuyer());
+      buffer.putInt(pos + column, t.getSeller());
+      buffer.putInt(pos + column * 2, t.getAuction());
+      buffer.putInt(pos + column * 3, t.getQuantity());
+      buffer.putFloat(pos + column * 4, t.getPrice());
+      buffer.putInt(pos + column * 5, (int) (t.getTime() - startTime));
+      buffer.putInt(pos + column * 6, t.getTransactionID());
+    }
+
+    // Client preferences
+    for (int a = 0, pos = clientPreferences; a < agents; a++) {
+      for (int c = 0; c < CLIENTS; c++) {
+	for (int p = 0; p < PREFERENCES; p++, pos += 4) {
+	  buffer.putInt(pos, game.getClientPreferences(a, c, p));
+	}
+      }
+    }
+
+    // Strings (length -1 for null)
+    buffer.position(stringStart);
+    for (int i = 0; i <= agents; i++) {
+      if (strings[i] == null) {
+	buffer.putInt(-1);
+      } else {
+	buffer.putInt(strings[i].length);
+	buffer.put(strings[i]);
+      }
+    }
+    buffer.flip();
+
+    // Written to a temporary file to never leave a partial data file
+    File target = new File(path);
+    File tmp = new File(path + ".tmp");
+    FileOutputStream out = new FileOutputStream(tmp);
+    try {
+      FileChannel channel = out.getChannel();
+      while (buffer.hasRemaining()) {
+	channel.write(buffer);
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(target)
+	&& !(target.delete() && tmp.renameTo(target))) {
+      tmp.delete();
+      throw new IOException("could not rename " + tmp + " to " + target);
+    }
+  }
+
+  private static byte[] toBytes(String value)
+    throws UnsupportedEncodingException
+  {
+    return value == null ? null : value.getBytes("UTF-8");
+  }
+
+} // GameDataFile
@@ -0,0 +1,361 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * GameLogAnalyzer
+ *
+ * Purpose :
+ *   Reads all archived game logs (applet.log.gz) in a directory tree
+ *   and hands the parsed games to TACGameLogListeners. The games are
+ *   read in windows of games: the games of one window are decoded and
+ *   parsed in parallel by a ForkJoin pool while the games of the
+ *   previous window are handed to the listeners. The listeners are
+ *   only called by the main thread and in game order, but gameOpened()
+ *   may be called for the next window before the games of the
+ *   previous window are closed. The lines are parsed with an ISCursor
+ *   directly from the decompressed bytes, and quote and bid lines are
+ *   skipped for games where the listeners ignore quotes or bids.
+ *
+ *     GameLogAnalyzer -listener <class>[,<class>...] [-directory <path>]
+ *		       [-threads <number>] [-window <number>]
+ */
+
+package se.sics.tac.log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import com.botbox.util.ArrayUtils;
+import se.sics.isl.util.ArgumentManager;
+
+public class GameLogAnalyzer implements Comparator {
+
+  private static final Logger log =
+    Logger.getLogger(GameLogAnalyzer.class.getName());
+
+  private final static String LOG_NAME = "applet.log.gz";
+  private final static int BUFFER_SIZE = 16384;
+
+  private final TACGameLogListener[] listeners;
+  private final int threads;
+  private final int window;
+
+  public GameLogAnalyzer(TACGameLogListener[] listeners,
+			 int threads, int window) {
+    if (threads < 1 || window < 1) {
+      throw new IllegalArgumentException("threads and window must be > 0");
+    }
+    this.listeners = listeners;
+    this.threads = threads;
+    this.window = window;
+  }
+
+  // Returns the paths of all game logs in the directory tree sorted by
+  // game id
+  public String[] findGames(File directory) {
+    ArrayList list = new ArrayList();
+    findGames(directory, list);
+    File[] files = (File[]) list.toArray(new File[list.size()]);
+    Arrays.sort(files, this);
+
+    String[] paths = new String[files.length];
+    for (int i = 0, n = files.length; i < n; i++) {
+      paths[i] = files[i].getPath();
+    }
+    return paths;
+  }
+
+  private void findGames(File directory, ArrayList list) {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (int i = 0, n = files.length; i < n; i++) {
+	File fp = files[i];
+	if (fp.isDirectory()) {
+	  findGames(fp, list);
+	} else if (LOG_NAME.equals(fp.getName())) {
+	  list.add(fp);
+	}
+      }
+    }
+  }
+
+  // Reads the games and returns the number of games that could be parsed
+  public int analyze(String[] paths) {
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    int parsed = 0;
+    try {
+      ForkJoinTask pending = null;
+      String[] pendingPaths = null;
+      TACGameInfo[] pendingGames = null;
+      for (int start = 0, n = paths.length; start < n || pending != null;
+	   start += window) {
+	ForkJoinTask task = null;
+	String[] windowPaths = null;
+	TACGameInfo[] windowGames = null;
+	if (start < n) {
+	  int size = Math.min(window, n - start);
+	  windowPaths = new String[size];
+	  windowGames = new TACGameInfo[size];
+	  System.arraycopy(paths, start, windowPaths, 0, size);
+	  for (int i = 0; i < size; i++) {
+	    windowGames[i] = new TACGameInfo();
+	    for (int j = 0, m = listeners.length; j < m; j++) {
+	      listeners[j].gameOpened(windowPaths[i], windowGames[i]);
+	    }
+	  }
+	  task = pool.submit(new ParseTask(windowPaths, windowGames,
+					   0, size));
+	}
+
+	if (pending != null) {
+	  pending.join();
+	  for (int i = 0, m = pendingGames.length; i < m; i++) {
+	    if (pendingGames[i] != null) {
+	      parsed++;
+	    }
+	    for (int j = 0, l = listeners.length; j < l; j++) {
+	      listeners[j].gameClosed(pendingPaths[i], pendingGames[i]);
+	    }
+	  }
+	}
+	pending = task;
+	pendingPaths = windowPaths;
+	pendingGames = windowGames;
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    for (int j = 0, l = listeners.length; j < l; j++) {
+      listeners[j].finishedGames();
+    }
+    return parsed;
+  }
+
+  // Parses the game log into the game and returns false if the log
+  // could not be read. The lines are parsed directly from the read
+  // buffer.
+  static boolean readGame(String path, TACGameInfo game) {
+    boolean ignoreQuotes =
+      "true".equals(game.getProperty(TACGameInfo.IGNORE_QUOTES));
+    boolean ignoreBids =
+      "true".equals(game.getProperty(TACGameInfo.IGNORE_BIDS));
+    InputStream input = null;
+    int lineNumber = 0;
+    try {
+      input = new GZIPInputStream(new FileInputStream(path), 8192);
+      ISCursor cursor = new ISCursor();
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int len = 0;
+      int n;
+      while ((n = input.read(buffer, len, buffer.length - len)) >= 0) {
+	int lineStart = 0;
+	for (int i = len, end = len + n; i < end; i++) {
+	  if (buffer[i] == '\n') {
+	    lineNumber++;
+	    parseLine(game, cursor, buffer, lineStart, i,
+		      ignoreQuotes, ignoreBids);
+	    lineStart = i + 1;
+	  }
+	}
+	// Move any partial line to the start of the buffer
+	len = len + n - lineStart;
+	System.arraycopy(buffer, lineStart, buffer, 0, len);
+	if (len == buffer.length) {
+	  buffer = ArrayUtils.setSize(buffer, buffer.length * 2);
+	}
+      }
+      if (len > 0) {
+	lineNumber++;
+	parseLine(game, cursor, buffer, 0, len, ignoreQuotes, ignoreBids);
+      }
+      return true;
+    } catch (Exception e) {
+      log.log(Level.WARNING, "could not parse line " + lineNumber
+	      + " in " + path, e);
+      return false;
+    } finally {
+      if (input != null) {
+	try {
+	  input.close();
+	} catch (Exception e) {
+	  // Ignore errors when closing
+	}
+      }
+    }
+  }
+
+  private static void parseLine(TACGameInfo game, ISCursor cursor,
+				byte[] buffer, int start, int end,
+				boolean ignoreQuotes, boolean ignoreBids) {
+    if (end > start && buffer[end - 1] == '\r') {
+      end--;
+    }
+    if (end > start) {
+      int command = cursor.reset(buffer, start, end - start).getCommand();
+      if ((ignoreQuotes && command == ISTokenizer.QUOTE)
+	  || (ignoreBids && command == ISTokenizer.BID)) {
+	// Not needed by the listeners
+      } else {
+	game.gameData(cursor);
+      }
+    }
+  }
+
+
+  /*********************************************************************
+   * Comparator
+   *********************************************************************/
+
+  // Games in directories named by game id are sorted by game id
+  public int compare(Object o1, Object o2) {
+    File f1 = ((File) o1).getParentFile();
+    File f2 = ((File) o2).getParentFile();
+    long v1, v2;
+    if (f1 != null && f2 != null
+	&& ((v1 = toGameID(f1.getName())) >= 0)
+	&& ((v2 = toGameID(f2.getName())) >= 0)
+	&& v1 != v2) {
+      return v1 < v2 ? -1 : 1;
+    }
+    return ((File) o1).compareTo((File) o2);
+  }
+
+  private long toGameID(String name) {
+    int n = name.length();
+    if (n == 0 || n > 18) {
+      return -1;
+    }
+    long value = 0;
+    for (int i = 0; i < n; i++) {
+      char c = name.charAt(i);
+      if (c < '0' || c > '9') {
+	return -1;
+      }
+      value = value * 10 + c - '0';
+    }
+    return value;
+  }
+
+
+  // -------------------------------------------------------------------
+  // ParseTask
+  // -------------------------------------------------------------------
+
+  // Parses a range of games, splitting it until one game is left. Games
+  // that could not be read are replaced by null.
+  private static class ParseTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final String[] paths;
+    private final TACGameInfo[] games;
+    private final int from;
+    private final int to;
+
+    ParseTask(String[] paths, TACGameInfo[] games, int from, int to) {
+      this.paths = paths;
+      this.games = games;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if (to - from == 1) {
+	if (!readGame(paths[from], games[from])) {
+	  games[from] = null;
+	}
+      } else {
+	int mid = (from + to) >>> 1;
+	invokeAll(new ParseTask(paths, games, from, mid),
+		  new ParseTask(paths, games, mid, to));
+      }
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Main
+  // -------------------------------------------------------------------
+
+  public static void main(String[] args) throws Exception {
+    // The listeners must be created before the arguments are validated
+    // because they may add their own options
+    ArrayList list = new ArrayList();
+    for (int i = 0, n = args.length - 1; i < n; i++) {
+      if ("-listener".equals(args[i])) {
+	StringTokenizer tok = new StringTokenizer(args[i + 1], ",");
+	while (tok.hasMoreTokens()) {
+	  list.add(Class.forName(tok.nextToken().trim())
+		   .getDeclaredConstructor().newInstance());
+	}
+      }
+    }
+    TACGameLogListener[] listeners = (TACGameLogListener[])
+      list.toArray(new TACGameLogListener[list.size()]);
+
+    ArgumentManager config = new ArgumentManager("GameLogAnalyzer", args);
+    config.addOption("listener", "classes",
+		     "set the game log listeners (comma separated)");
+    config.addOption("directory", "path",
+		     "set the directory with archived games");
+    config.addOption("threads", "number",
+		     "set the number of threads parsing games");
+    config.addOption("window", "number",
+		     "set the number of games parsed at once");
+    for (int i = 0, n = listeners.length; i < n; i++) {
+      listeners[i].addOptions(config);
+    }
+    config.addHelp("h", "show this help message");
+    config.addHelp("help");
+    config.validateArguments();
+    if (listeners.length == 0) {
+      System.err.println("no game log listener specified");
+      config.usage(1);
+    }
+
+    int threads = config.getArgumentAsInt("threads",
+					  Runtime.getRuntime()
+					  .availableProcessors());
+    int window = config.getArgumentAsInt("window", threads * 4);
+    for (int i = 0, n = listeners.length; i < n; i++) {
+      listeners[i].init(config);
+    }
+
+    GameLogAnalyzer analyzer = new GameLogAnalyzer(listeners, threads,
+						   window);
+    long time = System.currentTimeMillis();
+    String[] paths =
+      analyzer.findGames(new File(config.getArgument("directory", ".")));
+    int parsed = analyzer.analyze(paths);
+    time = System.currentTimeMillis() - time;
+    System.out.println("Analyzed " + parsed + " of " + paths.length
+		       + " games in " + time + " ms using "
+		       + threads + " threads");
+  }
+
+} // GameLogAnalyzer
@@ -0,0 +1,303 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * ISCursor
+ *
+ * Purpose :
+ *   Tokenizer for info server messages and game log lines with the same
+ *   API as ISTokenizer. The fields are parsed directly from the line (a
+ *   CharSequence or bytes) without creating a string for each field,
+ *   and the cursor can be reset to the next line to parse any number
+ *   of lines without allocation. Only nextToken() creates strings.
+ */
+
+package se.sics.tac.log;
+import java.util.NoSuchElementException;
+
+public class ISCursor {
+
+  // Powers of ten that are exact as floats
+  private final static float[] POW10 = {
+    1f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+  };
+
+  private CharSequence chars;
+  private byte[] bytes;
+  private int start;
+  private int end;
+  private int pos;
+
+  private int timeStart;
+  private int timeEnd;
+  private int commandStart;
+  private int commandEnd;
+  private int command;
+
+  public ISCursor() {
+  }
+
+  public ISCursor(CharSequence line) {
+    reset(line);
+  }
+
+  public ISCursor reset(CharSequence line) {
+    this.chars = line;
+    this.bytes = null;
+    return init(0, line.length());
+  }
+
+  // The bytes are not copied and may not be changed while parsed
+  public ISCursor reset(byte[] line, int offset, int length) {
+    this.chars = null;
+    this.bytes = line;
+    return init(offset, offset + length);
+  }
+
+  private ISCursor init(int start, int end) {
+    this.start = start;
+    this.end = end;
+    this.pos = start;
+    // The line starts with the server time and the command
+    skipDelimiters();
+    timeStart = pos;
+    skipToken();
+    timeEnd = pos;
+    skipDelimiters();
+    commandStart = pos;
+    command = 0;
+    while (pos < end && charAt(pos) != ',') {
+      command = (command << 8) + charAt(pos++);
+    }
+    commandEnd = pos;
+    if (timeStart == timeEnd || commandStart == commandEnd) {
+      throw new NoSuchElementException();
+    }
+    return this;
+  }
+
+  private char charAt(int index) {
+    return bytes != null
+      ? (char) (bytes[index] & 0xff)
+      : chars.charAt(index);
+  }
+
+  public String getMessage() {
+    return toString(start, end);
+  }
+
+  public int getCommand() {
+    return command;
+  }
+
+  public String getCommandAsString() {
+    return toString(commandStart, commandEnd);
+  }
+
+  public long getServerTimeSeconds() {
+    try {
+      return parseLong(timeStart, timeEnd);
+    } catch (NumberFormatException e) {
+      System.err.println("ISCursor: could not parse server time '"
+			 + toString(timeStart, timeEnd)
+			 + "' (using current time)");
+      return System.currentTimeMillis() / 1000;
+    }
+  }
+
+  // Empty fields are skipped as by ISTokenizer
+  public boolean hasMoreTokens() {
+    skipDelimiters();
+    return pos < end;
+  }
+
+  public String nextToken() {
+    int tokenStart = nextTokenStart();
+    return toString(tokenStart, pos);
+  }
+
+  public int nextAgentID() {
+    int tokenStart = nextTokenStart();
+    if (isToken(tokenStart, "auction")) {
+      // Not an agent
+      return Integer.MIN_VALUE;
+    }
+    try {
+      return parseInt(tokenStart, pos);
+    } catch (NumberFormatException e) {
+      // Not an agent
+      return Integer.MIN_VALUE;
+    }
+  }
+
+  public long nextTimeMillis() throws NumberFormatException {
+    return nextLong() * 1000;
+  }
+
+  public int nextInt() throws NumberFormatException {
+    int tokenStart = nextTokenStart();
+    return parseInt(tokenStart, pos);
+  }
+
+  public long nextLong() throws NumberFormatException {
+    int tokenStart = nextTokenStart();
+    return parseLong(tokenStart, pos);
+  }
+
+  public float nextFloat() throws NumberFormatException {
+    int tokenStart = nextTokenStart();
+    return parseFloat(tokenStart, pos);
+  }
+
+  public String toString() {
+    return getMessage();
+  }
+
+
+  // -------------------------------------------------------------------
+  // Parsing
+  // -------------------------------------------------------------------
+
+  private void skipDelimiters() {
+    while (pos < end && charAt(pos) == ',') {
+      pos++;
+    }
+  }
+
+  private void skipToken() {
+    while (pos < end && charAt(pos) != ',') {
+      pos++;
+    }
+  }
+
+  // Moves the cursor past the next token and returns its start
+  private int nextTokenStart() {
+    skipDelimiters();
+    if (pos >= end) {
+      throw new NoSuchElementException();
+    }
+    int tokenStart = pos;
+    skipToken();
+    return tokenStart;
+  }
+
+  private boolean isToken(int tokenStart, String token) {
+    int len = token.length();
+    if (pos - tokenStart != len) {
+      return false;
+    }
+    for (int i = 0; i < len; i++) {
+      if (charAt(tokenStart + i) != token.charAt(i)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  private int parseInt(int from, int to) throws NumberFormatException {
+    long value = parseLong(from, to);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new NumberFormatException(toString(from, to));
+    }
+    return (int) value;
+  }
+
+  // Parses a decimal number surrounded by optional white space (as
+  // the trimmed token is parsed by ISTokenizer)
+  private long parseLong(int from, int to) throws NumberFormatException {
+    int i = trimStart(from, to);
+    int n = trimEnd(i, to);
+    boolean negative = false;
+    if (i < n && (charAt(i) == '-' || charAt(i) == '+')) {
+      negative = charAt(i++) == '-';
+    }
+    if (i == n || n - i > 18) {
+      // Empty or possibly too large for the fast parsing
+      return Long.parseLong(toString(from, to).trim());
+    }
+    long value = 0;
+    for (; i < n; i++) {
+      char c = charAt(i);
+      if (c < '0' || c > '9') {
+	throw new NumberFormatException(toString(from, to));
+      }
+      value = value * 10 + c - '0';
+    }
+    return negative ? -value : value;
+  }
+
+  // Plain decimal numbers with few digits are parsed directly. The
+  // digits and the power of ten are then exact floats and the division
+  // is rounded as Float.parseFloat() rounds the decimal number.
+  private float parseFloat(int from, int to) throws NumberFormatException {
+    int i = trimStart(from, to);
+    int n = trimEnd(i, to);
+    boolean negative = false;
+    if (i < n && (charAt(i) == '-' || charAt(i) == '+')) {
+      negative = charAt(i++) == '-';
+    }
+    int digits = 0;
+    int decimals = -1;
+    int value = 0;
+    for (; i < n; i++) {
+      char c = charAt(i);
+      if (c >= '0' && c <= '9') {
+	value = value * 10 + c - '0';
+	if (value >= (1 << 24)) {
+	  break;
+	}
+	digits++;
+	if (decimals >= 0) {
+	  decimals++;
+	}
+      } else if (c == '.' && decimals < 0) {
+	decimals = 0;
+      } else {
+	break;
+      }
+    }
+    if (i < n || digits == 0 || decimals >= POW10.length) {
+      // Exponents, too many digits, or not a number
+      return Float.parseFloat(toString(from, to).trim());
+    }
+    float result = decimals > 0 ? value / POW10[decimals] : value;
+    return negative ? -result : result;
+  }
+
+  private int trimStart(int from, int to) {
+    while (from < to && charAt(from) <= ' ') {
+      from++;
+    }
+    return from;
+  }
+
+  private int trimEnd(int from, int to) {
+    while (to > from && charAt(to - 1) <= ' ') {
+      to--;
+    }
+    return to;
+  }
+
+  private String toString(int from, int to) {
+    if (bytes != null) {
+      return new String(bytes, from, to - from);
+    }
+    return chars.subSequence(from, to).toString();
+  }
+
+} // ISCursor
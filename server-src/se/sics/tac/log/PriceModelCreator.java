@@ -0,0 +1,318 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * PriceModelCreator
+ *
+ * Purpose :
+ *   Collects price statistics from archived games (used with
+ *   GameLogAnalyzer) and writes them as a price model table that agents
+ *   can map at startup instead of using fixed price estimates.
+ *
+ *   For hotels the table holds, per hotel room and time bucket, the
+ *   distribution of the closing price minus the ask price in the middle
+ *   of the bucket. For flights it holds the distribution of the hidden
+ *   upper bound of the flight price changes over all flight auctions.
+ *   The upper bound of an auction is found by checking which bounds
+ *   could have generated the price changes, weighted by how likely each
+ *   bound makes the changes.
+ *
+ *   The table (big endian):
+ *     int magic ('TACP'), int version, int games,
+ *     int bucket length (ms), int buckets, int hotels, int quantiles,
+ *     per hotel (cheap hotel day 1 - 4, good hotel day 1 - 4, as the
+ *     hotel auctions of the agents) and bucket:
+ *	 int samples, float mean, float quantile[quantiles]
+ *     int bounds, int lowest bound, float probability[bounds]
+ *
+ *     GameLogAnalyzer -listener se.sics.tac.log.PriceModelCreator
+ *		       [-model <file>] [-bucket <seconds>]
+ */
+
+package se.sics.tac.log;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.botbox.util.ArrayUtils;
+import se.sics.isl.util.ArgumentManager;
+import se.sics.isl.util.ConfigManager;
+
+public class PriceModelCreator implements TACGameLogListener {
+
+  private static final Logger log =
+    Logger.getLogger(PriceModelCreator.class.getName());
+
+  private final static int MAGIC =
+    ('T' << 24) | ('A' << 16) | ('C' << 8) | 'P';
+  private final static int VERSION = 2;
+
+  private final static int FLIGHTS = 8;
+  private final static int HOTELS = 8;
+  private final static int QUANTILES = 11;
+
+  // The flight price changes as in OnesideContinuousAuction2
+  private final static int LOWEST_BOUND = -10;
+  private final static int BOUNDS = 41;
+  private final static float MIN_FLIGHT_PRICE = 150f;
+  private final static float MAX_FLIGHT_PRICE = 800f;
+
+  private String modelFile = "pricemodel.dat";
+  private int bucketLength = 60000;
+
+  private int games = 0;
+  private int buckets = 0;
+  private float[][][] samples = new float[HOTELS][0][];
+  private int[][] sampleNumber = new int[HOTELS][0];
+  private double[] boundWeights = new double[BOUNDS];
+  private int flightAuctions = 0;
+
+  public PriceModelCreator() {
+  }
+
+  public void init(ConfigManager config) {
+    modelFile = config.getProperty("model", modelFile);
+    bucketLength = config.getPropertyAsInt("bucket", 60) * 1000;
+    if (bucketLength <= 0) {
+      throw new IllegalArgumentException("bucket must be > 0");
+    }
+  }
+
+  public void addOptions(ArgumentManager manager) {
+    manager.addOption("model", "file", "set the price model file");
+    manager.addOption("bucket", "seconds",
+		      "set the length of the hotel time buckets");
+  }
+
+  public void gameOpened(String path, TACGameInfo game) {
+    // Minor optimization: the bids are not needed here
+    game.setProperty(TACGameInfo.IGNORE_BIDS, "true");
+  }
+
+  public void gameClosed(String path, TACGameInfo game) {
+    if (game != null && game.isFinished() && !game.isScratched()) {
+      games++;
+      for (int i = 0; i < HOTELS; i++) {
+	addHotel(game, i);
+      }
+      for (int i = 0; i < FLIGHTS; i++) {
+	addFlight(game, i);
+      }
+    }
+  }
+
+  public void finishedGames() {
+    try {
+      writeModel();
+      log.info("wrote price model from " + games + " games to "
+	       + modelFile);
+    } catch (IOException e) {
+      log.log(Level.SEVERE, "could not write price model " + modelFile, e);
+    }
+  }
+
+
+  // -------------------------------------------------------------------
+  // Hotels
+  // -------------------------------------------------------------------
+
+  private void addHotel(TACGameInfo game, int hotel) {
+    TACQuote[] quotes = game.getAuctionQuotes(getHotelAuction(hotel));
+    if (quotes == null || quotes.length == 0
+	|| !quotes[quotes.length - 1].isAuctionClosed()) {
+      return;
+    }
+    float closePrice = quotes[quotes.length - 1].getAsk();
+    long startTime = game.getStartTime();
+    long closeTime = quotes[quotes.length - 1].getLastUpdated();
+    int index = 0;
+    for (int b = 0; ; b++) {
+      long time = startTime + (long) b * bucketLength + bucketLength / 2;
+      if (time >= closeTime) {
+	break;
+      }
+      // The ask price seen by an agent at the time
+      while (index + 1 < quotes.length
+	     && quotes[index + 1].getLastUpdated() <= time) {
+	index++;
+      }
+      addSample(hotel, b, closePrice - quotes[index].getAsk());
+    }
+  }
+
+  // The log has the good hotel auctions before the cheap ones while the
+  // agents (and the table) have the cheap hotel first
+  static int getHotelAuction(int hotel) {
+    int type = hotel < 4
+      ? TACGameInfo.ITEM_CHEAP_HOTEL
+      : TACGameInfo.ITEM_GOOD_HOTEL;
+    return type * 4 + (hotel % 4);
+  }
+
+  private void addSample(int hotel, int bucket, float value) {
+    if (bucket >= buckets) {
+      buckets = bucket + 1;
+      for (int i = 0; i < HOTELS; i++) {
+	samples[i] = (float[][]) ArrayUtils.setSize(samples[i], buckets);
+	sampleNumber[i] = ArrayUtils.setSize(sampleNumber[i], buckets);
+      }
+    }
+    float[] values = samples[hotel][bucket];
+    int number = sampleNumber[hotel][bucket];
+    if (values == null) {
+      samples[hotel][bucket] = values = new float[64];
+    } else if (number == values.length) {
+      samples[hotel][bucket] = values =
+	ArrayUtils.setSize(values, number * 2);
+    }
+    values[number] = value;
+    sampleNumber[hotel][bucket] = number + 1;
+  }
+
+
+  // -------------------------------------------------------------------
+  // Flights
+  // -------------------------------------------------------------------
+
+  private void addFlight(TACGameInfo game, int auction) {
+    TACQuote[] quotes = game.getAuctionQuotes(auction);
+    if (quotes == null || quotes.length < 2) {
+      return;
+    }
+    long startTime = game.getStartTime();
+    int gameLength = game.getGameLength();
+    boolean[] impossible = new boolean[BOUNDS];
+    double[] logLikelihood = new double[BOUNDS];
+    for (int i = 1, n = quotes.length; i < n; i++) {
+      float price = quotes[i].getAsk();
+      if (price <= MIN_FLIGHT_PRICE || price >= MAX_FLIGHT_PRICE) {
+	// The change might have been limited by the price constraints
+	continue;
+      }
+      int change = Math.round(price - quotes[i - 1].getAsk());
+      // The game log only has the time in seconds
+      long time = quotes[i].getLastUpdated() - startTime;
+      for (int b = 0; b < BOUNDS; b++) {
+	int bound = LOWEST_BOUND + b;
+	int min = Math.min(getMinChange(bound, time, gameLength),
+			   getMinChange(bound, time + 999, gameLength));
+	int max = Math.max(getMaxChange(bound, time, gameLength),
+			   getMaxChange(bound, time + 999, gameLength));
+	if (change < min || change > max) {
+	  impossible[b] = true;
+	} else {
+	  // The change is uniformly drawn from the interval
+	  logLikelihood[b] -= Math.log(max - min + 1);
+	}
+      }
+    }
+
+    double maxLikelihood = Double.NEGATIVE_INFINITY;
+    for (int b = 0; b < BOUNDS; b++) {
+      if (!impossible[b] && logLikelihood[b] > maxLikelihood) {
+	maxLikelihood = logLikelihood[b];
+      }
+    }
+    if (maxLikelihood == Double.NEGATIVE_INFINITY) {
+      // No bound explains the prices (another auction type?)
+      return;
+    }
+    double[] weights = new double[BOUNDS];
+    double sum = 0.0;
+    for (int b = 0; b < BOUNDS; b++) {
+      if (!impossible[b]) {
+	weights[b] = Math.exp(logLikelihood[b] - maxLikelihood);
+	sum += weights[b];
+      }
+    }
+    for (int b = 0; b < BOUNDS; b++) {
+      boundWeights[b] += weights[b] / sum;
+    }
+    flightAuctions++;
+  }
+
+  private static double getX(int bound, long time, int gameLength) {
+    return 10 + (((double) time / gameLength) * (bound - 10));
+  }
+
+  private static int getMinChange(int bound, long time, int gameLength) {
+    double xt = getX(bound, time, gameLength);
+    return xt < 0.0 ? (int) (xt + 0.5) : -10;
+  }
+
+  private static int getMaxChange(int bound, long time, int gameLength) {
+    double xt = getX(bound, time, gameLength);
+    return xt > 0.0 ? (int) (xt + 0.5) : (xt < 0.0 ? 10 : 0);
+  }
+
+
+  // -------------------------------------------------------------------
+  // Model
+  // -------------------------------------------------------------------
+
+  private void writeModel() throws IOException {
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream
+			   (new FileOutputStream(modelFile)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(games);
+      out.writeInt(bucketLength);
+      out.writeInt(buckets);
+      out.writeInt(HOTELS);
+      out.writeInt(QUANTILES);
+      for (int h = 0; h < HOTELS; h++) {
+	for (int b = 0; b < buckets; b++) {
+	  int number = sampleNumber[h][b];
+	  float[] values = samples[h][b];
+	  double sum = 0.0;
+	  if (number > 0) {
+	    Arrays.sort(values, 0, number);
+	    for (int i = 0; i < number; i++) {
+	      sum += values[i];
+	    }
+	  }
+	  out.writeInt(number);
+	  out.writeFloat(number > 0 ? (float) (sum / number) : 0f);
+	  for (int q = 0; q < QUANTILES; q++) {
+	    out.writeFloat(number > 0
+			   ? values[(q * (number - 1)) / (QUANTILES - 1)]
+			   : 0f);
+	  }
+	}
+      }
+
+      // Each bound starts with the weight of one auction to never rule
+      // out a bound only because it has not been seen
+      out.writeInt(BOUNDS);
+      out.writeInt(LOWEST_BOUND);
+      for (int b = 0; b < BOUNDS; b++) {
+	out.writeFloat((float) ((boundWeights[b] + 1.0)
+				/ (flightAuctions + BOUNDS)));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+} // PriceModelCreator
@@ -112,7 +112,7 @@ public class TACGameInfo {
   public TACGameInfo() {
   }
 
-  public void gameData(ISTokenizer tokenizer) {
+  public void gameData(ISCursor tokenizer) {
     switch (tokenizer.getCommand()) {
     case ISTokenizer.VERSION: {
       if (tokenizer.hasMoreTokens()) {
@@ -67,6 +67,11 @@ public class TACQuote {
     return 0;
   }
 
+  // The agent index and HQW pairs (may be null)
+  int[] getHQW() {
+    return hqw;
+  }
+
   public long getLastUpdated() {
     return lastUpdated;
   }
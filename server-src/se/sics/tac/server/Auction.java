@@ -290,10 +290,15 @@ public abstract class Auction {
 
     case Quote.AUCTION_INTERMEDIATE_CLEAR:
     case Quote.AUCTION_FINAL_CLEAR:
-      if (currentTime >= nextQuoteTime && nextQuoteTime > 0) {
+      // Several quote updates might be due if the ticks are late, for
+      // example when the server time runs faster than real time
+      while (currentTime >= nextQuoteTime && nextQuoteTime > 0) {
 	long time = nextQuoteTime;
 	nextQuoteTime = 0L;
 	updateQuote(time);
+	if (nextQuoteTime <= time) {
+	  break;
+	}
       }
       if (closeTime > 0) {
 	if (currentTime >= closeTime) {
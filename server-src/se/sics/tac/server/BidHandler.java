@@ -26,6 +26,7 @@
  */
 
 package se.sics.tac.server;
+import java.util.ArrayList;
 
 public class BidHandler implements MessageHandler {
 
@@ -33,6 +34,7 @@ public class BidHandler implements MessageHandler {
     server.addMessageHandler("bidInfo", this, true);
     server.addMessageHandler("submitBid", this, true);
     server.addMessageHandler("replaceBid", this, true);
+    server.addMessageHandler("submitBids", this, true);
     server.addMessageHandler("withdrawBid", this, true);
     server.addMessageHandler("recoverBidIDs", this, true);
     server.addMessageHandler("recoverStaticBidInfo", this, true);
@@ -43,12 +45,12 @@ public class BidHandler implements MessageHandler {
   {
     String type = message.getType();
     if ("bidInfo".equals(type)) {
-      Market market = infoManager.getMarket();
       int bidID = getInt(message, "bidID", -1);
+      Market market;
       Bid bid;
       if (bidID < 0) {
 	message.replyMissingField("bidID");
-      } else if ((market == null)
+      } else if (((market = infoManager.getMarketByBid(bidID)) == null)
 		 || ((bid = market.getBid(bidID)) == null)
 		 || (bid.getUser() != message.getUser())) {
 	message.replyError(TACException.BID_NOT_FOUND);
@@ -62,13 +64,16 @@ public class BidHandler implements MessageHandler {
     } else if ("replaceBid".equals(type)) {
       submitBid(infoManager, message, true);
 
+    } else if ("submitBids".equals(type)) {
+      submitBids(infoManager, message);
+
     } else if ("withdrawBid".equals(type)) {
-      Market market = infoManager.getMarket();
       int auctionID = getInt(message, "auctionID", -1);
+      Market market;
       Auction auction;
       if (auctionID < 0) {
 	message.replyMissingField("auctionID");
-      } else if ((market == null)
+      } else if (((market = infoManager.getMarketByAuction(auctionID)) == null)
 		 || ((auction = market.getAuction(auctionID)) == null)) {
 	message.replyError(TACException.AUCTION_NOT_FOUND);
       } else if (auction.isClosed()) {
@@ -80,11 +85,11 @@ public class BidHandler implements MessageHandler {
       }
 
     } else if ("recoverBidIDs".equals(type)) {
-      Market market = infoManager.getMarket();
+      User user = message.getUser();
+      Market market = infoManager.getMarket(user);
       StringBuffer sb = new StringBuffer()
 	.append("<auctionBidIDs><list>");
       if (market != null) {
-	User user = message.getUser();
 	Bid bid;
 	int id = -1;
 	while ((bid = market.getNextBid(id, user)) != null) {
@@ -99,12 +104,12 @@ public class BidHandler implements MessageHandler {
       message.reply(sb.toString(), TACException.NO_ERROR);
 
     } else if ("recoverStaticBidInfo".equals(type)) {
-      Market market = infoManager.getMarket();
       int bidID = getInt(message, "bidID", -1);
+      Market market;
       Bid bid;
       if (bidID < 0) {
 	message.replyMissingField("bidID");
-      } else if ((market == null)
+      } else if (((market = infoManager.getMarketByBid(bidID)) == null)
 		 || ((bid = market.getBid(bidID)) == null)
 		 || (bid.getUser() != message.getUser())) {
 	message.replyError(TACException.BID_NOT_FOUND);
@@ -116,13 +121,12 @@ public class BidHandler implements MessageHandler {
 
   private void submitBid(InfoManager infoManager, TACMessage message,
 			 boolean replaceBid) throws TACException {
-    Market market = infoManager.getMarket();
     User user = message.getUser();
     int auctionID = -1;
     String bidString = null;
-    BidList bidList;
     int bidID = -1;
     String oldBidHash = null;
+    Market market;
     Auction auction;
 
     while (message.nextTag()) {
@@ -146,21 +150,104 @@ public class BidHandler implements MessageHandler {
       message.replyMissingField("bidHash");
     } else if (replaceBid && bidID < 0) {
       message.replyMissingField("bidID");
-    } else if ((market == null)
+    } else if (((market = infoManager.getMarketByAuction(auctionID)) == null)
 	       || ((auction = market.getAuction(auctionID)) == null)) {
       message.replyError(TACException.AUCTION_NOT_FOUND);
-    } else if (!(bidList = new BidList()).setBidString(bidString)) {
+    } else {
+      message.reply(submitBid(user, auction, bidString,
+			      replaceBid ? bidID : -1, oldBidHash),
+		    TACException.NO_ERROR);
+    }
+  }
+
+  // Submits several bids in one message. Each bid is given in a
+  // bidTuple and replaces an earlier bid if the tuple contains a bidID.
+  // The reply contains one bidTuple with the result for each bid.
+  private void submitBids(InfoManager infoManager, TACMessage message) {
+    User user = message.getUser();
+    ArrayList bids = new ArrayList();
+    int auctionID = -1;
+    String bidString = null;
+    int bidID = -1;
+    String oldBidHash = null;
+
+    // All bids are parsed before any bid is submitted
+    while (message.nextTag()) {
+      if (message.isTag("bidTuple")) {
+	auctionID = -1;
+	bidString = null;
+	bidID = -1;
+	oldBidHash = null;
+      } else if (message.isTag("auctionID")) {
+	auctionID = message.getValueAsInt(-1);
+      } else if (message.isTag("bidString")) {
+	bidString = message.getValue();
+      } else if (message.isTag("bidHash")) {
+	oldBidHash = message.getValue();
+      } else if (message.isTag("bidID")) {
+	bidID = message.getValueAsInt(-1);
+      } else if (message.isTag("/bidTuple")) {
+	if (auctionID < 0) {
+	  message.replyMissingField("auctionID");
+	  return;
+	} else if (bidString == null) {
+	  message.replyMissingField("bidString");
+	  return;
+	} else if (bidID >= 0 && oldBidHash == null) {
+	  message.replyMissingField("bidHash");
+	  return;
+	}
+	bids.add(new Object[] {
+	  new Integer(auctionID), bidString, new Integer(bidID), oldBidHash
+	});
+      }
+    }
+
+    StringBuffer sb = new StringBuffer().append("<list>");
+    for (int i = 0, n = bids.size(); i < n; i++) {
+      Object[] bid = (Object[]) bids.get(i);
+      auctionID = ((Integer) bid[0]).intValue();
+      Market market;
+      Auction auction;
+      String fields;
+      int status = TACException.NO_ERROR;
+      if (((market = infoManager.getMarketByAuction(auctionID)) == null)
+	  || ((auction = market.getAuction(auctionID)) == null)) {
+	fields = "";
+	status = TACException.AUCTION_NOT_FOUND;
+      } else {
+	try {
+	  fields = submitBid(user, auction, (String) bid[1],
+			     ((Integer) bid[2]).intValue(), (String) bid[3]);
+	} catch (TACException e) {
+	  fields = "";
+	  status = e.getStatusCode();
+	}
+      }
+      sb.append("<bidTuple><auctionID>").append(auctionID)
+	.append("</auctionID>").append(fields)
+	.append("<commandStatus>").append(status)
+	.append("</commandStatus></bidTuple>");
+    }
+    sb.append("</list>");
+    message.reply(sb.toString(), TACException.NO_ERROR);
+  }
+
+  // Submits the bid (or replaces the bid if bidID >= 0) and returns the
+  // reply fields
+  private String submitBid(User user, Auction auction, String bidString,
+			   int bidID, String oldBidHash) throws TACException {
+    BidList bidList = new BidList();
+    if (!bidList.setBidString(bidString)) {
       // Could not parse bid string
       throw new TACException(TACException.BAD_BIDSTRING_FORMAT);
-    } else {
-      Bid bid = replaceBid
-	? auction.replace(user, bidList, bidID, oldBidHash)
-	: auction.submit(user, bidList);
-      message.reply("<bidID>" + bid.getBidID() + "</bidID>"
-		    + "<bidHash>" + bid.getOriginalBidHash() + "</bidHash>"
-		    + "<rejectReason>" + bid.getRejectReason()
-		    + "</rejectReason>", TACException.NO_ERROR);
     }
+    Bid bid = bidID >= 0
+      ? auction.replace(user, bidList, bidID, oldBidHash)
+      : auction.submit(user, bidList);
+    return "<bidID>" + bid.getBidID() + "</bidID>"
+      + "<bidHash>" + bid.getOriginalBidHash() + "</bidHash>"
+      + "<rejectReason>" + bid.getRejectReason() + "</rejectReason>";
   }
 
   private int getInt(TACMessage message, String param, int defaultValue) {
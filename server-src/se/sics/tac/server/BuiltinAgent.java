@@ -158,6 +158,11 @@ public abstract class BuiltinAgent {
     return market.getGameTimeLeft();
   }
 
+  // Returns the real time that passes during the specified server time
+  protected long getRealDelay(long serverDelay) {
+    return market.infoManager.getRealDelay(serverDelay);
+  }
+
 
   /*********************************************************************
    * Bidding
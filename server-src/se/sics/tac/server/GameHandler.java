@@ -78,11 +78,20 @@ public class GameHandler implements MessageHandler {
 	gameID = game.getGameID();
 	startTime = game.getStartTime();
       } else {
-	Market market = infoManager.getMarket();
+	Market[] markets = infoManager.getMarkets();
 	gameID = -1;
 	startTime = infoManager.getServerTime() + 60000;
-	if (market != null) {
-	  long time = market.getGame().getEndTime() + 60000;
+	if (markets != null
+	    && markets.length >= infoManager.getMaxParallelGames()) {
+	  // All game slots are busy: use the slot that becomes free first
+	  long time = markets[0].getGame().getEndTime();
+	  for (int i = 1, n = markets.length; i < n; i++) {
+	    long endTime = markets[i].getGame().getEndTime();
+	    if (endTime < time) {
+	      time = endTime;
+	    }
+	  }
+	  time += 60000;
 	  if (time > startTime) {
 	    startTime = time;
 	  }
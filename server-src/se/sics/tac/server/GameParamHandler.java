@@ -64,25 +64,23 @@ public class GameParamHandler implements MessageHandler {
 
   private void handleGameParams(InfoManager infoManager, TACMessage message,
 				int type) {
-    Market market = infoManager.getMarket();
     int gameID = getInt(message, "gameID", -1);
+    Market market;
     Game game;
     User user;
 
     if (gameID <= 0) {
       message.replyMissingField("gameID");
 
-    } else if (market == null) {
-      // Should check for game existance and game complete. FIX THIS!!!
-      message.replyError(TACException.GAME_FUTURE);
-
-    } else if ((game = market.getGame()).getGameID() != gameID) {
+    } else if ((market = infoManager.getMarket(gameID)) == null) {
       // Should also check for game existance. FIX THIS!!!!
-      message.replyError(game.getGameID() < gameID
+      message.replyError(infoManager.getGameByID(gameID) != null
+			 || gameID > Market.getLastGameID()
 			 ? TACException.GAME_FUTURE
 			 : TACException.GAME_COMPLETE);
 
-    } else if (!game.isParticipant(user = message.getUser())) {
+    } else if (!(game = market.getGame())
+	       .isParticipant(user = message.getUser())) {
       message.replyError(TACException.NOT_MEMBER_OF_GAME);
 
     } else if (type == PARAMETERS) {
@@ -31,10 +31,12 @@
 package se.sics.tac.server;
 import java.io.File;
 import java.io.IOException;
+import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Random;
 import java.util.StringTokenizer;
 import java.util.Timer;
+import java.util.TimerTask;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -53,6 +55,12 @@ public class InfoManager {
   /** Autojoin property */
   public final static String AUTOJOIN = "autojoin";
 
+  /** Maximal number of games running at the same time */
+  public final static String PARALLEL_GAMES = "games.parallel";
+
+  /** How many times faster than real time the server time runs */
+  public final static String TIME_DILATION = "time.dilation";
+
   public final static String DEFAULT_GAME_TYPE =
     se.sics.tac.server.classic.ClassicGameManager.TAC_CLASSIC;
 
@@ -72,8 +80,11 @@ public class InfoManager {
 
   protected final ConfigManager config;
 
-  /** Contains the market for the current game if such is running */
-  private Market market;
+  /** Contains the markets for the running games in the order they were
+      started or NULL if no game is running. The array is replaced and never
+      changed when a game is started or stopped. */
+  private Market[] markets;
+  private final int maxParallelGames;
 
   /** User information */
   private User[] users;
@@ -94,6 +105,11 @@ public class InfoManager {
   /** Time zone difference */
   private int timeDiff = 0;
 
+  /** Time dilation: the server time runs this many times faster than real
+      time, counted from the real time the server was started */
+  private final int timeDilation;
+  private final long timeOrigin = System.currentTimeMillis();
+
   /** Timer */
   private final Timer timer = new Timer();
 
@@ -105,11 +121,14 @@ public class InfoManager {
 
   private String logName;
   private String logPrefix;
-  private FileHandler gameHandler;
-  private String gameLogName;
+  private Hashtable gameHandlerTable = new Hashtable();
 
   public InfoManager(ConfigManager config) throws IOException {
     this.config = config;
+    this.maxParallelGames =
+      Math.max(1, config.getPropertyAsInt(PARALLEL_GAMES, 1));
+    this.timeDilation =
+      Math.max(1, config.getPropertyAsInt(TIME_DILATION, 1));
 
     String logDirectory = config.getProperty("log.directory", "logs");
     this.logName = getLogDirectory(logDirectory, "ts");
@@ -200,19 +219,108 @@ public class InfoManager {
 
 
   /*********************************************************************
-   * Server time handling
+   * Running games
    *********************************************************************/
 
+  // Returns the market for the running game that was started first
+  // or NULL if no game is running
   public Market getMarket() {
-    return market;
+    Market[] markets = this.markets;
+    return markets != null ? markets[0] : null;
+  }
+
+  // Returns the markets for all running games or NULL if no game is running.
+  // Note: the array may NOT be changed.
+  public Market[] getMarkets() {
+    return markets;
+  }
+
+  public int getMaxParallelGames() {
+    return maxParallelGames;
+  }
+
+  public Market getMarket(int gameID) {
+    Market[] markets = this.markets;
+    if (markets != null) {
+      for (int i = 0, n = markets.length; i < n; i++) {
+	if (markets[i].getGame().getGameID() == gameID) {
+	  return markets[i];
+	}
+      }
+    }
+    return null;
+  }
+
+  public Market getMarketByAuction(int auctionID) {
+    Market[] markets = this.markets;
+    if (markets != null) {
+      for (int i = 0, n = markets.length; i < n; i++) {
+	if (markets[i].getAuction(auctionID) != null) {
+	  return markets[i];
+	}
+      }
+    }
+    return null;
+  }
+
+  public Market getMarketByBid(int bidID) {
+    Market[] markets = this.markets;
+    if (markets != null) {
+      for (int i = 0, n = markets.length; i < n; i++) {
+	if (markets[i].getBid(bidID) != null) {
+	  return markets[i];
+	}
+      }
+    }
+    return null;
+  }
+
+  // Returns the market for the running game in which the specified user
+  // participates or NULL if the user is not playing in any game
+  public Market getMarket(User user) {
+    Market[] markets = this.markets;
+    if (markets != null) {
+      for (int i = 0, n = markets.length; i < n; i++) {
+	if (markets[i].getGame().isParticipant(user)) {
+	  return markets[i];
+	}
+      }
+    }
+    return null;
   }
 
+
+  /*********************************************************************
+   * Server time handling
+   *********************************************************************/
+
   public long getServerTime() {
-    return System.currentTimeMillis() + timeDiff;
+    return timeOrigin + (System.currentTimeMillis() - timeOrigin) * timeDilation
+      + timeDiff;
   }
 
   public long getServerTimeSeconds() {
-    return (System.currentTimeMillis() + timeDiff) / 1000;
+    return getServerTime() / 1000;
+  }
+
+  public int getTimeDilation() {
+    return timeDilation;
+  }
+
+  // Returns the real time in milliseconds that passes while the
+  // specified amount of server time passes
+  public long getRealDelay(long serverDelay) {
+    return serverDelay > 0L
+      ? (serverDelay + timeDilation - 1) / timeDilation
+      : 0L;
+  }
+
+  // Schedules the task to first run at the specified server time and
+  // then repeatedly with the specified period in server time. All
+  // timing of the markets is done via this method and getServerTime().
+  protected void scheduleTask(TimerTask task, long serverTime, long period) {
+    timer.schedule(task, getRealDelay(serverTime - getServerTime()),
+		   getRealDelay(period > 0L ? period : 1L));
   }
 
   public int getTimeZone() {
@@ -406,6 +514,7 @@ public class InfoManager {
       int gameLength = manager.getGameLength(gameType) + GAME_DELAY;
       int timeSync = getTimeSync(gameLength);
       long time = getNextStartTime(getServerTime() + 60000, timeSync);
+      long[] freeTimes = getFreeTimes(time);
 
       for (int i = 0, n = gameQueue.size(); i < n; i++) {
 	Game game = (Game) gameQueue.get(i);
@@ -424,7 +533,7 @@ public class InfoManager {
 
 	  // Next game has already been assigned an id and we cannot create
 	  // another game before it
-	  time = getNextStartTime(game.getEndTime() + GAME_DELAY, timeSync);
+	  time = occupy(freeTimes, game, timeSync);
 
 	} else if ((startTime - time) > gameLength) {
 	  // There is a free time lap to insert a game here
@@ -456,7 +565,7 @@ public class InfoManager {
 	      }
 	    }
 	  }
-	  time = getNextStartTime(game.getEndTime() + GAME_DELAY, timeSync);
+	  time = occupy(freeTimes, game, timeSync);
 	}
       }
 
@@ -487,6 +596,46 @@ public class InfoManager {
     return -1;
   }
 
+  // Returns the times at which each of the parallel game slots becomes free
+  private long[] getFreeTimes(long time) {
+    long[] freeTimes = new long[maxParallelGames];
+    for (int i = 0; i < maxParallelGames; i++) {
+      freeTimes[i] = time;
+    }
+    return freeTimes;
+  }
+
+  // Lets the specified game occupy the game slot that becomes free first
+  // (or all slots for time reservations) and returns the earliest time a
+  // new game can be started after it. New games are never started before
+  // earlier games to keep the game queue sorted by start time.
+  private long occupy(long[] freeTimes, Game game, int timeSync) {
+    long endTime = getNextStartTime(game.getEndTime() + GAME_DELAY, timeSync);
+    if (game.getGameType() == null) {
+      for (int i = 0, n = freeTimes.length; i < n; i++) {
+	if (freeTimes[i] < endTime) {
+	  freeTimes[i] = endTime;
+	}
+      }
+    } else {
+      int index = 0;
+      for (int i = 1, n = freeTimes.length; i < n; i++) {
+	if (freeTimes[i] < freeTimes[index]) {
+	  index = i;
+	}
+      }
+      freeTimes[index] = endTime;
+    }
+
+    long time = freeTimes[0];
+    for (int i = 1, n = freeTimes.length; i < n; i++) {
+      if (freeTimes[i] < time) {
+	time = freeTimes[i];
+      }
+    }
+    return time > game.getStartTime() ? time : game.getStartTime();
+  }
+
   protected long getNextStartTime(long time, int timeSync) {
     if (timeSync > 0) {
       // Use this synchronization time
@@ -557,6 +706,7 @@ public class InfoManager {
     int gameLength = g.getGameLength() + GAME_DELAY;
     int timeSync = getTimeSync(gameLength);
     long time = getNextStartTime(getServerTime() + 120000, timeSync);
+    long[] freeTimes = getFreeTimes(time);
 
     for (int i = 0, n = gameQueue.size(); i < n; i++) {
       Game game = (Game) gameQueue.get(i);
@@ -566,7 +716,7 @@ public class InfoManager {
       if (gid >= 0) {
 	// Next game has already been assigned an id and we cannot create
 	// another game before it
-	time = getNextStartTime(game.getEndTime() + GAME_DELAY, timeSync);
+	time = occupy(freeTimes, game, timeSync);
 
       } else if ((startTime - time) > gameLength) {
 	// There is a free time lap to insert a game here
@@ -581,7 +731,7 @@ public class InfoManager {
 	// for the new game anyway.
 
 	// Should have a limit to how many empty games can be created!!!! FIX THIS!!!
-	time = getNextStartTime(game.getEndTime() + GAME_DELAY, timeSync);
+	time = occupy(freeTimes, game, timeSync);
       }
     }
 
@@ -626,6 +776,8 @@ public class InfoManager {
   }
 
   // Create a new game and replace any existing game if possible.
+  // Time reservations and competitions are always scheduled after each
+  // other regardless of the number of parallel games.
   // The specified unique game id is used if > 0 and otherwise a
   // new unique game id is generated.
   // Used by Java InfoServer when scheduling time reservations and
@@ -782,93 +934,148 @@ public class InfoManager {
    *********************************************************************/
 
   synchronized void checkGame() {
-    if (gameQueue.size() > 0) {
-      long currentTime = getServerTime();
-      Game game = (Game) gameQueue.get(0);
+    long currentTime = getServerTime();
+
+    // Stop the running games that have reached their end time
+    Market[] running = this.markets;
+    if (running != null) {
+      for (int i = 0, n = running.length; i < n; i++) {
+	Market market = running[i];
+	Game game = market.getGame();
+	if (currentTime >= game.getEndTime()) {
+	  // Time to stop the game
+	  int index = gameQueue.indexOf(game);
+	  if (index >= 0) {
+	    gameQueue.remove(index);
+	  }
+	  removeMarket(market);
+	  try {
+	    market.stop();
+	  } catch (Exception e) {
+	    log.log(Level.SEVERE, "could not stop game " + game.getGameID(),
+		    e);
+	  } finally {
+	    gameStopped(market, false);
+	    exitGameLog(game.getGameID());
+	  }
+
+	  // Should check game ids. FIX THIS!!!
+	}
+      }
+    }
+
+    // Start the games whose start time has been reached. The games are
+    // sorted by start time so only the first games need to be checked.
+    int index = 0;
+    while (index < gameQueue.size()) {
+      Game game = (Game) gameQueue.get(index);
       long startTime = game.getStartTime();
       if (currentTime >= startTime) {
 	// Time to start the game if not already running
-	Market market = getMarket();
-	if (market != null && market.getGame() == game) {
-	  // Game is already running
-	  if (currentTime >= game.getEndTime()) {
-	    // Time to stop the game
-	    gameQueue.remove(0);
-	    try {
-	      market.stop();
-	    } catch (Exception e) {
-	      log.log(Level.SEVERE, "could not stop game " + game.getGameID(),
-		      e);
-	    } finally {
-	      gameStopped(market, false);
-	      exitGameLog();
-	    }
-
-	    // Should check game ids. FIX THIS!!!
-	  } else {
-	    // Nothing to do for now: let the game play
-	  }
+	if (isRunning(game)) {
+	  // Nothing to do for now: let the game play
+	  index++;
 
 	} else if (game.getGameID() < 0 && !assignGameIDs(game)) {
 	  // It was not possible to assign a game id so the game
 	  // should be scratched
 	  log.info("scratching started game without game id and "
 		   + game.getNumberOfParticipants() + " participants");
-	  gameQueue.remove(0);
+	  gameQueue.remove(index);
 	  gameRemoved(game, null);
 
 	} else if (game.getGameType() == null) {
 	  // Time reservation
 	  if (currentTime >= game.getEndTime()) {
 	    // Time to end the time reservation
-	    gameQueue.remove(0);
+	    gameQueue.remove(index);
 	    gameRemoved(game, null);
+	  } else {
+	    // No games may start during a time reservation
+	    break;
 	  }
 
 	} else if (game.isEmpty()) {
 	  // No participants => the game should be scratched
-	  gameQueue.remove(0);
+	  gameQueue.remove(index);
 	  log.info("scratching game " + game.getGameID()
 		   + " without participants");
 	  gameRemoved(game, null);
 
+	} else if (markets != null && markets.length >= maxParallelGames) {
+	  // All game slots are busy: the game must wait for a running
+	  // game to finish
+	  break;
+
+	} else if (startGame(game)) {
+	  index++;
+
 	} else {
-	  // Time to start the game
-	  try {
-	    GameManager manager = getGameManager(game.getGameType());
-	    int inError = 0;
-	    market = manager.createMarket(game);
-	    enterGameLog(game.getGameID());
-	    try {
-	      market.setup();
-	      gameStarted(market);
-	      inError = 1;
-	      market.start();
-	      this.market = market;
-	      inError = 2;
-	    } finally {
-	      if (inError != 2) {
-		if (inError == 1) {
-		  gameStopped(market, true);
-		}
-		exitGameLog();
-	      }
-	    }
-	  } catch (Exception e) {
-	    log.log(Level.SEVERE, "could not start game " + game.getGameID(),
-		    e);
-	    gameQueue.remove(0);
-	    gameRemoved(game, "setup failed");
-	  }
+	  gameQueue.remove(index);
+	  gameRemoved(game, "setup failed");
 	}
-      } else if ((startTime - currentTime) < MIN_GAME_LENGTH) {
-	if (game.getGameID() < 0) {
+
+      } else {
+	if ((startTime - currentTime) < MIN_GAME_LENGTH
+	    && game.getGameID() < 0) {
 	  assignGameIDs(game);
 	}
+	break;
       }
     }
   }
 
+  // Note: may only be called synchronized on this object
+  private boolean startGame(Game game) {
+    try {
+      GameManager manager = getGameManager(game.getGameType());
+      int inError = 0;
+      Market market = manager.createMarket(game);
+      enterGameLog(game.getGameID());
+      try {
+	market.setup();
+	gameStarted(market);
+	inError = 1;
+	market.start();
+	addMarket(market);
+	inError = 2;
+      } finally {
+	if (inError != 2) {
+	  if (inError == 1) {
+	    gameStopped(market, true);
+	  }
+	  exitGameLog(game.getGameID());
+	}
+      }
+      return true;
+    } catch (Exception e) {
+      log.log(Level.SEVERE, "could not start game " + game.getGameID(), e);
+      return false;
+    }
+  }
+
+  private boolean isRunning(Game game) {
+    Market[] markets = this.markets;
+    if (markets != null) {
+      for (int i = 0, n = markets.length; i < n; i++) {
+	if (markets[i].getGame() == game) {
+	  return true;
+	}
+      }
+    }
+    return false;
+  }
+
+  // Note: may only be called synchronized on this object
+  private void addMarket(Market market) {
+    markets = (Market[]) ArrayUtils.add(Market.class, markets, market);
+  }
+
+  // Note: may only be called synchronized on this object
+  private void removeMarket(Market market) {
+    markets = (Market[]) ArrayUtils.remove(markets, market);
+  }
+
   // Note: may only be called synchronized on this object
   private boolean assignGameIDs(Game game) {
     // Time to generate game ids for the first games
@@ -951,30 +1158,35 @@ public class InfoManager {
 	root.addHandler(rootFileHandler);
       }
       rootFileHandler.setLevel(fileLogLevel);
-      if (gameHandler != null) {
-	gameHandler.setLevel(fileLogLevel);
+      Enumeration e = gameHandlerTable.elements();
+      while (e.hasMoreElements()) {
+	((FileHandler) e.nextElement()).setLevel(fileLogLevel);
       }
     } else if (rootFileHandler != null) {
-      exitGameLog();
+      exitGameLogs();
       root.removeHandler(rootFileHandler);
       rootFileHandler.close();
       rootFileHandler = null;
     }
   }
 
+  // Opens the log for the specified game. While any game log is open, all
+  // log messages are written to the game logs instead of the server log.
+  // Note that the logs for games running at the same time will all
+  // contain the log messages of each other.
   synchronized void enterGameLog(int gameID) {
-    exitGameLog();
+    exitGameLog(gameID);
 
     if (rootFileHandler != null) {
       LogFormatter.separator(log, Level.FINE, "Entering log for game "
 			     + gameID);
       try {
 	Logger root = Logger.getLogger("");
-	String name = logPrefix + "GAME_" + gameID + ".log";
-	gameHandler = new FileHandler(name, true);
+	String name = getGameLogName(gameID);
+	FileHandler gameHandler = new FileHandler(name, true);
 	gameHandler.setFormatter(formatter);
 	gameHandler.setLevel(rootFileHandler.getLevel());
-	gameLogName = name;
+	gameHandlerTable.put(new Integer(gameID), gameHandler);
 	root.addHandler(gameHandler);
 	root.removeHandler(rootFileHandler);
 	LogFormatter.separator(log, Level.FINE, "Log for game "
@@ -986,21 +1198,32 @@ public class InfoManager {
     }
   }
 
-  synchronized void exitGameLog() {
+  synchronized void exitGameLog(int gameID) {
+    FileHandler gameHandler = (FileHandler)
+      gameHandlerTable.remove(new Integer(gameID));
     if (gameHandler != null) {
       Logger root = Logger.getLogger("");
       LogFormatter.separator(log, Level.FINE, "Game log complete");
 
-      root.addHandler(rootFileHandler);
+      if (gameHandlerTable.isEmpty()) {
+	root.addHandler(rootFileHandler);
+      }
       root.removeHandler(gameHandler);
       gameHandler.close();
-      gameHandler = null;
       // Try to remove the lock file since it is no longer needed
-      if (gameLogName != null) {
-	new File(gameLogName + ".lck").delete();
-	gameLogName = null;
-      }
+      new File(getGameLogName(gameID) + ".lck").delete();
     }
   }
 
+  private void exitGameLogs() {
+    while (!gameHandlerTable.isEmpty()) {
+      Integer gameID = (Integer) gameHandlerTable.keys().nextElement();
+      exitGameLog(gameID.intValue());
+    }
+  }
+
+  private String getGameLogName(int gameID) {
+    return logPrefix + "GAME_" + gameID + ".log";
+  }
+
 } // InfoManager
@@ -62,7 +62,8 @@ public class InfoServer extends InfoManager {
 
   /** Game Logging */
   protected String gamePrefix;
-  protected PrintWriter gameLog;
+  // The markets whose game logs receive the game messages
+  private Market[] loggedMarkets;
 
   public InfoServer(TACServer tacServer, ConfigManager config)
     throws IOException
@@ -84,26 +85,28 @@ public class InfoServer extends InfoManager {
 
   private synchronized void openGameLog(Market market) {
     int gameID = market.getGame().getGameID();
-    closeGameLog(null);
     try {
-      gameLog = new PrintWriter(new FileWriter(gamePrefix + gameID + ".log"));
-      market.setGameLog(gameLog);
+      market.setGameLog(new PrintWriter(new FileWriter(gamePrefix + gameID
+						       + ".log")));
+      loggedMarkets = (Market[])
+	ArrayUtils.add(Market.class, loggedMarkets, market);
     } catch (Exception e) {
       log.log(Level.SEVERE, "could not open game file for game "
 	      + gameID, e);
     }
   }
 
-  private synchronized void closeGameLog(Market market) {
+  private synchronized void closeGameLog(Market market, boolean close) {
+    loggedMarkets = (Market[]) ArrayUtils.remove(loggedMarkets, market);
+    PrintWriter gameLog = market.getGameLog();
     if (gameLog != null) {
       gameLog.flush();
-      if (market != null) {
+      if (close) {
 	// Otherwise the market will still keep the game file open
 	// because it might want to write the result in it later on
 	gameLog.close();
 	market.setGameLog(null);
       }
-      gameLog = null;
     }
   }
 
@@ -151,8 +154,10 @@ public class InfoServer extends InfoManager {
 	if (market != null
 	    && market.getGame().getGameID() == gameID
 	    && user != null) {
-	  double cost = market.getAgentCost(user);
-	  int penalty = market.getAgentPenalty(user);
+	  Ownership ownership = market.getOwnership();
+	  int index = market.indexOfParticipant(user);
+	  double cost = ownership.getCost(index);
+	  int penalty = ownership.getPenalty(index);
 	  double score = utility - penalty - cost;
 	  long time = getServerTimeSeconds();
 	  String result = time + ",s," + gameID + ',' + aid + ','
@@ -314,11 +319,15 @@ public class InfoServer extends InfoManager {
 	// Send any coming games not known to the Info Server
 	sendComingGames(lastUniqGameID, gameID, time);
 
-	// Send current game if such is playing, in case the info
-	// server needs to immediately display it for its viewers.
-	Market market = getMarket();
-	if (market != null && market.isRunning()) {
-	  sendMarket(market, time, ONLY_IS);
+	// Send current games if such are playing, in case the info
+	// server needs to immediately display them for its viewers.
+	Market[] markets = getMarkets();
+	if (markets != null) {
+	  for (int i = 0, n = markets.length; i < n; i++) {
+	    if (markets[i].isRunning()) {
+	      sendMarket(markets[i], time, ONLY_IS);
+	    }
+	  }
 	}
 
 	// Send any pending solve requests
@@ -507,18 +516,20 @@ public class InfoServer extends InfoManager {
       .append(',').append(type)
       .append(',').append(bid.getProcessingState());
     list.toCsv(sb);
-    send(sb.toString(), ONLY_GAME);
+    send(bid.getAuction().getMarket(), sb.toString(), ONLY_GAME);
+    server.bidUpdated(bid);
   }
 
   protected void quoteUpdated(Quote quote) {
     quoteUpdated(quote, ALL);
+    server.quoteUpdated(quote);
   }
 
   private void quoteUpdated(Quote quote, int target) {
     StringBuffer sb = new StringBuffer();
     sb.append(quote.getLastQuoteTime() / 1000).append(",q");
     quote.toCsv(sb);
-    send(sb.toString(), target);
+    send(quote.getAuction().getMarket(), sb.toString(), target);
   }
 
   protected void auctionClosed(Auction auction) {
@@ -529,14 +540,16 @@ public class InfoServer extends InfoManager {
 	time = getServerTimeSeconds();
       }
     }
-    send(time + ",z," + auction.getID(), ALL);
+    send(auction.getMarket(), time + ",z," + auction.getID(), ALL);
+    server.auctionClosed(auction);
   }
 
   protected void transaction(Transaction transaction) {
     StringBuffer sb = new StringBuffer();
     sb.append(transaction.getClearTime() / 1000).append(",t");
     transaction.toCsv(sb);
-    send(sb.toString(), ALL);
+    send(transaction.getAuction().getMarket(), sb.toString(), ALL);
+    server.transaction(transaction);
   }
 
   protected void gameCreated(Game game) {
@@ -573,17 +586,16 @@ public class InfoServer extends InfoManager {
   protected void gameStopped(Market market, boolean error) {
     long time = getServerTimeSeconds();
     Game game = market.getGame();
-    send(time + ",x," + game.getGameID() + ',' + game.getID(), ALL);
+    send(market, time + ",x," + game.getGameID() + ',' + game.getID(), ALL);
 
     if (error) {
-      closeGameLog(market);
+      closeGameLog(market, true);
     } else {
       synchronized (solveQueue) {
 	solveQueue.add(market);
       }
-      // Should not close the game log until the solving has finished or
-      // next game starts. FIX THIS!!! FIX THIS!!! FIX THIS!!!
-      closeGameLog(null);
+      // The game log is closed when the solving has finished
+      closeGameLog(market, false);
       sendGameState(time, false);
       sendSolveRequest(market);
     }
@@ -596,12 +608,24 @@ public class InfoServer extends InfoManager {
    *********************************************************************/
 
   protected void send(String message, int target) {
-    PrintWriter out;
+    send(null, message, target);
+  }
+
+  // Writes the message to the game log of the specified market or to the
+  // game logs of all running games if no market is specified
+  protected void send(Market market, String message, int target) {
     if (target >= ALL && isConnected) {
       infoServer.send(message);
     }
-    if (target <= ALL && ((out = this.gameLog) != null)) {
-      out.println(message);
+    Market[] markets;
+    if (target <= ALL && ((markets = this.loggedMarkets) != null)) {
+      for (int i = 0, n = markets.length; i < n; i++) {
+	PrintWriter out;
+	if ((market == null || markets[i] == market)
+	    && ((out = markets[i].getGameLog()) != null)) {
+	  out.println(message);
+	}
+      }
     }
   }
 
@@ -643,25 +667,25 @@ public class InfoServer extends InfoManager {
 
   private void sendMarket(Market market, long time, int target) {
     Game game = market.getGame();
-    send(time + ",g," + game.getGameID()
+    send(market, time + ",g," + game.getGameID()
 	 + ',' + (game.getStartTime() / 1000)
 	 + ',' + (game.getEndTime() / 1000)
 	 + ',' + game.getID()
 	 + ',' + game.getGameType()
 	 + ',' + game.getParticipantsInGame(), target);
     if (target == ALL || target == ONLY_GAME) {
-      send(time + ",v," +  FULL_VERSION + ','
+      send(market, time + ",v," +  FULL_VERSION + ','
 	   + server.getServerName().replace(',', ' '), ONLY_GAME);
     }
     for (int i = 0, n = game.getNumberOfParticipants(); i < n; i++) {
       User u = game.getParticipant(i);
-      send(time + ",a," + u.getName() + ',' + u.getID(), target);
+      send(market, time + ",a," + u.getName() + ',' + u.getID(), target);
     }
 
     String[] prefs = market.getGamePreferencesInfo();
     if (prefs != null) {
       for (int i = 0, n = prefs.length; i < n; i++) {
-	send("" + time + ',' + prefs[i], target);
+	send(market, "" + time + ',' + prefs[i], target);
       }
     }
 
@@ -676,7 +700,7 @@ public class InfoServer extends InfoManager {
 	  // handle all auctions in one message and this should later
 	  // be changed (when everyone hopefully has upgraded). FIX
 	  // THIS!!!
-	  send("" + time + ",u," + auction.getID()
+	  send(market, "" + time + ",u," + auction.getID()
 	       + ',' + auction.getType()
 	       + ',' + auction.getDay(), target);
 	}
@@ -701,7 +725,7 @@ public class InfoServer extends InfoManager {
 	  StringBuffer sb = new StringBuffer()
 	    .append(t.getClearTime() / 1000).append(",t");
 	  t.toCsv(sb);
-	  send(sb.toString(), target);
+	  send(market, sb.toString(), target);
 	}
       }
     }
@@ -28,7 +28,6 @@
 package se.sics.tac.server;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -146,11 +145,13 @@ public abstract class Market {
   private int transactionStartID;
   private int transactionNumber;
 
-  // Cache for agent information
-  private int[][] agentOwn; // [Agent][OwnInAuction]
-  private double[] agentCost;
-  private int[] agentPenalty;
-  private boolean hasOwn = false;
+  // The bids and transactions (not endowments) of each participant
+  private ParticipantIndex participantBids;
+  private ParticipantIndex participantTransactions;
+
+  // What the agents own. Replaced for each transaction so it can be
+  // read without synchronization.
+  private volatile Ownership ownership;
 
   /** Manager for builtin agents */
   private AgentManager agentManager;
@@ -171,6 +172,7 @@ public abstract class Market {
     }
     this.infoManager = infoManager;
     this.game = game;
+    this.ownership = new Ownership(game.getParticipantsInGame());
   }
 
   PrintWriter getGameLog() {
@@ -196,7 +198,7 @@ public abstract class Market {
 
   protected synchronized void setOversellPenalty(int penalty) {
     this.oversellPenalty = penalty;
-    this.agentPenalty = null;
+    this.ownership = ownership.setOversellPenalty(penalty);
   }
 
   public synchronized boolean addBuiltinAgent(BuiltinAgent agent) {
@@ -290,7 +292,7 @@ public abstract class Market {
 
     auctions[index] = auction;
     auctionNumber = index + 1;
-    hasOwn = false;
+    ownership = ownership.setAuctionNumber(auctionNumber);
     return auctionID;
   }
 
@@ -318,17 +320,16 @@ public abstract class Market {
    * @return the next bid or <CODE>null</CODE> if no more bids exists
    */
   public Bid getNextBid(int lastID, User user) {
-    lastID -= bidStartID;
-    if (lastID < bidNumber) {
-      if (lastID < 0) {
-	lastID = -1;
-      }
-      // Since bidNumber is updated after the bid array
-      // this can be done without synchronization.
-      for (int i = lastID + 1; i < bidNumber; i++) {
-	Bid bid = bids[i];
-	if ((bid != null) && (bid.getUser() == user)
-	    && (bid.getTimeClosed() == 0L)) {
+    ParticipantIndex index = this.participantBids;
+    int participant = game.indexOfParticipant(user);
+    if (index != null && participant >= 0) {
+      // Only the bids of the user need to be checked. Since the index is
+      // updated after the bid array this can be done without
+      // synchronization as long as the bid array is read after the index.
+      for (int i = index.getPositionAfter(participant, lastID - bidStartID),
+	     n = index.size(participant); i < n; i++) {
+	Bid bid = bids[index.get(participant, i)];
+	if (bid != null && bid.getTimeClosed() == 0L) {
 	  return bid;
 	}
       }
@@ -353,6 +354,14 @@ public abstract class Market {
     }
     bids[index] = bid;
     bidNumber = index + 1;
+
+    int participant = game.indexOfParticipant(user);
+    if (participant >= 0) {
+      if (participantBids == null) {
+	participantBids = new ParticipantIndex(game.getParticipantsInGame());
+      }
+      participantBids.add(participant, index);
+    }
     return bid;
   }
 
@@ -367,18 +376,15 @@ public abstract class Market {
 
   // Note: this method will not return endowments
   public Transaction getNextTransaction(int lastID, User user) {
-    lastID -= transactionStartID;
-    if (lastID < transactionNumber) {
-      if (lastID < 0) {
-	lastID = -1;
-      }
-      // Since transactionNumber is updated after the transaction array
+    ParticipantIndex index = this.participantTransactions;
+    int participant = game.indexOfParticipant(user);
+    if (index != null && participant >= 0) {
+      // Since the index is updated after the transaction array
       // this can be done without synchronization.
-      for (int i = lastID + 1; i < transactionNumber; i++) {
-	Transaction t = transactions[i];
-	if ((t != null) && t.isParticipant(user) && !t.isEndowment()) {
-	  return t;
-	}
+      int position =
+	index.getPositionAfter(participant, lastID - transactionStartID);
+      if (position < index.size(participant)) {
+	return transactions[index.get(participant, position)];
       }
     }
     return null;
@@ -459,7 +465,52 @@ public abstract class Market {
     }
     transactions[index] = transaction;
     transactionNumber = index + 1;
-    hasOwn = false;
+    updateOwnership(transaction);
+
+    if (!transaction.isEndowment()) {
+      User buyer = transaction.getBuyer();
+      User seller = transaction.getSeller();
+      if (buyer != null) {
+	addParticipantTransaction(buyer, index);
+      }
+      if (seller != null && seller != buyer) {
+	addParticipantTransaction(seller, index);
+      }
+    }
+  }
+
+  // NOTE: may only be called synchronized on this object
+  private void updateOwnership(Transaction transaction) {
+    int aindex = transaction.getAuction().getID() - auctionStartID;
+    if (aindex >= 0 && aindex < auctionNumber) {
+      Ownership ownership = this.ownership;
+      User buyer = transaction.getBuyer();
+      User seller = transaction.getSeller();
+      int q = transaction.getQuantity();
+      double p = q * transaction.getPrice();
+      int index;
+      if (buyer != null && (index = game.indexOfParticipant(buyer)) >= 0) {
+	ownership = ownership.add(index, aindex, auctionNumber, q, p,
+				  oversellPenalty);
+      }
+      if (seller != null && (index = game.indexOfParticipant(seller)) >= 0) {
+	ownership = ownership.add(index, aindex, auctionNumber, -q, -p,
+				  oversellPenalty);
+      }
+      this.ownership = ownership;
+    }
+  }
+
+  // NOTE: may only be called synchronized on this object
+  private void addParticipantTransaction(User user, int index) {
+    int participant = game.indexOfParticipant(user);
+    if (participant >= 0) {
+      if (participantTransactions == null) {
+	participantTransactions =
+	  new ParticipantIndex(game.getParticipantsInGame());
+      }
+      participantTransactions.add(participant, index);
+    }
   }
 
   public Quote getQuote(int auctionID) {
@@ -498,8 +549,7 @@ public abstract class Market {
     }
 
     ticker = new Ticker(this);
-    infoManager.getTimer()
-      .schedule(ticker, new Date(startTime), 1000);
+    infoManager.scheduleTask(ticker, startTime, 1000);
 
     if (agentManager != null) {
       agentManager.gameStarted();
@@ -568,36 +618,24 @@ public abstract class Market {
 
   public abstract int[][] getGamePreferences(User user);
 
+  // What all agents own, their costs and penalties. The ownership is
+  // never changed and can be used for several agents at the same time.
+  public Ownership getOwnership() {
+    return ownership;
+  }
+
   // An list of number of own items per auction. Might be null if the
   // agent does not own anything. The auctions are ordered in creation order.
-  // Note: should not be called often during game because they can trigger
-  // some calculation
   protected int[] getAgentOwn(User user) {
-    int index = indexOfParticipant(user);
-    if (!hasOwn) {
-      calculateOwn();
-    }
-    return agentOwn[index];
+    return ownership.getOwn(indexOfParticipant(user));
   }
 
-  // Note: should not be called often during game because they can trigger
-  // some calculation
   protected double getAgentCost(User user) {
-    int index = indexOfParticipant(user);
-    if (!hasOwn) {
-      calculateOwn();
-    }
-    return agentCost[index];
+    return ownership.getCost(indexOfParticipant(user));
   }
 
-  // Note: should not be called often during game because they can trigger
-  // some calculation
   protected int getAgentPenalty(User user) {
-    int index = indexOfParticipant(user);
-    if (!hasOwn) {
-      calculateOwn();
-    }
-    return agentPenalty[index];
+    return ownership.getPenalty(indexOfParticipant(user));
   }
 
   protected abstract String[] getGamePreferencesInfo();
@@ -615,7 +653,11 @@ public abstract class Market {
    * @return an IS message describing what the participant owns
    */
   protected String getAgentOwnInfo(User user) {
-    int[] own = getAgentOwn(user);
+    return getAgentOwnInfo(user, ownership);
+  }
+
+  private String getAgentOwnInfo(User user, Ownership ownership) {
+    int[] own = ownership.getOwn(indexOfParticipant(user));
     StringBuffer sb = new StringBuffer()
       .append("o,").append(game.getGameID())
       .append(',').append(user.getID());
@@ -627,65 +669,16 @@ public abstract class Market {
     return sb.toString();
   }
 
-  protected synchronized void calculateOwn() {
-    int number = game.getNumberOfParticipants();
-    int[][] own = new int[number][];
-    int[] penalty = new int[number];
-    double[] cost = new double[number];
-    for (int i = 0; i < transactionNumber; i++) {
-      Transaction t = transactions[i];
-      if (t != null) {
-	Auction a = t.getAuction();
-	int aindex = a.getID() - auctionStartID;
-	if (aindex >= 0 && aindex < auctionNumber) {
-	  User buyer = t.getBuyer();
-	  User seller = t.getSeller();
-	  int q = t.getQuantity();
-	  double p = q * t.getPrice();
-	  if (buyer != null) {
-	    int index = indexOfParticipant(buyer);
-	    if (own[index] == null) {
-	      own[index] = new int[auctionNumber];
-	    }
-	    own[index][aindex] += q;
-	    cost[index] += p;
-	  }
-	  if (seller != null) {
-	    int index = indexOfParticipant(seller);
-	    if (own[index] == null) {
-	      own[index] = new int[auctionNumber];
-	    }
-	    own[index][aindex] -= q;
-	    cost[index] -= p;
-	  }
-	}
-      }
-    }
-
-    for (int i = 0; i < number; i++) {
-      int[] o = own[i];
-      if (o != null) {
-	for (int j = 0; j < auctionNumber; j++) {
-	  if (o[j] < 0) {
-	    penalty[i] -= o[j] * oversellPenalty;
-	  }
-	}
-      }
-    }
-    this.agentPenalty = penalty;
-    this.agentCost = cost;
-    this.agentOwn = own;
-    this.hasOwn = true;
-  }
-
   // Returns an IS solve request for this game
   protected String[] getSolveRequestInfo() {
     ArrayList list = new ArrayList();
     String reqPrefix = "sr," + game.getGameID() + ',';
+    // The same ownership for all agents
+    Ownership ownership = this.ownership;
     for (int i = 0, n = game.getNumberOfParticipants(); i < n; i++) {
       User user = game.getParticipant(i);
       String prefs = getGamePreferencesInfo(user);
-      String own = getAgentOwnInfo(user);
+      String own = getAgentOwnInfo(user, ownership);
       list.add(reqPrefix + user.getID());
       if (prefs != null) {
 	list.add(prefs);
@@ -759,4 +752,62 @@ public abstract class Market {
     super.finalize();
   }
 
+
+
+  /*********************************************************************
+   * Index of the bids or transactions of each participant
+   *********************************************************************/
+
+  // The positions in the bid or transaction array, in increasing order,
+  // for each participant. Entries are only added and the size is updated
+  // after the entry so it can be read without synchronization.
+  private static class ParticipantIndex {
+
+    private int[][] indices;
+    private int[] sizes;
+
+    ParticipantIndex(int participants) {
+      indices = new int[participants][];
+      sizes = new int[participants];
+    }
+
+    // NOTE: may only be called synchronized on the market
+    void add(int participant, int index) {
+      int[] list = indices[participant];
+      int size = sizes[participant];
+      if (list == null) {
+	list = new int[32];
+      } else if (list.length == size) {
+	list = ArrayUtils.setSize(list, size * 2);
+      }
+      list[size] = index;
+      indices[participant] = list;
+      sizes[participant] = size + 1;
+    }
+
+    int size(int participant) {
+      return sizes[participant];
+    }
+
+    int get(int participant, int position) {
+      return indices[participant][position];
+    }
+
+    // Returns the position of the first entry after the specified index
+    int getPositionAfter(int participant, int index) {
+      int low = 0;
+      int high = sizes[participant];
+      int[] list = indices[participant];
+      while (low < high) {
+	int mid = (low + high) >>> 1;
+	if (list[mid] <= index) {
+	  low = mid + 1;
+	} else {
+	  high = mid;
+	}
+      }
+      return low;
+    }
+  }
+
 } // Market
@@ -0,0 +1,120 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * Ownership
+ *
+ * Purpose :
+ *   What the participants in a game own in each auction together with
+ *   their costs and oversell penalties. An ownership is never changed:
+ *   the market replaces it with an updated copy for each transaction
+ *   and it can therefore be read without synchronization. The
+ *   participants are given by their index in the game and the auctions
+ *   in creation order.
+ */
+
+package se.sics.tac.server;
+
+public final class Ownership {
+
+  private final int[][] own;
+  private final double[] cost;
+  private final int[] penalty;
+
+  Ownership(int participants) {
+    this(new int[participants][], new double[participants],
+	 new int[participants]);
+  }
+
+  private Ownership(int[][] own, double[] cost, int[] penalty) {
+    this.own = own;
+    this.cost = cost;
+    this.penalty = penalty;
+  }
+
+  // Returns the number of items owned per auction or null if the
+  // participant has not been part of any transaction.
+  // Note: this array may NOT be changed
+  public int[] getOwn(int participant) {
+    return own[participant];
+  }
+
+  public double getCost(int participant) {
+    return cost[participant];
+  }
+
+  public int getPenalty(int participant) {
+    return penalty[participant];
+  }
+
+
+  /*********************************************************************
+   * Updates (only called by the market)
+   *********************************************************************/
+
+  // Returns a copy with the specified quantity bought (or sold if
+  // negative) at the specified total price
+  Ownership add(int participant, int auction, int auctionNumber,
+		int quantity, double price, int oversellPenalty) {
+    int[][] own = this.own.clone();
+    double[] cost = this.cost.clone();
+    int[] penalty = this.penalty.clone();
+    int[] o = own[participant];
+    o = own[participant] = o == null
+      ? new int[auctionNumber]
+      : o.clone();
+    int oldQuantity = o[auction];
+    o[auction] += quantity;
+    cost[participant] += price;
+    penalty[participant] += (getOversold(o[auction])
+			     - getOversold(oldQuantity)) * oversellPenalty;
+    return new Ownership(own, cost, penalty);
+  }
+
+  // Returns a copy with room for the specified number of auctions
+  Ownership setAuctionNumber(int auctionNumber) {
+    int[][] own = this.own.clone();
+    for (int i = 0, n = own.length; i < n; i++) {
+      int[] o = own[i];
+      if (o != null && o.length < auctionNumber) {
+	own[i] = new int[auctionNumber];
+	System.arraycopy(o, 0, own[i], 0, o.length);
+      }
+    }
+    return new Ownership(own, cost, penalty);
+  }
+
+  // Returns a copy with the penalties calculated for a new oversell penalty
+  Ownership setOversellPenalty(int oversellPenalty) {
+    int[] penalty = new int[own.length];
+    for (int i = 0, n = own.length; i < n; i++) {
+      int[] o = own[i];
+      if (o != null) {
+	for (int j = 0, m = o.length; j < m; j++) {
+	  penalty[i] += getOversold(o[j]) * oversellPenalty;
+	}
+      }
+    }
+    return new Ownership(own, cost, penalty);
+  }
+
+  private static int getOversold(int quantity) {
+    return quantity < 0 ? -quantity : 0;
+  }
+
+} // Ownership
@@ -169,37 +169,49 @@ public class Quote {
       + "<lastClearTime>" + (lastClearTime / 1000) + "</lastClearTime>"
       + "<finalClearTime>" + (finalClearTime / 1000) + "</finalClearTime>"
       + "<nextClearTime>" + (nextClearTime / 1000) + "</nextClearTime>"
-      + getHQW(user, bidID)
+      + generateHQW(user, bidID)
       + "<auctionStatus>" + auction.getAuctionStatus() + "</auctionStatus>";
   }
 
-  private String getHQW(User user, int bidID) {
+  // Generates the fields of a quote pushed to a subscribing agent. The
+  // hypothetical quantity won is given for the bid it was calculated for.
+  public synchronized String generatePushFields(User user) {
     int[] hqw = this.hqw;
-    Bid bid;
+    int bidID = -1;
     if (hqw != null) {
       int aid = user.getID();
       for (int i = 0, n = hqw.length; i < n; i += 3) {
 	if (hqw[i] == aid) {
-	  if (bidID == hqw[i + 1]) {
-	    return "<hypotheticalQuantityWon>" + hqw[i + 2]
-	      + "</hypotheticalQuantityWon>";
-	  } else if (((bid = auction.market.getBid(bidID)) != null)
-		     && bid.isActive()
-		     && (bid.getAuction() == auction)
-		     && (bid.getUser() == user)) {
-	    // The bid exists in the right auction, has the right
-	    // submitter, and is still open. However since it is not
-	    // in the hqw it has probably not been processed yet.
-
-	    // One space indicates 'not calculated yet'
-	    return "<hypotheticalQuantityWon>" + ' '
-	      + "</hypotheticalQuantityWon>";
-	  }
+	  bidID = hqw[i + 1];
 	  break;
 	}
       }
     }
-    return "<hypotheticalQuantityWon> </hypotheticalQuantityWon>";
+    return "<auctionID>" + auction.getID() + "</auctionID>"
+      + "<bidID>" + bidID + "</bidID>"
+      + generateFields(user, bidID);
+  }
+
+  private String generateHQW(User user, int bidID) {
+    int v = getHQW(user, bidID);
+    // One space indicates 'not calculated yet'
+    return "<hypotheticalQuantityWon>" + (v >= 0 ? Integer.toString(v) : " ")
+      + "</hypotheticalQuantityWon>";
+  }
+
+  // Returns the hypothetical quantity won for the specified bid or -1
+  // if not known (for example if the bid has not been processed yet)
+  public int getHQW(User user, int bidID) {
+    int[] hqw = this.hqw;
+    if (hqw != null) {
+      int aid = user.getID();
+      for (int i = 0, n = hqw.length; i < n; i += 3) {
+	if (hqw[i] == aid) {
+	  return bidID == hqw[i + 1] ? hqw[i + 2] : -1;
+	}
+      }
+    }
+    return -1;
   }
 
   private String toString4(double v) {
@@ -33,11 +33,18 @@ public class QuoteHandler implements MessageHandler {
 
   public void registerAt(TACServer server) {
     server.addMessageHandler("getQuote", this, true);
+    server.addMessageHandler("getQuotes", this, true);
   }
 
   public void handleMessage(InfoManager infoManager, TACMessage message) {
+    if ("getQuotes".equals(message.getType())) {
+      getQuotes(infoManager, message);
+      return;
+    }
+
     int auctionID = -1;
     int bidID = -1;
+    Market market;
     Quote quote;
     while (message.nextTag()) {
       if (message.isTag("auctionID")) {
@@ -49,7 +56,8 @@ public class QuoteHandler implements MessageHandler {
 
     if (auctionID < 0) {
       message.replyMissingField("auctionID");
-    } else if ((quote = infoManager.getMarket().getQuote(auctionID)) == null) {
+    } else if (((market = infoManager.getMarketByAuction(auctionID)) == null)
+	       || ((quote = market.getQuote(auctionID)) == null)) {
       message.replyError(TACException.AUCTION_NOT_FOUND);
     } else {
       message.reply(quote.generateFields(message.getUser(), bidID),
@@ -57,4 +65,41 @@ public class QuoteHandler implements MessageHandler {
     }
   }
 
+  // Replies with the quotes for several auctions in one message. Each
+  // auction is given in a quoteTuple with an optional bidID and the
+  // reply contains one quoteTuple for each auction.
+  private void getQuotes(InfoManager infoManager, TACMessage message) {
+    User user = message.getUser();
+    StringBuffer sb = new StringBuffer().append("<list>");
+    int auctionID = -1;
+    int bidID = -1;
+    while (message.nextTag()) {
+      if (message.isTag("quoteTuple")) {
+	auctionID = -1;
+	bidID = -1;
+      } else if (message.isTag("auctionID")) {
+	auctionID = message.getValueAsInt(-1);
+      } else if (message.isTag("bidID")) {
+	bidID = message.getValueAsInt(-1);
+      } else if (message.isTag("/quoteTuple")) {
+	Market market;
+	Quote quote;
+	int status = TACException.NO_ERROR;
+	sb.append("<quoteTuple><auctionID>").append(auctionID)
+	  .append("</auctionID>");
+	if (auctionID < 0
+	    || ((market = infoManager.getMarketByAuction(auctionID)) == null)
+	    || ((quote = market.getQuote(auctionID)) == null)) {
+	  status = TACException.AUCTION_NOT_FOUND;
+	} else {
+	  sb.append(quote.generateFields(user, bidID));
+	}
+	sb.append("<commandStatus>").append(status)
+	  .append("</commandStatus></quoteTuple>");
+      }
+    }
+    sb.append("</list>");
+    message.reply(sb.toString(), TACException.NO_ERROR);
+  }
+
 } // QuoteHandler
@@ -0,0 +1,49 @@
+/**
+ * SICS TAC Server
+ * http://www.sics.se/tac/	  tac-dev@sics.se
+ *
+ * Copyright (c) 2001-2003 SICS AB. All rights reserved.
+ *
+ * SICS grants you the right to use, modify, and redistribute this
+ * software for noncommercial purposes, on the conditions that you:
+ * (1) retain the original headers, including the copyright notice and
+ * this text, (2) clearly document the difference between any derived
+ * software and the original, and (3) acknowledge your use of this
+ * software in pertaining publications and reports.  SICS provides
+ * this software "as is", without any warranty of any kind.  IN NO
+ * EVENT SHALL SICS BE LIABLE FOR ANY DIRECT, SPECIAL OR INDIRECT,
+ * PUNITIVE, INCIDENTAL OR CONSEQUENTIAL LOSSES OR DAMAGES ARISING OUT
+ * OF THE USE OF THE SOFTWARE.
+ *
+ * -----------------------------------------------------------------
+ *
+ * SubscriptionHandler
+ *
+ * Purpose :
+ *   Handles the 'subscribe' message. After a subscription the server
+ *   pushes quotes, bid states, transactions and closed auctions to the
+ *   connection as they happen (see TACServer) and the agent no longer
+ *   needs to poll for them.
+ */
+
+package se.sics.tac.server;
+
+public class SubscriptionHandler implements MessageHandler {
+
+  private TACServer server;
+
+  public void registerAt(TACServer server) {
+    this.server = server;
+    server.addMessageHandler("subscribe", this, false);
+  }
+
+  public void handleMessage(InfoManager infoManager, TACMessage message) {
+    if (message.getUser() == null) {
+      message.replyError(TACException.AGENT_NOT_AUTH);
+    } else {
+      server.addSubscription(message.getConnection());
+      message.reply("", TACException.NO_ERROR);
+    }
+  }
+
+} // SubscriptionHandler
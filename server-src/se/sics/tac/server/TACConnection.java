@@ -28,47 +28,56 @@
 package se.sics.tac.server;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.botbox.util.ArrayQueue;
 import com.botbox.util.ArrayUtils;
-import se.sics.isl.inet.InetConnection;
+import com.botbox.util.ThreadPool;
+import se.sics.isl.inet.NioConnection;
 
-public class TACConnection extends InetConnection {
+public class TACConnection extends NioConnection {
 
   private final static Logger log =
     Logger.getLogger(TACConnection.class.getName());
 
-  private final static String HEADER = "<?xml version=\"1.0\"?>";
+  private final static byte[] HEADER = "<?xml version=\"1.0\"?>".getBytes();
   private final static byte EOM = (byte) 0;
 
   private final static int MAX_BUFFER_SIZE = 40 * 1024;
   private final static int BUFFER_INCREASE = 2048;
 
+  // Reading is suspended while this many messages wait to be delivered
+  private final static int MAX_QUEUED_MESSAGES = 32;
+
+  // A subscriber that lets this many messages wait to be sent does not
+  // read its data and is disconnected instead of queueing more pushes
+  private final static int MAX_QUEUED_PUSHES = 1024;
+
   private final TACServer tacServer;
+  private ThreadPool threadPool;
 
-  private InputStreamReader reader;
-  private OutputStreamWriter writer;
-  private char[] buffer = new char[BUFFER_INCREASE];
+  // Partial message read so far
+  private byte[] buffer = new byte[BUFFER_INCREASE];
   private int bufferLen = 0;
 
-  private long sentChars;
-  private long requestedSentChars;
-  private long readChars;
+  // Messages are delivered one at the time in the order they arrive. The
+  // next message is delivered when the previous message has been replied.
+  private final ArrayQueue inBuffer = new ArrayQueue();
+  private final MessageDeliverer messageDeliverer =
+    new MessageDeliverer(this);
+  private boolean delivererRunning = false;
+  private TACMessage currentMessage;
 
   private User user;
 
   private long lastAliveTime;
 
-  TACConnection(String name, TACServer tacServer, Socket socket) {
-    super(name, socket);
+  TACConnection(String name, TACServer tacServer, SocketChannel channel) {
+    super(name, channel);
     this.tacServer = tacServer;
-    setDeliveryBuffered(false);
-    setWriteBuffered(false);
-
     this.lastAliveTime = getConnectTime();
   }
 
@@ -91,89 +100,163 @@ public class TACConnection extends InetConnection {
     return lastAliveTime;
   }
 
+  void setThreadPool(ThreadPool threadPool) {
+    this.threadPool = threadPool;
+  }
+
 
   // -------------------------------------------------------------------
   // Connection handling
   // -------------------------------------------------------------------
 
   protected void connectionOpened() throws IOException {
-    reader = new InputStreamReader(getInputStream());
-    writer = new OutputStreamWriter(getOutputStream());
   }
 
   protected void connectionClosed() throws IOException {
     tacServer.removeAgentConnection(this);
-    reader.close();
-    writer.close();
-  }
-
-  protected void doReadMessages() throws IOException {
-    while (!isClosed()) {
-      if (bufferLen >= buffer.length) {
-	if (bufferLen + BUFFER_INCREASE > MAX_BUFFER_SIZE) {
-	  // Buffer overflow
-	  log.severe("out buffer overflow for connection " + getName()
-		     + " from " + getRemoteHost());
-	  throw new EOFException();
+    synchronized (inBuffer) {
+      inBuffer.clear();
+    }
+  }
+
+  protected void dataRead(ByteBuffer data) throws IOException {
+    this.lastAliveTime = System.currentTimeMillis();
+
+    // Messages are framed directly from the read buffer and only
+    // partial messages are copied
+    byte[] array = data.array();
+    int start = data.arrayOffset() + data.position();
+    int end = data.arrayOffset() + data.limit();
+    int lastPos = start;
+    for (int i = start; i < end; i++) {
+      if (array[i] == EOM) {
+	// Found end of message
+	if (bufferLen > 0) {
+	  addToBuffer(array, lastPos, i - lastPos);
+	  messageReceived(new String(buffer, 0, bufferLen));
+	  bufferLen = 0;
+	} else {
+	  messageReceived(new String(array, lastPos, i - lastPos));
 	}
-	buffer = ArrayUtils.setSize(buffer, bufferLen + BUFFER_INCREASE);
+	lastPos = i + 1;
       }
+    }
+    if (lastPos < end) {
+      addToBuffer(array, lastPos, end - lastPos);
+    }
+    data.position(data.limit());
+  }
 
-      int len = reader.read(buffer, bufferLen, buffer.length - bufferLen);
-      if (len < 0) {
+  private void addToBuffer(byte[] data, int offset, int len)
+    throws IOException
+  {
+    if (bufferLen + len > buffer.length) {
+      if (bufferLen + len > MAX_BUFFER_SIZE) {
+	// Buffer overflow
+	log.severe("out buffer overflow for connection " + getName()
+		   + " from " + getRemoteHost());
 	throw new EOFException();
       }
-      this.lastAliveTime = System.currentTimeMillis();
-
-      int lastPos = 0;
-      for (int i = bufferLen, n = bufferLen + len; i < n; i++) {
-	if (buffer[i] == '\0') {
-	  // Found end of message
-	  deliverMessage(new String(buffer, lastPos, i - lastPos));
-	  lastPos = i + 1;
+      buffer = ArrayUtils.setSize(buffer, bufferLen + len + BUFFER_INCREASE);
+    }
+    System.arraycopy(data, offset, buffer, bufferLen, len);
+    bufferLen += len;
+  }
+
+  private void messageReceived(String content) {
+    synchronized (inBuffer) {
+      inBuffer.add(content);
+      if (inBuffer.size() >= MAX_QUEUED_MESSAGES) {
+	setReadSuspended(true);
+      }
+      startDeliverer();
+    }
+  }
+
+  // NOTE: may only be called synchronized on inBuffer
+  private void startDeliverer() {
+    if (!delivererRunning && currentMessage == null && !inBuffer.isEmpty()) {
+      delivererRunning = true;
+      threadPool.invokeLater(messageDeliverer);
+    }
+  }
+
+  // Called by the MessageDeliverer in a pool thread
+  private void deliverMessages() {
+    while (true) {
+      TACMessage message;
+      synchronized (inBuffer) {
+	if (currentMessage != null || inBuffer.isEmpty() || isClosed()) {
+	  // Continued when the current message has been replied
+	  delivererRunning = false;
+	  return;
 	}
+	if (inBuffer.size() <= MAX_QUEUED_MESSAGES / 2) {
+	  setReadSuspended(false);
+	}
+	message = currentMessage =
+	  new TACMessage(this, (String) inBuffer.remove(0));
       }
-      bufferLen += len;
-      if (lastPos > 0) {
-	if (lastPos < bufferLen) {
-	  System.arraycopy(buffer, lastPos, buffer, 0, bufferLen - lastPos);
-	  bufferLen -= lastPos;
-	} else {
-	  bufferLen = 0;
+      try {
+	doDeliverMessage(message);
+      } catch (Throwable e) {
+	log.log(Level.SEVERE, "could not deliver message "
+		+ message.getName(), e);
+	// The connection is in an unknown state
+	closeImmediately();
+
+	if (e instanceof ThreadDeath) {
+	  throw (ThreadDeath) e;
 	}
       }
     }
   }
 
-  protected void doDeliverMessage(Object messageObject) {
-    String content = (String) messageObject;
-    TACMessage message = new TACMessage(this, content);
+  private void doDeliverMessage(TACMessage message) {
     if (message.getType() == null) {
       // No message type was found
       log.warning("XML_IN(" + getName() + "): MALFORMED MESSAGE: "
-		  + content);
+		  + message.getMessage());
       message.replyError("malformed message");
     } else {
-      log.finest("XML_IN(" + getName() + "): " + content);
+      log.finest("XML_IN(" + getName() + "): " + message.getMessage());
       tacServer.deliverMessage(message);
     }
+  }
 
-    try {
-      message.waitForReply();
-    } catch (Exception e) {
-      log.log(Level.SEVERE, "connection " + getName()
-	      + " interrupted waiting for reply to " + message.getType(), e);
+  // Called by TACMessage when the message has been replied. The reply
+  // might be given after the message handler has returned.
+  void messageReplied(TACMessage message, String reply) {
+    sendMessage(reply);
+    synchronized (inBuffer) {
+      if (currentMessage == message) {
+	currentMessage = null;
+	startDeliverer();
+      }
     }
-    message.doReply();
   }
 
-  protected void doSendMessage(Object messageObject) throws IOException {
-    String message = (String) messageObject;
+  void sendMessage(String message) {
     log.finest("XML_OUT(" + getName() + "): " + message);
-    writer.write(HEADER);
-    writer.write(message);
-    writer.write('\0');
-    writer.flush();
+    byte[] content = message.getBytes();
+    ByteBuffer data =
+      ByteBuffer.allocate(HEADER.length + content.length + 1);
+    data.put(HEADER).put(content).put(EOM).flip();
+    write(data);
+  }
+
+  // Sends information pushed to a subscriber. The pushes are not replies
+  // to the agent's requests and are not limited by the reading from the
+  // agent, so a subscriber that stops reading is closed (which also
+  // removes its subscription).
+  void sendPush(String message) {
+    if (getQueuedWrites() >= MAX_QUEUED_PUSHES) {
+      log.warning(getName() + ": closing subscriber with "
+		  + MAX_QUEUED_PUSHES + " unsent messages");
+      closeImmediately();
+    } else {
+      sendMessage(message);
+    }
   }
 
   // DEBUG FINALIZE REMOVE THIS!!! REMOVE THIS!!!
@@ -183,4 +266,27 @@ public class TACConnection extends InetConnection {
     super.finalize();
   }
 
+
+  // -------------------------------------------------------------------
+  // MessageDeliverer
+  // -------------------------------------------------------------------
+
+  private static class MessageDeliverer implements Runnable {
+
+    private final TACConnection connection;
+
+    MessageDeliverer(TACConnection connection) {
+      this.connection = connection;
+    }
+
+    public void run() {
+      connection.deliverMessages();
+    }
+
+    public String toString() {
+      return "MessageDeliverer[" + connection.getName() + ','
+	+ connection.getRemoteHost() + ']';
+    }
+  }
+
 } // TACConnection
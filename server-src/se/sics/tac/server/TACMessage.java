@@ -70,6 +70,10 @@ public class TACMessage {
     return connection;
   }
 
+  String getMessage() {
+    return message;
+  }
+
 
   // -------------------------------------------------------------------
   // Message parsing
@@ -244,37 +248,19 @@ public class TACMessage {
 	  + "</commandStatus></" + type + '>');
   }
 
-  private synchronized void reply(String message) {
-    if (this.replyMessage != null) {
-      throw new IllegalStateException("message " + type + " from "
-				      + connection.getName()
-				      + " already replied");
-    }
-    this.replyMessage = message;
-    notify();
-  }
-
-  synchronized void waitForReply() throws InterruptedException {
-    while (this.replyMessage == null) {
-      wait(10000);
-    }
-  }
-
-  // Called by TACConnection when it is time to reply
-  void doReply() {
-    if (hasReplied) {
-      throw new IllegalStateException("message " + type + " from "
-				      + connection.getName()
-				      + " already replied");
-    }
-    if (replyMessage == null) {
-      throw new IllegalStateException("message " + type + " from "
-				      + connection.getName()
-				      + " has no reply");
+  // The reply is sent directly and the connection can then continue with
+  // its next message
+  private void reply(String message) {
+    synchronized (this) {
+      if (this.replyMessage != null) {
+	throw new IllegalStateException("message " + type + " from "
+					+ connection.getName()
+					+ " already replied");
+      }
+      this.replyMessage = message;
     }
-
     hasReplied = true;
-    connection.sendMessage(replyMessage);
+    connection.messageReplied(this, message);
   }
 
 } // TACMessage
@@ -27,7 +27,7 @@
 
 package se.sics.tac.server;
 import java.io.IOException;
-import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Timer;
@@ -36,14 +36,15 @@ import java.util.logging.Logger;
 
 import com.botbox.util.ArrayUtils;
 import com.botbox.util.ThreadPool;
-import se.sics.isl.inet.InetServer;
+import se.sics.isl.inet.NioConnection;
+import se.sics.isl.inet.NioServer;
 import se.sics.isl.util.AMonitor;
 import se.sics.isl.util.AdminMonitor;
 import se.sics.isl.util.ArgumentManager;
 import se.sics.isl.util.ConfigManager;
 import se.sics.isl.util.LogFormatter;
 
-public class TACServer extends InetServer implements AMonitor {
+public class TACServer extends NioServer implements AMonitor {
 
   private static final Logger log =
     Logger.getLogger(TACServer.class.getName());
@@ -75,6 +76,9 @@ public class TACServer extends InetServer implements AMonitor {
   // agent (< 1 means unlimited number of connections)
   private int maxConnectionsPerAgent = 10;
 
+  /** Connections that information is pushed to (copied when changed) */
+  private volatile TACConnection[] subscribers;
+
   /** The Information Manager (and Information Server) */
   private final InfoServer infoServer;
 
@@ -83,6 +87,8 @@ public class TACServer extends InetServer implements AMonitor {
 				    config.getProperty("server.host")),
 	  config.getPropertyAsInt("tac.port", 6500));
 
+    // The thread pool only handles messages: the connections are read
+    // and written by the server thread.
     this.threadPool = ThreadPool.getThreadPool("tac");
     this.threadPool.setMinThreads(5);
     this.threadPool.setMaxThreads(100);
@@ -113,14 +119,15 @@ public class TACServer extends InetServer implements AMonitor {
     log.info("waiting for Info Server to start...");
 
     // The game list should be checked once per minute on the minute
-    long currentTime = System.currentTimeMillis();
+    // (in server time which might run faster than real time)
+    long currentTime = infoServer.getServerTime();
     // Games are always started/stopped on a minute so we need only to
     // check this once a minute.
     long nextTime = (currentTime / (60 * 1000)) * 60000 + 60000;
-    long delay = nextTime - currentTime;
+    long delay = infoServer.getRealDelay(nextTime - currentTime);
     Timer timer = infoServer.getTimer();
     timer.scheduleAtFixedRate(new GameTimer(this, GameTimer.CHECK_GAME),
-			      delay, 60000);
+			      delay, infoServer.getRealDelay(60000));
     // Start the timer for checking for silent (dead) agent connections
     timer.scheduleAtFixedRate(new GameTimer(this, GameTimer.CHECK_CONNECTIONS),
 			      delay + CHECK_ALIVE_PERIOD, CHECK_ALIVE_PERIOD);
@@ -154,7 +161,7 @@ public class TACServer extends InetServer implements AMonitor {
 
 
   // -------------------------------------------------------------------
-  //  Inet Server
+  //  Nio Server
   // -------------------------------------------------------------------
 
   protected void serverStarted() {
@@ -179,13 +186,15 @@ public class TACServer extends InetServer implements AMonitor {
     log.severe("tac server has closed");
   }
 
-  protected void newConnection(Socket socket) throws IOException {
+  protected NioConnection newConnection(SocketChannel socket)
+    throws IOException
+  {
     TACConnection channel =
       new TACConnection(getName() + '-' + (++connectionID), this, socket);
     addAgentConnection(channel);
     channel.setThreadPool(threadPool);
-    channel.start();
     log.fine("new agent: " + channel.getName());
+    return channel;
   }
 
 
@@ -234,6 +243,10 @@ public class TACServer extends InetServer implements AMonitor {
 
   void removeAgentConnection(TACConnection connection) {
     synchronized (agentLock) {
+      if (subscribers != null) {
+	subscribers = (TACConnection[])
+	  ArrayUtils.remove(subscribers, connection);
+      }
       int index = ArrayUtils.indexOf(agentConnections,
 				     0, agentConnectionNumber,
 				     connection);
@@ -314,6 +327,86 @@ public class TACServer extends InetServer implements AMonitor {
 
 
 
+  // -------------------------------------------------------------------
+  // Subscriptions - information pushed to agents as it happens
+  // -------------------------------------------------------------------
+
+  void addSubscription(TACConnection connection) {
+    synchronized (agentLock) {
+      if (ArrayUtils.indexOf(subscribers, connection) < 0
+	  && !connection.isClosed()) {
+	subscribers = (TACConnection[])
+	  ArrayUtils.add(TACConnection.class, subscribers, connection);
+      }
+    }
+  }
+
+  // The information is pushed directly by the auction (the connections
+  // never block when sending) which keeps it in the order it happened.
+  // Subscribers that do not read the pushes are closed.
+  void quoteUpdated(Quote quote) {
+    TACConnection[] subscribers = this.subscribers;
+    if (subscribers != null) {
+      Game game = quote.getAuction().getMarket().getGame();
+      for (int i = 0, n = subscribers.length; i < n; i++) {
+	User user = subscribers[i].getUser();
+	if (game.isParticipant(user)) {
+	  subscribers[i].sendPush("<pushQuote>"
+				     + quote.generatePushFields(user)
+				     + "</pushQuote>");
+	}
+      }
+    }
+  }
+
+  void bidUpdated(Bid bid) {
+    TACConnection[] subscribers = this.subscribers;
+    if (subscribers != null) {
+      String message = null;
+      for (int i = 0, n = subscribers.length; i < n; i++) {
+	if (subscribers[i].getUser() == bid.getUser()) {
+	  if (message == null) {
+	    message = "<pushBidInfo><bidID>" + bid.getBidID() + "</bidID>"
+	      + "<auctionID>" + bid.getAuctionID() + "</auctionID>"
+	      + bid.generateFields(false) + "</pushBidInfo>";
+	  }
+	  subscribers[i].sendPush(message);
+	}
+      }
+    }
+  }
+
+  void transaction(Transaction transaction) {
+    TACConnection[] subscribers = this.subscribers;
+    if (subscribers != null) {
+      for (int i = 0, n = subscribers.length; i < n; i++) {
+	User user = subscribers[i].getUser();
+	if (transaction.isParticipant(user)) {
+	  subscribers[i].sendPush("<pushTransaction><transID>"
+				     + transaction.getID() + "</transID>"
+				     + transaction.generateFields(user)
+				     + "</pushTransaction>");
+	}
+      }
+    }
+  }
+
+  void auctionClosed(Auction auction) {
+    TACConnection[] subscribers = this.subscribers;
+    if (subscribers != null) {
+      Game game = auction.getMarket().getGame();
+      String message = "<pushAuctionClosed><auctionID>" + auction.getID()
+	+ "</auctionID></pushAuctionClosed>";
+      for (int i = 0, n = subscribers.length; i < n; i++) {
+	if (game.isParticipant(subscribers[i].getUser())) {
+	  subscribers[i].sendPush(message);
+	}
+      }
+    }
+  }
+
+
+
   // -------------------------------------------------------------------
   // Handling of dead connections
   // -------------------------------------------------------------------
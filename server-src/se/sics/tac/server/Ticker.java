@@ -36,19 +36,17 @@ final class Ticker extends TimerTask {
   private static final Logger log = Logger.getLogger(Ticker.class.getName());
 
   private final Market market;
-  private long maxDelay = 0L;
+  private long nextTime = 0L;
 
   public Ticker(Market market) {
     this.market = market;
   }
 
   public void run() {
-    maxDelay -= 1000;
-    if (maxDelay <= 0) {
+    long currentTime = market.infoManager.getServerTime();
+    if (currentTime >= nextTime) {
       try {
-	long currentTime = market.infoManager.getServerTime();
-	long nextEarliestTime = market.tickPerformed(currentTime);
-	maxDelay = nextEarliestTime - currentTime;
+	nextTime = market.tickPerformed(currentTime);
       } catch (Exception e) {
 	log.log(Level.SEVERE, "could not perform tick", e);
       }
@@ -38,10 +38,10 @@ public class TransactionHandler implements MessageHandler {
   }
 
   public void handleMessage(InfoManager infoManager, TACMessage message) {
-    Market market = infoManager.getMarket();
     User user = message.getUser();
+    Market market = infoManager.getMarket(user);
     // Allow transaction information retrieval between games
-    if (market == null || !market.getGame().isParticipant(user)) {
+    if (market == null) {
       message.replyError(TACException.NOT_MEMBER_OF_GAME);
       return;
     }
@@ -37,6 +37,7 @@ import se.sics.tac.server.GameParamHandler;
 import se.sics.tac.server.InfoManager;
 import se.sics.tac.server.Market;
 import se.sics.tac.server.QuoteHandler;
+import se.sics.tac.server.SubscriptionHandler;
 import se.sics.tac.server.SystemHandler;
 import se.sics.tac.server.TACServer;
 import se.sics.tac.server.TransactionHandler;
@@ -74,12 +75,14 @@ public class ClassicGameManager extends GameManager {
     QuoteHandler quoteHandler = new QuoteHandler();
     TransactionHandler transHandler = new TransactionHandler();
     SystemHandler systemHandler = new SystemHandler();
+    SubscriptionHandler subscriptionHandler = new SubscriptionHandler();
     bidHandler.registerAt(tacServer);
     transHandler.registerAt(tacServer);
     gameHandler.registerAt(tacServer);
     gameParamHandler.registerAt(tacServer);
     quoteHandler.registerAt(tacServer);
     systemHandler.registerAt(tacServer);
+    subscriptionHandler.registerAt(tacServer);
   }
 
   public Game createGame(String gameType) {
@@ -26,15 +26,22 @@
  */
 
 package se.sics.tac.server.classic;
+import java.util.Hashtable;
+
 import se.sics.tac.server.*;
 
 public class DoubleContinuousAuction extends Auction {
 
   private int quotePeriod = 30000;
-  private Order[] buyOrders = new Order[16];
-  private int buyNumber = 0;
-  private Order[] sellOrders = new Order[16];
-  private int sellNumber = 0;
+  // The best buy order (highest price) and the best sell order (lowest
+  // price) are first. Orders with the same price are first come first
+  // served.
+  private OrderHeap buyOrders = new OrderHeap(true);
+  private OrderHeap sellOrders = new OrderHeap(false);
+  // The orders of the active bid of each user (a user can only have one
+  // active bid)
+  private Hashtable userOrders = new Hashtable();
+  private long orderNumber = 0L;
 
   public DoubleContinuousAuction(Market market, int type, int day,
 				 long closeTime) {
@@ -57,23 +64,19 @@ public class DoubleContinuousAuction extends Auction {
 
   protected synchronized void closeAuction(long time) {
     // All bids not completely transacted are now expired
-    expireBids(buyOrders, buyNumber, time);
-    buyNumber = 0;
-    expireBids(sellOrders, sellNumber, time);
-    sellNumber = 0;
+    expireBids(buyOrders, time);
+    expireBids(sellOrders, time);
+    userOrders.clear();
   }
 
   protected synchronized boolean isBidActive(Bid bid) {
-    return containsBid(buyOrders, buyNumber, bid)
-      || containsBid(sellOrders, sellNumber, bid);
+    UserOrders orders = (UserOrders) userOrders.get(bid.getUser());
+    return orders != null && orders.bid == bid;
   }
 
   protected synchronized Bid getActiveBid(User user) {
-    Bid bid = getBidForUser(buyOrders, buyNumber, user);
-    if (bid == null) {
-      bid = getBidForUser(sellOrders, sellNumber, user);
-    }
-    return bid;
+    UserOrders orders = (UserOrders) userOrders.get(user);
+    return orders != null ? orders.bid : null;
   }
 
   protected synchronized void submitBid(Bid bid) {
@@ -95,19 +98,28 @@ public class DoubleContinuousAuction extends Auction {
 
     } else {
       // Match current sell points with the new bid
-      buyNumber = match(buyOrders, buyNumber, bid, time, true);
+      match(buyOrders, bid, time, true);
       // Match current buy points with the new bid
-      sellNumber = match(sellOrders, sellNumber, bid, time, false);
+      match(sellOrders, bid, time, false);
 
       // Add the remaining bid points
-      for (int i = 0, n = list.size(); i < n; i++) {
-	int quantity = list.getQuantityAt(i);
-	double price = list.getPriceAt(i);
-	if (quantity < 0) {
-	  addSellOrder(new Order(-quantity, price, bid));
-	} else {
-	  addBuyOrder(new Order(quantity, price, bid));
+      int n = list.size();
+      if (n > 0) {
+	UserOrders orders = new UserOrders(bid, n);
+	for (int i = 0; i < n; i++) {
+	  int quantity = list.getQuantityAt(i);
+	  double price = list.getPriceAt(i);
+	  Order order;
+	  if (quantity < 0) {
+	    order = new Order(-quantity, price, bid, true, orderNumber++);
+	    sellOrders.add(order);
+	  } else {
+	    order = new Order(quantity, price, bid, false, orderNumber++);
+	    buyOrders.add(order);
+	  }
+	  orders.orders[i] = order;
 	}
+	userOrders.put(bid.getUser(), orders);
       }
     }
 
@@ -128,8 +140,8 @@ public class DoubleContinuousAuction extends Auction {
 
   // Note: MAY ONLY BE CALLED SYNCHRONIZED
   private void maybeUpdateQuote(long time) {
-    double askPrice = sellNumber > 0 ? sellOrders[0].price : 0.0;
-    double bidPrice = buyNumber > 0 ? buyOrders[0].price : 0.0;
+    double askPrice = sellOrders.size > 0 ? sellOrders.first().price : 0.0;
+    double bidPrice = buyOrders.size > 0 ? buyOrders.first().price : 0.0;
     // Only update the quote if needed
     if ((askPrice != quote.getAskPrice())
 	|| (bidPrice != quote.getBidPrice())) {
@@ -138,15 +150,14 @@ public class DoubleContinuousAuction extends Auction {
     }
   }
 
-  private void expireBids(Order[] orders, int len, long time) {
-    for (int i = 0; i < len; i++) {
-      Bid bid = orders[i].bid;
+  private void expireBids(OrderHeap orders, long time) {
+    for (int i = 0, n = orders.size; i < n; i++) {
+      Bid bid = orders.orders[i].bid;
       if (bid.getTimeClosed() == 0L) {
 	bid.setExpired(time);
       }
-      // Allow the orders to be garbaged
-      orders[i] = null;
     }
+    orders.clear();
   }
 
 
@@ -155,61 +166,11 @@ public class DoubleContinuousAuction extends Auction {
    *********************************************************************/
 
   // NOTE: may only be called synchronized on this object
-  private void addBuyOrder(Order order) {
-    // Find the right index
-    int index = buyNumber;
-    for (int i = 0; i < buyNumber; i++) {
-      if (order.price > buyOrders[i].price) {
-	index = i;
-	break;
-      }
-    }
-
-    if (buyNumber == buyOrders.length) {
-      Order[] tmp = new Order[buyNumber + 16];
-      System.arraycopy(buyOrders, 0, tmp, 0, buyNumber);
-      buyOrders = tmp;
-    }
-
-    if (index < buyNumber) {
-      System.arraycopy(buyOrders, index, buyOrders, index + 1,
-		       buyNumber - index);
-    }
-    buyNumber++;
-    buyOrders[index] = order;
-  }
-
-  // NOTE: may only be called synchronized on this object
-  private void addSellOrder(Order order) {
-    // Find the right index
-    int index = sellNumber;
-    for (int i = 0; i < sellNumber; i++) {
-      if (order.price < sellOrders[i].price) {
-	index = i;
-	break;
-      }
-    }
-
-    if (sellNumber == sellOrders.length) {
-      Order[] tmp = new Order[sellNumber + 16];
-      System.arraycopy(sellOrders, 0, tmp, 0, sellNumber);
-      sellOrders = tmp;
-    }
-
-    if (index < sellNumber) {
-      System.arraycopy(sellOrders, index, sellOrders, index + 1,
-		       sellNumber - index);
-    }
-    sellNumber++;
-    sellOrders[index] = order;
-  }
-
-  // NOTE: may only be called synchronized on this object
-  private int match(Order[] orders, int number, Bid bid,
-		    long time, boolean matchSell) {
+  private void match(OrderHeap orders, Bid bid, long time,
+		     boolean matchSell) {
     BidList list = bid.getBidList();
-    while (number > 0) {
-      Order order = orders[0];
+    while (orders.size > 0) {
+      Order order = orders.first();
       double price = order.price;
       int matched = matchSell
 	? list.removeSellPoints(order.quantity, price)
@@ -232,11 +193,13 @@ public class DoubleContinuousAuction extends Auction {
 	order.quantity -= matched;
 	if (order.quantity == 0) {
 	  // Remove first order because it is now empty
-	  number--;
-	  if (number > 0) {
-	    System.arraycopy(orders, 1, orders, 0, number);
+	  orders.remove(order);
+	  UserOrders userOrders =
+	    (UserOrders) this.userOrders.get(order.bid.getUser());
+	  if (--userOrders.remaining == 0) {
+	    // No orders left for the bid
+	    this.userOrders.remove(order.bid.getUser());
 	  }
-	  orders[number] = null;
 	} else {
 	  break;
 	}
@@ -244,61 +207,146 @@ public class DoubleContinuousAuction extends Auction {
 	break;
       }
     }
-    return number;
-  }
-
-  private boolean containsBid(Order[] orders, int len, Bid bid) {
-    for (int i = 0; i < len; i++) {
-      if (orders[i].bid == bid) {
-	return true;
-      }
-    }
-    return false;
-  }
-
-  private Bid getBidForUser(Order[] orders, int len, User user) {
-    for (int i = 0; i < len; i++) {
-      if (orders[i].bid.getUser() == user) {
-	return orders[i].bid;
-      }
-    }
-    return null;
   }
 
   // NOTE: may only be called synchronized on this object
   private void removeBid(Bid bid) {
-    buyNumber = removeBid(buyOrders, buyNumber, bid);
-    sellNumber = removeBid(sellOrders, sellNumber, bid);
-  }
-
-  // NOTE: may only be called synchronized on this object
-  private int removeBid(Order[] orders, int number, Bid bid) {
-    for (int i = number - 1; i >= 0; i--) {
-      if (orders[i].bid == bid) {
-	number--;
-	if (i < number) {
-	  System.arraycopy(orders, i + 1, orders, i, number - i);
+    UserOrders orders = (UserOrders) userOrders.get(bid.getUser());
+    if (orders != null && orders.bid == bid) {
+      userOrders.remove(bid.getUser());
+      for (int i = 0, n = orders.orders.length; i < n; i++) {
+	Order order = orders.orders[i];
+	// Orders already transacted are no longer in the heaps
+	if (order.index >= 0) {
+	  (order.isSell ? sellOrders : buyOrders).remove(order);
 	}
-	orders[number] = null;
       }
     }
-    return number;
   }
 
 
   /*********************************************************************
-   * Data container for orders
+   * Data containers for orders
    *********************************************************************/
 
   private static class Order {
     public int quantity;
     public final double price;
     public final Bid bid;
+    public final boolean isSell;
+    public final long number;
+    // The position in the order heap or -1 if not in the heap
+    public int index = -1;
 
-    public Order(int quantity, double price, Bid bid) {
+    public Order(int quantity, double price, Bid bid, boolean isSell,
+		 long number) {
       this.quantity = quantity;
       this.price = price;
       this.bid = bid;
+      this.isSell = isSell;
+      this.number = number;
+    }
+  }
+
+  private static class UserOrders {
+    public final Bid bid;
+    public final Order[] orders;
+    public int remaining;
+
+    public UserOrders(Bid bid, int size) {
+      this.bid = bid;
+      this.orders = new Order[size];
+      this.remaining = size;
+    }
+  }
+
+  // A binary heap of orders in price-time priority
+  private static class OrderHeap {
+    private final boolean isBuy;
+    public Order[] orders = new Order[16];
+    public int size = 0;
+
+    public OrderHeap(boolean isBuy) {
+      this.isBuy = isBuy;
+    }
+
+    public Order first() {
+      return orders[0];
+    }
+
+    public void add(Order order) {
+      if (size == orders.length) {
+	Order[] tmp = new Order[size * 2];
+	System.arraycopy(orders, 0, tmp, 0, size);
+	orders = tmp;
+      }
+      order.index = size;
+      orders[size++] = order;
+      moveUp(order.index);
+    }
+
+    public void remove(Order order) {
+      int index = order.index;
+      Order last = orders[--size];
+      orders[size] = null;
+      order.index = -1;
+      if (index < size) {
+	orders[index] = last;
+	last.index = index;
+	moveDown(index);
+	moveUp(last.index);
+      }
+    }
+
+    public void clear() {
+      for (int i = 0; i < size; i++) {
+	orders[i].index = -1;
+	// Allow the orders to be garbaged
+	orders[i] = null;
+      }
+      size = 0;
+    }
+
+    private boolean isBefore(Order o1, Order o2) {
+      if (o1.price != o2.price) {
+	return isBuy ? o1.price > o2.price : o1.price < o2.price;
+      }
+      return o1.number < o2.number;
+    }
+
+    private void moveUp(int index) {
+      Order order = orders[index];
+      while (index > 0) {
+	int parent = (index - 1) / 2;
+	if (!isBefore(order, orders[parent])) {
+	  break;
+	}
+	orders[index] = orders[parent];
+	orders[index].index = index;
+	index = parent;
+      }
+      orders[index] = order;
+      order.index = index;
+    }
+
+    private void moveDown(int index) {
+      Order order = orders[index];
+      int half = size / 2;
+      while (index < half) {
+	int child = 2 * index + 1;
+	int right = child + 1;
+	if (right < size && isBefore(orders[right], orders[child])) {
+	  child = right;
+	}
+	if (!isBefore(orders[child], order)) {
+	  break;
+	}
+	orders[index] = orders[child];
+	orders[index].index = index;
+	index = child;
+      }
+      orders[index] = order;
+      order.index = index;
     }
   }
 
@@ -188,7 +188,7 @@ public class DummyAgent extends BuiltinAgent implements SolveListener {
 
   private synchronized void requestSolve() {
     if (solveTimer == null) {
-      solveTimer = new AgentTimer(this, 10000);
+      solveTimer = new AgentTimer(this, (int) getRealDelay(10000));
     }
   }
 
@@ -49,6 +49,12 @@ public class EngAscAuction extends Auction {
     this.quotePeriod = quotePeriod * 1000;
   }
 
+  // Sets the number of units for sale.
+  // Must be called before the auction is opened
+  void setUnitsToSell(int unitsToSell) {
+    this.unitsToSell = unitsToSell;
+  }
+
   protected void openAuction(long openTime) {
     // Quote updates once per minute on the minute
     // ask, bid, nextQuoteTime
@@ -159,35 +165,39 @@ public class EngAscAuction extends Auction {
 
   // Note: MAY ONLY BE CALLED SYNCHRONIZED
   private int[] performBidsUpdate(long nextQuoteTime) {
-    // Allow one more bid among the accepted bids because we need the
-    // highest drop out bid for the bid price in the next quote.
-    Bid[] bids = new Bid[unitsToSell + 1];
-    double[] prices = new double[unitsToSell + 1];
-    int bidsLen = 0;
-    int index;
+    // Allow one more unit among the accepted units because we need the
+    // highest drop out unit for the bid price in the next quote.
+    int maxUnits = unitsToSell + 1;
+    // The accepted units as the index of the bid among the active bids
+    // and the price of each unit
+    int[] unitBids = new int[maxUnits];
+    double[] prices = new double[maxUnits];
+    // The accepted units as a heap with the lowest price first
+    int[] heap = new int[maxUnits];
+    int units = 0;
 
     for (int i = 0; i < bidNumber; i++) {
-      Bid bid = activeBids[i];
-      BidList list = bid.getBidList();
+      BidList list = activeBids[i].getBidList();
       for (int j = 0, n = list.size(); j < n; j++) {
 	double price = list.getPriceAt(j);
 	for (int p = 0, pn = list.getQuantityAt(j); p < pn; p++) {
-	  if (bidsLen <= unitsToSell) {
+	  if (units < maxUnits) {
 	    // No bid for all units yet
-	    bids[bidsLen] = bid;
-	    prices[bidsLen++] = price;
+	    unitBids[units] = i;
+	    prices[units] = price;
+	    heap[units] = units;
+	    moveUp(heap, units++, prices);
+	  } else if (prices[heap[0]] < price) {
+	    // Replace the lowest unit
+	    unitBids[heap[0]] = i;
+	    prices[heap[0]] = price;
+	    moveDown(heap, units, prices);
 	  } else {
-	    index = getMinPrice(prices, bidsLen);
-	    if (prices[index] < price) {
-	      bids[index] = bid;
-	      prices[index] = price;
-	    } else {
-	      // No more units for this price can be added.
-	      // (this is also a constraint because a limited unit bids
-	      //  can be added for a specific price which means this
-	      //  iteration will break after at most unitsToSell loops)
-	      break;
-	    }
+	    // No more units for this price can be added.
+	    // (this is also a constraint because a limited unit bids
+	    //  can be added for a specific price which means this
+	    //  iteration will break after at most unitsToSell loops)
+	    break;
 	  }
 	}
       }
@@ -196,7 +206,7 @@ public class EngAscAuction extends Auction {
     double bidPrice;
     double askPrice;
     int[] hqw;
-    if (bidsLen == 0) {
+    if (units == 0) {
       // No bids
       askPrice = 0.0;
       bidPrice = quote.getBidPrice();
@@ -212,62 +222,67 @@ public class EngAscAuction extends Auction {
       }
 
       // Find new bid price and remove the drop out bid
-      if (bidsLen > unitsToSell) {
-	// The bid list contains the highest dropped out unit price
-	index = getMinPrice(prices, bidsLen);
-	bidPrice = prices[index];
+      if (units > unitsToSell) {
+	// The heap starts with the highest dropped out unit price
+	bidPrice = prices[heap[0]];
 	// Remove the drop out bid
-	bidsLen--;
-	prices[index] = prices[bidsLen];
-	bids[index] = bids[bidsLen];
+	heap[0] = heap[--units];
+	moveDown(heap, units, prices);
       } else {
 	bidPrice = quote.getBidPrice();
       }
 
-      for (int i = 0, hqwLen = hqw.length; i < bidsLen; i++) {
-	index = indexOfBid(hqw, 0, hqwLen, bids[i]);
-	if (index >= 0) {
-	  hqw[index + 2]++;
-	} else {
-	  // This should not be possible. FIX THIS!!!
-	  java.util.logging.Logger.global
-	    .severe("COULD NOT FIND ACTIVE BID " + bids[i].getBidID()
-		    + " AMONG ACTIVE BIDS!!!");
-	}
+      for (int i = 0; i < units; i++) {
+	hqw[unitBids[heap[i]] * 3 + 2]++;
       }
 
       // Calculate next ask price. The ask price is the lowest price among
       // the accepted bids and 0 if there is no bid for all the units.
-      askPrice = bidsLen >= unitsToSell
-	? prices[getMinPrice(prices, bidsLen)]
-	: 0.0;
+      askPrice = units >= unitsToSell ? prices[heap[0]] : 0.0;
     }
     setQuoteInfo(askPrice, bidPrice, nextQuoteTime);
     setHQW(hqw);
     return hqw;
   }
 
-  private int indexOfBid(int[] hqw, int start, int len, Bid bid) {
-    int id = bid.getBidID();
-    for (int i = start; i < len; i += 3) {
-      if (hqw[i + 1] == id) {
-	return i;
+  // Units with the same price are ordered as they were first added (the
+  // unit dropped out is the same as when looking for the first unit with
+  // the lowest price)
+  private boolean isLower(int unit1, int unit2, double[] prices) {
+    return prices[unit1] < prices[unit2]
+      || (prices[unit1] == prices[unit2] && unit1 < unit2);
+  }
+
+  private void moveUp(int[] heap, int index, double[] prices) {
+    int unit = heap[index];
+    while (index > 0) {
+      int parent = (index - 1) / 2;
+      if (!isLower(unit, heap[parent], prices)) {
+	break;
       }
+      heap[index] = heap[parent];
+      index = parent;
     }
-    return -1;
+    heap[index] = unit;
   }
 
-  // Note: assumes len > 0
-  private int getMinPrice(double[] prices, int len) {
+  // Moves the first unit down to its place in the heap
+  private void moveDown(int[] heap, int len, double[] prices) {
+    int unit = heap[0];
     int index = 0;
-    double price = prices[0];
-    for (int i = 1; i < len; i++) {
-      if (prices[i] < price) {
-	index = i;
-	price = prices[i];
+    int half = len / 2;
+    while (index < half) {
+      int child = 2 * index + 1;
+      if (child + 1 < len && isLower(heap[child + 1], heap[child], prices)) {
+	child++;
+      }
+      if (!isLower(heap[child], unit, prices)) {
+	break;
       }
+      heap[index] = heap[child];
+      index = child;
     }
-    return index;
+    heap[index] = unit;
   }
 
 } // EngAscAuction
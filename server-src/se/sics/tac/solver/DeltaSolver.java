@@ -0,0 +1,36 @@
+/**
+ * -----------------------------------------------------------------
+ *
+ * DeltaSolver
+ *
+ * Purpose : Solver that can reuse the result of a previous solve when
+ *	     the owned goods only grew by a few copies of one good
+ *
+ */
+
+package se.sics.tac.solver;
+
+public interface DeltaSolver extends Solver {
+
+  /**
+   * Returns the result of the latest solve, for use as the parent of a
+   * later delta solve.
+   */
+  public SolveResult getLatestResult();
+
+  /**
+   * Adds copies of one good to the owns set by setClientData and solves
+   * again. The parent must be the result for the owns before the change.
+   * With a positive quantity the search starts from the parent's score and
+   * allocation, as owning more can never lower the utility. Otherwise this
+   * is the same as a full solve.
+   *
+   * @param parent the result before adding the goods
+   * @param day the day, as in the owns of setClientData
+   * @param type the type, as in the owns of setClientData
+   * @param quantity the number of copies to add
+   * @return the utility
+   */
+  public int solveDelta(SolveResult parent, int day, int type, int quantity);
+
+} // DeltaSolver